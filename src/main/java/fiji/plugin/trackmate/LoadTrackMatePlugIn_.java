@@ -8,6 +8,7 @@ import fiji.plugin.trackmate.gui.TrackMateGUIController;
 import fiji.plugin.trackmate.gui.descriptors.ConfigureViewsDescriptor;
 import fiji.plugin.trackmate.gui.descriptors.SomeDialogDescriptor;
 import fiji.plugin.trackmate.io.IOUtils;
+import fiji.plugin.trackmate.io.ModelJournal;
 import fiji.plugin.trackmate.io.TmXmlReader;
 import fiji.plugin.trackmate.io.TmXmlReader_v12;
 import fiji.plugin.trackmate.io.TmXmlReader_v20;
@@ -171,6 +172,9 @@ public class LoadTrackMatePlugIn_ extends SomeDialogDescriptor implements PlugIn
 			logger.error( "Problem reading the model:\n" + reader.getErrorMessage() );
 		}
 
+		// Edits journaled since the file was last saved.
+		final int nJournaled = recoverJournal( file, logger );
+
 		// Settings -> empty for now.
 		settings = createSettings();
 
@@ -207,6 +211,14 @@ public class LoadTrackMatePlugIn_ extends SomeDialogDescriptor implements PlugIn
 			logger.error( "Problem reading the settings:\n" + reader.getErrorMessage() );
 		}
 
+		// Edge and track features are not journaled.
+		if ( nJournaled > 0 )
+		{
+			trackmate.computeEdgeFeatures( true );
+			trackmate.computeTrackFeatures( true );
+		}
+		ModelJournal.attach( model, file, logger );
+
 		// Hook actions
 		postRead( trackmate );
 
@@ -335,6 +347,43 @@ public class LoadTrackMatePlugIn_ extends SomeDialogDescriptor implements PlugIn
 		return new TrackMate( model, settings );
 	}
 
+	/**
+	 * Replaces the model by the one of the journal snapshot of the specified
+	 * file if there is one, and replays the journaled edits on it. The file
+	 * itself is not modified.
+	 *
+	 * @return the number of edits replayed.
+	 */
+	private int recoverJournal( final File file, final Logger logger )
+	{
+		if ( !ModelJournal.hasJournal( file ) ) { return 0; }
+
+		final File snapshotFile = ModelJournal.snapshotFileFor( file );
+		if ( snapshotFile.exists() )
+		{
+			final TmXmlReader snapshotReader = createReader( snapshotFile );
+			final Model snapshot = snapshotReader.isReadingOk() ? snapshotReader.getModel() : null;
+			if ( null == snapshot || !snapshotReader.isReadingOk() )
+			{
+				logger.error( "Could not read the snapshot of unsaved edits " + snapshotFile.getName() + ":\n" + snapshotReader.getErrorMessage() + '\n' );
+				return 0;
+			}
+			model = snapshot;
+		}
+
+		try
+		{
+			final int nRecords = ModelJournal.replay( model, file, logger );
+			logger.log( "Recovered unsaved edits from " + ModelJournal.journalFileFor( file ).getName() + " (" + nRecords + " records). " + file.getName() + " was not modified: save to keep them.\n", Logger.GREEN_COLOR );
+			return nRecords;
+		}
+		catch ( final IOException e )
+		{
+			logger.error( "Could not replay the journal of unsaved edits:\n" + e.getMessage() + '\n' );
+			return 0;
+		}
+	}
+
 	/**
 	 * Hook for subclassers: <br>
 	 * Creates the {@link TmXmlReader} instance that will be used to load the
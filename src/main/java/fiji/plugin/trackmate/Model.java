@@ -523,6 +523,56 @@ public class Model
 		return spotToAdd;
 	}
 
+	/**
+	 * Adds in bulk a new track to this model. The specified spots are added to
+	 * the frame stored in their {@link Spot#FRAME} feature, then linked by the
+	 * specified edges in a single pass. This is much faster than adding spots
+	 * and edges one by one for large tracks, but the spots must not already
+	 * belong to this model and must form a single connected component through
+	 * the specified edges.
+	 * <p>
+	 * For the model update to happen correctly and listeners to be notified
+	 * properly, a call to this method must happen within a transaction, as in:
+	 *
+	 * <pre>
+	 * model.beginUpdate();
+	 * try {
+	 * 	... // model modifications here
+	 * } finally {
+	 * 	model.endUpdate();
+	 * }
+	 * </pre>
+	 *
+	 * @param trackSpots
+	 *            the spots of the new track.
+	 * @param sources
+	 *            the source spot of each new edge.
+	 * @param targets
+	 *            the target spot of each new edge.
+	 * @param weights
+	 *            the weight of each new edge.
+	 * @param name
+	 *            the name of the new track. If <code>null</code>, a default
+	 *            name is generated.
+	 * @param visible
+	 *            the visibility of the new track.
+	 * @return the ID of the new track, or <code>null</code> if no edges were
+	 *         specified.
+	 */
+	public synchronized Integer addTrack( final Set< Spot > trackSpots, final Spot[] sources, final Spot[] targets, final double[] weights, final String name, final boolean visible )
+	{
+		for ( final Spot spot : trackSpots )
+		{
+			spots.add( spot, Integer.valueOf( spot.getFeature( Spot.FRAME ).intValue() ) );
+		}
+		spotsAdded.addAll( trackSpots ); // TRANSACTION
+		if ( DEBUG )
+		{
+			System.out.println( "[TrackMateModel] Adding a track of " + trackSpots.size() + " spots and " + sources.length + " edges." );
+		}
+		return trackModel.addTrack( trackSpots, sources, targets, weights, name, visible );
+	}
+
 	/**
 	 * Removes a single spot from the collections managed by this model. If the
 	 * spot cannot be found, nothing is done and <code>null</code> is returned.
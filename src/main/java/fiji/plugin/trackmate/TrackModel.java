@@ -241,6 +241,77 @@ public class TrackModel
 
 	}
 
+	/**
+	 * Adds in bulk a new track to this model. The specified spots and edges
+	 * must not already belong to this model, and must form a single connected
+	 * component. The graph listener that maintains the connected sets is
+	 * bypassed: the new track is registered directly with a new ID, which
+	 * avoids merging sets one edge at a time. The new edges and the new track
+	 * ID are still recorded in the transaction fields.
+	 * <p>
+	 * It is the caller responsibility to ensure that the spots and edges
+	 * provided are coherent. Unexpected behavior might result otherwise.
+	 *
+	 * @param trackSpots
+	 *            the spots of the new track.
+	 * @param sources
+	 *            the source spot of each new edge.
+	 * @param targets
+	 *            the target spot of each new edge.
+	 * @param weights
+	 *            the weight of each new edge.
+	 * @param name
+	 *            the name of the new track. If <code>null</code>, a default
+	 *            name is generated.
+	 * @param visible
+	 *            the visibility of the new track.
+	 * @return the ID of the new track, or <code>null</code> if no edges were
+	 *         specified, in which case the spots are added as lonely spots.
+	 */
+	Integer addTrack( final Set< Spot > trackSpots, final Spot[] sources, final Spot[] targets, final double[] weights, final String name, final boolean visible )
+	{
+		final Set< DefaultWeightedEdge > edgeSet = new HashSet< DefaultWeightedEdge >( 2 * sources.length );
+		graph.removeGraphListener( mgl );
+		try
+		{
+			for ( final Spot spot : trackSpots )
+			{
+				graph.addVertex( spot );
+			}
+			for ( int i = 0; i < sources.length; i++ )
+			{
+				final DefaultWeightedEdge edge = graph.addEdge( sources[ i ], targets[ i ] );
+				graph.setEdgeWeight( edge, weights[ i ] );
+				edgeSet.add( edge );
+			}
+		}
+		finally
+		{
+			graph.addGraphListener( mgl );
+		}
+
+		if ( edgeSet.isEmpty() ) { return null; }
+
+		final Integer id = Integer.valueOf( IDcounter++ );
+		final Set< Spot > vertexSet = new HashSet< Spot >( trackSpots );
+		for ( final Spot spot : vertexSet )
+		{
+			vertexToID.put( spot, id );
+		}
+		for ( final DefaultWeightedEdge edge : edgeSet )
+		{
+			edgeToID.put( edge, id );
+		}
+		connectedVertexSets.put( id, vertexSet );
+		connectedEdgeSets.put( id, edgeSet );
+		visibility.put( id, Boolean.valueOf( visible ) );
+		names.put( id, null == name ? nameGenerator.next() : name );
+
+		edgesAdded.addAll( edgeSet );
+		tracksUpdated.add( id );
+		return id;
+	}
+
 	/*
 	 * DEFAULT VISIBILIT METHODS made to be called from the mother model.
 	 */
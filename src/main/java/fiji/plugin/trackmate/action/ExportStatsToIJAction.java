@@ -40,12 +40,37 @@ public class ExportStatsToIJAction extends AbstractTMAction
 
 		// Model
 		final Model model = trackmate.getModel();
-		final FeatureModel fm = model.getFeatureModel();
 
 		// Export spots
 		logger.log( "  - Exporting spot statistics..." );
+		final ResultsTable spotTable = createSpotTable( model );
+		logger.log( " Done.\n" );
+
+		// Export edges
+		logger.log( "  - Exporting links statistics..." );
+		final ResultsTable edgeTable = createEdgeTable( model );
+		logger.log( " Done.\n" );
+
+		// Export tracks
+		logger.log( "  - Exporting tracks statistics..." );
+		final ResultsTable trackTable = createTrackTable( model );
+		logger.log( " Done.\n" );
+
+		// Show tables
+		spotTable.show( "Spots in tracks statistics" );
+		edgeTable.show( "Links in tracks statistics" );
+		trackTable.show( "Track statistics" );
+	}
+
+	/**
+	 * Returns a new table with the features of the spots in visible tracks,
+	 * sorted by track then by frame.
+	 */
+	public static ResultsTable createSpotTable( final Model model )
+	{
+		final FeatureModel fm = model.getFeatureModel();
 		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( true );
-		final Collection< String > spotFeatures = trackmate.getModel().getFeatureModel().getSpotFeatures();
+		final Collection< String > spotFeatures = fm.getSpotFeatures();
 
 		// Create table
 		final ResultsTable spotTable = new ResultsTable();
@@ -85,10 +110,17 @@ public class ExportStatsToIJAction extends AbstractTMAction
 				}
 			}
 		}
-		logger.log( " Done.\n" );
+		return spotTable;
+	}
 
-		// Export edges
-		logger.log( "  - Exporting links statistics..." );
+	/**
+	 * Returns a new table with the numeric features of the edges in visible
+	 * tracks, sorted by track then by time.
+	 */
+	public static ResultsTable createEdgeTable( final Model model )
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( true );
 		// Yield available edge feature
 		final Collection< String > edgeFeatures = fm.getEdgeFeatures();
 
@@ -137,10 +169,16 @@ public class ExportStatsToIJAction extends AbstractTMAction
 
 			}
 		}
-		logger.log( " Done.\n" );
+		return edgeTable;
+	}
 
-		// Export tracks
-		logger.log( "  - Exporting tracks statistics..." );
+	/**
+	 * Returns a new table with the features of the visible tracks.
+	 */
+	public static ResultsTable createTrackTable( final Model model )
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( true );
 		// Yield available edge feature
 		final Collection< String > trackFeatures = fm.getTrackFeatures();
 
@@ -172,16 +210,9 @@ public class ExportStatsToIJAction extends AbstractTMAction
 				}
 			}
 		}
-		logger.log( " Done.\n" );
-
-		// Show tables
-		spotTable.show( "Spots in tracks statistics" );
-		edgeTable.show( "Links in tracks statistics" );
-		trackTable.show( "Track statistics" );
+		return trackTable;
 	}
 
-	// Invisible because called on the view config panel.
-	@Plugin( type = TrackMateActionFactory.class, visible = false )
 	public static class Factory implements TrackMateActionFactory
 	{
 
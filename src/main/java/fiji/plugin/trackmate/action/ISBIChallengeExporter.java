@@ -5,17 +5,12 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Date;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.swing.ImageIcon;
 
-import org.jdom2.Document;
-import org.jdom2.Element;
-import org.jdom2.output.Format;
-import org.jdom2.output.XMLOutputter;
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Logger;
@@ -26,6 +21,8 @@ import fiji.plugin.trackmate.TrackMate;
 import fiji.plugin.trackmate.gui.TrackMateGUIController;
 import fiji.plugin.trackmate.gui.TrackMateWizard;
 import fiji.plugin.trackmate.io.IOUtils;
+import fiji.plugin.trackmate.io.StreamingXmlWriter;
+import fiji.plugin.trackmate.util.ModelTools;
 
 public class ISBIChallengeExporter extends AbstractTMAction {
 
@@ -88,14 +85,17 @@ public class ISBIChallengeExporter extends AbstractTMAction {
 			return;
 		}
 
-		logger.log("  Preparing XML data.\n");
-		final Element root = marshall(model, settings);
+		logger.log("  Sorting tracks.\n");
+		final Map<Integer, Spot[]> sortedTracks = ModelTools.sortedTrackSpots(model, Spot.timeComparator, Runtime.getRuntime().availableProcessors());
 
 		logger.log("  Writing to file.\n");
-		final Document document = new Document(root);
-		final XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
 		try {
-			outputter.output(document, new FileOutputStream(file));
+			final StreamingXmlWriter writer = new StreamingXmlWriter(new FileOutputStream(file));
+			try {
+				write(writer, sortedTracks, settings, logger);
+			} finally {
+				writer.close();
+			}
 		} catch (final FileNotFoundException e) {
 			logger.error("Trouble writing to "+file+":\n" + e.getMessage());
 		} catch (final IOException e) {
@@ -104,11 +104,7 @@ public class ISBIChallengeExporter extends AbstractTMAction {
 		logger.log("Done.\n");
 	}
 
-	private static final Element marshall(final Model model, final Settings settings) {
-		final Logger logger = model.getLogger();
-
-		final Element root = new Element("root");
-		final Element content = new Element(CONTENT_KEY);
+	private static final void write(final StreamingXmlWriter writer, final Map<Integer, Spot[]> sortedTracks, final Settings settings, final Logger logger) throws IOException {
 
 		// Extract from file name
 		final String filename = settings.imageFileName; // VIRUS snr 7 density mid.tif
@@ -127,43 +123,48 @@ public class ISBIChallengeExporter extends AbstractTMAction {
 			snr_val = "?";
 			density_val = "?";
 		}
-		content.setAttribute(SNR_ATT, snr_val);
-		content.setAttribute(DENSITY_ATT, density_val);
-		content.setAttribute(SCENARIO_ATT, scenario_val);
-		content.setAttribute(DATE_ATT, new Date().toString());
 
-		logger.setStatus("Marshalling...");
-		final Integer[] visibleTracks = model.getTrackModel().trackIDs(true).toArray(new Integer[] {});
-		for (int i = 0 ; i < model.getTrackModel().nTracks(true) ; i++) {
+		writer.startElement("root");
+		writer.startElement(CONTENT_KEY);
+		writer.attribute(SNR_ATT, snr_val);
+		writer.attribute(DENSITY_ATT, density_val);
+		writer.attribute(SCENARIO_ATT, scenario_val);
+		writer.attribute(DATE_ATT, new Date().toString());
 
-			final Element trackElement = new Element(TRACK_KEY);
-			final int trackindex = visibleTracks[i];
-			final Set<Spot> track = model.getTrackModel().trackSpots(trackindex);
-			// Sort them by time
-			final TreeSet<Spot> sortedTrack = new TreeSet<Spot>(Spot.timeComparator);
-			sortedTrack.addAll(track);
+		logger.setStatus("Marshalling...");
+		final int ntracks = sortedTracks.size();
+		int i = 0;
+		for (final Spot[] track : sortedTracks.values()) {
+
+			writer.startElement(TRACK_KEY);
+			// Spots are sorted by time. Only one detection per time-point.
+			double previousTime = Double.NEGATIVE_INFINITY;
+			for (final Spot spot : track) {
+				final double time = spot.getFeature(Spot.POSITION_T).doubleValue();
+				if (time == previousTime) {
+					continue;
+				}
+				previousTime = time;
 
-			for (final Spot spot : sortedTrack) {
 				final int t = spot.getFeature(Spot.FRAME).intValue();
 				final double x = spot.getFeature(Spot.POSITION_X);
 				final double y = spot.getFeature(Spot.POSITION_Y);
 				final double z = spot.getFeature(Spot.POSITION_Z);
 
-				final Element spotElement = new Element(SPOT_KEY);
-				spotElement.setAttribute(T_ATT, ""+t);
-				spotElement.setAttribute(X_ATT, ""+x);
-				spotElement.setAttribute(Y_ATT, ""+y);
-				spotElement.setAttribute(Z_ATT, ""+z);
-				trackElement.addContent(spotElement);
+				writer.emptyElement(SPOT_KEY);
+				writer.attribute(T_ATT, ""+t);
+				writer.attribute(X_ATT, ""+x);
+				writer.attribute(Y_ATT, ""+y);
+				writer.attribute(Z_ATT, ""+z);
 			}
-			content.addContent(trackElement);
-			logger.setProgress(i / (0d + model.getTrackModel().nTracks(true)));
+			writer.endElement();
+			logger.setProgress(i++ / (0d + ntracks));
 		}
 
+		writer.endElement();
+		writer.endElement();
 		logger.setStatus("");
 		logger.setProgress(1);
-		root.addContent(content);
-		return root;
 	}
 
 
@@ -3,10 +3,12 @@
  */
 package fiji.plugin.trackmate.action;
 
+import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.TrackModel;
 import fiji.plugin.trackmate.gui.TrackMateGUIController;
 import fiji.plugin.trackmate.gui.TrackMateWizard;
 import fiji.plugin.trackmate.gui.descriptors.SomeDialogDescriptor;
@@ -18,11 +20,17 @@ import fiji.plugin.trackmate.util.Version;
 
 import java.awt.Frame;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.ImageIcon;
 
+import net.imglib2.multithreading.SimpleMultiThreading;
+
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
@@ -48,6 +56,8 @@ public class MergeFileAction extends AbstractTMAction {
 
 	private final Frame parent;
 
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+
 	public MergeFileAction( final Frame parent )
 	{
 		this.parent = parent;
@@ -87,67 +97,128 @@ public class MergeFileAction extends AbstractTMAction {
 		// Model
 		final Model modelToMerge = reader.getModel();
 		final Model model = trackmate.getModel();
-		final int nNewTracks = modelToMerge.getTrackModel().nTracks(true);
+		final TrackModel trackModelToMerge = modelToMerge.getTrackModel();
+		final Integer[] trackIDs = trackModelToMerge.trackIDs(true).toArray(new Integer[] {});
+		final int nNewTracks = trackIDs.length;
+
+		/*
+		 * Copy spots and edges of each track in parallel. The model to merge
+		 * is only read here, and the new spots are not yet in the current
+		 * model, so the workers do not need to synchronize.
+		 */
+
+		logger.log("Copying " + nNewTracks + " tracks.\n");
+		final MergedTrack[] mergedTracks = new MergedTrack[nNewTracks];
+		final AtomicInteger ai = new AtomicInteger(0);
+		final AtomicInteger progress = new AtomicInteger(0);
+		final Thread[] threads = SimpleMultiThreading.newThreads(numThreads);
+		for (int ithread = 0; ithread < threads.length; ithread++) {
+			threads[ithread] = new Thread("MergeFileAction copying thread " + (1 + ithread) + "/" + threads.length) {
+				@Override
+				public void run() {
+					for (int i = ai.getAndIncrement(); i < nNewTracks; i = ai.getAndIncrement()) {
+						mergedTracks[i] = copyTrack(trackModelToMerge, trackIDs[i]);
+						logger.setProgress(0.5 * progress.incrementAndGet() / nNewTracks);
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin(threads);
 
-		int progress = 0;
-		model.beginUpdate();
+		/*
+		 * Insert them in bulk, in a single transaction, after having declared
+		 * the spot features we carry over.
+		 */
+
+		declareMissingSpotFeatures(modelToMerge.getFeatureModel(), model.getFeatureModel());
 
 		int nNewSpots = 0;
+		model.beginUpdate();
 		try {
-			for (final int id : modelToMerge.getTrackModel().trackIDs(true)) {
+			for (int i = 0; i < nNewTracks; i++) {
+				final MergedTrack track = mergedTracks[i];
+				model.addTrack(track.spots, track.sources, track.targets, track.weights, trackModelToMerge.name(trackIDs[i]), true);
+				nNewSpots += track.spots.size();
+				logger.setProgress(0.5 + 0.5 * (i + 1) / nNewTracks);
+			}
 
-				/*
-				 * Add new spots built on the ones in the file.
-				 */
+		} finally {
+			model.endUpdate();
+			logger.setProgress(0);
+			logger.log("Imported " + nNewTracks + " tracks made of " + nNewSpots + " spots.\n");
+		}
 
-				final Set<Spot> spots = modelToMerge.getTrackModel().trackSpots(id);
-				final HashMap<Spot, Spot> mapOldToNew = new HashMap<Spot, Spot>(spots.size());
+	}
 
-				Spot newSpot = null; // we keep a reference to the new spot, needed below
-				for (final Spot oldSpot : spots) {
-					// An awkward way to avoid spot ID conflicts after loading two files
-					newSpot = new Spot( oldSpot );
-					for (final String feature : oldSpot.getFeatures().keySet()) {
-						newSpot.putFeature(feature, oldSpot.getFeature(feature));
-					}
-					mapOldToNew.put(oldSpot, newSpot);
-					model.addSpotTo(newSpot, oldSpot.getFeature(Spot.FRAME).intValue());
-					nNewSpots++;
-				}
+	/**
+	 * Sets the number of threads used to copy the tracks of the merged file.
+	 *
+	 * @param numThreads
+	 *            the number of threads.
+	 */
+	public void setNumThreads(final int numThreads) {
+		this.numThreads = numThreads;
+	}
 
-				/*
-				 * Link new spots from info in the file.
-				 */
+	/**
+	 * Builds new spots and edges from the specified track. New spots receive a
+	 * new ID to avoid conflicts with the spots of the current model.
+	 */
+	private static MergedTrack copyTrack(final TrackModel trackModel, final Integer trackID) {
+		final Set<Spot> oldSpots = trackModel.trackSpots(trackID);
+		final HashMap<Spot, Spot> mapOldToNew = new HashMap<Spot, Spot>(2 * oldSpots.size());
+		final Set<Spot> newSpots = new HashSet<Spot>(2 * oldSpots.size());
+		for (final Spot oldSpot : oldSpots) {
+			final Spot newSpot = new Spot(oldSpot);
+			newSpot.getFeatures().putAll(oldSpot.getFeatures());
+			mapOldToNew.put(oldSpot, newSpot);
+			newSpots.add(newSpot);
+		}
 
-				final Set<DefaultWeightedEdge> edges = modelToMerge.getTrackModel().trackEdges(id);
-				for (final DefaultWeightedEdge edge : edges) {
-					final Spot oldSource = modelToMerge.getTrackModel().getEdgeSource(edge);
-					final Spot oldTarget = modelToMerge.getTrackModel().getEdgeTarget(edge);
-					final Spot newSource = mapOldToNew.get(oldSource);
-					final Spot newTarget = mapOldToNew.get(oldTarget);
-					final double weight = modelToMerge.getTrackModel().getEdgeWeight(edge);
+		final Set<DefaultWeightedEdge> edges = trackModel.trackEdges(trackID);
+		final Spot[] sources = new Spot[edges.size()];
+		final Spot[] targets = new Spot[edges.size()];
+		final double[] weights = new double[edges.size()];
+		int index = 0;
+		for (final DefaultWeightedEdge edge : edges) {
+			sources[index] = mapOldToNew.get(trackModel.getEdgeSource(edge));
+			targets[index] = mapOldToNew.get(trackModel.getEdgeTarget(edge));
+			weights[index] = trackModel.getEdgeWeight(edge);
+			index++;
+		}
+		return new MergedTrack(newSpots, sources, targets, weights);
+	}
 
-					model.addEdge(newSource, newTarget, weight);
-				}
+	/**
+	 * Declares in the target feature model the spot features of the source
+	 * feature model it does not know yet, so that the feature values copied
+	 * with the spots can be displayed and exported.
+	 */
+	private static void declareMissingSpotFeatures(final FeatureModel source, final FeatureModel target) {
+		final Collection<String> missing = new ArrayList<String>(source.getSpotFeatures());
+		missing.removeAll(target.getSpotFeatures());
+		if (missing.isEmpty()) {
+			return;
+		}
+		target.declareSpotFeatures(missing, source.getSpotFeatureNames(), source.getSpotFeatureShortNames(), source.getSpotFeatureDimensions(), source.getSpotFeatureIsInt());
+	}
 
-				/*
-				 * Put back track names
-				 */
+	private static final class MergedTrack {
 
-				final String trackName = modelToMerge.getTrackModel().name(id);
-				final int newId = model.getTrackModel().trackIDOf(newSpot);
-				model.getTrackModel().setName(newId, trackName);
+		private final Set<Spot> spots;
 
-				progress++;
-				logger.setProgress((double) progress / nNewTracks);
-			}
+		private final Spot[] sources;
 
-		} finally {
-			model.endUpdate();
-			logger.setProgress(0);
-			logger.log("Imported " + nNewTracks + " tracks made of " + nNewSpots + " spots.\n");
-		}
+		private final Spot[] targets;
 
+		private final double[] weights;
+
+		public MergedTrack(final Set<Spot> spots, final Spot[] sources, final Spot[] targets, final double[] weights) {
+			this.spots = spots;
+			this.sources = sources;
+			this.targets = targets;
+			this.weights = weights;
+		}
 	}
 
 	@Plugin( type = TrackMateActionFactory.class, visible = true )
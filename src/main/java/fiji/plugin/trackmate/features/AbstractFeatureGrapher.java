@@ -128,13 +128,14 @@ public abstract class AbstractFeatureGrapher {
 	 * @return the list of links that have their source and target in the given spot list.
 	 */
 	protected final List<DefaultWeightedEdge> getInsideEdges(final Collection<Spot> spots) {
+		final Set<Spot> spotSet = spots instanceof Set ? (Set<Spot>) spots : new HashSet<Spot>(spots);
 		int nspots = spots.size();
 		ArrayList<DefaultWeightedEdge> edges = new ArrayList<DefaultWeightedEdge>(nspots);
 		TrackModel trackModel = model.getTrackModel();
 		for (DefaultWeightedEdge edge : trackModel.edgeSet()) {
 			Spot source = trackModel.getEdgeSource(edge);
 			Spot target = trackModel.getEdgeTarget(edge);
-			if (spots.contains(source) && spots.contains(target)) {
+			if (spotSet.contains(source) && spotSet.contains(target)) {
 				edges.add(edge);
 			}
 		}
@@ -5,6 +5,8 @@ import static fiji.plugin.trackmate.gui.TrackMateWizard.SMALL_FONT;
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.DecimatedXYDataset;
 import fiji.plugin.trackmate.util.ExportableChartPanel;
 import fiji.plugin.trackmate.util.TMUtils;
 import fiji.plugin.trackmate.util.XYEdgeRenderer;
@@ -13,6 +15,7 @@ import fiji.plugin.trackmate.util.XYEdgeSeriesCollection;
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -22,8 +25,6 @@ import org.jfree.chart.JFreeChart;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
 import org.jgrapht.graph.DefaultWeightedEdge;
 
 public class EdgeFeatureGrapher extends AbstractFeatureGrapher {
@@ -75,7 +76,7 @@ public class EdgeFeatureGrapher extends AbstractFeatureGrapher {
 			String title = buildPlotTitle(featuresThisDimension, featureNames);
 			
 			// Data-set for points (easy)
-			XYSeriesCollection pointDataset = buildEdgeDataSet(featuresThisDimension, edges);
+			DecimatedXYDataset pointDataset = buildEdgeDataSet(featuresThisDimension, edges);
 
 			// Point renderer
 			XYLineAndShapeRenderer pointRenderer = new XYLineAndShapeRenderer();
@@ -131,20 +132,33 @@ public class EdgeFeatureGrapher extends AbstractFeatureGrapher {
 			edgeDataset.addSeries(edgeSeries);
 		}
 
+		// Index the edges by their target, keeping their order
+		final Map<Spot, List<DefaultWeightedEdge>> edgesByTarget = new HashMap<Spot, List<DefaultWeightedEdge>>(edges.size());
+		for(DefaultWeightedEdge	edge : edges) {
+			Spot target = model.getTrackModel().getEdgeTarget(edge);
+			List<DefaultWeightedEdge> list = edgesByTarget.get(target);
+			if (null == list) {
+				list = new ArrayList<DefaultWeightedEdge>(1);
+				edgesByTarget.put(target, list);
+			}
+			list.add(edge);
+		}
+
 		// Build dataset. We look for edges that have a spot in common, one for the target one for the source
 		final FeatureModel fm = model.getFeatureModel();
 		for(DefaultWeightedEdge	edge0 : edges) {
-			for(DefaultWeightedEdge	edge1 : edges) {
-
-				if (model.getTrackModel().getEdgeSource(edge0).equals(model.getTrackModel().getEdgeTarget(edge1))) {
-					for(String yFeature : targetYFeatures) {
-						XYEdgeSeries edgeSeries = edgeDataset.getSeries(featureNames.get(yFeature));
-						Number x0 = (Number) fm.getEdgeFeature(edge0, xFeature);
-						Number y0 = (Number) fm.getEdgeFeature(edge0, yFeature);
-						Number x1 = (Number) fm.getEdgeFeature(edge1, xFeature);;
-						Number y1 = (Number) fm.getEdgeFeature(edge1, yFeature);
-						edgeSeries.addEdge(x0.doubleValue(), y0.doubleValue(), x1.doubleValue(), y1.doubleValue());
-					}
+			List<DefaultWeightedEdge> incoming = edgesByTarget.get(model.getTrackModel().getEdgeSource(edge0));
+			if (null == incoming) {
+				continue;
+			}
+			for(DefaultWeightedEdge	edge1 : incoming) {
+				for(String yFeature : targetYFeatures) {
+					XYEdgeSeries edgeSeries = edgeDataset.getSeries(featureNames.get(yFeature));
+					Number x0 = (Number) fm.getEdgeFeature(edge0, xFeature);
+					Number y0 = (Number) fm.getEdgeFeature(edge0, yFeature);
+					Number x1 = (Number) fm.getEdgeFeature(edge1, xFeature);;
+					Number y1 = (Number) fm.getEdgeFeature(edge1, yFeature);
+					edgeSeries.addEdge(x0.doubleValue(), y0.doubleValue(), x1.doubleValue(), y1.doubleValue());
 				}
 			}
 		}
@@ -153,22 +167,26 @@ public class EdgeFeatureGrapher extends AbstractFeatureGrapher {
 
 	/**
 	 * @return a new dataset that contains the values, specified from the given feature, and  extracted from all
-	 * the given edges.
+	 * the given edges. The dataset is decimated when displayed if there are many edges.
 	 */
-	private XYSeriesCollection buildEdgeDataSet(final Iterable<String> targetYFeatures, final Iterable<DefaultWeightedEdge> edges) {
-		XYSeriesCollection dataset = new XYSeriesCollection();
+	private DecimatedXYDataset buildEdgeDataSet(final Iterable<String> targetYFeatures, final List<DefaultWeightedEdge> edges) {
+		DecimatedXYDataset dataset = new DecimatedXYDataset();
 		final FeatureModel fm = model.getFeatureModel();
+		double[] xs = new double[edges.size()];
+		double[] ys = new double[edges.size()];
 		for(String feature : targetYFeatures) {
-			XYSeries series = new XYSeries(featureNames.get(feature));
+			int n = 0;
 			for(DefaultWeightedEdge edge : edges) {
 				Number x = (Number) fm.getEdgeFeature(edge, xFeature);
 				Number y = (Number) fm.getEdgeFeature(edge, feature);
 				if (null == x || null == y) {
 					continue;
 				}
-				series.add(x.doubleValue(), y.doubleValue());
+				xs[n] = x.doubleValue();
+				ys[n] = y.doubleValue();
+				n++;
 			}
-			dataset.addSeries(series);
+			dataset.addSeries(featureNames.get(feature), xs, ys, n);
 		}
 		return dataset;
 	}
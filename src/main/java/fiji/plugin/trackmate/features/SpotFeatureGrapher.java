@@ -5,6 +5,7 @@ import static fiji.plugin.trackmate.gui.TrackMateWizard.SMALL_FONT;
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.DecimatedXYDataset;
 import fiji.plugin.trackmate.util.ExportableChartPanel;
 import fiji.plugin.trackmate.util.TMUtils;
 import fiji.plugin.trackmate.util.XYEdgeRenderer;
@@ -23,8 +24,6 @@ import org.jfree.chart.JFreeChart;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
 import org.jgrapht.graph.DefaultWeightedEdge;
 
 public class SpotFeatureGrapher extends AbstractFeatureGrapher  {
@@ -74,7 +73,7 @@ public class SpotFeatureGrapher extends AbstractFeatureGrapher  {
 			String title = buildPlotTitle(featuresThisDimension, featureNames);
 
 			// Data-set for points (easy)
-			XYSeriesCollection pointDataset = buildSpotDataSet(featuresThisDimension, spots);
+			DecimatedXYDataset pointDataset = buildSpotDataSet(featuresThisDimension, spots);
 
 			// Point renderer
 			XYLineAndShapeRenderer pointRenderer = new XYLineAndShapeRenderer();
@@ -122,21 +121,25 @@ public class SpotFeatureGrapher extends AbstractFeatureGrapher  {
 	
 	/**
 	 * @return a new dataset that contains the values, specified from the given feature, and  extracted from all
-	 * the given spots.
+	 * the given spots. The dataset is decimated when displayed if there are many spots.
 	 */
-	private XYSeriesCollection buildSpotDataSet(final Iterable<String> targetYFeatures, final Iterable<Spot> spots) {
-		XYSeriesCollection dataset = new XYSeriesCollection();
+	private DecimatedXYDataset buildSpotDataSet(final Iterable<String> targetYFeatures, final Collection<Spot> spots) {
+		DecimatedXYDataset dataset = new DecimatedXYDataset();
+		double[] xs = new double[spots.size()];
+		double[] ys = new double[spots.size()];
 		for(String feature : targetYFeatures) {
-			XYSeries series = new XYSeries(featureNames.get(feature));
+			int n = 0;
 			for(Spot spot : spots) {
 				Double x = spot.getFeature(xFeature);
 				Double y = spot.getFeature(feature);
 				if (null == x || null == y) {
 					continue;
 				}
-				series.add(x.doubleValue(), y.doubleValue());
+				xs[n] = x.doubleValue();
+				ys[n] = y.doubleValue();
+				n++;
 			}
-			dataset.addSeries(series);
+			dataset.addSeries(featureNames.get(feature), xs, ys, n);
 		}
 		return dataset;
 	}
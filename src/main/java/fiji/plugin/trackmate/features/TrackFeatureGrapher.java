@@ -5,6 +5,7 @@ import static fiji.plugin.trackmate.gui.TrackMateWizard.SMALL_FONT;
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.util.DecimatedXYDataset;
 import fiji.plugin.trackmate.util.ExportableChartPanel;
 import fiji.plugin.trackmate.util.TMUtils;
 
@@ -19,8 +20,6 @@ import org.jfree.chart.JFreeChart;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
 
 public class TrackFeatureGrapher extends AbstractFeatureGrapher {
 
@@ -69,7 +68,7 @@ public class TrackFeatureGrapher extends AbstractFeatureGrapher {
 			String title = buildPlotTitle(featuresThisDimension, featureNames);
 			
 			// Data-set for points (easy)
-			XYSeriesCollection pointDataset = buildTrackDataSet(featuresThisDimension);
+			DecimatedXYDataset pointDataset = buildTrackDataSet(featuresThisDimension);
 
 			// Point renderer
 			XYLineAndShapeRenderer pointRenderer = new XYLineAndShapeRenderer();
@@ -112,20 +111,25 @@ public class TrackFeatureGrapher extends AbstractFeatureGrapher {
 	 * @return a new dataset that contains the values, specified from the given feature, 
 	 * and  extracted from all the visible tracks in the model.
 	 */
-	private XYSeriesCollection buildTrackDataSet(final Iterable<String> targetYFeatures) {
-		XYSeriesCollection dataset = new XYSeriesCollection();
+	private DecimatedXYDataset buildTrackDataSet(final Iterable<String> targetYFeatures) {
+		DecimatedXYDataset dataset = new DecimatedXYDataset();
 		final FeatureModel fm = model.getFeatureModel();
+		final Set<Integer> trackIDs = model.getTrackModel().trackIDs(true);
+		double[] xs = new double[trackIDs.size()];
+		double[] ys = new double[trackIDs.size()];
 		for(String feature : targetYFeatures) {
-			XYSeries series = new XYSeries(featureNames.get(feature));
-			for(Integer trackID : model.getTrackModel().trackIDs(true)) {
+			int n = 0;
+			for(Integer trackID : trackIDs) {
 				Double x = fm.getTrackFeature(trackID, xFeature);
 				Double y = fm.getTrackFeature(trackID, feature);
 				if (null == x || null == y) {
 					continue;
 				}
-				series.add(x.doubleValue(), y.doubleValue());
+				xs[n] = x.doubleValue();
+				ys[n] = y.doubleValue();
+				n++;
 			}
-			dataset.addSeries(series);
+			dataset.addSeries(featureNames.get(feature), xs, ys, n);
 		}
 		return dataset;
 	}
@@ -4,6 +4,7 @@ import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.TrackMate;
 import fiji.plugin.trackmate.gui.TrackMateGUIController;
 import fiji.plugin.trackmate.io.IOUtils;
+import fiji.plugin.trackmate.io.ModelJournal;
 import fiji.plugin.trackmate.io.TmXmlWriter;
 
 import java.io.File;
@@ -89,6 +90,8 @@ public class SaveDescriptor extends SomeDialogDescriptor
 		{
 			writer.writeToFile();
 			logger.log( "Data saved to: " + file.toString() + '\n' );
+			// Journal edits from now on, on top of this full snapshot.
+			ModelJournal.attach( trackmate.getModel(), file, logger ).truncate();
 		}
 		catch ( final FileNotFoundException e )
 		{
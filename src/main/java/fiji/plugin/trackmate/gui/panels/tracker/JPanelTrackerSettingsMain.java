@@ -31,6 +31,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseWheelListener;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 
 import javax.swing.JCheckBox;
@@ -75,6 +76,8 @@ public class JPanelTrackerSettingsMain extends javax.swing.JPanel {
 	private final Collection<String> features;
 	private final Map<String, String> featureNames;
 	private final String spaceUnits;
+	/** The last settings echoed, to carry over the keys this panel does not edit. */
+	private final Map<String, Object> echoedSettings = new HashMap<String, Object>();
 
 
 	public JPanelTrackerSettingsMain(final String trackerName, final String spaceUnits, final Collection<String> features, final Map<String, String> featureNames) {
@@ -93,6 +96,9 @@ public class JPanelTrackerSettingsMain extends javax.swing.JPanel {
 	@SuppressWarnings("unchecked")
 	void echoSettings(final Map<String, Object> settings) {
 
+		echoedSettings.clear();
+		echoedSettings.putAll(settings);
+
 		jTextFieldLinkingMaxDistance.setText(String.format("%.1f", (Double) settings.get(KEY_LINKING_MAX_DISTANCE)));
 		jPanelLinkingFeatures.setSelectedFeaturePenalties((Map<String, Double>) settings.get(KEY_LINKING_FEATURE_PENALTIES));
 
@@ -128,9 +134,12 @@ public class JPanelTrackerSettingsMain extends javax.swing.JPanel {
 
 	/**
 	 * @return a new settings {@link Map} with values taken from this panel.
+	 * The keys this panel does not edit, such as the LAP solver or the motion
+	 * model, keep the value they had in the last settings echoed.
 	 */
 	public Map<String, Object> getSettings() {
 		Map<String, Object> settings = LAPUtils.getDefaultLAPSettingsMap();
+		settings.putAll(echoedSettings);
 
 		settings.put(KEY_LINKING_MAX_DISTANCE, NumberParser.parseDouble(jTextFieldLinkingMaxDistance.getText()));
 		settings.put(KEY_LINKING_FEATURE_PENALTIES, jPanelLinkingFeatures.getFeaturePenalties());
@@ -0,0 +1,156 @@
+package fiji.plugin.trackmate.gui.panels.tracker;
+
+import static fiji.plugin.trackmate.gui.TrackMateWizard.BIG_FONT;
+import static fiji.plugin.trackmate.gui.TrackMateWizard.FONT;
+import static fiji.plugin.trackmate.gui.TrackMateWizard.TEXTFIELD_DIMENSION;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.DEFAULT_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_FRAME_GAP;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_WINDOW_SIZE;
+
+import java.awt.Font;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.swing.JLabel;
+import javax.swing.SwingConstants;
+
+import fiji.plugin.trackmate.gui.ConfigurationPanel;
+import fiji.plugin.trackmate.gui.panels.components.JNumericTextField;
+
+public class MinCostFlowTrackerConfigPanel extends ConfigurationPanel
+{
+	private static final long serialVersionUID = 1L;
+
+	private final JNumericTextField tfLinkingMaxDistance;
+
+	private final JNumericTextField tfGapClosingMaxDistance;
+
+	private final JNumericTextField tfMaxFrameGap;
+
+	private final JNumericTextField tfWindowSize;
+
+	/** Not editable in this panel, but echoed back. */
+	private Object alternativeCostFactor = DEFAULT_ALTERNATIVE_LINKING_COST_FACTOR;
+
+	public MinCostFlowTrackerConfigPanel( final String trackerName, final String infoText, final String spaceUnits )
+	{
+		setLayout( null );
+
+		final JLabel lbl1 = new JLabel( "Settings for tracker:" );
+		lbl1.setBounds( 6, 6, 288, 16 );
+		lbl1.setFont( FONT );
+		add( lbl1 );
+
+		final JLabel lblTrackerName = new JLabel( trackerName );
+		lblTrackerName.setFont( BIG_FONT );
+		lblTrackerName.setHorizontalAlignment( SwingConstants.CENTER );
+		lblTrackerName.setBounds( 6, 34, 288, 32 );
+		add( lblTrackerName );
+
+		final JLabel lblTrackerDescription = new JLabel( "<tracker description>" );
+		lblTrackerDescription.setFont( FONT.deriveFont( Font.ITALIC ) );
+		lblTrackerDescription.setVerticalAlignment( SwingConstants.TOP );
+		lblTrackerDescription.setBounds( 6, 81, 288, 175 );
+		lblTrackerDescription.setText( infoText
+				.replace( "<br>", "" )
+				.replace( "<p>", "<p align=\"justify\">" )
+				.replace( "<html>", "<html><p align=\"justify\">" ) );
+		add( lblTrackerDescription );
+
+		final JLabel lblLinkingMaxDistance = new JLabel( "Linking max distance:" );
+		lblLinkingMaxDistance.setFont( FONT );
+		lblLinkingMaxDistance.setBounds( 6, 320, 173, 16 );
+		add( lblLinkingMaxDistance );
+
+		final JLabel lblGapClosingMaxDistance = new JLabel( "Gap-closing max distance:" );
+		lblGapClosingMaxDistance.setFont( FONT );
+		lblGapClosingMaxDistance.setBounds( 6, 348, 173, 16 );
+		add( lblGapClosingMaxDistance );
+
+		final JLabel lblMaxFrameGap = new JLabel( "Max frame gap:" );
+		lblMaxFrameGap.setFont( FONT );
+		lblMaxFrameGap.setBounds( 6, 376, 173, 16 );
+		add( lblMaxFrameGap );
+
+		final JLabel lblWindowSize = new JLabel( "Window size:" );
+		lblWindowSize.setFont( FONT );
+		lblWindowSize.setBounds( 6, 404, 173, 16 );
+		add( lblWindowSize );
+
+		tfLinkingMaxDistance = new JNumericTextField();
+		tfLinkingMaxDistance.setHorizontalAlignment( SwingConstants.CENTER );
+		tfLinkingMaxDistance.setFont( FONT );
+		tfLinkingMaxDistance.setBounds( 167, 320, 60, 28 );
+		add( tfLinkingMaxDistance );
+		tfLinkingMaxDistance.setSize( TEXTFIELD_DIMENSION );
+
+		tfGapClosingMaxDistance = new JNumericTextField();
+		tfGapClosingMaxDistance.setHorizontalAlignment( SwingConstants.CENTER );
+		tfGapClosingMaxDistance.setFont( FONT );
+		tfGapClosingMaxDistance.setBounds( 167, 348, 60, 28 );
+		add( tfGapClosingMaxDistance );
+		tfGapClosingMaxDistance.setSize( TEXTFIELD_DIMENSION );
+
+		tfMaxFrameGap = new JNumericTextField();
+		tfMaxFrameGap.setHorizontalAlignment( SwingConstants.CENTER );
+		tfMaxFrameGap.setFont( FONT );
+		tfMaxFrameGap.setBounds( 167, 376, 60, 28 );
+		add( tfMaxFrameGap );
+		tfMaxFrameGap.setSize( TEXTFIELD_DIMENSION );
+
+		tfWindowSize = new JNumericTextField();
+		tfWindowSize.setHorizontalAlignment( SwingConstants.CENTER );
+		tfWindowSize.setFont( FONT );
+		tfWindowSize.setBounds( 167, 404, 60, 28 );
+		add( tfWindowSize );
+		tfWindowSize.setSize( TEXTFIELD_DIMENSION );
+
+		final JLabel lblSpaceUnits1 = new JLabel( spaceUnits );
+		lblSpaceUnits1.setFont( FONT );
+		lblSpaceUnits1.setBounds( 219, 320, 51, 16 );
+		add( lblSpaceUnits1 );
+
+		final JLabel lblSpaceUnits2 = new JLabel( spaceUnits );
+		lblSpaceUnits2.setFont( FONT );
+		lblSpaceUnits2.setBounds( 219, 348, 51, 16 );
+		add( lblSpaceUnits2 );
+
+		final JLabel lblFrameUnits1 = new JLabel( "frames" );
+		lblFrameUnits1.setFont( FONT );
+		lblFrameUnits1.setBounds( 219, 376, 51, 16 );
+		add( lblFrameUnits1 );
+
+		final JLabel lblFrameUnits2 = new JLabel( "frames" );
+		lblFrameUnits2.setFont( FONT );
+		lblFrameUnits2.setBounds( 219, 404, 51, 16 );
+		add( lblFrameUnits2 );
+	}
+
+	@Override
+	public void setSettings( final Map< String, Object > settings )
+	{
+		tfLinkingMaxDistance.setText( "" + settings.get( KEY_LINKING_MAX_DISTANCE ) );
+		tfGapClosingMaxDistance.setText( "" + settings.get( KEY_GAP_CLOSING_MAX_DISTANCE ) );
+		tfMaxFrameGap.setText( "" + settings.get( KEY_GAP_CLOSING_MAX_FRAME_GAP ) );
+		tfWindowSize.setText( "" + settings.get( KEY_WINDOW_SIZE ) );
+		if ( null != settings.get( KEY_ALTERNATIVE_LINKING_COST_FACTOR ) )
+		{
+			alternativeCostFactor = settings.get( KEY_ALTERNATIVE_LINKING_COST_FACTOR );
+		}
+	}
+
+	@Override
+	public Map< String, Object > getSettings()
+	{
+		final Map< String, Object > settings = new HashMap< String, Object >();
+		settings.put( KEY_LINKING_MAX_DISTANCE, tfLinkingMaxDistance.getValue() );
+		settings.put( KEY_GAP_CLOSING_MAX_DISTANCE, tfGapClosingMaxDistance.getValue() );
+		settings.put( KEY_GAP_CLOSING_MAX_FRAME_GAP, ( int ) tfMaxFrameGap.getValue() );
+		settings.put( KEY_WINDOW_SIZE, ( int ) tfWindowSize.getValue() );
+		settings.put( KEY_ALTERNATIVE_LINKING_COST_FACTOR, alternativeCostFactor );
+		return settings;
+	}
+}
@@ -0,0 +1,487 @@
+package fiji.plugin.trackmate.io;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.imglib2.algorithm.MultiThreaded;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.edges.EdgeTimeLocationAnalyzer;
+import fiji.plugin.trackmate.util.ModelTools;
+import fiji.plugin.trackmate.util.TMUtils;
+
+/**
+ * Headless exporter that writes the spot, edge and track features of the
+ * visible tracks of a {@link Model} to delimited text files (CSV, TSV, ...).
+ * <p>
+ * It exports the same content as the
+ * {@link fiji.plugin.trackmate.action.ExportStatsToIJAction}, but rows are
+ * streamed to the target {@link OutputStream} as soon as they are produced,
+ * instead of being accumulated in ImageJ results tables. Rows are generated
+ * one track at a time by several threads, and written in the track order, so
+ * that the output does not depend on the number of threads used.
+ * <p>
+ * The header line of each table lists the feature keys, with their physical
+ * units in parentheses when they have some, as declared in the
+ * {@link FeatureModel}. Missing feature values are written as empty fields.
+ */
+public class FeatureTableWriter implements MultiThreaded
+{
+
+	/** Comma, for CSV files. */
+	public static final char CSV_DELIMITER = ',';
+
+	/** Tabulation, for TSV files. */
+	public static final char TSV_DELIMITER = '\t';
+
+	private static final Charset CHARSET = Charset.forName( "UTF-8" );
+
+	private static final String LABEL_COLUMN = "LABEL";
+
+	private static final String ID_COLUMN = "ID";
+
+	private static final String TRACK_ID_COLUMN = "TRACK_ID";
+
+	private final Model model;
+
+	private final char delimiter;
+
+	private int numThreads;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new writer for the specified model.
+	 *
+	 * @param model
+	 *            the model to export.
+	 * @param delimiter
+	 *            the character used to separate columns.
+	 */
+	public FeatureTableWriter( final Model model, final char delimiter )
+	{
+		this.model = model;
+		this.delimiter = delimiter;
+		setNumThreads();
+	}
+
+	/**
+	 * Creates a new writer for the specified model, that writes CSV files.
+	 *
+	 * @param model
+	 *            the model to export.
+	 */
+	public FeatureTableWriter( final Model model )
+	{
+		this( model, CSV_DELIMITER );
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Writes the three feature tables of the model in the specified folder.
+	 * The files will be named after the specified base name, suffixed with
+	 * <code>_spots</code>, <code>_edges</code> and <code>_tracks</code>. The
+	 * file extension is <code>.csv</code> or <code>.tsv</code> depending on
+	 * the delimiter.
+	 *
+	 * @param folder
+	 *            the folder to write into.
+	 * @param baseName
+	 *            the base name of the files.
+	 * @throws IOException
+	 *             if there is a problem writing the files.
+	 */
+	public void writeAll( final File folder, final String baseName ) throws IOException
+	{
+		final String extension = delimiter == TSV_DELIMITER ? ".tsv" : ".csv";
+		writeSpots( new File( folder, baseName + "_spots" + extension ) );
+		writeEdges( new File( folder, baseName + "_edges" + extension ) );
+		writeTracks( new File( folder, baseName + "_tracks" + extension ) );
+	}
+
+	/**
+	 * Writes the features of all the spots in visible tracks to the specified
+	 * file, one spot per row. Spots are sorted by track, then by frame.
+	 *
+	 * @param file
+	 *            the file to write to.
+	 * @throws IOException
+	 *             if there is a problem writing the file.
+	 */
+	public void writeSpots( final File file ) throws IOException
+	{
+		final OutputStream os = new FileOutputStream( file );
+		try
+		{
+			writeSpots( os );
+		}
+		finally
+		{
+			os.close();
+		}
+	}
+
+	/**
+	 * Writes the features of all the spots in visible tracks to the specified
+	 * stream, one spot per row. Spots are sorted by track, then by frame. The
+	 * stream is flushed but not closed.
+	 *
+	 * @param os
+	 *            the stream to write to.
+	 * @throws IOException
+	 *             if there is a problem writing to the stream.
+	 */
+	public void writeSpots( final OutputStream os ) throws IOException
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		final String[] features = fm.getSpotFeatures().toArray( new String[ 0 ] );
+		final boolean[] isInt = isInt( features, fm.getSpotFeatureIsInt() );
+
+		final StringBuilder header = new StringBuilder();
+		header.append( LABEL_COLUMN ).append( delimiter ).append( ID_COLUMN ).append( delimiter ).append( TRACK_ID_COLUMN );
+		appendHeader( header, features, fm.getSpotFeatureDimensions() );
+
+		final RowProducer producer = new RowProducer()
+		{
+			@Override
+			public void appendRows( final Integer trackID, final StringBuilder str )
+			{
+				final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
+				final List< Spot > sortedTrack = new ArrayList< Spot >( track );
+				Collections.sort( sortedTrack, Spot.frameComparator );
+
+				for ( final Spot spot : sortedTrack )
+				{
+					appendLabel( str, spot.getName() );
+					str.append( delimiter ).append( spot.ID() );
+					str.append( delimiter ).append( trackID.intValue() );
+					for ( int i = 0; i < features.length; i++ )
+					{
+						str.append( delimiter );
+						appendValue( str, spot.getFeature( features[ i ] ), isInt[ i ] );
+					}
+					str.append( '\n' );
+				}
+			}
+		};
+		write( os, header.toString(), producer );
+	}
+
+	/**
+	 * Writes the features of all the edges in visible tracks to the specified
+	 * file, one edge per row. Edges are sorted by track, then by time.
+	 *
+	 * @param file
+	 *            the file to write to.
+	 * @throws IOException
+	 *             if there is a problem writing the file.
+	 */
+	public void writeEdges( final File file ) throws IOException
+	{
+		final OutputStream os = new FileOutputStream( file );
+		try
+		{
+			writeEdges( os );
+		}
+		finally
+		{
+			os.close();
+		}
+	}
+
+	/**
+	 * Writes the features of all the edges in visible tracks to the specified
+	 * stream, one edge per row. Edges are sorted by track, then by time. The
+	 * stream is flushed but not closed.
+	 *
+	 * @param os
+	 *            the stream to write to.
+	 * @throws IOException
+	 *             if there is a problem writing to the stream.
+	 */
+	public void writeEdges( final OutputStream os ) throws IOException
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		// Skip non-numeric features, as the IJ exporter does.
+		final Map< String, Dimension > dimensions = fm.getEdgeFeatureDimensions();
+		final List< String > numericFeatures = new ArrayList< String >( fm.getEdgeFeatures().size() );
+		for ( final String feature : fm.getEdgeFeatures() )
+		{
+			if ( dimensions.get( feature ) != Dimension.STRING )
+			{
+				numericFeatures.add( feature );
+			}
+		}
+		final String[] features = numericFeatures.toArray( new String[ 0 ] );
+		final boolean[] isInt = isInt( features, fm.getEdgeFeatureIsInt() );
+
+		final StringBuilder header = new StringBuilder();
+		header.append( LABEL_COLUMN ).append( delimiter ).append( TRACK_ID_COLUMN );
+		appendHeader( header, features, dimensions );
+
+		final RowProducer producer = new RowProducer()
+		{
+			@Override
+			public void appendRows( final Integer trackID, final StringBuilder str )
+			{
+				final Set< DefaultWeightedEdge > track = model.getTrackModel().trackEdges( trackID );
+				final List< DefaultWeightedEdge > sortedTrack = new ArrayList< DefaultWeightedEdge >( track );
+				Collections.sort( sortedTrack, ModelTools.featureEdgeComparator( EdgeTimeLocationAnalyzer.TIME, fm ) );
+
+				for ( final DefaultWeightedEdge edge : sortedTrack )
+				{
+					appendLabel( str, edge.toString() );
+					str.append( delimiter ).append( trackID.intValue() );
+					for ( int i = 0; i < features.length; i++ )
+					{
+						str.append( delimiter );
+						appendValue( str, fm.getEdgeFeature( edge, features[ i ] ), isInt[ i ] );
+					}
+					str.append( '\n' );
+				}
+			}
+		};
+		write( os, header.toString(), producer );
+	}
+
+	/**
+	 * Writes the features of all the visible tracks to the specified file, one
+	 * track per row.
+	 *
+	 * @param file
+	 *            the file to write to.
+	 * @throws IOException
+	 *             if there is a problem writing the file.
+	 */
+	public void writeTracks( final File file ) throws IOException
+	{
+		final OutputStream os = new FileOutputStream( file );
+		try
+		{
+			writeTracks( os );
+		}
+		finally
+		{
+			os.close();
+		}
+	}
+
+	/**
+	 * Writes the features of all the visible tracks to the specified stream,
+	 * one track per row. The stream is flushed but not closed.
+	 *
+	 * @param os
+	 *            the stream to write to.
+	 * @throws IOException
+	 *             if there is a problem writing to the stream.
+	 */
+	public void writeTracks( final OutputStream os ) throws IOException
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		final String[] features = fm.getTrackFeatures().toArray( new String[ 0 ] );
+		final boolean[] isInt = isInt( features, fm.getTrackFeatureIsInt() );
+
+		final StringBuilder header = new StringBuilder();
+		header.append( LABEL_COLUMN );
+		appendHeader( header, features, fm.getTrackFeatureDimensions() );
+
+		final RowProducer producer = new RowProducer()
+		{
+			@Override
+			public void appendRows( final Integer trackID, final StringBuilder str )
+			{
+				appendLabel( str, model.getTrackModel().name( trackID ) );
+				for ( int i = 0; i < features.length; i++ )
+				{
+					str.append( delimiter );
+					appendValue( str, fm.getTrackFeature( trackID, features[ i ] ), isInt[ i ] );
+				}
+				str.append( '\n' );
+			}
+		};
+		write( os, header.toString(), producer );
+	}
+
+	/*
+	 * MULTITHREADING
+	 */
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Generates the rows of each visible track in parallel, and writes them to
+	 * the stream in the track order. Only a bounded number of tracks are in
+	 * flight at any time, so that memory usage does not scale with the model
+	 * size.
+	 */
+	private void write( final OutputStream os, final String header, final RowProducer producer ) throws IOException
+	{
+		final Writer writer = new BufferedWriter( new OutputStreamWriter( new BufferedOutputStream( os ), CHARSET ) );
+		writer.write( header );
+		writer.write( '\n' );
+
+		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( true );
+		final ExecutorService executors = Executors.newFixedThreadPool( numThreads );
+		final int maxInFlight = 4 * numThreads;
+		final ArrayDeque< Future< String > > inFlight = new ArrayDeque< Future< String > >( maxInFlight );
+		try
+		{
+			for ( final Integer trackID : trackIDs )
+			{
+				if ( inFlight.size() >= maxInFlight )
+				{
+					writer.write( inFlight.poll().get() );
+				}
+				inFlight.add( executors.submit( new Callable< String >()
+				{
+					@Override
+					public String call()
+					{
+						final StringBuilder str = new StringBuilder();
+						producer.appendRows( trackID, str );
+						return str.toString();
+					}
+				} ) );
+			}
+			while ( !inFlight.isEmpty() )
+			{
+				writer.write( inFlight.poll().get() );
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			throw new IOException( "Interrupted while exporting feature table.", e );
+		}
+		catch ( final ExecutionException e )
+		{
+			throw new IOException( "Problem generating feature table rows: " + e.getCause(), e.getCause() );
+		}
+		finally
+		{
+			executors.shutdownNow();
+		}
+		writer.flush();
+	}
+
+	private void appendHeader( final StringBuilder header, final String[] features, final Map< String, Dimension > dimensions )
+	{
+		final String spaceUnits = model.getSpaceUnits();
+		final String timeUnits = model.getTimeUnits();
+		for ( final String feature : features )
+		{
+			header.append( delimiter ).append( feature );
+			final Dimension dimension = dimensions.get( feature );
+			if ( null == dimension )
+			{
+				continue;
+			}
+			final String units = TMUtils.getUnitsFor( dimension, spaceUnits, timeUnits );
+			if ( null != units && !units.isEmpty() )
+			{
+				header.append( " (" ).append( units ).append( ')' );
+			}
+		}
+	}
+
+	private void appendLabel( final StringBuilder str, final String label )
+	{
+		if ( null == label )
+		{
+			return;
+		}
+		if ( label.indexOf( delimiter ) < 0 && label.indexOf( '"' ) < 0 && label.indexOf( '\n' ) < 0 )
+		{
+			str.append( label );
+			return;
+		}
+		str.append( '"' ).append( label.replace( "\"", "\"\"" ) ).append( '"' );
+	}
+
+	private static final void appendValue( final StringBuilder str, final Number val, final boolean isInt )
+	{
+		if ( null == val )
+		{
+			return;
+		}
+		if ( isInt )
+		{
+			str.append( val.intValue() );
+		}
+		else
+		{
+			str.append( val.doubleValue() );
+		}
+	}
+
+	private static final boolean[] isInt( final String[] features, final Map< String, Boolean > isIntMap )
+	{
+		final boolean[] isInt = new boolean[ features.length ];
+		for ( int i = 0; i < features.length; i++ )
+		{
+			final Boolean val = isIntMap.get( features[ i ] );
+			isInt[ i ] = null != val && val.booleanValue();
+		}
+		return isInt;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * Appends the rows of one track to a {@link StringBuilder}. Must be safe to
+	 * call concurrently for different tracks.
+	 */
+	private static interface RowProducer
+	{
+		public void appendRows( Integer trackID, StringBuilder str );
+	}
+}
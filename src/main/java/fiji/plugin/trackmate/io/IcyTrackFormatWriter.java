@@ -2,28 +2,31 @@ package fiji.plugin.trackmate.io;
 
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
 import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition;
+import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition.TrackBranchDecomposition;
+import fiji.plugin.trackmate.graph.TimeDirectedNeighborIndex;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imglib2.algorithm.Algorithm;
 import net.imglib2.algorithm.Benchmark;
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.multithreading.SimpleMultiThreading;
 
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.Format;
-import org.jdom2.output.XMLOutputter;
 
-public class IcyTrackFormatWriter implements Algorithm, Benchmark
+public class IcyTrackFormatWriter implements Algorithm, Benchmark, MultiThreaded
 {
 
 	private static final String BASE_ERROR_MSG = "[ICYTrackFormatWriter] ";
@@ -52,11 +55,14 @@ public class IcyTrackFormatWriter implements Algorithm, Benchmark
 
 	private final double[] calibration;
 
+	private int numThreads;
+
 	public IcyTrackFormatWriter( final File file, final Model model, final double[] calibration )
 	{
 		this.file = file;
 		this.model = model;
 		this.calibration = calibration;
+		setNumThreads();
 	}
 
 	@Override
@@ -96,91 +102,126 @@ public class IcyTrackFormatWriter implements Algorithm, Benchmark
 
 		// ICY does not accept middle links nor gaps.
 		final ConvexBranchesDecomposition splitter = new ConvexBranchesDecomposition( model, true, true );
-		if ( !splitter.checkInput() || !splitter.process() )
+		if ( !splitter.checkInput() )
 		{
 			errorMessage = splitter.getErrorMessage();
 			return false;
 		}
 
-		final Element root = new Element( ROOT_ELEMENT );
-
-		final Element trackFile = new Element( TRACK_FILE );
-		trackFile.setAttribute( "version", "1" );
-		root.addContent( trackFile );
-
 		/*
-		 * Track group.
+		 * Decompose each track in branches, in parallel. Branches come out
+		 * sorted by frame.
 		 */
 
-		final Element trackGroup = new Element( TRACK_GROUP );
-		// trackGroup.setAttribute( "description", TrackMate.PLUGIN_NAME_STR +
-		// "_v" + TrackMate.PLUGIN_NAME_VERSION + "_export" );
+		final TrackModel tm = model.getTrackModel();
+		final Integer[] trackIDs = tm.trackIDs( true ).toArray( new Integer[] {} );
+		final TrackBranchDecomposition[] decompositions = new TrackBranchDecomposition[ trackIDs.length ];
 
-		final Map< Spot, Integer > beginnings = new HashMap< Spot, Integer >();
-		final Map< Spot, Integer > endings = new HashMap< Spot, Integer >();
-
-		final Collection< List< Spot >> branches = splitter.getBranches();
-		for ( final List< Spot > branch : branches )
+		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		for ( int ithread = 0; ithread < threads.length; ithread++ )
 		{
-			final int branchID = branch.hashCode();
-
-			// build a map for later
-			beginnings.put( branch.get( 0 ), Integer.valueOf( branchID ) );
-			endings.put( branch.get( branch.size() - 1 ), Integer.valueOf( branchID ) );
-
-			// Create the track element
-			final Element track = new Element( TRACK );
-			track.setAttribute( "id", "" + branchID );
-			for ( final Spot spot : branch )
+			threads[ ithread ] = new Thread( BASE_ERROR_MSG + "thread " + ( 1 + ithread ) + "/" + threads.length )
 			{
-				final double x = spot.getDoublePosition( 0 ) / calibration[ 0 ];
-				final double y = spot.getDoublePosition( 1 ) / calibration[ 1 ];
-				final int z = ( int ) ( spot.getDoublePosition( 2 ) / calibration[ 2 ] );
-				final int t = spot.getFeature( Spot.FRAME ).intValue();
-				final Element detection = new Element( DETECTION );
-				detection.setAttribute( "t", Integer.toString( t ) );
-				detection.setAttribute( "x", "" + x );
-				detection.setAttribute( "y", "" + y );
-				detection.setAttribute( "z", Integer.toString( z ) );
-				detection.setAttribute( "classname", "plugins.nchenouard.particleTracking.sequenceGenerator.ProfileSpotTrack" );
-				detection.setAttribute( "type", "1" );
-				track.addContent( detection );
-			}
-			trackGroup.addContent( track );
+				@Override
+				public void run()
+				{
+					// The neighbor index caches lazily; one per thread.
+					final TimeDirectedNeighborIndex neighborIndex = tm.getDirectedNeighborIndex();
+					for ( int i = ai.getAndIncrement(); i < trackIDs.length; i = ai.getAndIncrement() )
+					{
+						decompositions[ i ] = ConvexBranchesDecomposition.processTrack( trackIDs[ i ], tm, neighborIndex, true, true );
+					}
+				}
+			};
 		}
-		root.addContent( trackGroup );
+		SimpleMultiThreading.startAndJoin( threads );
 
 		/*
-		 * Link list
+		 * Stream to file.
 		 */
 
-		final Element linklist = new Element( LINK_LIST );
-		final Collection< List< Spot >> links = splitter.getLinks();
-		for ( final List< Spot > link : links )
-		{
-			final Spot spotA = link.get( 0 );
-			final Spot spotB = link.get( 1 );
-
-			final int from = endings.get( spotA ).intValue();
-			final int to = beginnings.get( spotB ).intValue();
-
-			final Element linkEl = new Element( LINK );
-			linkEl.setAttribute( "from", "" + from );
-			linkEl.setAttribute( "to", "" + to );
-
-			linklist.addContent( linkEl );
-		}
-		root.addContent( linklist );
-
-		/*
-		 * Write doc to file
-		 */
-
-		final Document document = new Document( root );
-		final XMLOutputter outputter = new XMLOutputter( Format.getPrettyFormat() );
 		try
 		{
-			outputter.output( document, new FileOutputStream( file ) );
+			final StreamingXmlWriter writer = new StreamingXmlWriter( new FileOutputStream( file ) );
+			try
+			{
+				writer.startElement( ROOT_ELEMENT );
+
+				writer.emptyElement( TRACK_FILE );
+				writer.attribute( "version", "1" );
+
+				/*
+				 * Track group.
+				 */
+
+				writer.startElement( TRACK_GROUP );
+				// trackGroup.setAttribute( "description", TrackMate.PLUGIN_NAME_STR +
+				// "_v" + TrackMate.PLUGIN_NAME_VERSION + "_export" );
+
+				final Map< Spot, Integer > beginnings = new HashMap< Spot, Integer >();
+				final Map< Spot, Integer > endings = new HashMap< Spot, Integer >();
+
+				for ( final TrackBranchDecomposition decomposition : decompositions )
+				{
+					for ( final List< Spot > branch : decomposition.branches )
+					{
+						final int branchID = branch.hashCode();
+
+						// build a map for later
+						beginnings.put( branch.get( 0 ), Integer.valueOf( branchID ) );
+						endings.put( branch.get( branch.size() - 1 ), Integer.valueOf( branchID ) );
+
+						// Write the track element
+						writer.startElement( TRACK );
+						writer.attribute( "id", "" + branchID );
+						for ( final Spot spot : branch )
+						{
+							final double x = spot.getDoublePosition( 0 ) / calibration[ 0 ];
+							final double y = spot.getDoublePosition( 1 ) / calibration[ 1 ];
+							final int z = ( int ) ( spot.getDoublePosition( 2 ) / calibration[ 2 ] );
+							final int t = spot.getFeature( Spot.FRAME ).intValue();
+							writer.emptyElement( DETECTION );
+							writer.attribute( "t", Integer.toString( t ) );
+							writer.attribute( "x", "" + x );
+							writer.attribute( "y", "" + y );
+							writer.attribute( "z", Integer.toString( z ) );
+							writer.attribute( "classname", "plugins.nchenouard.particleTracking.sequenceGenerator.ProfileSpotTrack" );
+							writer.attribute( "type", "1" );
+						}
+						writer.endElement();
+					}
+				}
+				writer.endElement();
+
+				/*
+				 * Link list
+				 */
+
+				writer.startElement( LINK_LIST );
+				for ( final TrackBranchDecomposition decomposition : decompositions )
+				{
+					for ( final List< Spot > link : decomposition.links )
+					{
+						final Spot spotA = link.get( 0 );
+						final Spot spotB = link.get( 1 );
+
+						final int from = endings.get( spotA ).intValue();
+						final int to = beginnings.get( spotB ).intValue();
+
+						writer.emptyElement( LINK );
+						writer.attribute( "from", "" + from );
+						writer.attribute( "to", "" + to );
+					}
+				}
+				writer.endElement();
+
+				writer.endElement();
+			}
+			finally
+			{
+				writer.close();
+			}
 		}
 		catch ( final FileNotFoundException e )
 		{
@@ -198,6 +239,24 @@ public class IcyTrackFormatWriter implements Algorithm, Benchmark
 		return true;
 	}
 
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
 	@Override
 	public String getErrorMessage()
 	{
@@ -0,0 +1,748 @@
+package fiji.plugin.trackmate.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+
+/**
+ * An append-only journal of the edits made to a {@link Model}, stored next to
+ * the TrackMate XML file it was last saved to or loaded from.
+ * <p>
+ * Once attached to a model, the journal listens to {@link ModelChangeEvent}s
+ * and records each spot added, removed, moved or modified and each edge added,
+ * removed or modified as one line of text. Lines are built on the thread that
+ * fires the event, but written to disk by a single background thread, so that
+ * editing is not slowed down by file access. On loading, the journal is
+ * replayed with {@link #replay(Model, File, Logger)} on top of the model read
+ * from the journal snapshot if there is one, or from the XML file otherwise.
+ * <p>
+ * The journal never modifies the TrackMate XML file: only an explicit save
+ * does. Compaction, with {@link #compact()}, marshals the model in the
+ * background to a separate snapshot file, next to the journal, that only
+ * contains the model. Every record stores the full state of the spot or edge
+ * it concerns, so that replaying a record twice is harmless. This is what
+ * makes compaction safe: a crash in the middle of it at worst leaves records
+ * that will be replayed again on an up-to-date snapshot. Compaction is also
+ * triggered automatically when the journal grows past a threshold, or when
+ * the model is changed in bulk (spots or tracks recomputed) in a way that
+ * cannot be journaled incrementally. The journal, its snapshot and the XML
+ * file are brought back in sync by {@link #truncate()}, after a full save.
+ * <p>
+ * The journal only stores spot features. Edge and track features must be
+ * recomputed after replay.
+ */
+public class ModelJournal implements ModelChangeListener
+{
+
+	/** The suffix appended to the snapshot file name to get the journal file. */
+	public static final String JOURNAL_SUFFIX = ".journal";
+
+	/**
+	 * The suffix of the journal file that is being folded into a new snapshot.
+	 */
+	private static final String COMPACTING_SUFFIX = ".journal.old";
+
+	/**
+	 * The suffix appended to the TrackMate XML file name to get the file the
+	 * journal is compacted into.
+	 */
+	public static final String SNAPSHOT_SUFFIX = ".journal.snapshot";
+
+	/**
+	 * Number of records after which the journal is automatically compacted.
+	 */
+	public static final int DEFAULT_COMPACTION_THRESHOLD = 100000;
+
+	private static final String HEADER = "# TrackMate model journal v1";
+
+	private static final char SEP = '\t';
+
+	private static final String SPOT_RECORD = "S";
+
+	private static final String SPOT_REMOVED_RECORD = "R";
+
+	private static final String EDGE_RECORD = "E";
+
+	private static final String EDGE_REMOVED_RECORD = "X";
+
+	private static final Charset CHARSET = Charset.forName( "UTF-8" );
+
+	private static final String BASE_ERROR_MSG = "[ModelJournal] ";
+
+	private final Model model;
+
+	private final File file;
+
+	private final File snapshotFile;
+
+	private final File journalFile;
+
+	private final File compactingFile;
+
+	private final Logger logger;
+
+	private final ExecutorService writerThread;
+
+	private int compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+	/** Only accessed from the writer thread. */
+	private Writer writer;
+
+	/** Only accessed from the writer thread. */
+	private int nRecords;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	private ModelJournal( final Model model, final File file, final Logger logger )
+	{
+		this.model = model;
+		this.file = file;
+		this.snapshotFile = snapshotFileFor( file );
+		this.journalFile = journalFileFor( file );
+		this.compactingFile = compactingFileFor( file );
+		this.logger = logger;
+		this.writerThread = Executors.newSingleThreadExecutor( new ThreadFactory()
+		{
+			@Override
+			public Thread newThread( final Runnable r )
+			{
+				final Thread thread = new Thread( r, BASE_ERROR_MSG + file.getName() );
+				thread.setDaemon( true );
+				return thread;
+			}
+		} );
+	}
+
+	/*
+	 * STATIC METHODS
+	 */
+
+	/**
+	 * Starts journaling the edits of the specified model, next to the
+	 * specified TrackMate XML file. New records are appended to the journal
+	 * that might already exist for this file. Journals previously attached to
+	 * the model are closed.
+	 *
+	 * @param model
+	 *            the model to journal.
+	 * @param file
+	 *            the TrackMate XML file the model was last saved to or loaded
+	 *            from.
+	 * @param logger
+	 *            a logger to report errors to.
+	 * @return the new journal.
+	 */
+	public static ModelJournal attach( final Model model, final File file, final Logger logger )
+	{
+		final List< ModelJournal > previous = new ArrayList< ModelJournal >();
+		for ( final ModelChangeListener listener : model.getModelChangeListener() )
+		{
+			if ( listener instanceof ModelJournal )
+			{
+				previous.add( ( ModelJournal ) listener );
+			}
+		}
+		for ( final ModelJournal journal : previous )
+		{
+			journal.close();
+		}
+
+		final ModelJournal journal = new ModelJournal( model, file, logger );
+		model.addModelChangeListener( journal );
+		return journal;
+	}
+
+	/**
+	 * Returns the journal file associated to the specified TrackMate XML file.
+	 *
+	 * @param file
+	 *            the TrackMate XML file.
+	 * @return the journal file, which may not exist.
+	 */
+	public static File journalFileFor( final File file )
+	{
+		return new File( file.getParentFile(), file.getName() + JOURNAL_SUFFIX );
+	}
+
+	/**
+	 * Returns the file the journal of the specified TrackMate XML file is
+	 * compacted into. It is a TrackMate XML file that only contains a model.
+	 *
+	 * @param file
+	 *            the TrackMate XML file.
+	 * @return the journal snapshot file, which may not exist.
+	 */
+	public static File snapshotFileFor( final File file )
+	{
+		return new File( file.getParentFile(), file.getName() + SNAPSHOT_SUFFIX );
+	}
+
+	/**
+	 * Returns <code>true</code> if there are journaled edits for the specified
+	 * TrackMate XML file that are not in it yet.
+	 *
+	 * @param file
+	 *            the TrackMate XML file.
+	 * @return <code>true</code> if a journal snapshot or a non-empty journal
+	 *         exists.
+	 */
+	public static boolean hasJournal( final File file )
+	{
+		return snapshotFileFor( file ).exists() || compactingFileFor( file ).exists() || journalFileFor( file ).length() > HEADER.length() + 1;
+	}
+
+	/**
+	 * Replays the journaled edits for the specified TrackMate XML file on the
+	 * specified model. If a journal snapshot exists, the model must have been
+	 * loaded from it, otherwise from the TrackMate XML file itself. Malformed
+	 * records, such as a last line truncated by a crash, are skipped.
+	 * <p>
+	 * Only spot features are journaled: edge and track features must be
+	 * recomputed afterwards.
+	 *
+	 * @param model
+	 *            the model loaded from the journal snapshot or the TrackMate
+	 *            XML file.
+	 * @param file
+	 *            the TrackMate XML file.
+	 * @param logger
+	 *            a logger to report to.
+	 * @return the number of records replayed.
+	 * @throws IOException
+	 *             if the journal cannot be read.
+	 * @see #snapshotFileFor(File)
+	 */
+	public static int replay( final Model model, final File file, final Logger logger ) throws IOException
+	{
+		final Map< Integer, Spot > spotIDs = new HashMap< Integer, Spot >( model.getSpots().getNSpots( false ) );
+		for ( final Iterator< Spot > it = model.getSpots().iterator( false ); it.hasNext(); )
+		{
+			final Spot spot = it.next();
+			spotIDs.put( Integer.valueOf( spot.ID() ), spot );
+		}
+
+		int nReplayed = 0;
+		model.beginUpdate();
+		try
+		{
+			// A journal left over by an interrupted compaction goes first.
+			nReplayed += replay( model, compactingFileFor( file ), spotIDs, logger );
+			nReplayed += replay( model, journalFileFor( file ), spotIDs, logger );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return nReplayed;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	@Override
+	public void modelChanged( final ModelChangeEvent event )
+	{
+		switch ( event.getEventID() )
+		{
+		case ModelChangeEvent.MODEL_MODIFIED:
+		{
+			final StringBuilder str = new StringBuilder();
+			int n = 0;
+			for ( final Spot spot : event.getSpots() )
+			{
+				if ( event.getSpotFlag( spot ).intValue() == ModelChangeEvent.FLAG_SPOT_REMOVED )
+				{
+					str.append( SPOT_REMOVED_RECORD ).append( SEP ).append( spot.ID() ).append( '\n' );
+				}
+				else
+				{
+					appendSpot( str, spot );
+				}
+				n++;
+			}
+
+			final TrackModel trackModel = model.getTrackModel();
+			for ( final DefaultWeightedEdge edge : event.getEdges() )
+			{
+				/*
+				 * Edges keep a reference to their source and target, so we can
+				 * still retrieve them after the edge was removed.
+				 */
+				final Spot source = trackModel.getEdgeSource( edge );
+				final Spot target = trackModel.getEdgeTarget( edge );
+				if ( null == source || null == target )
+				{
+					continue;
+				}
+				if ( event.getEdgeFlag( edge ).intValue() == ModelChangeEvent.FLAG_EDGE_REMOVED )
+				{
+					str.append( EDGE_REMOVED_RECORD ).append( SEP ).append( source.ID() ).append( SEP ).append( target.ID() ).append( '\n' );
+				}
+				else
+				{
+					str.append( EDGE_RECORD ).append( SEP ).append( source.ID() ).append( SEP ).append( target.ID() ).append( SEP ).append( trackModel.getEdgeWeight( edge ) ).append( '\n' );
+				}
+				n++;
+			}
+			append( str.toString(), n );
+			break;
+		}
+
+		case ModelChangeEvent.SPOTS_COMPUTED:
+		case ModelChangeEvent.TRACKS_COMPUTED:
+			// Bulk changes: cheaper to take a new snapshot.
+			compact();
+			break;
+
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Folds the journal into a new full snapshot of the model, in the
+	 * background. The model is locked while it is being marshalled, then
+	 * written to the journal snapshot file. The TrackMate XML file is not
+	 * modified.
+	 *
+	 * @see #snapshotFileFor(File)
+	 */
+	public void compact()
+	{
+		if ( writerThread.isShutdown() )
+		{
+			return;
+		}
+		writerThread.execute( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					doCompact();
+				}
+				catch ( final IOException e )
+				{
+					logger.error( BASE_ERROR_MSG + "Could not compact journal into " + snapshotFile + ":\n" + e.getMessage() + '\n' );
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Discards all the journaled edits and the journal snapshot. Must be
+	 * called after the model has been saved to the TrackMate XML file.
+	 */
+	public void truncate()
+	{
+		if ( writerThread.isShutdown() )
+		{
+			return;
+		}
+		writerThread.execute( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					closeWriter();
+					journalFile.delete();
+					compactingFile.delete();
+					snapshotFile.delete();
+					nRecords = 0;
+				}
+				catch ( final IOException e )
+				{
+					logger.error( BASE_ERROR_MSG + "Could not truncate journal " + journalFile + ":\n" + e.getMessage() + '\n' );
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Stops listening to the model, writes pending records and closes the
+	 * journal file. Journaled edits are kept on disk.
+	 */
+	public void close()
+	{
+		model.removeModelChangeListener( this );
+		if ( writerThread.isShutdown() )
+		{
+			return;
+		}
+		writerThread.execute( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					closeWriter();
+				}
+				catch ( final IOException e )
+				{
+					logger.error( BASE_ERROR_MSG + "Could not close journal " + journalFile + ":\n" + e.getMessage() + '\n' );
+				}
+			}
+		} );
+		writerThread.shutdown();
+		try
+		{
+			writerThread.awaitTermination( 1, TimeUnit.MINUTES );
+		}
+		catch ( final InterruptedException e )
+		{
+			logger.error( BASE_ERROR_MSG + "Interrupted while closing journal " + journalFile + ".\n" );
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Sets the number of records after which the journal is automatically
+	 * folded into a new snapshot.
+	 *
+	 * @param compactionThreshold
+	 *            the number of records. Use {@link Integer#MAX_VALUE} to
+	 *            disable automatic compaction.
+	 */
+	public void setCompactionThreshold( final int compactionThreshold )
+	{
+		this.compactionThreshold = compactionThreshold;
+	}
+
+	/**
+	 * Returns the journal file.
+	 *
+	 * @return the journal file.
+	 */
+	public File getJournalFile()
+	{
+		return journalFile;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void append( final String records, final int n )
+	{
+		if ( n == 0 || writerThread.isShutdown() )
+		{
+			return;
+		}
+		writerThread.execute( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					final Writer w = getWriter();
+					w.write( records );
+					w.flush();
+					nRecords += n;
+				}
+				catch ( final IOException e )
+				{
+					logger.error( BASE_ERROR_MSG + "Could not write to journal " + journalFile + ":\n" + e.getMessage() + '\n' );
+					return;
+				}
+				if ( nRecords > compactionThreshold )
+				{
+					compact();
+				}
+			}
+		} );
+	}
+
+	/** Called from the writer thread only. */
+	private void doCompact() throws IOException
+	{
+		final File tmpFile = new File( snapshotFile.getParentFile(), snapshotFile.getName() + ".tmp" );
+		final TmXmlWriter xmlWriter = new TmXmlWriter( tmpFile, Logger.VOID_LOGGER );
+		synchronized ( model )
+		{
+			/*
+			 * Holding the model lock blocks the synchronized edit methods of
+			 * the model, so the model cannot be modified nor fire events while
+			 * it is marshalled. It does not guarantee that the snapshot matches
+			 * the journal exactly: the records of the last events may still
+			 * be queued behind this task, and a transaction opened on another
+			 * thread may be half applied. These records will end up in the
+			 * fresh journal, and replaying them on the new snapshot is
+			 * harmless since records are idempotent.
+			 */
+			closeWriter();
+			if ( journalFile.exists() )
+			{
+				if ( compactingFile.exists() )
+				{
+					// Previous compaction did not complete. Keep both.
+					copy( journalFile, compactingFile );
+					journalFile.delete();
+				}
+				else if ( !journalFile.renameTo( compactingFile ) )
+				{ throw new IOException( "Could not rename " + journalFile + " to " + compactingFile ); }
+			}
+			nRecords = 0;
+			xmlWriter.appendModel( model );
+		}
+
+		/*
+		 * Write the snapshot aside, then swap it in, so that a crash never
+		 * leaves a partial snapshot.
+		 */
+
+		xmlWriter.writeToFile();
+		snapshotFile.delete();
+		if ( !tmpFile.renameTo( snapshotFile ) )
+		{ throw new IOException( "Could not rename " + tmpFile + " to " + snapshotFile ); }
+
+		// The snapshot now contains everything that was moved aside.
+		compactingFile.delete();
+	}
+
+	/** Called from the writer thread only. */
+	private Writer getWriter() throws IOException
+	{
+		if ( null == writer )
+		{
+			final boolean isNew = !journalFile.exists() || journalFile.length() == 0;
+			writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( journalFile, true ), CHARSET ) );
+			if ( isNew )
+			{
+				writer.write( HEADER );
+				writer.write( '\n' );
+			}
+		}
+		return writer;
+	}
+
+	/** Called from the writer thread only. */
+	private void closeWriter() throws IOException
+	{
+		if ( null != writer )
+		{
+			writer.close();
+			writer = null;
+		}
+	}
+
+	private static File compactingFileFor( final File file )
+	{
+		return new File( file.getParentFile(), file.getName() + COMPACTING_SUFFIX );
+	}
+
+	private static void appendSpot( final StringBuilder str, final Spot spot )
+	{
+		final String name = spot.getName();
+		str.append( SPOT_RECORD ).append( SEP ).append( spot.ID() ).append( SEP );
+		if ( null != name )
+		{
+			str.append( name.replace( '\t', ' ' ).replace( '\n', ' ' ) );
+		}
+		for ( final Map.Entry< String, Double > entry : spot.getFeatures().entrySet() )
+		{
+			if ( null == entry.getValue() )
+			{
+				continue;
+			}
+			str.append( SEP ).append( entry.getKey() ).append( '=' ).append( entry.getValue().doubleValue() );
+		}
+		str.append( '\n' );
+	}
+
+	private static int replay( final Model model, final File file, final Map< Integer, Spot > spotIDs, final Logger logger ) throws IOException
+	{
+		if ( !file.exists() )
+		{
+			return 0;
+		}
+
+		int nReplayed = 0;
+		int nSkipped = 0;
+		final InputStream is = new FileInputStream( file );
+		try
+		{
+			final BufferedReader reader = new BufferedReader( new InputStreamReader( is, CHARSET ) );
+			String line;
+			while ( ( line = reader.readLine() ) != null )
+			{
+				if ( line.isEmpty() || line.startsWith( "#" ) )
+				{
+					continue;
+				}
+				try
+				{
+					if ( replayRecord( model, line.split( "\t", -1 ), spotIDs ) )
+					{
+						nReplayed++;
+					}
+					else
+					{
+						nSkipped++;
+					}
+				}
+				catch ( final RuntimeException e )
+				{
+					// Malformed record, e.g. truncated by a crash.
+					nSkipped++;
+				}
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+		if ( nSkipped > 0 )
+		{
+			logger.log( BASE_ERROR_MSG + "Skipped " + nSkipped + " records in journal " + file + ".\n" );
+		}
+		return nReplayed;
+	}
+
+	private static boolean replayRecord( final Model model, final String[] tokens, final Map< Integer, Spot > spotIDs )
+	{
+		final String type = tokens[ 0 ];
+		if ( SPOT_RECORD.equals( type ) )
+		{
+			final Integer id = Integer.valueOf( tokens[ 1 ] );
+			final Map< String, Double > features = new HashMap< String, Double >( tokens.length - 3 );
+			for ( int i = 3; i < tokens.length; i++ )
+			{
+				final int eq = tokens[ i ].lastIndexOf( '=' );
+				features.put( tokens[ i ].substring( 0, eq ), Double.valueOf( tokens[ i ].substring( eq + 1 ) ) );
+			}
+			final Double frameVal = features.get( Spot.FRAME );
+			if ( null == frameVal )
+			{
+				return false;
+			}
+			final Integer frame = Integer.valueOf( frameVal.intValue() );
+
+			Spot spot = spotIDs.get( id );
+			if ( null == spot )
+			{
+				spot = new Spot( id.intValue() );
+				spot.setName( tokens[ 2 ] );
+				spot.getFeatures().putAll( features );
+				model.addSpotTo( spot, frame );
+				spotIDs.put( id, spot );
+			}
+			else
+			{
+				final Double oldFrame = spot.getFeature( Spot.FRAME );
+				spot.setName( tokens[ 2 ] );
+				spot.getFeatures().putAll( features );
+				if ( null != oldFrame && oldFrame.intValue() != frame.intValue() )
+				{
+					model.moveSpotFrom( spot, Integer.valueOf( oldFrame.intValue() ), frame );
+				}
+				else
+				{
+					model.updateFeatures( spot );
+				}
+			}
+			return true;
+		}
+		else if ( SPOT_REMOVED_RECORD.equals( type ) )
+		{
+			final Spot spot = spotIDs.remove( Integer.valueOf( tokens[ 1 ] ) );
+			if ( null != spot )
+			{
+				model.removeSpot( spot );
+			}
+			return true;
+		}
+		else if ( EDGE_RECORD.equals( type ) )
+		{
+			final Spot source = spotIDs.get( Integer.valueOf( tokens[ 1 ] ) );
+			final Spot target = spotIDs.get( Integer.valueOf( tokens[ 2 ] ) );
+			final double weight = Double.parseDouble( tokens[ 3 ] );
+			if ( null == source || null == target )
+			{
+				// One of the spots was removed later on: nothing to do.
+				return true;
+			}
+			final DefaultWeightedEdge edge = model.getTrackModel().getEdge( source, target );
+			if ( null == edge )
+			{
+				model.addEdge( source, target, weight );
+			}
+			else
+			{
+				model.setEdgeWeight( edge, weight );
+			}
+			return true;
+		}
+		else if ( EDGE_REMOVED_RECORD.equals( type ) )
+		{
+			final Spot source = spotIDs.get( Integer.valueOf( tokens[ 1 ] ) );
+			final Spot target = spotIDs.get( Integer.valueOf( tokens[ 2 ] ) );
+			if ( null != source && null != target )
+			{
+				model.removeEdge( source, target );
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private static void copy( final File from, final File to ) throws IOException
+	{
+		final InputStream is = new FileInputStream( from );
+		try
+		{
+			final OutputStream os = new FileOutputStream( to, true );
+			try
+			{
+				final byte[] buffer = new byte[ 8192 ];
+				int n;
+				while ( ( n = is.read( buffer ) ) > 0 )
+				{
+					os.write( buffer, 0, n );
+				}
+			}
+			finally
+			{
+				os.close();
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package fiji.plugin.trackmate.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * A minimal pretty-printing XML writer that streams elements to an
+ * {@link OutputStream} as they are written, instead of building a JDOM
+ * document first. Memory usage does not depend on the document size, which
+ * makes it suitable for exporting very large models.
+ * <p>
+ * Elements are written depth-first: attributes must be added right after the
+ * element is started, before any child element.
+ *
+ * <pre>
+ * final StreamingXmlWriter writer = new StreamingXmlWriter( new FileOutputStream( file ) );
+ * try {
+ * 	writer.startElement( "root" );
+ * 	writer.emptyElement( "child" );
+ * 	writer.attribute( "id", "1" );
+ * 	writer.endElement();
+ * } finally {
+ * 	writer.close();
+ * }
+ * </pre>
+ */
+public class StreamingXmlWriter implements Closeable
+{
+
+	private static final String ENCODING = "UTF-8";
+
+	private static final String INDENT = "  ";
+
+	private final OutputStream os;
+
+	private final XMLStreamWriter writer;
+
+	/**
+	 * For each open element, whether it has child elements, which tells us
+	 * whether its closing tag goes on a new line.
+	 */
+	private boolean[] hasChildren = new boolean[ 16 ];
+
+	private int depth = 0;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Creates a new writer and writes the XML declaration to the specified
+	 * stream.
+	 *
+	 * @param os
+	 *            the stream to write to. It will be closed when this writer is
+	 *            closed.
+	 * @throws IOException
+	 *             if the XML declaration cannot be written.
+	 */
+	public StreamingXmlWriter( final OutputStream os ) throws IOException
+	{
+		this.os = new BufferedOutputStream( os );
+		try
+		{
+			this.writer = XMLOutputFactory.newInstance().createXMLStreamWriter( this.os, ENCODING );
+			writer.writeStartDocument( ENCODING, "1.0" );
+		}
+		catch ( final XMLStreamException e )
+		{
+			throw new IOException( e.getMessage(), e );
+		}
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Opens a new element, that may have children. Must be closed by
+	 * {@link #endElement()}.
+	 *
+	 * @param name
+	 *            the element name.
+	 * @throws IOException
+	 *             if the element cannot be written.
+	 */
+	public void startElement( final String name ) throws IOException
+	{
+		try
+		{
+			indent();
+			writer.writeStartElement( name );
+			push();
+		}
+		catch ( final XMLStreamException e )
+		{
+			throw new IOException( e.getMessage(), e );
+		}
+	}
+
+	/**
+	 * Writes a new element that has no children. Attributes can be added
+	 * right after. There is no need to call {@link #endElement()} for it.
+	 *
+	 * @param name
+	 *            the element name.
+	 * @throws IOException
+	 *             if the element cannot be written.
+	 */
+	public void emptyElement( final String name ) throws IOException
+	{
+		try
+		{
+			indent();
+			writer.writeEmptyElement( name );
+		}
+		catch ( final XMLStreamException e )
+		{
+			throw new IOException( e.getMessage(), e );
+		}
+	}
+
+	/**
+	 * Adds an attribute to the element that was just started.
+	 *
+	 * @param name
+	 *            the attribute name.
+	 * @param value
+	 *            the attribute value. Will be escaped.
+	 * @throws IOException
+	 *             if the attribute cannot be written.
+	 */
+	public void attribute( final String name, final String value ) throws IOException
+	{
+		try
+		{
+			writer.writeAttribute( name, value );
+		}
+		catch ( final XMLStreamException e )
+		{
+			throw new IOException( e.getMessage(), e );
+		}
+	}
+
+	/**
+	 * Closes the last element opened with {@link #startElement(String)}.
+	 *
+	 * @throws IOException
+	 *             if the closing tag cannot be written.
+	 */
+	public void endElement() throws IOException
+	{
+		try
+		{
+			depth--;
+			if ( hasChildren[ depth ] )
+			{
+				newLine();
+			}
+			writer.writeEndElement();
+		}
+		catch ( final XMLStreamException e )
+		{
+			throw new IOException( e.getMessage(), e );
+		}
+	}
+
+	/**
+	 * Closes all open elements, flushes and closes the underlying stream.
+	 *
+	 * @throws IOException
+	 *             if the document cannot be finished.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			while ( depth > 0 )
+			{
+				endElement();
+			}
+			writer.writeEndDocument();
+			writer.writeCharacters( "\n" );
+			writer.flush();
+			writer.close();
+		}
+		catch ( final XMLStreamException e )
+		{
+			throw new IOException( e.getMessage(), e );
+		}
+		finally
+		{
+			os.close();
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void push()
+	{
+		if ( depth == hasChildren.length )
+		{
+			hasChildren = Arrays.copyOf( hasChildren, 2 * depth );
+		}
+		hasChildren[ depth++ ] = false;
+	}
+
+	private void indent() throws XMLStreamException
+	{
+		if ( depth > 0 )
+		{
+			hasChildren[ depth - 1 ] = true;
+		}
+		newLine();
+	}
+
+	private void newLine() throws XMLStreamException
+	{
+		writer.writeCharacters( "\n" );
+		for ( int i = 0; i < depth; i++ )
+		{
+			writer.writeCharacters( INDENT );
+		}
+	}
+}
@@ -3,15 +3,23 @@ package fiji.plugin.trackmate.io;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import net.imglib2.algorithm.Benchmark;
+import net.imglib2.algorithm.MultiThreaded;
 import net.imglib2.algorithm.OutputAlgorithm;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.util.LinAlgHelpers;
@@ -31,7 +39,7 @@ import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 
-public class TGMMImporter implements OutputAlgorithm< Model >, Benchmark
+public class TGMMImporter implements OutputAlgorithm< Model >, Benchmark, MultiThreaded
 {
 
 	private static final FilenameFilter xmlFilter = new FilenameFilter()
@@ -77,6 +85,8 @@ public class TGMMImporter implements OutputAlgorithm< Model >, Benchmark
 
 	private long processingTime;
 
+	private int numThreads;
+
 	/*
 	 * CONSTRUCTORS
 	 */
@@ -87,6 +97,7 @@ public class TGMMImporter implements OutputAlgorithm< Model >, Benchmark
 		this.framePattern = framePattern;
 		this.transforms = transforms;
 		this.logger = logger;
+		setNumThreads();
 	}
 
 	public TGMMImporter( final File file, final List< AffineTransform3D > transforms, final Pattern framePattern )
@@ -144,9 +155,6 @@ public class TGMMImporter implements OutputAlgorithm< Model >, Benchmark
 		final SpotCollection sc = new SpotCollection();
 		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
 
-		final double[] targetCoordsHolder = new double[ 3 ];
-		final double[] sourceCoordsHolder = new double[ 3 ];
-
 		/*
 		 * Grab all the XML files
 		 */
@@ -186,228 +194,128 @@ public class TGMMImporter implements OutputAlgorithm< Model >, Benchmark
 		}
 
 		/*
-		 * Read XML
+		 * Sort files by frame. Links are resolved between consecutive frames,
+		 * so we must not depend on the order the file system lists them in.
+		 */
+
+		final Integer[] order = new Integer[ frames.length ];
+		for ( int i = 0; i < order.length; i++ )
+		{
+			order[ i ] = Integer.valueOf( i );
+		}
+		Arrays.sort( order, new Comparator< Integer >()
+		{
+			@Override
+			public int compare( final Integer o1, final Integer o2 )
+			{
+				return frames[ o1.intValue() ] - frames[ o2.intValue() ];
+			}
+		} );
+
+		/*
+		 * Parse XML files in parallel. Workers only parse one file each and
+		 * build its spots; links are resolved afterwards in this thread, in
+		 * frame order, so that the result does not depend on scheduling. We
+		 * keep at most a few files in flight so that memory stays bounded.
 		 */
 
+		final ExecutorService executors = Executors.newFixedThreadPool( numThreads );
+		final int maxInFlight = 2 * numThreads;
+		final ArrayDeque< Future< FrameContent > > inFlight = new ArrayDeque< Future< FrameContent > >( maxInFlight );
+		int nextToSubmit = 0;
 		File xmlFile = null;
 		try
 		{
-			final SAXBuilder saxBuilder = new SAXBuilder();
-
 			Map< Integer, Spot > previousSpotID = null;
-			Map< Integer, Spot > currentSpotID;
 
-			for ( int t = 0; t < frames.length; t++ )
+			for ( int t = 0; t < order.length; t++ )
 			{
-				logger.log( "Processing frame " + frames[ t ] + ". " );
-				final AffineTransform3D transform = transforms.get( frames[ t ] );
-
-				xmlFile = xmlFiles[ t ];
-				final Document doc = saxBuilder.build( xmlFile );
-				final Element root = doc.getRootElement();
-				final List< Element > detectionEls = root.getChildren( XML_DETECTION_NAME );
+				while ( nextToSubmit < order.length && inFlight.size() < maxInFlight )
+				{
+					final int index = order[ nextToSubmit++ ].intValue();
+					inFlight.add( executors.submit( new FrameParser( xmlFiles[ index ], frames[ index ] ) ) );
+				}
 
-				final Collection< Spot > spots = new ArrayList< Spot >( detectionEls.size() );
+				final int index = order[ t ].intValue();
+				xmlFile = xmlFiles[ index ];
+				final int frame = frames[ index ];
+				final FrameContent content = inFlight.poll().get();
+				if ( null != content.errorMessage )
+				{
+					errorMessage = content.errorMessage;
+					return false;
+				}
 
 				/*
-				 * Parse all detections
+				 * Resolve links with the previous frame.
 				 */
 
-				currentSpotID = new HashMap< Integer, Spot >( detectionEls.size() );
-
-				for ( final Element detectionEl : detectionEls )
+				final Map< Integer, Spot > currentSpotID = new HashMap< Integer, Spot >( content.spots.size() );
+				for ( int i = 0; i < content.spots.size(); i++ )
 				{
+					final Spot spot = content.spots.get( i );
+					final int id = content.ids[ i ];
+					final int parent = content.parents[ i ];
+					currentSpotID.put( Integer.valueOf( id ), spot );
+					graph.addVertex( spot );
 
-					/*
-					 * Fetch and check attribute strings.
-					 */
-
-					final String pixelPosStr = detectionEl.getAttributeValue( XML_CENTROID );
-					if ( null == pixelPosStr )
+					if ( parent >= 0 && previousSpotID != null )
 					{
-						errorMessage = BASE_ERROR_MSG + "Element " + detectionEl + " in file " + xmlFile + " misses the centroid attribute (" + XML_CENTROID + ").\n";
-						return false;
-					}
-					final String[] pixelPosStrs = pixelPosStr.split( " " );
-
-					final String idStr = detectionEl.getAttributeValue( XML_ID );
-					if ( null == idStr )
-					{
-						errorMessage = BASE_ERROR_MSG + "Element " + detectionEl + " in file " + xmlFile + " misses the ID attribute (" + XML_ID + ").\n";
-						return false;
-					}
-
-					final String lineageStr = detectionEl.getAttributeValue( XML_LINEAGE );
-					if ( null == lineageStr )
-					{
-						errorMessage = BASE_ERROR_MSG + "Element " + detectionEl + " in file " + xmlFile + " misses the lineage attribute (" + XML_LINEAGE + ").\n";
-						return false;
-					}
-
-					final String parentStr = detectionEl.getAttributeValue( XML_PARENT );
-					if ( null == parentStr )
-					{
-						errorMessage = BASE_ERROR_MSG + "Element " + detectionEl + " in file " + xmlFile + " misses the parent attribute (" + XML_LINEAGE + ").\n";
-						return false;
-					}
-
-					final String scoreStr = detectionEl.getAttributeValue( XML_SCORE );
-					if ( null == scoreStr )
-					{
-						errorMessage = BASE_ERROR_MSG + "Element " + detectionEl + " in file " + xmlFile + " misses the score attribute (" + XML_SCORE + ").\n";
-						return false;
-					}
-
-					final String nuStr = detectionEl.getAttributeValue( XML_NU );
-					if ( null == nuStr )
-					{
-						errorMessage = BASE_ERROR_MSG + "Element " + detectionEl + " in file " + xmlFile + " misses the nu attribute (" + XML_NU + ").\n";
-						return false;
-					}
-
-					final String precMatStr = detectionEl.getAttributeValue( XML_PRECISION_MATRIX );
-					if ( null == precMatStr )
-					{
-						errorMessage = BASE_ERROR_MSG + "Element " + detectionEl + " in file " + xmlFile + " misses the prevision matrix attribute (" + XML_PRECISION_MATRIX + ").\n";
-						return false;
-					}
-					final String[] precMatStrs = precMatStr.split( " " );
-
-					/*
-					 * Parse attribute strings.
-					 */
-
-					try
-					{
-						/*
-						 * Build position
-						 */
-
+						final Spot source = previousSpotID.get( Integer.valueOf( parent ) );
+						if ( null == source )
 						{
-							final double x = Double.parseDouble( pixelPosStrs[ 0 ] );
-							final double y = Double.parseDouble( pixelPosStrs[ 1 ] );
-							final double z = Double.parseDouble( pixelPosStrs[ 2 ] );
-
-							/*
-							 * Map it back to global coordinate system.
-							 */
-
-							sourceCoordsHolder[ 0 ] = x;
-							sourceCoordsHolder[ 1 ] = y;
-							sourceCoordsHolder[ 2 ] = z;
+							System.out.println( BASE_ERROR_MSG + "The parent of the current spot (frame " + frame + ", id = " + id + " could not be found (was expected in frame " + ( frame - 1 ) + " with id = " + parent + ".\n" );
+							continue;
 						}
-
-						transform.apply( sourceCoordsHolder, targetCoordsHolder );
-
-						final double mx = targetCoordsHolder[ 0 ];
-						final double my = targetCoordsHolder[ 1 ];
-						final double mz = targetCoordsHolder[ 2 ];
-
-						/*
-						 * ID and parent and lineage and score.
-						 */
-
-						final int id = Integer.parseInt( idStr );
-						final double score = Double.parseDouble( scoreStr );
-						final int lineage = Integer.parseInt( lineageStr );
-						final int parent = Integer.parseInt( parentStr );
-
-						/*
-						 * Shape and radius
-						 */
-
-						final double nu = Double.parseDouble( nuStr );
-						final double[] vals = new double[ 9 ];
-						for ( int j = 0; j < vals.length; j++ )
-						{
-							vals[ j ] = nu * Double.parseDouble( precMatStrs[ j ] );
-						}
-						final Matrix precMat = new Matrix( vals, 3 );
-						final Matrix covMat = precMat.inverse();
-
-						/*
-						 * Scale shape properly
-						 */
-
-						final double[][] S = covMat.getArray();
-						final double[][] T = new double[ 3 ][ 3 ];
-						for ( int r = 0; r < 3; ++r )
-							for ( int c = 0; c < 3; ++c )
-								T[ r ][ c ] = transform.get( r, c );
-						final double[][] TS = new double[ 3 ][ 3 ];
-						LinAlgHelpers.mult( T, S, TS );
-						LinAlgHelpers.multABT( TS, T, S );
-						// note that by writing to S we write the internal array
-						// of covMat.
-
-						/*
-						 * Build a mean radius
-						 */
-
-						final double nSigmas = 2; // ellipsoid is at nSigmas std
-													// devs of the Gaussian
-						final EigenvalueDecomposition eig = covMat.eig();
-						final double[] radii = eig.getRealEigenvalues();
-						for ( int i = 0; i < radii.length; ++i )
-							radii[ i ] = Math.sqrt( radii[ i ] );
-						final double radius = nSigmas * Util.average( radii );
-
-						/*
-						 * Make a spot and add it to this frame collection.
-						 */
-
-						final Spot spot = new Spot( mx, my, mz, radius, score, lineage + " (" + id + ")" );
-						spots.add( spot );
-						currentSpotID.put( Integer.valueOf( id ), spot );
-
-						graph.addVertex( spot );
-						if ( parent >= 0 && previousSpotID != null )
+						final DefaultWeightedEdge edge = graph.addEdge( source, spot );
+						if ( null == edge )
 						{
-							final Spot source = previousSpotID.get( Integer.valueOf( parent ) );
-							if ( null == source )
-							{
-								System.out.println( BASE_ERROR_MSG + "The parent of the current spot (frame " + frames[ t ] + ", id = " + id + " could not be found (was expected in frame " + ( frames[ t ] - 1 ) + " with id = " + parent + ".\n" );
-								continue;
-							}
-							final DefaultWeightedEdge edge = graph.addEdge( source, spot );
-							if ( null == edge )
-							{
-								System.out.println( BASE_ERROR_MSG + "Trouble adding edge between " + source + " and " + spot + ". Edge already exists?" );
-								continue;
-							}
+							System.out.println( BASE_ERROR_MSG + "Trouble adding edge between " + source + " and " + spot + ". Edge already exists?" );
+							continue;
 						}
 					}
-					catch ( final NumberFormatException nfe )
-					{
-						errorMessage = BASE_ERROR_MSG + "Could not parse attributes of element " + detectionEl + " in xmlFile " + xmlFile + ".\n" + nfe.getMessage() + "\n";
-//					return false;
-						System.out.println( errorMessage );
-						continue;
-					}
 				}
 
 				/*
 				 * Finished inspecting a frame. Store it in the spot collection.
 				 */
 
-				sc.put( frames[ t ], spots );
+				sc.put( frame, content.spots );
 				previousSpotID = currentSpotID;
-				logger.log( "Found " + spots.size() + " spots.\n" );
+				logger.log( "Processing frame " + frame + ". Found " + content.spots.size() + " spots.\n" );
 				logger.setProgress( ( double ) t / frames.length );
 			}
 		}
-		catch ( final JDOMException e )
+		catch ( final InterruptedException e )
 		{
-			errorMessage = BASE_ERROR_MSG + "File " + xmlFile + " is not a poperly formed XML file.\n" + e.getMessage() + "\n";
+			errorMessage = BASE_ERROR_MSG + "Interrupted while reading file " + xmlFile + ".\n" + e.getMessage() + "\n";
 			return false;
 		}
-		catch ( final IOException e )
+		catch ( final ExecutionException e )
 		{
-			errorMessage = BASE_ERROR_MSG + "Could not open file " + xmlFile + " for reading.\n" + e.getMessage() + "\n";
+			final Throwable cause = e.getCause();
+			if ( cause instanceof JDOMException )
+			{
+				errorMessage = BASE_ERROR_MSG + "File " + xmlFile + " is not a poperly formed XML file.\n" + cause.getMessage() + "\n";
+			}
+			else if ( cause instanceof IOException )
+			{
+				errorMessage = BASE_ERROR_MSG + "Could not open file " + xmlFile + " for reading.\n" + cause.getMessage() + "\n";
+			}
+			else
+			{
+				errorMessage = BASE_ERROR_MSG + "Problem reading file " + xmlFile + ".\n" + cause + "\n";
+			}
 			return false;
 		}
 		finally
 		{
+			executors.shutdownNow();
+
+			/*
+			 * Add everything to the model in one bulk operation.
+			 */
+
 			sc.setVisible( true );
 			model.setSpots( sc, false );
 			model.setTracks( graph, false );
@@ -422,6 +330,24 @@ public class TGMMImporter implements OutputAlgorithm< Model >, Benchmark
 		return true;
 	}
 
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
 	@Override
 	public String getErrorMessage()
 	{
@@ -440,4 +366,209 @@ public class TGMMImporter implements OutputAlgorithm< Model >, Benchmark
 		return processingTime;
 	}
 
+	/*
+	 * PRIVATE CLASSES
+	 */
+
+	/**
+	 * The spots parsed from a single TGMM file, with their TGMM ID and the ID
+	 * of their parent in the previous frame, stored in the same order.
+	 */
+	private static final class FrameContent
+	{
+		private final List< Spot > spots;
+
+		private final int[] ids;
+
+		private final int[] parents;
+
+		private final String errorMessage;
+
+		private FrameContent( final List< Spot > spots, final int[] ids, final int[] parents, final String errorMessage )
+		{
+			this.spots = spots;
+			this.ids = ids;
+			this.parents = parents;
+			this.errorMessage = errorMessage;
+		}
+	}
+
+	/**
+	 * Parses one TGMM file and builds its spots. Does not touch shared state,
+	 * so that several instances can run concurrently.
+	 */
+	private final class FrameParser implements Callable< FrameContent >
+	{
+
+		private final File xmlFile;
+
+		private final int frame;
+
+		private FrameParser( final File xmlFile, final int frame )
+		{
+			this.xmlFile = xmlFile;
+			this.frame = frame;
+		}
+
+		@Override
+		public FrameContent call() throws JDOMException, IOException
+		{
+			final AffineTransform3D transform = transforms.get( frame );
+			final double[] targetCoordsHolder = new double[ 3 ];
+			final double[] sourceCoordsHolder = new double[ 3 ];
+
+			final SAXBuilder saxBuilder = new SAXBuilder();
+			final Document doc = saxBuilder.build( xmlFile );
+			final Element root = doc.getRootElement();
+			final List< Element > detectionEls = root.getChildren( XML_DETECTION_NAME );
+
+			final List< Spot > spots = new ArrayList< Spot >( detectionEls.size() );
+			final int[] ids = new int[ detectionEls.size() ];
+			final int[] parents = new int[ detectionEls.size() ];
+
+			/*
+			 * Parse all detections
+			 */
+
+			for ( final Element detectionEl : detectionEls )
+			{
+
+				/*
+				 * Fetch and check attribute strings.
+				 */
+
+				final String pixelPosStr = detectionEl.getAttributeValue( XML_CENTROID );
+				if ( null == pixelPosStr )
+				{ return error( BASE_ERROR_MSG + "Element " + detectionEl + " in file " + xmlFile + " misses the centroid attribute (" + XML_CENTROID + ").\n" ); }
+				final String[] pixelPosStrs = pixelPosStr.split( " " );
+
+				final String idStr = detectionEl.getAttributeValue( XML_ID );
+				if ( null == idStr )
+				{ return error( BASE_ERROR_MSG + "Element " + detectionEl + " in file " + xmlFile + " misses the ID attribute (" + XML_ID + ").\n" ); }
+
+				final String lineageStr = detectionEl.getAttributeValue( XML_LINEAGE );
+				if ( null == lineageStr )
+				{ return error( BASE_ERROR_MSG + "Element " + detectionEl + " in file " + xmlFile + " misses the lineage attribute (" + XML_LINEAGE + ").\n" ); }
+
+				final String parentStr = detectionEl.getAttributeValue( XML_PARENT );
+				if ( null == parentStr )
+				{ return error( BASE_ERROR_MSG + "Element " + detectionEl + " in file " + xmlFile + " misses the parent attribute (" + XML_LINEAGE + ").\n" ); }
+
+				final String scoreStr = detectionEl.getAttributeValue( XML_SCORE );
+				if ( null == scoreStr )
+				{ return error( BASE_ERROR_MSG + "Element " + detectionEl + " in file " + xmlFile + " misses the score attribute (" + XML_SCORE + ").\n" ); }
+
+				final String nuStr = detectionEl.getAttributeValue( XML_NU );
+				if ( null == nuStr )
+				{ return error( BASE_ERROR_MSG + "Element " + detectionEl + " in file " + xmlFile + " misses the nu attribute (" + XML_NU + ").\n" ); }
+
+				final String precMatStr = detectionEl.getAttributeValue( XML_PRECISION_MATRIX );
+				if ( null == precMatStr )
+				{ return error( BASE_ERROR_MSG + "Element " + detectionEl + " in file " + xmlFile + " misses the prevision matrix attribute (" + XML_PRECISION_MATRIX + ").\n" ); }
+				final String[] precMatStrs = precMatStr.split( " " );
+
+				/*
+				 * Parse attribute strings.
+				 */
+
+				try
+				{
+					/*
+					 * Build position
+					 */
+
+					{
+						final double x = Double.parseDouble( pixelPosStrs[ 0 ] );
+						final double y = Double.parseDouble( pixelPosStrs[ 1 ] );
+						final double z = Double.parseDouble( pixelPosStrs[ 2 ] );
+
+						/*
+						 * Map it back to global coordinate system.
+						 */
+
+						sourceCoordsHolder[ 0 ] = x;
+						sourceCoordsHolder[ 1 ] = y;
+						sourceCoordsHolder[ 2 ] = z;
+					}
+
+					transform.apply( sourceCoordsHolder, targetCoordsHolder );
+
+					final double mx = targetCoordsHolder[ 0 ];
+					final double my = targetCoordsHolder[ 1 ];
+					final double mz = targetCoordsHolder[ 2 ];
+
+					/*
+					 * ID and parent and lineage and score.
+					 */
+
+					final int id = Integer.parseInt( idStr );
+					final double score = Double.parseDouble( scoreStr );
+					final int lineage = Integer.parseInt( lineageStr );
+					final int parent = Integer.parseInt( parentStr );
+
+					/*
+					 * Shape and radius
+					 */
+
+					final double nu = Double.parseDouble( nuStr );
+					final double[] vals = new double[ 9 ];
+					for ( int j = 0; j < vals.length; j++ )
+					{
+						vals[ j ] = nu * Double.parseDouble( precMatStrs[ j ] );
+					}
+					final Matrix precMat = new Matrix( vals, 3 );
+					final Matrix covMat = precMat.inverse();
+
+					/*
+					 * Scale shape properly
+					 */
+
+					final double[][] S = covMat.getArray();
+					final double[][] T = new double[ 3 ][ 3 ];
+					for ( int r = 0; r < 3; ++r )
+						for ( int c = 0; c < 3; ++c )
+							T[ r ][ c ] = transform.get( r, c );
+					final double[][] TS = new double[ 3 ][ 3 ];
+					LinAlgHelpers.mult( T, S, TS );
+					LinAlgHelpers.multABT( TS, T, S );
+					// note that by writing to S we write the internal array
+					// of covMat.
+
+					/*
+					 * Build a mean radius
+					 */
+
+					final double nSigmas = 2; // ellipsoid is at nSigmas std
+												// devs of the Gaussian
+					final EigenvalueDecomposition eig = covMat.eig();
+					final double[] radii = eig.getRealEigenvalues();
+					for ( int i = 0; i < radii.length; ++i )
+						radii[ i ] = Math.sqrt( radii[ i ] );
+					final double radius = nSigmas * Util.average( radii );
+
+					/*
+					 * Make a spot and add it to this frame collection.
+					 */
+
+					final Spot spot = new Spot( mx, my, mz, radius, score, lineage + " (" + id + ")" );
+					ids[ spots.size() ] = id;
+					parents[ spots.size() ] = parent;
+					spots.add( spot );
+				}
+				catch ( final NumberFormatException nfe )
+				{
+					System.out.println( BASE_ERROR_MSG + "Could not parse attributes of element " + detectionEl + " in xmlFile " + xmlFile + ".\n" + nfe.getMessage() + "\n" );
+					continue;
+				}
+			}
+
+			return new FrameContent( spots, ids, parents, null );
+		}
+
+		private FrameContent error( final String message )
+		{
+			return new FrameContent( null, null, null, message );
+		}
+	}
+
 }
@@ -24,12 +24,19 @@ import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_CUTOFF_PERCENTILE;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_FEATURE_PENALTIES;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_DISTANCE;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_FRAME_GAP;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LAP_SOLVER;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_FEATURE_PENALTIES;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MOTION_MODEL;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_PREDICTION_MAX_DISTANCE;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_FEATURE_PENALTIES;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_MAX_DISTANCE;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_FEATURE_PENALTIES;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.LAP_SOLVER_AUCTION;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.LAP_SOLVER_JONKER_VOLGENANT;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.MOTION_MODEL_CONSTANT_VELOCITY;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.MOTION_MODEL_NONE;
 import static fiji.plugin.trackmate.util.TMUtils.checkMapKeys;
 import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
 import fiji.plugin.trackmate.Spot;
@@ -260,6 +267,50 @@ public class LAPUtils {
 		return ok;
 	}
 
+	/**
+	 * Check the validity of the optional LAP solver parameter in a settings map.
+	 * It is valid if it is absent, or one of the solver values defined in
+	 * {@link TrackerKeys}.
+	 *
+	 * @param settings the map to inspect.
+	 * @param errorHolder will be appended with an error message.
+	 * @return true if the LAP solver parameter is valid.
+	 */
+	public static final boolean checkLAPSolver(final Map<String, Object> settings, final StringBuilder errorHolder) {
+		final Object obj = settings.get(KEY_LAP_SOLVER);
+		if (null == obj) {
+			return true; // Not here is acceptable
+		}
+		if (!LAP_SOLVER_JONKER_VOLGENANT.equals(obj) && !LAP_SOLVER_AUCTION.equals(obj)) {
+			errorHolder.append("Unknown LAP solver: " + obj + ". Expected " + LAP_SOLVER_JONKER_VOLGENANT + " or " + LAP_SOLVER_AUCTION + ".\n");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Check the validity of the optional linking motion model parameters in a
+	 * settings map. The motion model is valid if it is absent, or one of the
+	 * motion model values defined in {@link TrackerKeys}. The prediction max
+	 * distance is valid if it is absent, or a {@link Double}.
+	 *
+	 * @param settings the map to inspect.
+	 * @param errorHolder will be appended with an error message.
+	 * @return true if the motion model parameters are valid.
+	 */
+	public static final boolean checkMotionModel(final Map<String, Object> settings, final StringBuilder errorHolder) {
+		boolean ok = true;
+		final Object obj = settings.get(KEY_LINKING_MOTION_MODEL);
+		if (null != obj && !MOTION_MODEL_NONE.equals(obj) && !MOTION_MODEL_CONSTANT_VELOCITY.equals(obj)) {
+			errorHolder.append("Unknown linking motion model: " + obj + ". Expected " + MOTION_MODEL_NONE + " or " + MOTION_MODEL_CONSTANT_VELOCITY + ".\n");
+			ok = false;
+		}
+		if (null != settings.get(KEY_LINKING_PREDICTION_MAX_DISTANCE)) {
+			ok = ok & checkParameter(settings, KEY_LINKING_PREDICTION_MAX_DISTANCE, Double.class, errorHolder);
+		}
+		return ok;
+	}
+
 
 	/**
 	 * Check the validity of a feature penalty map in a settings map.
@@ -159,6 +159,47 @@ public class TrackerKeys {
 	/** A default value for the {@value #KEY_BLOCKING_VALUE} parameter.  */ 
 	public static final double 	DEFAULT_BLOCKING_VALUE = Double.POSITIVE_INFINITY;
 	
+	/** Key for the optional parameter selecting the solver of the sparse LAP tracker.
+	 * Expected values are {@link String}s, either {@link #LAP_SOLVER_JONKER_VOLGENANT} or {@link #LAP_SOLVER_AUCTION}. */
+	public static final String KEY_LAP_SOLVER = "LAP_SOLVER";
+	
+	/** Value of the {@value #KEY_LAP_SOLVER} parameter selecting the exact Jonker-Volgenant solver. */
+	public static final String LAP_SOLVER_JONKER_VOLGENANT = "JONKER_VOLGENANT";
+	
+	/** Value of the {@value #KEY_LAP_SOLVER} parameter selecting the parallel auction solver, for very large problems. */
+	public static final String LAP_SOLVER_AUCTION = "AUCTION";
+	
+	/** A default value for the {@value #KEY_LAP_SOLVER} parameter. */
+	public static final String DEFAULT_LAP_SOLVER = LAP_SOLVER_JONKER_VOLGENANT;
+	
+	/** Key for the optional parameter selecting the motion model used to predict the position of spots before frame to frame linking
+	 * in the sparse LAP tracker. Expected values are {@link String}s, either {@link #MOTION_MODEL_NONE} or {@link #MOTION_MODEL_CONSTANT_VELOCITY}. */
+	public static final String KEY_LINKING_MOTION_MODEL = "LINKING_MOTION_MODEL";
+	
+	/** Value of the {@value #KEY_LINKING_MOTION_MODEL} parameter for no prediction: targets are searched around the source spots. */
+	public static final String MOTION_MODEL_NONE = "NONE";
+	
+	/** Value of the {@value #KEY_LINKING_MOTION_MODEL} parameter for a constant velocity Kalman filter along each track. */
+	public static final String MOTION_MODEL_CONSTANT_VELOCITY = "CONSTANT_VELOCITY";
+	
+	/** A default value for the {@value #KEY_LINKING_MOTION_MODEL} parameter. */
+	public static final String DEFAULT_LINKING_MOTION_MODEL = MOTION_MODEL_NONE;
+	
+	/** Key for the optional parameter that stores the maximal distance between a target spot and the position predicted
+	 * for a source spot by the linking motion model. Spots without prediction use {@value #KEY_LINKING_MAX_DISTANCE} instead.
+	 * Expected values are {@link Double}s. */
+	public static final String KEY_LINKING_PREDICTION_MAX_DISTANCE = "LINKING_PREDICTION_MAX_DISTANCE";
+	
+	/** A default value for the {@value #KEY_LINKING_PREDICTION_MAX_DISTANCE} parameter. */
+	public static final double DEFAULT_LINKING_PREDICTION_MAX_DISTANCE = 5.0;
+	
+	/** Key for the parameter that stores the number of frames over which the min-cost flow tracker optimizes links together.
+	 * It must be larger than {@value #KEY_GAP_CLOSING_MAX_FRAME_GAP}. Expected values are {@link Integer}s. */
+	public static final String KEY_WINDOW_SIZE = "WINDOW_SIZE";
+	
+	/** A default value for the {@value #KEY_WINDOW_SIZE} parameter. */
+	public static final int DEFAULT_WINDOW_SIZE = 10;
+	
 	/*
 	 * METHODS
 	 */
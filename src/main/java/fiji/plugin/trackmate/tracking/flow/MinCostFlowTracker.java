@@ -0,0 +1,653 @@
+package fiji.plugin.trackmate.tracking.flow;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
+import net.imglib2.multithreading.SimpleMultiThreading;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.tracking.SpotTracker;
+import fiji.plugin.trackmate.tracking.util.GridIndex;
+
+/**
+ * A tracker that links spots jointly over a sliding window of frames, by
+ * solving a min-cost flow problem.
+ * <p>
+ * In a window, each spot can be linked to at most one spot in the next frame
+ * (linking) or in the next few frames (gap-closing), and receive at most one
+ * link. Candidate links are restricted to spots closer than the linking or
+ * gap-closing max distance, found through a {@link GridIndex} per frame. The
+ * cost of a link is the square distance between the two spots. Not linking a
+ * spot forward, or not receiving a link, costs half the alternative cost,
+ * which is set to the alternative cost factor times the largest square max
+ * distance. The set of links that minimizes the total cost over the window is
+ * found as a min-cost flow, with the {@link SuccessiveShortestPath} solver.
+ * Linking and gap-closing are therefore decided together: a spot missing in
+ * one frame does not make the tracker link its neighbors greedily, to repair
+ * the swap later.
+ * <p>
+ * The flow network is split in its connected components, that are solved in
+ * parallel. The window then slides forward: the links starting from its first
+ * frames are committed, and the links starting from its last
+ * <code>maxFrameGap</code> frames are decided again in the next window, with
+ * the spots that follow them. The memory used only depends on the number of
+ * spots in a window.
+ */
+public class MinCostFlowTracker extends MultiThreadedBenchmarkAlgorithm implements SpotTracker
+{
+
+	private static final String BASE_ERROR_MSG = "[MinCostFlowTracker] ";
+
+	/**
+	 * Relative margin added to search radii, so that the spatial index never
+	 * misses a candidate because of round-off errors.
+	 */
+	private static final double RADIUS_MARGIN = 1e-6;
+
+	private SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph;
+
+	private Logger logger = Logger.VOID_LOGGER;
+
+	private final SpotCollection spots;
+
+	private final double linkingMaxDistance;
+
+	private final double gapClosingMaxDistance;
+
+	private final int maxFrameGap;
+
+	private final double alternativeCostFactor;
+
+	private final int windowSize;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * @param spots
+	 *            the spots to track.
+	 * @param linkingMaxDistance
+	 *            the max distance between two spots in consecutive frames to
+	 *            be linked.
+	 * @param gapClosingMaxDistance
+	 *            the max distance between two spots separated by more than one
+	 *            frame to be linked.
+	 * @param maxFrameGap
+	 *            the max frame interval between two spots to be linked.
+	 * @param alternativeCostFactor
+	 *            the factor that sets the cost of not linking a spot,
+	 *            relative to the largest square max distance.
+	 * @param windowSize
+	 *            the number of frames over which links are optimized jointly.
+	 *            Must be larger than <code>maxFrameGap</code>.
+	 */
+	public MinCostFlowTracker( final SpotCollection spots, final double linkingMaxDistance, final double gapClosingMaxDistance, final int maxFrameGap, final double alternativeCostFactor, final int windowSize )
+	{
+		this.spots = spots;
+		this.linkingMaxDistance = linkingMaxDistance;
+		this.gapClosingMaxDistance = gapClosingMaxDistance;
+		this.maxFrameGap = maxFrameGap;
+		this.alternativeCostFactor = alternativeCostFactor;
+		this.windowSize = windowSize;
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	@Override
+	public SimpleWeightedGraph< Spot, DefaultWeightedEdge > getResult()
+	{
+		return graph;
+	}
+
+	@Override
+	public boolean checkInput()
+	{
+		if ( null == spots )
+		{
+			errorMessage = BASE_ERROR_MSG + "The spot collection is null.";
+			return false;
+		}
+		if ( maxFrameGap < 1 )
+		{
+			errorMessage = BASE_ERROR_MSG + "The max frame gap must be at least 1, was " + maxFrameGap + ".";
+			return false;
+		}
+		if ( windowSize <= maxFrameGap )
+		{
+			errorMessage = BASE_ERROR_MSG + "The window size must be larger than the max frame gap, was " + windowSize + ".";
+			return false;
+		}
+		if ( linkingMaxDistance <= 0 || gapClosingMaxDistance <= 0 )
+		{
+			errorMessage = BASE_ERROR_MSG + "The max distances must be strictly positive.";
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean process()
+	{
+		final long start = System.currentTimeMillis();
+
+		graph = new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
+		final Iterator< Spot > it = spots.iterator( true );
+		while ( it.hasNext() )
+		{
+			graph.addVertex( it.next() );
+		}
+
+		final NavigableSet< Integer > keySet = spots.keySet();
+		if ( keySet.isEmpty() ) { return true; }
+		final int firstFrame = keySet.first();
+		final int lastFrame = keySet.last();
+
+		final double alternativeCost = alternativeCostFactor * Math.max( linkingMaxDistance * linkingMaxDistance, gapClosingMaxDistance * gapClosingMaxDistance );
+		final int step = windowSize - maxFrameGap;
+
+		final int nThreads = Math.max( 1, numThreads );
+		final Workspace[] workspaces = new Workspace[ nThreads ];
+		for ( int i = 0; i < nThreads; i++ )
+		{
+			workspaces[ i ] = new Workspace();
+		}
+
+		// The frames of the current window.
+		final Map< Integer, FrameData > cache = new HashMap< Integer, FrameData >();
+		for ( int t = firstFrame; t <= lastFrame; t += step )
+		{
+			final int windowEnd = Math.min( lastFrame, t + windowSize - 1 );
+			final boolean lastWindow = windowEnd == lastFrame;
+			final int commitEnd = lastWindow ? windowEnd : t + step - 1;
+
+			final Iterator< Integer > cached = cache.keySet().iterator();
+			while ( cached.hasNext() )
+			{
+				if ( cached.next() < t )
+				{
+					cached.remove();
+				}
+			}
+
+			final NavigableSet< Integer > windowFrames = keySet.subSet( t, true, windowEnd, true );
+			final FrameData[] window = new FrameData[ windowFrames.size() ];
+			int fi = 0;
+			for ( final Integer frame : windowFrames )
+			{
+				FrameData data = cache.get( frame );
+				if ( null == data )
+				{
+					data = new FrameData( frame );
+					cache.put( frame, data );
+				}
+				window[ fi++ ] = data;
+			}
+
+			solveWindow( window, commitEnd, alternativeCost, workspaces );
+
+			logger.setProgress( ( double ) ( windowEnd - firstFrame + 1 ) / ( lastFrame - firstFrame + 1 ) );
+			if ( lastWindow )
+			{
+				break;
+			}
+		}
+
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return true;
+	}
+
+	@Override
+	public void setLogger( final Logger logger )
+	{
+		this.logger = logger;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Finds the min-cost links between the spots of the specified frames, and
+	 * adds the ones that start from a frame up to <code>commitEnd</code> to the
+	 * graph.
+	 */
+	private void solveWindow( final FrameData[] window, final int commitEnd, final double alternativeCost, final Workspace[] workspaces )
+	{
+		/*
+		 * Number the spots of the window. A spot is a row of the flow problem
+		 * when it is the source of a link, and a column when it is the target.
+		 */
+
+		final int[] offsets = new int[ window.length + 1 ];
+		for ( int f = 0; f < window.length; f++ )
+		{
+			offsets[ f + 1 ] = offsets[ f ] + window[ f ].spots.length;
+		}
+		final int nSpots = offsets[ window.length ];
+
+		/*
+		 * Candidate links, per source frame.
+		 */
+
+		final Arcs[] frameArcs = new Arcs[ window.length ];
+		runParallel( window.length, new Task()
+		{
+			@Override
+			public void run( final int f, final Workspace workspace )
+			{
+				frameArcs[ f ] = findArcs( window, offsets, f );
+			}
+		}, workspaces );
+
+		int nArcs = 0;
+		for ( final Arcs arcs : frameArcs )
+		{
+			nArcs += arcs.size;
+		}
+		final int[] arcRows = new int[ nArcs ];
+		final int[] arcCols = new int[ nArcs ];
+		final double[] arcCosts = new double[ nArcs ];
+		int a = 0;
+		for ( final Arcs arcs : frameArcs )
+		{
+			System.arraycopy( arcs.rows, 0, arcRows, a, arcs.size );
+			System.arraycopy( arcs.cols, 0, arcCols, a, arcs.size );
+			System.arraycopy( arcs.costs, 0, arcCosts, a, arcs.size );
+			a += arcs.size;
+		}
+
+		/*
+		 * Split the network in connected components. Rows are numbered from 0
+		 * and columns from nSpots in the union-find.
+		 */
+
+		final int[] parent = new int[ 2 * nSpots ];
+		for ( int i = 0; i < parent.length; i++ )
+		{
+			parent[ i ] = i;
+		}
+		for ( int e = 0; e < nArcs; e++ )
+		{
+			final int r1 = find( parent, arcRows[ e ] );
+			final int r2 = find( parent, nSpots + arcCols[ e ] );
+			if ( r1 != r2 )
+			{
+				parent[ r1 ] = r2;
+			}
+		}
+
+		final int[] clusterOfRoot = new int[ 2 * nSpots ];
+		Arrays.fill( clusterOfRoot, -1 );
+		final int[] arcCluster = new int[ nArcs ];
+		int nClusters = 0;
+		for ( int e = 0; e < nArcs; e++ )
+		{
+			final int root = find( parent, arcRows[ e ] );
+			if ( clusterOfRoot[ root ] < 0 )
+			{
+				clusterOfRoot[ root ] = nClusters++;
+			}
+			arcCluster[ e ] = clusterOfRoot[ root ];
+		}
+
+		// Sort arcs by cluster.
+		final int[] clusterStart = new int[ nClusters + 1 ];
+		for ( int e = 0; e < nArcs; e++ )
+		{
+			clusterStart[ arcCluster[ e ] + 1 ]++;
+		}
+		for ( int c = 0; c < nClusters; c++ )
+		{
+			clusterStart[ c + 1 ] += clusterStart[ c ];
+		}
+		final int[] arcOrder = new int[ nArcs ];
+		final int[] fill = Arrays.copyOf( clusterStart, nClusters );
+		for ( int e = 0; e < nArcs; e++ )
+		{
+			arcOrder[ fill[ arcCluster[ e ] ]++ ] = e;
+		}
+
+		// Largest clusters first, for load balancing.
+		final long[] bySize = new long[ nClusters ];
+		for ( int c = 0; c < nClusters; c++ )
+		{
+			final long size = clusterStart[ c + 1 ] - clusterStart[ c ];
+			bySize[ c ] = ( ( Integer.MAX_VALUE - size ) << 32 ) | c;
+		}
+		Arrays.sort( bySize );
+
+		/*
+		 * Solve each cluster.
+		 */
+
+		final int[] match = new int[ nSpots ];
+		Arrays.fill( match, -1 );
+		final double[] matchCost = new double[ nSpots ];
+		final int[] localRow = new int[ nSpots ];
+		final int[] localCol = new int[ nSpots ];
+		Arrays.fill( localRow, -1 );
+		Arrays.fill( localCol, -1 );
+
+		runParallel( nClusters, new Task()
+		{
+			@Override
+			public void run( final int rank, final Workspace ws )
+			{
+				final int c = ( int ) ( bySize[ rank ] & 0xffffffffl );
+				final int from = clusterStart[ c ];
+				final int to = clusterStart[ c + 1 ];
+				final int n = to - from;
+				ws.ensureCapacity( n );
+
+				// Local numbering of rows and columns.
+				int nRows = 0;
+				int nCols = 0;
+				for ( int k = from; k < to; k++ )
+				{
+					final int e = arcOrder[ k ];
+					if ( localRow[ arcRows[ e ] ] < 0 )
+					{
+						localRow[ arcRows[ e ] ] = nRows;
+						ws.rows[ nRows++ ] = arcRows[ e ];
+					}
+					if ( localCol[ arcCols[ e ] ] < 0 )
+					{
+						localCol[ arcCols[ e ] ] = nCols;
+						ws.cols[ nCols++ ] = arcCols[ e ];
+					}
+				}
+
+				// Arcs in CSR form. Costs are relative to not linking.
+				Arrays.fill( ws.rowStart, 0, nRows + 1, 0 );
+				for ( int k = from; k < to; k++ )
+				{
+					ws.rowStart[ localRow[ arcRows[ arcOrder[ k ] ] ] + 1 ]++;
+				}
+				for ( int r = 0; r < nRows; r++ )
+				{
+					ws.rowStart[ r + 1 ] += ws.rowStart[ r ];
+				}
+				System.arraycopy( ws.rowStart, 0, ws.fill, 0, nRows );
+				for ( int k = from; k < to; k++ )
+				{
+					final int e = arcOrder[ k ];
+					final int pos = ws.fill[ localRow[ arcRows[ e ] ] ]++;
+					ws.arcCols[ pos ] = localCol[ arcCols[ e ] ];
+					ws.arcCosts[ pos ] = arcCosts[ e ] - alternativeCost;
+					ws.arcIds[ pos ] = e;
+				}
+
+				ws.solver.solve( nRows, nCols, ws.rowStart, ws.arcCols, ws.arcCosts, ws.assignment );
+
+				for ( int r = 0; r < nRows; r++ )
+				{
+					final int col = ws.assignment[ r ];
+					if ( col >= 0 )
+					{
+						final int row = ws.rows[ r ];
+						match[ row ] = ws.cols[ col ];
+						matchCost[ row ] = arcCosts[ findArc( ws, r, col ) ];
+					}
+				}
+			}
+		}, workspaces );
+
+		/*
+		 * Commit the links starting from the first frames.
+		 */
+
+		for ( int f = 0; f < window.length && window[ f ].frame <= commitEnd; f++ )
+		{
+			final FrameData source = window[ f ];
+			for ( int i = 0; i < source.spots.length; i++ )
+			{
+				final int target = match[ offsets[ f ] + i ];
+				if ( target < 0 )
+				{
+					continue;
+				}
+				int g = f + 1;
+				while ( offsets[ g + 1 ] <= target )
+				{
+					g++;
+				}
+				final FrameData targetFrame = window[ g ];
+				targetFrame.linkedIn[ target - offsets[ g ] ] = true;
+				final DefaultWeightedEdge edge = graph.addEdge( source.spots[ i ], targetFrame.spots[ target - offsets[ g ] ] );
+				graph.setEdgeWeight( edge, matchCost[ offsets[ f ] + i ] );
+			}
+		}
+	}
+
+	/**
+	 * Finds the candidate links from the spots of a frame to the spots of the
+	 * following frames of the window that are not yet linked to.
+	 */
+	private Arcs findArcs( final FrameData[] window, final int[] offsets, final int f )
+	{
+		final Arcs arcs = new Arcs();
+		final FrameData source = window[ f ];
+		for ( int g = f + 1; g < window.length && window[ g ].frame - source.frame <= maxFrameGap; g++ )
+		{
+			final FrameData target = window[ g ];
+			final double maxDistance = ( target.frame - source.frame == 1 ) ? linkingMaxDistance : gapClosingMaxDistance;
+			final double maxCost = maxDistance * maxDistance;
+			final double radius = maxDistance * ( 1d + RADIUS_MARGIN );
+			final GridIndex.Query query = target.index.query();
+			for ( int i = 0; i < source.spots.length; i++ )
+			{
+				final double x = source.coords[ 3 * i ];
+				final double y = source.coords[ 3 * i + 1 ];
+				final double z = source.coords[ 3 * i + 2 ];
+				final int nFound = query.search( x, y, z, radius );
+				for ( int k = 0; k < nFound; k++ )
+				{
+					final int j = query.get( k );
+					if ( target.linkedIn[ j ] )
+					{
+						continue;
+					}
+					final double dx = x - query.getCoordinate( j, 0 );
+					final double dy = y - query.getCoordinate( j, 1 );
+					final double dz = z - query.getCoordinate( j, 2 );
+					final double cost = dx * dx + dy * dy + dz * dz;
+					if ( cost <= maxCost )
+					{
+						arcs.add( offsets[ f ] + i, offsets[ g ] + j, cost );
+					}
+				}
+			}
+		}
+		return arcs;
+	}
+
+	/**
+	 * Returns the index of the arc from a local row to a local column of the
+	 * cluster in the workspace.
+	 */
+	private static int findArc( final Workspace ws, final int row, final int col )
+	{
+		int e = ws.rowStart[ row ];
+		while ( ws.arcCols[ e ] != col )
+		{
+			e++;
+		}
+		return ws.arcIds[ e ];
+	}
+
+	private static int find( final int[] parent, int i )
+	{
+		while ( parent[ i ] != i )
+		{
+			parent[ i ] = parent[ parent[ i ] ];
+			i = parent[ i ];
+		}
+		return i;
+	}
+
+	/**
+	 * Runs the specified task for all indices, in parallel, each thread using
+	 * its own workspace.
+	 */
+	private void runParallel( final int n, final Task task, final Workspace[] workspaces )
+	{
+		final int nThreads = Math.min( workspaces.length, n );
+		if ( nThreads <= 1 )
+		{
+			for ( int i = 0; i < n; i++ )
+			{
+				task.run( i, workspaces[ 0 ] );
+			}
+			return;
+		}
+
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Thread[] threads = SimpleMultiThreading.newThreads( nThreads );
+		for ( int ithread = 0; ithread < threads.length; ithread++ )
+		{
+			final Workspace workspace = workspaces[ ithread ];
+			threads[ ithread ] = new Thread( BASE_ERROR_MSG + "thread " + ( 1 + ithread ) + "/" + threads.length )
+			{
+				@Override
+				public void run()
+				{
+					for ( int i = ai.getAndIncrement(); i < n; i = ai.getAndIncrement() )
+					{
+						task.run( i, workspace );
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin( threads );
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	private static interface Task
+	{
+		public void run( int i, Workspace workspace );
+	}
+
+	/**
+	 * The visible spots of a frame, their coordinates and a spatial index over
+	 * them. Also stores which spots already received a committed link.
+	 */
+	private final class FrameData
+	{
+		private final int frame;
+
+		private final Spot[] spots;
+
+		private final double[] coords;
+
+		private final GridIndex index;
+
+		private final boolean[] linkedIn;
+
+		private FrameData( final int frame )
+		{
+			this.frame = frame;
+			final int n = MinCostFlowTracker.this.spots.getNSpots( frame, true );
+			this.spots = new Spot[ n ];
+			this.coords = new double[ 3 * n ];
+			int i = 0;
+			for ( final Spot spot : MinCostFlowTracker.this.spots.iterable( frame, true ) )
+			{
+				spots[ i ] = spot;
+				for ( int d = 0; d < 3; d++ )
+				{
+					coords[ 3 * i + d ] = spot.getDoublePosition( d );
+				}
+				i++;
+			}
+			this.index = new GridIndex( coords, n, Math.max( linkingMaxDistance, gapClosingMaxDistance ) );
+			this.linkedIn = new boolean[ n ];
+		}
+	}
+
+	/**
+	 * A growable list of candidate links, stored as primitive arrays.
+	 */
+	private static final class Arcs
+	{
+		private int[] rows = new int[ 16 ];
+
+		private int[] cols = new int[ 16 ];
+
+		private double[] costs = new double[ 16 ];
+
+		private int size;
+
+		private void add( final int row, final int col, final double cost )
+		{
+			if ( size == rows.length )
+			{
+				rows = Arrays.copyOf( rows, 2 * size );
+				cols = Arrays.copyOf( cols, 2 * size );
+				costs = Arrays.copyOf( costs, 2 * size );
+			}
+			rows[ size ] = row;
+			cols[ size ] = col;
+			costs[ size ] = cost;
+			size++;
+		}
+	}
+
+	/**
+	 * The arrays a thread uses to solve clusters, reused from one cluster to
+	 * the next.
+	 */
+	private static final class Workspace
+	{
+		private final SuccessiveShortestPath solver = new SuccessiveShortestPath();
+
+		private int[] rows = new int[ 0 ];
+
+		private int[] cols = new int[ 0 ];
+
+		private int[] rowStart = new int[ 1 ];
+
+		private int[] fill = new int[ 0 ];
+
+		private int[] arcCols = new int[ 0 ];
+
+		private double[] arcCosts = new double[ 0 ];
+
+		private int[] arcIds = new int[ 0 ];
+
+		private int[] assignment = new int[ 0 ];
+
+		/**
+		 * Makes room for a cluster with the specified number of arcs, which
+		 * bounds its number of rows and columns.
+		 */
+		private void ensureCapacity( final int nArcs )
+		{
+			if ( arcCols.length >= nArcs ) { return; }
+			rows = new int[ nArcs ];
+			cols = new int[ nArcs ];
+			rowStart = new int[ nArcs + 1 ];
+			fill = new int[ nArcs ];
+			arcCols = new int[ nArcs ];
+			arcCosts = new double[ nArcs ];
+			arcIds = new int[ nArcs ];
+			assignment = new int[ nArcs ];
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package fiji.plugin.trackmate.tracking.flow;
+
+import static fiji.plugin.trackmate.io.IOUtils.readDoubleAttribute;
+import static fiji.plugin.trackmate.io.IOUtils.readIntegerAttribute;
+import static fiji.plugin.trackmate.io.IOUtils.writeAttribute;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.DEFAULT_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.DEFAULT_GAP_CLOSING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.DEFAULT_GAP_CLOSING_MAX_FRAME_GAP;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.DEFAULT_LINKING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.DEFAULT_WINDOW_SIZE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_FRAME_GAP;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_WINDOW_SIZE;
+import static fiji.plugin.trackmate.util.TMUtils.checkMapKeys;
+import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.ImageIcon;
+
+import org.jdom2.Element;
+import org.scijava.plugin.Plugin;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.gui.ConfigurationPanel;
+import fiji.plugin.trackmate.gui.panels.tracker.MinCostFlowTrackerConfigPanel;
+import fiji.plugin.trackmate.tracking.SpotTracker;
+import fiji.plugin.trackmate.tracking.SpotTrackerFactory;
+
+@Plugin( type = SpotTrackerFactory.class )
+public class MinCostFlowTrackerFactory implements SpotTrackerFactory
+{
+
+	private static final String INFO_TEXT_PART2 = "This tracker needs four parameters: "
+			+ "<br/>"
+			+ "\t - the linking max distance, for spots in consecutive frames;<br/>"
+			+ "\t - the gap-closing max distance and the max frame gap, for spots "
+			+ "separated by missed detections;<br/>"
+			+ "\t - the window size, that is the number of frames over which links "
+			+ "are optimized together. It must be larger than the max frame gap."
+			+ "<br/></html>";
+
+	private static final String INFO_TEXT = "<html>This tracker is best suited for dense "
+			+ "particles whose tracks cross often, and that are sometimes missed by the detector."
+			+ "<p>"
+			+ "Instead of linking spots from one frame to the next, then closing gaps "
+			+ "between the resulting segments, it finds the links that minimize the total "
+			+ "linking cost over a window of several frames, as a min-cost flow problem. "
+			+ "Linking and gap-closing are decided together, which avoids most swaps "
+			+ "between neighboring tracks. The window then slides over the movie. "
+			+ "<p>"
+			+ "Like for the LAP tracker, the cost of a link is the square distance between "
+			+ "the two spots. Tracks do not split nor merge. "
+			+ "<p>"
+			+ INFO_TEXT_PART2;
+
+	private static final String KEY = "MIN_COST_FLOW_TRACKER";
+
+	private static final String NAME = "Sliding window min-cost flow tracker";
+
+	private String errorMessage;
+
+	@Override
+	public String getInfoText()
+	{
+		return INFO_TEXT;
+	}
+
+	@Override
+	public ImageIcon getIcon()
+	{
+		return null;
+	}
+
+	@Override
+	public String getKey()
+	{
+		return KEY;
+	}
+
+	@Override
+	public String getName()
+	{
+		return NAME;
+	}
+
+	@Override
+	public SpotTracker create( final SpotCollection spots, final Map< String, Object > settings )
+	{
+		final double linkingMaxDistance = ( Double ) settings.get( KEY_LINKING_MAX_DISTANCE );
+		final double gapClosingMaxDistance = ( Double ) settings.get( KEY_GAP_CLOSING_MAX_DISTANCE );
+		final int maxFrameGap = ( Integer ) settings.get( KEY_GAP_CLOSING_MAX_FRAME_GAP );
+		final double alternativeCostFactor = ( Double ) settings.get( KEY_ALTERNATIVE_LINKING_COST_FACTOR );
+		final int windowSize = ( Integer ) settings.get( KEY_WINDOW_SIZE );
+		return new MinCostFlowTracker( spots, linkingMaxDistance, gapClosingMaxDistance, maxFrameGap, alternativeCostFactor, windowSize );
+	}
+
+	@Override
+	public ConfigurationPanel getTrackerConfigurationPanel( final Model model )
+	{
+		final String spaceUnits = model.getSpaceUnits();
+		return new MinCostFlowTrackerConfigPanel( getName(), "<html>" + INFO_TEXT_PART2, spaceUnits );
+	}
+
+	@Override
+	public boolean marshall( final Map< String, Object > settings, final Element element )
+	{
+		boolean ok = true;
+		final StringBuilder str = new StringBuilder();
+
+		ok = ok & writeAttribute( settings, element, KEY_LINKING_MAX_DISTANCE, Double.class, str );
+		ok = ok & writeAttribute( settings, element, KEY_GAP_CLOSING_MAX_DISTANCE, Double.class, str );
+		ok = ok & writeAttribute( settings, element, KEY_GAP_CLOSING_MAX_FRAME_GAP, Integer.class, str );
+		ok = ok & writeAttribute( settings, element, KEY_ALTERNATIVE_LINKING_COST_FACTOR, Double.class, str );
+		ok = ok & writeAttribute( settings, element, KEY_WINDOW_SIZE, Integer.class, str );
+		return ok;
+	}
+
+	@Override
+	public boolean unmarshall( final Element element, final Map< String, Object > settings )
+	{
+		settings.clear();
+		final StringBuilder errorHolder = new StringBuilder();
+		boolean ok = true;
+
+		ok = ok & readDoubleAttribute( element, settings, KEY_LINKING_MAX_DISTANCE, errorHolder );
+		ok = ok & readDoubleAttribute( element, settings, KEY_GAP_CLOSING_MAX_DISTANCE, errorHolder );
+		ok = ok & readIntegerAttribute( element, settings, KEY_GAP_CLOSING_MAX_FRAME_GAP, errorHolder );
+		ok = ok & readDoubleAttribute( element, settings, KEY_ALTERNATIVE_LINKING_COST_FACTOR, errorHolder );
+		ok = ok & readIntegerAttribute( element, settings, KEY_WINDOW_SIZE, errorHolder );
+		return ok;
+	}
+
+	@Override
+	public String toString( final Map< String, Object > settings )
+	{
+		if ( !checkSettingsValidity( settings ) ) { return errorMessage; }
+
+		final double linkingMaxDistance = ( Double ) settings.get( KEY_LINKING_MAX_DISTANCE );
+		final double gapClosingMaxDistance = ( Double ) settings.get( KEY_GAP_CLOSING_MAX_DISTANCE );
+		final int maxFrameGap = ( Integer ) settings.get( KEY_GAP_CLOSING_MAX_FRAME_GAP );
+		final double alternativeCostFactor = ( Double ) settings.get( KEY_ALTERNATIVE_LINKING_COST_FACTOR );
+		final int windowSize = ( Integer ) settings.get( KEY_WINDOW_SIZE );
+		final StringBuilder str = new StringBuilder();
+
+		str.append( String.format( "  - linking max distance: %.1f\n", linkingMaxDistance ) );
+		str.append( String.format( "  - gap-closing max distance: %.1f\n", gapClosingMaxDistance ) );
+		str.append( String.format( "  - max frame gap: %d\n", maxFrameGap ) );
+		str.append( String.format( "  - alternative linking cost factor: %.2f\n", alternativeCostFactor ) );
+		str.append( String.format( "  - window size: %d\n", windowSize ) );
+
+		return str.toString();
+	}
+
+	@Override
+	public Map< String, Object > getDefaultSettings()
+	{
+		final Map< String, Object > sm = new HashMap< String, Object >( 5 );
+		sm.put( KEY_LINKING_MAX_DISTANCE, DEFAULT_LINKING_MAX_DISTANCE );
+		sm.put( KEY_GAP_CLOSING_MAX_DISTANCE, DEFAULT_GAP_CLOSING_MAX_DISTANCE );
+		sm.put( KEY_GAP_CLOSING_MAX_FRAME_GAP, DEFAULT_GAP_CLOSING_MAX_FRAME_GAP );
+		sm.put( KEY_ALTERNATIVE_LINKING_COST_FACTOR, DEFAULT_ALTERNATIVE_LINKING_COST_FACTOR );
+		sm.put( KEY_WINDOW_SIZE, DEFAULT_WINDOW_SIZE );
+		return sm;
+	}
+
+	@Override
+	public boolean checkSettingsValidity( final Map< String, Object > settings )
+	{
+		if ( null == settings )
+		{
+			errorMessage = "Settings map is null.\n";
+			return false;
+		}
+
+		boolean ok = true;
+		final StringBuilder str = new StringBuilder();
+
+		ok = ok & checkParameter( settings, KEY_LINKING_MAX_DISTANCE, Double.class, str );
+		ok = ok & checkParameter( settings, KEY_GAP_CLOSING_MAX_DISTANCE, Double.class, str );
+		ok = ok & checkParameter( settings, KEY_GAP_CLOSING_MAX_FRAME_GAP, Integer.class, str );
+		ok = ok & checkParameter( settings, KEY_ALTERNATIVE_LINKING_COST_FACTOR, Double.class, str );
+		ok = ok & checkParameter( settings, KEY_WINDOW_SIZE, Integer.class, str );
+
+		final List< String > mandatoryKeys = new ArrayList< String >();
+		mandatoryKeys.add( KEY_LINKING_MAX_DISTANCE );
+		mandatoryKeys.add( KEY_GAP_CLOSING_MAX_DISTANCE );
+		mandatoryKeys.add( KEY_GAP_CLOSING_MAX_FRAME_GAP );
+		mandatoryKeys.add( KEY_ALTERNATIVE_LINKING_COST_FACTOR );
+		mandatoryKeys.add( KEY_WINDOW_SIZE );
+		ok = ok & checkMapKeys( settings, mandatoryKeys, null, str );
+
+		if ( ok )
+		{
+			final int maxFrameGap = ( Integer ) settings.get( KEY_GAP_CLOSING_MAX_FRAME_GAP );
+			final int windowSize = ( Integer ) settings.get( KEY_WINDOW_SIZE );
+			if ( windowSize <= maxFrameGap )
+			{
+				ok = false;
+				str.append( "The window size (" + windowSize + ") must be larger than the max frame gap (" + maxFrameGap + ").\n" );
+			}
+		}
+
+		if ( !ok )
+		{
+			errorMessage = str.toString();
+		}
+		return ok;
+	}
+
+	@Override
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+}
@@ -0,0 +1,302 @@
+package fiji.plugin.trackmate.tracking.flow;
+
+import java.util.Arrays;
+
+/**
+ * A successive shortest path solver for the min-cost flow problems of the
+ * {@link MinCostFlowTracker}, written over primitive arrays.
+ * <p>
+ * The flow network is bipartite: each row (the outgoing port of a spot) can
+ * send one unit of flow to one of the columns (the incoming port of a later
+ * spot) it has an arc to, or to a private dummy column at cost 0, meaning it
+ * is not linked. Each column can receive at most one unit. Arc costs can be
+ * negative. The solver returns the min-cost flow of this network.
+ * <p>
+ * Rows are added to the flow one after the other. For each row, the shortest
+ * augmenting path to a free column is searched with Dijkstra's algorithm on
+ * reduced costs, and the column potentials are updated so that reduced costs
+ * stay non-negative. Since the private dummy column of a row is always free
+ * when this row is added, the search stops as soon as no path can be cheaper
+ * than leaving the row unlinked, and stays local.
+ * <p>
+ * Instances are meant to be reused: their arrays are reallocated only when a
+ * larger problem is solved. They are not thread-safe.
+ */
+public class SuccessiveShortestPath
+{
+
+	/** Column potentials. */
+	private double[] v = new double[ 0 ];
+
+	/** Row assigned to each column, or <code>-1</code>. */
+	private int[] colRow = new int[ 0 ];
+
+	/** Column assigned to each row, or <code>-1</code>. */
+	private int[] rowCol = new int[ 0 ];
+
+	/** Cost of the arc from each row to its assigned column. */
+	private double[] rowCost = new double[ 0 ];
+
+	/*
+	 * Shortest path search state.
+	 */
+
+	private double[] dist = new double[ 0 ];
+
+	private int[] pred = new int[ 0 ];
+
+	private double[] predCost = new double[ 0 ];
+
+	/** Columns whose label was set during the current search. */
+	private int[] labelStamp = new int[ 0 ];
+
+	/** Columns whose label was made final during the current search. */
+	private int[] scanStamp = new int[ 0 ];
+
+	private int stamp;
+
+	private int[] scanned = new int[ 16 ];
+
+	private int nScanned;
+
+	private double[] heapKeys = new double[ 16 ];
+
+	private int[] heapCols = new int[ 16 ];
+
+	private int heapSize;
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Solves the min-cost flow problem over the specified arcs.
+	 *
+	 * @param nRows
+	 *            the number of rows.
+	 * @param nCols
+	 *            the number of columns.
+	 * @param rowStart
+	 *            the index in <code>cols</code> of the first arc of each row,
+	 *            plus the total number of arcs, <code>nRows + 1</code> long.
+	 * @param cols
+	 *            the column of each arc.
+	 * @param costs
+	 *            the cost of each arc.
+	 * @param assignment
+	 *            the array in which to write the column each row sends its
+	 *            flow to, or <code>-1</code> if it sends it to its dummy
+	 *            column.
+	 * @return the cost of the flow, that is the sum of the costs of the arcs
+	 *         used.
+	 */
+	public double solve( final int nRows, final int nCols, final int[] rowStart, final int[] cols, final double[] costs, final int[] assignment )
+	{
+		ensureCapacity( nRows, nCols + nRows );
+		final int nAllCols = nCols + nRows;
+		Arrays.fill( v, 0, nAllCols, 0d );
+		Arrays.fill( colRow, 0, nAllCols, -1 );
+		Arrays.fill( rowCol, 0, nRows, -1 );
+
+		for ( int f = 0; f < nRows; f++ )
+		{
+			nextStamp();
+			heapSize = 0;
+			nScanned = 0;
+
+			// Initial labels, from the row to add.
+			for ( int e = rowStart[ f ]; e < rowStart[ f + 1 ]; e++ )
+			{
+				final int c = cols[ e ];
+				relax( c, costs[ e ] - v[ c ], f, costs[ e ] );
+			}
+			relax( nCols + f, -v[ nCols + f ], f, 0d );
+
+			// Dijkstra until we reach a free column.
+			int sink = -1;
+			double sinkDist = 0d;
+			while ( heapSize > 0 )
+			{
+				final double d = heapKeys[ 0 ];
+				final int c = heapCols[ 0 ];
+				pop();
+				if ( scanStamp[ c ] == stamp || d > dist[ c ] )
+				{
+					continue;
+				}
+				scanStamp[ c ] = stamp;
+				if ( nScanned == scanned.length )
+				{
+					scanned = Arrays.copyOf( scanned, 2 * scanned.length );
+				}
+				scanned[ nScanned++ ] = c;
+
+				final int i = colRow[ c ];
+				if ( i < 0 )
+				{
+					sink = c;
+					sinkDist = d;
+					break;
+				}
+
+				// Continue the path through the row assigned to this column.
+				final double base = d - ( rowCost[ i ] - v[ c ] );
+				for ( int e = rowStart[ i ]; e < rowStart[ i + 1 ]; e++ )
+				{
+					final int k = cols[ e ];
+					if ( scanStamp[ k ] != stamp )
+					{
+						relax( k, base + costs[ e ] - v[ k ], i, costs[ e ] );
+					}
+				}
+				final int dummy = nCols + i;
+				if ( scanStamp[ dummy ] != stamp )
+				{
+					relax( dummy, base - v[ dummy ], i, 0d );
+				}
+			}
+
+			// Update potentials of the columns made final.
+			for ( int k = 0; k < nScanned; k++ )
+			{
+				final int c = scanned[ k ];
+				v[ c ] += dist[ c ] - sinkDist;
+			}
+
+			// Augment along the path.
+			int c = sink;
+			while ( true )
+			{
+				final int i = pred[ c ];
+				final int previous = rowCol[ i ];
+				rowCol[ i ] = c;
+				rowCost[ i ] = predCost[ c ];
+				colRow[ c ] = i;
+				if ( i == f )
+				{
+					break;
+				}
+				c = previous;
+			}
+		}
+
+		double total = 0d;
+		for ( int i = 0; i < nRows; i++ )
+		{
+			if ( rowCol[ i ] < nCols )
+			{
+				assignment[ i ] = rowCol[ i ];
+				total += rowCost[ i ];
+			}
+			else
+			{
+				assignment[ i ] = -1;
+			}
+		}
+		return total;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void relax( final int c, final double d, final int row, final double cost )
+	{
+		if ( labelStamp[ c ] == stamp && d >= dist[ c ] )
+		{
+			return;
+		}
+		labelStamp[ c ] = stamp;
+		dist[ c ] = d;
+		pred[ c ] = row;
+		predCost[ c ] = cost;
+		push( d, c );
+	}
+
+	private void push( final double key, final int c )
+	{
+		if ( heapSize == heapKeys.length )
+		{
+			heapKeys = Arrays.copyOf( heapKeys, 2 * heapSize );
+			heapCols = Arrays.copyOf( heapCols, 2 * heapSize );
+		}
+		int i = heapSize++;
+		while ( i > 0 )
+		{
+			final int parent = ( i - 1 ) >>> 1;
+			if ( heapKeys[ parent ] <= key )
+			{
+				break;
+			}
+			heapKeys[ i ] = heapKeys[ parent ];
+			heapCols[ i ] = heapCols[ parent ];
+			i = parent;
+		}
+		heapKeys[ i ] = key;
+		heapCols[ i ] = c;
+	}
+
+	private void pop()
+	{
+		final int last = --heapSize;
+		if ( last == 0 )
+		{
+			return;
+		}
+		final double key = heapKeys[ last ];
+		final int c = heapCols[ last ];
+		int i = 0;
+		while ( true )
+		{
+			int child = 2 * i + 1;
+			if ( child >= last )
+			{
+				break;
+			}
+			if ( child + 1 < last && heapKeys[ child + 1 ] < heapKeys[ child ] )
+			{
+				child++;
+			}
+			if ( heapKeys[ child ] >= key )
+			{
+				break;
+			}
+			heapKeys[ i ] = heapKeys[ child ];
+			heapCols[ i ] = heapCols[ child ];
+			i = child;
+		}
+		heapKeys[ i ] = key;
+		heapCols[ i ] = c;
+	}
+
+	private void nextStamp()
+	{
+		if ( stamp == Integer.MAX_VALUE )
+		{
+			Arrays.fill( labelStamp, 0 );
+			Arrays.fill( scanStamp, 0 );
+			stamp = 0;
+		}
+		stamp++;
+	}
+
+	private void ensureCapacity( final int nRows, final int nAllCols )
+	{
+		if ( rowCol.length < nRows )
+		{
+			rowCol = new int[ nRows ];
+			rowCost = new double[ nRows ];
+		}
+		if ( colRow.length < nAllCols )
+		{
+			v = new double[ nAllCols ];
+			colRow = new int[ nAllCols ];
+			dist = new double[ nAllCols ];
+			pred = new int[ nAllCols ];
+			predCost = new double[ nAllCols ];
+			labelStamp = new int[ nAllCols ];
+			scanStamp = new int[ nAllCols ];
+			stamp = 0;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package fiji.plugin.trackmate.tracking.kalman;
+
+import java.util.Arrays;
+
+/**
+ * A bank of constant-velocity Kalman filters, that runs the same computations
+ * as {@link CVMKalmanFilter} on many particles at once, over primitive arrays.
+ * <p>
+ * All filters of a bank share the same process and measurement noise, and the
+ * X, Y and Z axes are independent and identically parametrized. The 6x6 state
+ * covariance matrix of a filter is therefore made of 4 blocks that are each a
+ * scalar times the 3x3 identity matrix, and is stored as these 4 scalars. The
+ * operations below are written so that they yield exactly the same values as
+ * the matrix operations of {@link CVMKalmanFilter}, to the last bit.
+ * <p>
+ * The {@link #predict(int, int)} and {@link #update(int, double[])} methods can
+ * be called concurrently on distinct filters. The other methods are not
+ * thread-safe.
+ */
+class CVMKalmanFilterBank
+{
+
+	private static final int STATE_SIZE = 6;
+
+	private static final int COV_SIZE = 4;
+
+	/** Position process noise variance. */
+	private final double qPos;
+
+	/** Velocity process noise variance. */
+	private final double qVel;
+
+	/** Position measurement noise variance. */
+	private final double r;
+
+	private int size;
+
+	/** Current states, as <code>x, y, z, vx, vy, vz</code> per filter. */
+	private double[] state;
+
+	/** Predicted states, laid out as {@link #state}. */
+	private double[] prediction;
+
+	/**
+	 * State covariances, as <code>pos-pos, pos-vel, vel-pos, vel-vel</code>
+	 * per filter.
+	 */
+	private double[] cov;
+
+	private int[] nOcclusion;
+
+	/**
+	 * Creates an empty bank of filters.
+	 *
+	 * @param positionProcessStd
+	 *            the std of the noise affecting the position evolution.
+	 * @param velocityProcessStd
+	 *            the std of the noise affecting the velocity evolution.
+	 * @param positionMeasurementStd
+	 *            the std of the noise affecting the position measurement.
+	 * @see CVMKalmanFilter#CVMKalmanFilter(double[], double, double, double,
+	 *      double)
+	 */
+	public CVMKalmanFilterBank( final double positionProcessStd, final double velocityProcessStd, final double positionMeasurementStd )
+	{
+		this.qPos = positionProcessStd * positionProcessStd;
+		this.qVel = velocityProcessStd * velocityProcessStd;
+		this.r = positionMeasurementStd * positionMeasurementStd;
+		this.state = new double[ 16 * STATE_SIZE ];
+		this.prediction = new double[ 16 * STATE_SIZE ];
+		this.cov = new double[ 16 * COV_SIZE ];
+		this.nOcclusion = new int[ 16 ];
+	}
+
+	/**
+	 * Adds a new filter to this bank.
+	 *
+	 * @param X0
+	 *            the initial state, as <code>x0, y0, z0, vx0, vy0, vz0</code>.
+	 * @param initStateCovariance
+	 *            the initial state covariance.
+	 * @return the index of the new filter.
+	 */
+	public int add( final double[] X0, final double initStateCovariance )
+	{
+		if ( size == nOcclusion.length )
+		{
+			final int capacity = size + ( size >> 1 );
+			state = Arrays.copyOf( state, capacity * STATE_SIZE );
+			prediction = Arrays.copyOf( prediction, capacity * STATE_SIZE );
+			cov = Arrays.copyOf( cov, capacity * COV_SIZE );
+			nOcclusion = Arrays.copyOf( nOcclusion, capacity );
+		}
+		final int i = size++;
+		System.arraycopy( X0, 0, state, i * STATE_SIZE, STATE_SIZE );
+		final int c = i * COV_SIZE;
+		cov[ c ] = initStateCovariance;
+		cov[ c + 1 ] = 0d;
+		cov[ c + 2 ] = 0d;
+		cov[ c + 3 ] = initStateCovariance;
+		nOcclusion[ i ] = 0;
+		return i;
+	}
+
+	/**
+	 * Removes the specified filter from this bank. The last filter of the bank
+	 * takes its index.
+	 *
+	 * @param i
+	 *            the index of the filter to remove.
+	 */
+	public void remove( final int i )
+	{
+		final int last = --size;
+		if ( i == last ) { return; }
+		System.arraycopy( state, last * STATE_SIZE, state, i * STATE_SIZE, STATE_SIZE );
+		System.arraycopy( prediction, last * STATE_SIZE, prediction, i * STATE_SIZE, STATE_SIZE );
+		System.arraycopy( cov, last * COV_SIZE, cov, i * COV_SIZE, COV_SIZE );
+		nOcclusion[ i ] = nOcclusion[ last ];
+	}
+
+	/**
+	 * Returns the number of filters in this bank.
+	 *
+	 * @return the number of filters.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Runs the prediction step for the filters whose index is in the specified
+	 * range.
+	 *
+	 * @param from
+	 *            the index of the first filter, inclusive.
+	 * @param to
+	 *            the index of the last filter, exclusive.
+	 */
+	public void predict( final int from, final int to )
+	{
+		for ( int i = from; i < to; i++ )
+		{
+			final int s = i * STATE_SIZE;
+			for ( int d = 0; d < 3; d++ )
+			{
+				prediction[ s + d ] = state[ s + d ] + state[ s + 3 + d ];
+				prediction[ s + 3 + d ] = state[ s + 3 + d ];
+			}
+
+			// P = A P A' + Q
+			final int c = i * COV_SIZE;
+			final double a = cov[ c ];
+			final double b = cov[ c + 1 ];
+			final double e = cov[ c + 2 ];
+			final double f = cov[ c + 3 ];
+			cov[ c ] = ( a + b ) + ( e + f ) + qPos;
+			cov[ c + 1 ] = b + f;
+			cov[ c + 2 ] = e + f;
+			cov[ c + 3 ] = f + qVel;
+		}
+	}
+
+	/**
+	 * Returns a coordinate of the position predicted by the last
+	 * {@link #predict(int, int)} call for the specified filter.
+	 *
+	 * @param i
+	 *            the index of the filter.
+	 * @param d
+	 *            the dimension, 0, 1 or 2.
+	 * @return the predicted position along this dimension.
+	 */
+	public double getPredictedPosition( final int i, final int d )
+	{
+		return prediction[ i * STATE_SIZE + d ];
+	}
+
+	/**
+	 * Runs the update step of the specified filter.
+	 *
+	 * @param i
+	 *            the index of the filter.
+	 * @param Xm
+	 *            the measured position, as <code>x, y, z</code>. If
+	 *            <code>null</code>, the filter assumes an occlusion occurred
+	 *            and takes the prediction as its new state.
+	 * @see CVMKalmanFilter#update(double[])
+	 */
+	public void update( final int i, final double[] Xm )
+	{
+		final int s = i * STATE_SIZE;
+		if ( null == Xm )
+		{
+			nOcclusion[ i ]++;
+			System.arraycopy( prediction, s, state, s, STATE_SIZE );
+			return;
+		}
+
+		// K = P H' ( H P H' + R )^-1
+		final int c = i * COV_SIZE;
+		final double a = cov[ c ];
+		final double b = cov[ c + 1 ];
+		final double e = cov[ c + 2 ];
+		final double f = cov[ c + 3 ];
+		final double invS = 1d / ( a + r );
+		final double kPos = a * invS;
+		final double kVel = e * invS;
+
+		// X = Xp + K ( Xm - H Xp )
+		for ( int d = 0; d < 3; d++ )
+		{
+			final double innovation = Xm[ d ] - prediction[ s + d ];
+			state[ s + d ] = prediction[ s + d ] + kPos * innovation;
+			state[ s + 3 + d ] = prediction[ s + 3 + d ] + kVel * innovation;
+		}
+
+		// P = ( I - K H ) P
+		cov[ c ] = ( 1d - kPos ) * a;
+		cov[ c + 1 ] = ( 1d - kPos ) * b;
+		cov[ c + 2 ] = -kVel * a + e;
+		cov[ c + 3 ] = -kVel * b + f;
+	}
+
+	/**
+	 * Returns the number of occlusion events that occurred since the specified
+	 * filter was added.
+	 *
+	 * @param i
+	 *            the index of the filter.
+	 * @return the number of occlusions.
+	 */
+	public int getNOcclusion( final int i )
+	{
+		return nOcclusion[ i ];
+	}
+}
@@ -23,6 +23,7 @@ import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costmatrix.JaqamanLinkingCostMatrixCreator;
 import fiji.plugin.trackmate.tracking.sparselap.linker.JaqamanLinker;
+import fiji.plugin.trackmate.tracking.sparselap.linker.LAPJVWorkspace;
 
 public class KalmanTracker implements SpotTracker, Benchmark
 {
@@ -155,6 +156,9 @@ public class KalmanTracker implements SpotTracker, Benchmark
 		// The master map that contains the currently active KFs.
 		final Map< CVMKalmanFilter, Spot > kalmanFiltersMap = new HashMap< CVMKalmanFilter, Spot >( orphanSpots.size() );
 
+		// Solver arrays reused from frame to frame.
+		final LAPJVWorkspace workspace = new LAPJVWorkspace();
+
 		/*
 		 * Then loop over time, starting from second frame.
 		 */
@@ -165,6 +169,7 @@ public class KalmanTracker implements SpotTracker, Benchmark
 
 			// Use the spot in the next frame has measurements.
 			final List< Spot > measurements = generateSpotList( spots, frame );
+			orphanSpots = new HashSet< Spot >( measurements );
 
 			// Predict for all Kalman filters, and use it to generate linking
 			// candidates.
@@ -199,6 +204,7 @@ public class KalmanTracker implements SpotTracker, Benchmark
 
 				final JaqamanLinkingCostMatrixCreator< ComparableRealPoint, Spot > crm = new JaqamanLinkingCostMatrixCreator< ComparableRealPoint, Spot >( predictions, measurements, CF, maxCost, ALTERNATIVE_COST_FACTOR, PERCENTILE );
 				final JaqamanLinker< ComparableRealPoint, Spot > linker = new JaqamanLinker< ComparableRealPoint, Spot >( crm );
+				linker.setWorkspace( workspace );
 				if ( !linker.checkInput() || !linker.process() )
 				{
 					errorMessage = BASE_ERROR_MSG + "Error linking candidates in frame " + frame + ": " + linker.getErrorMessage();
@@ -208,7 +214,6 @@ public class KalmanTracker implements SpotTracker, Benchmark
 				final Map< ComparableRealPoint, Double > costs = linker.getAssignmentCosts();
 
 				// Deal with found links.
-				orphanSpots = new HashSet< Spot >( measurements );
 				for ( final ComparableRealPoint cm : agnts.keySet() )
 				{
 					final CVMKalmanFilter kf = predictionMap.get( cm );
@@ -254,6 +259,7 @@ public class KalmanTracker implements SpotTracker, Benchmark
 
 				final JaqamanLinkingCostMatrixCreator< Spot, Spot > ic = new JaqamanLinkingCostMatrixCreator< Spot, Spot >( previousOrphanSpots, orphanSpots, nucleatingCostFunction, maxInitialCost, ALTERNATIVE_COST_FACTOR, PERCENTILE );
 				final JaqamanLinker< Spot, Spot > newLinker = new JaqamanLinker< Spot, Spot >( ic );
+				newLinker.setWorkspace( workspace );
 				if ( !newLinker.checkInput() || !newLinker.process() )
 				{
 					errorMessage = BASE_ERROR_MSG + "Error linking spots from frame " + ( frame - 1 ) + " to frame " + frame + ": " + newLinker.getErrorMessage();
@@ -0,0 +1,611 @@
+package fiji.plugin.trackmate.tracking.kalman;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
+import net.imglib2.multithreading.SimpleMultiThreading;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.tracking.SpotTracker;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.IndexedCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.sparselap.linker.JaqamanLinker;
+import fiji.plugin.trackmate.tracking.util.GridIndex;
+
+/**
+ * A multithreaded version of the {@link KalmanTracker}, that yields the same
+ * tracks.
+ * <p>
+ * The Kalman filters are stored in a {@link CVMKalmanFilterBank}, and their
+ * prediction and update steps are run in parallel over chunks of filters. The
+ * candidate links between predictions and measurements, and between the
+ * orphan spots of two consecutive frames, are found through a
+ * {@link GridIndex} built over the target spots of each frame, instead of
+ * testing all pairs. The resulting assignment problems are decomposed in
+ * independent clusters, solved in parallel by the {@link JaqamanLinker}.
+ */
+public class ParallelKalmanTracker extends MultiThreadedBenchmarkAlgorithm implements SpotTracker
+{
+
+	private static final double ALTERNATIVE_COST_FACTOR = 1.05d;
+
+	private static final double PERCENTILE = 1d;
+
+	private static final String BASE_ERROR_MSG = "[ParallelKalmanTracker] ";
+
+	/** Number of filters or sources processed by a thread in one go. */
+	private static final int CHUNK_SIZE = 1024;
+
+	/**
+	 * Relative margin added to search radii, so that the spatial index never
+	 * misses a candidate because of round-off errors.
+	 */
+	private static final double RADIUS_MARGIN = 1e-6;
+
+	private SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph;
+
+	private Logger logger = Logger.VOID_LOGGER;
+
+	private final SpotCollection spots;
+
+	private final double maxSearchRadius;
+
+	private final int maxFrameGap;
+
+	private final double initialSearchRadius;
+
+	private boolean savePredictions = false;
+
+	private SpotCollection predictionsCollection;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * @param spots
+	 *            the spots to track.
+	 * @param maxSearchRadius
+	 * @param maxFrameGap
+	 * @param initialSearchRadius
+	 */
+	public ParallelKalmanTracker( final SpotCollection spots, final double maxSearchRadius, final int maxFrameGap, final double initialSearchRadius )
+	{
+		this.spots = spots;
+		this.maxSearchRadius = maxSearchRadius;
+		this.maxFrameGap = maxFrameGap;
+		this.initialSearchRadius = initialSearchRadius;
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	@Override
+	public SimpleWeightedGraph< Spot, DefaultWeightedEdge > getResult()
+	{
+		return graph;
+	}
+
+	@Override
+	public boolean checkInput()
+	{
+		return true;
+	}
+
+	@Override
+	public boolean process()
+	{
+		final long start = System.currentTimeMillis();
+
+		/*
+		 * Outputs
+		 */
+
+		graph = new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
+		predictionsCollection = new SpotCollection();
+
+		/*
+		 * Constants.
+		 */
+
+		// Max KF search cost.
+		final double maxCost = maxSearchRadius * maxSearchRadius;
+		// Max cost to nucleate KFs.
+		final double maxInitialCost = initialSearchRadius * initialSearchRadius;
+
+		// Find first and second non-empty frames.
+		final NavigableSet< Integer > keySet = spots.keySet();
+		final Iterator< Integer > frameIterator = keySet.iterator();
+		final int firstFrame = frameIterator.next();
+		if ( !frameIterator.hasNext() ) { return true; }
+		final int secondFrame = frameIterator.next();
+
+		/*
+		 * Initialize. Find first links just based on square distance. We do
+		 * this via the orphan spots lists.
+		 */
+
+		// Spots in the current frame that are not part of a new link (no
+		// parent).
+		Collection< Spot > orphanSpots = generateSpotList( spots, secondFrame );
+		// Spots in the PREVIOUS frame that were not part of a link.
+		Collection< Spot > previousOrphanSpots = generateSpotList( spots, firstFrame );
+
+		/*
+		 * Estimate Kalman filter variances. Same as for the KalmanTracker.
+		 */
+
+		final double positionProcessStd = maxSearchRadius / 3d;
+		final double velocityProcessStd = maxSearchRadius / 3d;
+		double meanSpotRadius = 0d;
+		for ( final Spot spot : orphanSpots )
+		{
+			meanSpotRadius += spot.getFeature( Spot.RADIUS ).doubleValue();
+		}
+		meanSpotRadius /= orphanSpots.size();
+		final double positionMeasurementStd = meanSpotRadius / 10d;
+
+		// The currently active KFs, and the spot each one last linked to.
+		final CVMKalmanFilterBank filters = new CVMKalmanFilterBank( positionProcessStd, velocityProcessStd, positionMeasurementStd );
+		final List< Spot > filterSpots = new ArrayList< Spot >( orphanSpots.size() );
+
+		/*
+		 * Then loop over time, starting from second frame.
+		 */
+		int p = 1;
+		for ( int frame = secondFrame; frame <= keySet.last(); frame++ )
+		{
+			p++;
+
+			// Use the spot in the next frame has measurements.
+			final List< Spot > measurements = generateSpotList( spots, frame );
+			orphanSpots = new HashSet< Spot >( measurements );
+
+			// Predict for all Kalman filters.
+			final int nFilters = filters.size();
+			runChunks( nFilters, new ChunkTask()
+			{
+				@Override
+				public void run( final int from, final int to )
+				{
+					filters.predict( from, to );
+				}
+			} );
+
+			if ( savePredictions )
+			{
+				for ( int i = 0; i < nFilters; i++ )
+				{
+					final Spot pred = new Spot( filters.getPredictedPosition( i, 0 ), filters.getPredictedPosition( i, 1 ), filters.getPredictedPosition( i, 2 ), 2d, -1d );
+					final Spot s = filterSpots.get( i );
+					pred.setName( "Pred_" + s.getName() );
+					pred.putFeature( Spot.RADIUS, s.getFeature( Spot.RADIUS ) );
+					predictionsCollection.add( pred, frame );
+				}
+			}
+
+			// The measurement found for each KF. Is null for the KF for which
+			// we could not find a measurement in the target frame.
+			final Spot[] filterTargets = new Spot[ nFilters ];
+
+			// Find the global (in space) optimum for associating a prediction
+			// to a measurement.
+
+			if ( nFilters > 0 && !measurements.isEmpty() )
+			{
+				// Only link measurements to predictions if we have predictions.
+
+				final double[] predictionCoords = new double[ 3 * nFilters ];
+				final PredictionKey[] keys = new PredictionKey[ nFilters ];
+				for ( int i = 0; i < nFilters; i++ )
+				{
+					for ( int d = 0; d < 3; d++ )
+					{
+						predictionCoords[ 3 * i + d ] = filters.getPredictedPosition( i, d );
+					}
+					keys[ i ] = new PredictionKey( i, predictionCoords[ 3 * i ], predictionCoords[ 3 * i + 1 ], predictionCoords[ 3 * i + 2 ] );
+				}
+				final Candidates candidates = findCandidates( predictionCoords, nFilters, measurements, maxCost, Double.MIN_NORMAL );
+
+				if ( candidates.size > 0 )
+				{
+					final IndexedCostMatrixCreator< PredictionKey, Spot > crm = new IndexedCostMatrixCreator< PredictionKey, Spot >( Arrays.asList( keys ), measurements, ALTERNATIVE_COST_FACTOR, PERCENTILE );
+					crm.addAll( candidates.rows, candidates.cols, candidates.costs, candidates.size );
+					final JaqamanLinker< PredictionKey, Spot > linker = new JaqamanLinker< PredictionKey, Spot >( crm );
+					linker.setDecomposition( true );
+					linker.setNumThreads( numThreads );
+					if ( !linker.checkInput() || !linker.process() )
+					{
+						errorMessage = BASE_ERROR_MSG + "Error linking candidates in frame " + frame + ": " + linker.getErrorMessage();
+						return false;
+					}
+					final Map< PredictionKey, Spot > agnts = linker.getResult();
+					final Map< PredictionKey, Double > costs = linker.getAssignmentCosts();
+
+					// Deal with found links.
+					for ( final PredictionKey key : agnts.keySet() )
+					{
+						// Create links for found match.
+						final Spot source = filterSpots.get( key.filter );
+						final Spot target = agnts.get( key );
+
+						graph.addVertex( source );
+						graph.addVertex( target );
+						final DefaultWeightedEdge edge = graph.addEdge( source, target );
+						final double cost = costs.get( key );
+						graph.setEdgeWeight( edge, cost );
+
+						// Update Kalman track spot
+						filterTargets[ key.filter ] = target;
+						filterSpots.set( key.filter, target );
+
+						// Remove from orphan set
+						orphanSpots.remove( target );
+					}
+				}
+			}
+
+			// Update all Kalman filters, echoing missed measurements.
+			runChunks( nFilters, new ChunkTask()
+			{
+				@Override
+				public void run( final int from, final int to )
+				{
+					final double[] Xm = new double[ 3 ];
+					for ( int i = from; i < to; i++ )
+					{
+						final Spot target = filterTargets[ i ];
+						if ( null == target )
+						{
+							filters.update( i, null );
+						}
+						else
+						{
+							for ( int d = 0; d < 3; d++ )
+							{
+								Xm[ d ] = target.getDoublePosition( d );
+							}
+							filters.update( i, Xm );
+						}
+					}
+				}
+			} );
+
+			/*
+			 * Deal with orphans from the previous frame. (We deal with orphans
+			 * from previous frame only now because we want to link in priority
+			 * target spots to predictions. Nucleating new KF from nearest
+			 * neighbor only comes second.
+			 */
+			if ( !previousOrphanSpots.isEmpty() && !orphanSpots.isEmpty() )
+			{
+				final List< Spot > sources = new ArrayList< Spot >( previousOrphanSpots );
+				final List< Spot > targets = new ArrayList< Spot >( orphanSpots );
+				final double[] sourceCoords = new double[ 3 * sources.size() ];
+				for ( int i = 0; i < sources.size(); i++ )
+				{
+					for ( int d = 0; d < 3; d++ )
+					{
+						sourceCoords[ 3 * i + d ] = sources.get( i ).getDoublePosition( d );
+					}
+				}
+				final Candidates candidates = findCandidates( sourceCoords, sources.size(), targets, maxInitialCost, 0d );
+
+				if ( candidates.size > 0 )
+				{
+					final IndexedCostMatrixCreator< Spot, Spot > ic = new IndexedCostMatrixCreator< Spot, Spot >( sources, targets, ALTERNATIVE_COST_FACTOR, PERCENTILE );
+					ic.addAll( candidates.rows, candidates.cols, candidates.costs, candidates.size );
+					final JaqamanLinker< Spot, Spot > newLinker = new JaqamanLinker< Spot, Spot >( ic );
+					newLinker.setDecomposition( true );
+					newLinker.setNumThreads( numThreads );
+					if ( !newLinker.checkInput() || !newLinker.process() )
+					{
+						errorMessage = BASE_ERROR_MSG + "Error linking spots from frame " + ( frame - 1 ) + " to frame " + frame + ": " + newLinker.getErrorMessage();
+						return false;
+					}
+					final Map< Spot, Spot > newAssignments = newLinker.getResult();
+					final Map< Spot, Double > assignmentCosts = newLinker.getAssignmentCosts();
+
+					// Build links and new KFs from these links.
+					for ( final Spot source : newAssignments.keySet() )
+					{
+						final Spot target = newAssignments.get( source );
+
+						// Remove from orphan collection.
+						orphanSpots.remove( target );
+
+						// Derive initial state and create Kalman filter. We
+						// trust the initial state a lot.
+						final double[] XP = estimateInitialState( source, target );
+						filters.add( XP, Double.MIN_NORMAL );
+						filterSpots.add( target );
+
+						// Add edge to the graph.
+						graph.addVertex( source );
+						graph.addVertex( target );
+						final DefaultWeightedEdge edge = graph.addEdge( source, target );
+						final double cost = assignmentCosts.get( source );
+						graph.setEdgeWeight( edge, cost );
+					}
+				}
+			}
+			previousOrphanSpots = orphanSpots;
+
+			// We can bridge a limited number of gaps. If too much, the KF
+			// dies. The last KF takes the index of the removed one.
+			for ( int i = nFilters - 1; i >= 0; i-- )
+			{
+				if ( filters.getNOcclusion( i ) > maxFrameGap )
+				{
+					final int last = filters.size() - 1;
+					filters.remove( i );
+					filterSpots.set( i, filterSpots.get( last ) );
+					filterSpots.remove( last );
+				}
+			}
+
+			final double progress = ( double ) p / keySet.size();
+			logger.setProgress( progress );
+		}
+
+		if ( savePredictions )
+		{
+			predictionsCollection.setVisible( true );
+		}
+
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+
+		return true;
+	}
+
+	/**
+	 * Returns the saved predicted state as a {@link SpotCollection}.
+	 *
+	 * @return the predicted states.
+	 * @see #setSavePredictions(boolean)
+	 */
+	public SpotCollection getPredictions()
+	{
+		return predictionsCollection;
+	}
+
+	/**
+	 * Sets whether the tracker saves the predicted states.
+	 *
+	 * @param doSave
+	 *            if <code>true</code>, the predicted states will be saved.
+	 * @see #getPredictions()
+	 */
+	public void setSavePredictions( final boolean doSave )
+	{
+		this.savePredictions = doSave;
+	}
+
+	@Override
+	public void setLogger( final Logger logger )
+	{
+		this.logger = logger;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Finds all the pairs made of a source and a target spot whose square
+	 * distance plus the specified offset is below a threshold. The costs are
+	 * computed exactly as the cost functions of the {@link KalmanTracker}.
+	 * Sources are processed in parallel, and the pairs are returned ordered by
+	 * source.
+	 */
+	private Candidates findCandidates( final double[] sourceCoords, final int nSources, final List< Spot > targets, final double costThreshold, final double costOffset )
+	{
+		final int nTargets = targets.size();
+		final double[] targetCoords = new double[ 3 * nTargets ];
+		for ( int j = 0; j < nTargets; j++ )
+		{
+			for ( int d = 0; d < 3; d++ )
+			{
+				targetCoords[ 3 * j + d ] = targets.get( j ).getDoublePosition( d );
+			}
+		}
+		final double radius = Math.sqrt( costThreshold ) * ( 1d + RADIUS_MARGIN );
+		final GridIndex index = new GridIndex( targetCoords, nTargets, radius );
+
+		final int nChunks = ( nSources + CHUNK_SIZE - 1 ) / CHUNK_SIZE;
+		final Candidates[] chunks = new Candidates[ nChunks ];
+		runChunks( nSources, new ChunkTask()
+		{
+			@Override
+			public void run( final int from, final int to )
+			{
+				final Candidates candidates = new Candidates();
+				final GridIndex.Query query = index.query();
+				for ( int i = from; i < to; i++ )
+				{
+					final double x = sourceCoords[ 3 * i ];
+					final double y = sourceCoords[ 3 * i + 1 ];
+					final double z = sourceCoords[ 3 * i + 2 ];
+					final int nFound = query.search( x, y, z, radius );
+					for ( int k = 0; k < nFound; k++ )
+					{
+						final int j = query.get( k );
+						final double dx = x - query.getCoordinate( j, 0 );
+						final double dy = y - query.getCoordinate( j, 1 );
+						final double dz = z - query.getCoordinate( j, 2 );
+						final double cost = dx * dx + dy * dy + dz * dz + costOffset;
+						if ( cost < costThreshold )
+						{
+							candidates.add( i, j, cost );
+						}
+					}
+				}
+				chunks[ from / CHUNK_SIZE ] = candidates;
+			}
+		} );
+
+		// Concatenate in chunk order.
+		final Candidates all = new Candidates();
+		for ( final Candidates candidates : chunks )
+		{
+			all.addAll( candidates );
+		}
+		return all;
+	}
+
+	/**
+	 * Runs the specified task over consecutive chunks of indices, in parallel
+	 * if there are several chunks.
+	 */
+	private void runChunks( final int n, final ChunkTask task )
+	{
+		final int nChunks = ( n + CHUNK_SIZE - 1 ) / CHUNK_SIZE;
+		final int nThreads = Math.min( numThreads, nChunks );
+		if ( nThreads <= 1 )
+		{
+			for ( int c = 0; c < nChunks; c++ )
+			{
+				task.run( c * CHUNK_SIZE, Math.min( n, ( c + 1 ) * CHUNK_SIZE ) );
+			}
+			return;
+		}
+
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Thread[] threads = SimpleMultiThreading.newThreads( nThreads );
+		for ( int ithread = 0; ithread < threads.length; ithread++ )
+		{
+			threads[ ithread ] = new Thread( BASE_ERROR_MSG + "thread " + ( 1 + ithread ) + "/" + threads.length )
+			{
+				@Override
+				public void run()
+				{
+					for ( int c = ai.getAndIncrement(); c < nChunks; c = ai.getAndIncrement() )
+					{
+						task.run( c * CHUNK_SIZE, Math.min( n, ( c + 1 ) * CHUNK_SIZE ) );
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin( threads );
+	}
+
+	private static final double[] estimateInitialState( final Spot first, final Spot second )
+	{
+		final double[] xp = new double[] { second.getDoublePosition( 0 ), second.getDoublePosition( 1 ), second.getDoublePosition( 2 ),
+				second.diffTo( first, Spot.POSITION_X ), second.diffTo( first, Spot.POSITION_Y ), second.diffTo( first, Spot.POSITION_Z ) };
+		return xp;
+	}
+
+	private static final List< Spot > generateSpotList( final SpotCollection spots, final int frame )
+	{
+		final List< Spot > list = new ArrayList< Spot >( spots.getNSpots( frame, true ) );
+		for ( final Iterator< Spot > iterator = spots.iterator( frame, true ); iterator.hasNext(); )
+		{
+			list.add( iterator.next() );
+		}
+		return list;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	private static interface ChunkTask
+	{
+		/**
+		 * Processes the indices from <code>from</code>, inclusive, to
+		 * <code>to</code>, exclusive.
+		 */
+		public void run( int from, int to );
+	}
+
+	/**
+	 * Candidate links, as source index, target index and cost.
+	 */
+	private static final class Candidates
+	{
+		private int[] rows = new int[ 16 ];
+
+		private int[] cols = new int[ 16 ];
+
+		private double[] costs = new double[ 16 ];
+
+		private int size;
+
+		private void ensureCapacity( final int capacity )
+		{
+			if ( capacity > rows.length )
+			{
+				final int newCapacity = Math.max( capacity, rows.length + ( rows.length >> 1 ) );
+				rows = Arrays.copyOf( rows, newCapacity );
+				cols = Arrays.copyOf( cols, newCapacity );
+				costs = Arrays.copyOf( costs, newCapacity );
+			}
+		}
+
+		private void add( final int row, final int col, final double cost )
+		{
+			ensureCapacity( size + 1 );
+			rows[ size ] = row;
+			cols[ size ] = col;
+			costs[ size ] = cost;
+			size++;
+		}
+
+		private void addAll( final Candidates other )
+		{
+			ensureCapacity( size + other.size );
+			System.arraycopy( other.rows, 0, rows, size, other.size );
+			System.arraycopy( other.cols, 0, cols, size, other.size );
+			System.arraycopy( other.costs, 0, costs, size, other.size );
+			size += other.size;
+		}
+	}
+
+	/**
+	 * The predicted position of a KF, used as a row of the cost matrix. Sorted
+	 * on X, Y, Z like the predictions of the {@link KalmanTracker}, so that
+	 * both trackers build the same cost matrices.
+	 */
+	private static final class PredictionKey implements Comparable< PredictionKey >
+	{
+		private final int filter;
+
+		private final double x;
+
+		private final double y;
+
+		private final double z;
+
+		public PredictionKey( final int filter, final double x, final double y, final double z )
+		{
+			this.filter = filter;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+
+		@Override
+		public int compareTo( final PredictionKey o )
+		{
+			if ( x != o.x ) { return x < o.x ? -1 : 1; }
+			if ( y != o.y ) { return y < o.y ? -1 : 1; }
+			if ( z != o.z ) { return z < o.z ? -1 : 1; }
+			return filter < o.filter ? -1 : ( filter == o.filter ? 0 : 1 );
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package fiji.plugin.trackmate.tracking.kdtree;
+
+import java.util.Arrays;
+
+/**
+ * A KD-tree over 3D points, stored in flat primitive arrays, that supports
+ * nearest-neighbor searches excluding the points already flagged as visited.
+ * <p>
+ * It is meant to be reused: {@link #build(double[], int)} can be called
+ * again with new points, and reallocates its arrays only if there are more
+ * points than ever before. Searching does not allocate. The tree is balanced
+ * and implicit: the node of a range of points is the median point of the
+ * range, and its children are the nodes of the two half-ranges. Each node
+ * keeps the number of non-visited points in its subtree, so that fully
+ * visited subtrees are skipped.
+ * <p>
+ * Instances are not thread-safe: each thread must use its own.
+ *
+ * @see NearestNeighborFlagSearchOnKDTree
+ */
+public class FlatKDTree {
+
+	private int size;
+
+	/** Point coordinates, in tree order, as <code>x, y, z</code>. */
+	private double[] coords = new double[0];
+
+	/** Index of each point, in tree order, in the array it was built from. */
+	private int[] ids = new int[0];
+
+	/** Number of non-visited points in the subtree of each node. */
+	private int[] remaining = new int[0];
+
+	private boolean[] visited = new boolean[0];
+
+	/** Dimensions along which the points spread, cycled over by depth. */
+	private final int[] splitDims = new int[3];
+
+	private int nSplitDims;
+
+	/*
+	 * Search state.
+	 */
+
+	private double qx, qy, qz;
+
+	private int best;
+
+	private double bestSquDistance;
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * (Re)builds this tree over the specified points. All points are marked
+	 * non-visited.
+	 *
+	 * @param points  the point coordinates, as <code>x, y, z</code> per point.
+	 * It is not modified.
+	 * @param n  the number of points.
+	 */
+	public void build(final double[] points, final int n) {
+		if (ids.length < n) {
+			final int capacity = Math.max(n, ids.length + (ids.length >> 1));
+			coords = new double[3 * capacity];
+			ids = new int[capacity];
+			remaining = new int[capacity];
+			visited = new boolean[capacity];
+		}
+		size = n;
+		System.arraycopy(points, 0, coords, 0, 3 * n);
+		for (int i = 0; i < n; i++) {
+			ids[i] = i;
+		}
+		Arrays.fill(visited, 0, n, false);
+
+		// Only split along the dimensions the points spread over.
+		nSplitDims = 0;
+		for (int d = 0; d < 3; d++) {
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < n; i++) {
+				min = Math.min(min, points[3 * i + d]);
+				max = Math.max(max, points[3 * i + d]);
+			}
+			if (max > min) {
+				splitDims[nSplitDims++] = d;
+			}
+		}
+		if (nSplitDims == 0) {
+			splitDims[nSplitDims++] = 0;
+		}
+
+		buildNode(0, n, 0);
+	}
+
+	/**
+	 * @return the number of points in this tree.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Searches the non-visited point closest to the specified position.
+	 *
+	 * @return the index of the closest non-visited point in the array the tree
+	 * was built from, or <code>-1</code> if all points are visited.
+	 * @see #getSquareDistance()
+	 */
+	public int search(final double x, final double y, final double z) {
+		qx = x;
+		qy = y;
+		qz = z;
+		best = -1;
+		bestSquDistance = Double.MAX_VALUE;
+		searchNode(0, size, 0);
+		return best < 0 ? -1 : ids[best];
+	}
+
+	/**
+	 * @return the square distance to the point found by the last search.
+	 */
+	public double getSquareDistance() {
+		return bestSquDistance;
+	}
+
+	/**
+	 * Flags the point found by the last search as visited, so that it is not
+	 * returned by subsequent searches.
+	 */
+	public void setVisited() {
+		if (best < 0 || visited[best])
+			return;
+		visited[best] = true;
+		int lo = 0;
+		int hi = size;
+		while (true) {
+			final int mid = (lo + hi) >>> 1;
+			remaining[mid]--;
+			if (mid == best)
+				return;
+			if (best < mid)
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void buildNode(final int lo, final int hi, final int depth) {
+		if (lo >= hi)
+			return;
+		final int mid = (lo + hi) >>> 1;
+		select(lo, hi - 1, mid, splitDims[depth % nSplitDims]);
+		remaining[mid] = hi - lo;
+		buildNode(lo, mid, depth + 1);
+		buildNode(mid + 1, hi, depth + 1);
+	}
+
+	private void searchNode(final int lo, final int hi, final int depth) {
+		if (lo >= hi)
+			return;
+		final int mid = (lo + hi) >>> 1;
+		if (remaining[mid] == 0)
+			return;
+
+		// Consider the current node.
+		final double dx = coords[3 * mid] - qx;
+		final double dy = coords[3 * mid + 1] - qy;
+		final double dz = coords[3 * mid + 2] - qz;
+		final double distance = dx * dx + dy * dy + dz * dz;
+		if (distance < bestSquDistance && !visited[mid]) {
+			bestSquDistance = distance;
+			best = mid;
+		}
+
+		final int dim = splitDims[depth % nSplitDims];
+		final double axisDiff = (dim == 0 ? qx : (dim == 1 ? qy : qz)) - coords[3 * mid + dim];
+		final double axisSquDistance = axisDiff * axisDiff;
+
+		// Search the near branch, then the away branch - maybe.
+		if (axisDiff < 0) {
+			searchNode(lo, mid, depth + 1);
+			if (axisSquDistance <= bestSquDistance)
+				searchNode(mid + 1, hi, depth + 1);
+		} else {
+			searchNode(mid + 1, hi, depth + 1);
+			if (axisSquDistance <= bestSquDistance)
+				searchNode(lo, mid, depth + 1);
+		}
+	}
+
+	/**
+	 * Partially sorts the points between the specified inclusive bounds along
+	 * a dimension, so that the k-th point is in its sorted position, the
+	 * points before it are not larger and the points after it are not
+	 * smaller.
+	 */
+	private void select(int left, int right, final int k, final int dim) {
+		while (right > left) {
+			final double pivot = coords[3 * ((left + right) >>> 1) + dim];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (coords[3 * i + dim] < pivot)
+					i++;
+				while (coords[3 * j + dim] > pivot)
+					j--;
+				if (i <= j) {
+					swap(i++, j--);
+				}
+			}
+			if (k <= j)
+				right = j;
+			else if (k >= i)
+				left = i;
+			else
+				return;
+		}
+	}
+
+	private void swap(final int i, final int j) {
+		for (int d = 0; d < 3; d++) {
+			final double t = coords[3 * i + d];
+			coords[3 * i + d] = coords[3 * j + d];
+			coords[3 * j + d] = t;
+		}
+		final int t = ids[i];
+		ids[i] = ids[j];
+		ids[j] = t;
+	}
+}
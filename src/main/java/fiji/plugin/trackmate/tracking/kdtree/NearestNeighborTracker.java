@@ -7,17 +7,15 @@ import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.tracking.SpotTracker;
-import fiji.plugin.trackmate.util.TMUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import net.imglib2.KDTree;
-import net.imglib2.RealPoint;
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 import net.imglib2.multithreading.SimpleMultiThreading;
 
@@ -73,17 +71,25 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm	impl
 
 		final TreeSet<Integer> frames = new TreeSet<Integer>(spots.keySet());
 		final Thread[] threads = new Thread[numThreads];
+		final LinkBuffer[] links = new LinkBuffer[numThreads];
 
 		// Prepare the thread array
 		final AtomicInteger ai = new AtomicInteger(frames.first());
 		final AtomicInteger progress = new AtomicInteger(0);
 		for (int ithread = 0; ithread < threads.length; ithread++) {
 
+			final LinkBuffer threadLinks = new LinkBuffer();
+			links[ithread] = threadLinks;
 			threads[ithread] = new Thread("Nearest neighbor tracker thread "+(1+ithread)+"/"+threads.length) {
 
 				@Override
 				public void run() {
 
+					// Buffers reused for all the frames of this thread.
+					final FlatKDTree tree = new FlatKDTree();
+					double[] targetCoords = new double[0];
+					Spot[] targetSpots = new Spot[0];
+
 					for (int i = ai.getAndIncrement(); i < frames.last(); i = ai.getAndIncrement()) {
 
 						// Build frame pair
@@ -95,34 +101,30 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm	impl
 							continue;
 						}
 
-						final List<RealPoint> targetCoords = new ArrayList<RealPoint>(nTargetSpots);
-						final List<FlagNode<Spot>> targetNodes = new ArrayList<FlagNode<Spot>>(nTargetSpots);
+						if (targetSpots.length < nTargetSpots) {
+							targetCoords = new double[3 * nTargetSpots];
+							targetSpots = new Spot[nTargetSpots];
+						}
+						int nTargets = 0;
 						final Iterator<Spot> targetIt = spots.iterator(targetFrame, true);
 						while (targetIt.hasNext()) {
-							final double[] coords = new double[3];
 							final Spot spot = targetIt.next();
-							TMUtils.localize(spot, coords);
-							targetCoords.add(new RealPoint(coords));
-							targetNodes.add(new FlagNode<Spot>(spot));
+							localize(spot, targetCoords, nTargets);
+							targetSpots[nTargets++] = spot;
 						}
-
-
-						final KDTree<FlagNode<Spot>> tree = new KDTree<FlagNode<Spot>>(targetNodes, targetCoords);
-						final NearestNeighborFlagSearchOnKDTree<Spot> search = new NearestNeighborFlagSearchOnKDTree<Spot>(tree);
+						tree.build(targetCoords, nTargets);
 
 						// For each spot in the source frame, find its nearest neighbor in the target frame
 						final Iterator<Spot> sourceIt = spots.iterator(sourceFrame, true);
 						while (sourceIt.hasNext()) {
 							final Spot source = sourceIt.next();
-							final double[] coords = new double[3];
-							TMUtils.localize(source, coords);
-							final RealPoint sourceCoords = new RealPoint(coords);
-							search.search(sourceCoords);
+							final int target = tree.search(
+									source.getFeature(Spot.POSITION_X).doubleValue(),
+									source.getFeature(Spot.POSITION_Y).doubleValue(),
+									source.getFeature(Spot.POSITION_Z).doubleValue());
+							final double squareDist = tree.getSquareDistance();
 
-							final double squareDist = search.getSquareDistance();
-							final FlagNode<Spot> targetNode = search.getSampler().get();
-
-							if (squareDist > maxDistSquare) {
+							if (target < 0 || squareDist > maxDistSquare) {
 								// The closest we could find is too far. We skip this source spot and do not create a link
 								continue;
 							}
@@ -130,13 +132,11 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm	impl
 							// Everything is ok. This mode is free and below max dist. We create a link
 							// and mark this node as assigned.
 
-							targetNode.setVisited(true);
-							synchronized (graph) {
-								final DefaultWeightedEdge edge = graph.addEdge(source, targetNode.getValue());
-								graph.setEdgeWeight(edge, squareDist);
-							}
-
+							tree.setVisited();
+							threadLinks.add(source, targetSpots[target], squareDist);
 						}
+						// Do not retain spots of this frame in the buffer.
+						Arrays.fill(targetSpots, 0, nTargets, null);
 						logger.setProgress(progress.incrementAndGet() / (float)frames.size() );
 
 					}
@@ -151,6 +151,14 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm	impl
 
 		SimpleMultiThreading.startAndJoin(threads);
 
+		// Publish all the links to the graph at once.
+		for (final LinkBuffer threadLinks : links) {
+			for (int k = 0; k < threadLinks.size; k++) {
+				final DefaultWeightedEdge edge = graph.addEdge(threadLinks.sources[k], threadLinks.targets[k]);
+				graph.setEdgeWeight(edge, threadLinks.weights[k]);
+			}
+		}
+
 		logger.setProgress(1);
 		logger.setStatus("");
 
@@ -184,4 +192,35 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm	impl
 	public void setLogger(final Logger logger) {
 		this.logger = logger;
 	}
+
+	private static final void localize(final Spot spot, final double[] coords, final int index) {
+		coords[3 * index] = spot.getFeature(Spot.POSITION_X).doubleValue();
+		coords[3 * index + 1] = spot.getFeature(Spot.POSITION_Y).doubleValue();
+		coords[3 * index + 2] = spot.getFeature(Spot.POSITION_Z).doubleValue();
+	}
+
+	/**
+	 * Links found by a thread, stored in parallel arrays until they are added
+	 * to the graph.
+	 */
+	private static final class LinkBuffer {
+
+		private Spot[] sources = new Spot[64];
+		private Spot[] targets = new Spot[64];
+		private double[] weights = new double[64];
+		private int size;
+
+		private void add(final Spot source, final Spot target, final double weight) {
+			if (size == sources.length) {
+				final int capacity = size + (size >> 1);
+				sources = Arrays.copyOf(sources, capacity);
+				targets = Arrays.copyOf(targets, capacity);
+				weights = Arrays.copyOf(weights, capacity);
+			}
+			sources[size] = source;
+			targets[size] = target;
+			weights[size] = weight;
+			size++;
+		}
+	}
 }
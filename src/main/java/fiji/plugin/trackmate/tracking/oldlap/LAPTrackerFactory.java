@@ -53,7 +53,7 @@ public class LAPTrackerFactory implements SpotTrackerFactory
 
 	public static final String INFO_TEXT = "<html>" + "This tracker is based on the Linear Assignment Problem mathematical framework. <br>" + "Its implementation is derived from the following paper: <br>" + "<i>Robust single-particle tracking in live-cell time-lapse sequences</i> - <br>" + "Jaqaman <i> et al.</i>, 2008, Nature Methods. <br>" + "</html>";
 
-	private String errorMessage;
+	protected String errorMessage;
 
 	@Override
 	public String getInfoText()
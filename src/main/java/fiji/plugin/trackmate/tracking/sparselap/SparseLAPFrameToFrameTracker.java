@@ -1,9 +1,13 @@
 package fiji.plugin.trackmate.tracking.sparselap;
 
 import static fiji.plugin.trackmate.tracking.LAPUtils.checkFeatureMap;
+import static fiji.plugin.trackmate.tracking.LAPUtils.checkMotionModel;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_FEATURE_PENALTIES;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MOTION_MODEL;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_PREDICTION_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.MOTION_MODEL_CONSTANT_VELOCITY;
 import static fiji.plugin.trackmate.util.TMUtils.checkMapKeys;
 import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
 import fiji.plugin.trackmate.Logger;
@@ -12,11 +16,18 @@ import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.tracking.SpotTracker;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.FeaturePenaltyCostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.MotionPredictionCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costmatrix.JaqamanLinkingCostMatrixCreator;
 import fiji.plugin.trackmate.tracking.sparselap.linker.JaqamanLinker;
+import fiji.plugin.trackmate.tracking.sparselap.linker.LAPJVWorkspace;
+import fiji.plugin.trackmate.tracking.sparselap.motion.ConstantVelocityMotionModel;
+import fiji.plugin.trackmate.tracking.sparselap.motion.MotionModel;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +44,12 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 {
 	private final static String BASE_ERROR_MESSAGE = "[SparseLAPFrameToFrameTracker] ";
 
+	/** If <code>true</code>, the linking time of every frame pair is logged. */
+	private static final boolean DEBUG = false;
+
+	/** How many of the slowest frame pairs are reported in the log. */
+	private static final int N_SLOWEST_PAIRS = 5;
+
 	private SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph;
 
 	private Logger logger = Logger.VOID_LOGGER;
@@ -41,6 +58,8 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 
 	private final Map< String, Object > settings;
 
+	private boolean auction;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -145,107 +164,325 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 		final double costThreshold = maxDist * maxDist;
 		final double alternativeCostFactor = ( Double ) settings.get( KEY_ALTERNATIVE_LINKING_COST_FACTOR );
 
-		// Instantiate graph
-		graph = new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
+		// The links found for each frame pair.
+		final FramePairLinks[] links = new FramePairLinks[ framePairs.size() ];
+
+		logger.setStatus( "Frame to frame linking..." );
+		if ( MOTION_MODEL_CONSTANT_VELOCITY.equals( settings.get( KEY_LINKING_MOTION_MODEL ) ) )
+		{
+			/*
+			 * The predictions for a frame pair depend on the links found for
+			 * the previous one, so frame pairs are linked in order. Each LAP
+			 * is split in independent blocks solved in parallel instead, and
+			 * its costs are only computed for the targets close to the
+			 * predictions.
+			 */
+
+			// Targets are searched closer to predictions than to sources.
+			final Double predictionMaxDistSetting = ( Double ) settings.get( KEY_LINKING_PREDICTION_MAX_DISTANCE );
+			final double predictionMaxDist = ( null != predictionMaxDistSetting ) ? predictionMaxDistSetting.doubleValue() : maxDist;
+			final double predictionCostThreshold = predictionMaxDist * predictionMaxDist;
+			final double creatorCostThreshold = Math.max( costThreshold, predictionCostThreshold );
+
+			// Noise estimates, as in the KalmanTracker.
+			final double positionProcessStd = predictionMaxDist / 3d;
+			final double velocityProcessStd = predictionMaxDist / 3d;
+			final double positionMeasurementStd = meanSpotRadius() / 10d;
+			final MotionModel motionModel = new ConstantVelocityMotionModel( positionProcessStd, velocityProcessStd, positionMeasurementStd );
+			final LAPJVWorkspace workspace = new LAPJVWorkspace();
+			for ( int i = 0; i < framePairs.size(); i++ )
+			{
+				final int[] framePair = framePairs.get( i );
+				final Map< Spot, double[] > predictions = motionModel.predict( framePair[ 1 ] - framePair[ 0 ] );
+				final CostFunction< Spot, Spot > predictionCostFunction = new MotionPredictionCostFunction( predictions, featurePenalties, costThreshold, predictionCostThreshold );
+				final FramePairLinks pairLinks = linkFramePair( framePair, predictionCostFunction, creatorCostThreshold, alternativeCostFactor, workspace, true );
+				if ( null == pairLinks )
+				{
+					logger.setStatus( "" );
+					return false;
+				}
+				links[ i ] = pairLinks;
 
-		// Prepare threads
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+				final Map< Spot, Spot > assignment = new HashMap< Spot, Spot >( pairLinks.size );
+				for ( int k = 0; k < pairLinks.size; k++ )
+				{
+					assignment.put( pairLinks.sources[ k ], pairLinks.targets[ k ] );
+				}
+				motionModel.update( assignment );
 
-		// Prepare the thread array
-		final AtomicInteger ai = new AtomicInteger( 0 );
-		final AtomicInteger progress = new AtomicInteger( 0 );
-		final AtomicBoolean ok = new AtomicBoolean( true );
-		for ( int ithread = 0; ithread < threads.length; ithread++ )
+				logger.setProgress( ( double ) ( i + 1 ) / framePairs.size() );
+			}
+		}
+		else
 		{
-			threads[ ithread ] = new Thread( BASE_ERROR_MESSAGE + " thread " + ( 1 + ithread ) + "/" + threads.length )
+			// Prepare threads
+			final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+
+			// Prepare the thread array
+			final AtomicInteger ai = new AtomicInteger( 0 );
+			final AtomicInteger progress = new AtomicInteger( 0 );
+			final AtomicBoolean ok = new AtomicBoolean( true );
+			for ( int ithread = 0; ithread < threads.length; ithread++ )
 			{
-				@Override
-				public void run()
+				threads[ ithread ] = new Thread( BASE_ERROR_MESSAGE + " thread " + ( 1 + ithread ) + "/" + threads.length )
 				{
-					for ( int i = ai.getAndIncrement(); i < framePairs.size(); i = ai.getAndIncrement() )
+					@Override
+					public void run()
 					{
-						if ( !ok.get() )
+						// Solver arrays reused for all the frame pairs of this
+						// thread.
+						final LAPJVWorkspace workspace = new LAPJVWorkspace();
+						for ( int i = ai.getAndIncrement(); i < framePairs.size(); i = ai.getAndIncrement() )
 						{
-							break;
+							if ( !ok.get() )
+							{
+								break;
+							}
+							final FramePairLinks pairLinks = linkFramePair( framePairs.get( i ), costFunction, costThreshold, alternativeCostFactor, workspace, false );
+							if ( null == pairLinks )
+							{
+								ok.set( false );
+								return;
+							}
+							links[ i ] = pairLinks;
+
+							logger.setProgress( ( double ) progress.incrementAndGet() / framePairs.size() );
 						}
+					}
+				};
+			}
 
-						// Get frame pairs
-						final int frame0 = framePairs.get( i )[ 0 ];
-						final int frame1 = framePairs.get( i )[ 1 ];
+			SimpleMultiThreading.startAndJoin( threads );
+			if ( !ok.get() )
+			{
+				logger.setStatus( "" );
+				return false;
+			}
+		}
+		logger.setProgress( 1d );
+		logger.setStatus( "" );
 
-						// Get spots - we have to create a list from each
-						// content.
-						final List< Spot > sources = new ArrayList< Spot >( spots.getNSpots( frame0, true ) );
-						for ( final Iterator< Spot > iterator = spots.iterator( frame0, true ); iterator.hasNext(); )
-						{
-							sources.add( iterator.next() );
-						}
+		/*
+		 * Build the graph in one pass, in frame order.
+		 */
 
-						final List< Spot > targets = new ArrayList< Spot >( spots.getNSpots( frame1, true ) );
-						for ( final Iterator< Spot > iterator = spots.iterator( frame1, true ); iterator.hasNext(); )
-						{
-							targets.add( iterator.next() );
-						}
+		graph = new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
+		for ( int i = 0; i < links.length; i++ )
+		{
+			final FramePairLinks pairLinks = links[ i ];
+			for ( int k = 0; k < pairLinks.size; k++ )
+			{
+				final Spot source = pairLinks.sources[ k ];
+				final Spot target = pairLinks.targets[ k ];
+				graph.addVertex( source );
+				graph.addVertex( target );
+				final DefaultWeightedEdge edge = graph.addEdge( source, target );
+				graph.setEdgeWeight( edge, pairLinks.costs[ k ] );
+			}
+		}
+		logger.log( timingSummary( framePairs, links ) );
 
-						if ( sources.isEmpty() || targets.isEmpty() )
-						{
-							continue;
-						}
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
 
-						/*
-						 * Run the linker.
-						 */
+		return true;
+	}
 
-						final JaqamanLinkingCostMatrixCreator< Spot, Spot > creator = new JaqamanLinkingCostMatrixCreator< Spot, Spot >( sources, targets, costFunction, costThreshold, alternativeCostFactor, 1d );
-						final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker< Spot, Spot >( creator );
-						if ( !linker.checkInput() || !linker.process() )
-						{
-							errorMessage = "At frame " + frame0 + " to " + frame1 + ": " + linker.getErrorMessage();
-							ok.set( false );
-							return;
-						}
+	@Override
+	public void setLogger( final Logger logger )
+	{
+		this.logger = logger;
+	}
 
-						/*
-						 * Update graph.
-						 */
+	/**
+	 * Sets whether the frame-to-frame LAPs are solved with the auction solver
+	 * instead of the Jonker-Volgenant solver.
+	 *
+	 * @param auction
+	 *            if <code>true</code>, the auction solver is used.
+	 */
+	public void setAuction( final boolean auction )
+	{
+		this.auction = auction;
+	}
 
-						synchronized ( graph )
-						{
-							final Map< Spot, Double > costs = linker.getAssignmentCosts();
-							final Map< Spot, Spot > assignment = linker.getResult();
-							for ( final Spot source : assignment.keySet() )
-							{
-								final double cost = costs.get( source );
-								final Spot target = assignment.get( source );
-								graph.addVertex( source );
-								graph.addVertex( target );
-								final DefaultWeightedEdge edge = graph.addEdge( source, target );
-								graph.setEdgeWeight( edge, cost );
-							}
-						}
+	/**
+	 * Links the spots of a frame pair.
+	 *
+	 * @return the links found, or <code>null</code> if the linker failed. The
+	 *         error message is then set.
+	 */
+	private FramePairLinks linkFramePair( final int[] framePair, final CostFunction< Spot, Spot > costFunction, final double costThreshold, final double alternativeCostFactor, final LAPJVWorkspace workspace, final boolean decomposition )
+	{
+		final long pairStart = System.nanoTime();
 
-						logger.setProgress( progress.incrementAndGet() / framePairs.size() );
+		// Get frame pairs
+		final int frame0 = framePair[ 0 ];
+		final int frame1 = framePair[ 1 ];
 
-					}
-				}
-			};
+		// Get spots - we have to create a list from each content.
+		final List< Spot > sources = new ArrayList< Spot >( spots.getNSpots( frame0, true ) );
+		for ( final Iterator< Spot > iterator = spots.iterator( frame0, true ); iterator.hasNext(); )
+		{
+			sources.add( iterator.next() );
 		}
 
-		logger.setStatus( "Frame to frame linking..." );
-		SimpleMultiThreading.startAndJoin( threads );
-		logger.setProgress( 1d );
-		logger.setStatus( "" );
+		final List< Spot > targets = new ArrayList< Spot >( spots.getNSpots( frame1, true ) );
+		for ( final Iterator< Spot > iterator = spots.iterator( frame1, true ); iterator.hasNext(); )
+		{
+			targets.add( iterator.next() );
+		}
 
-		final long end = System.currentTimeMillis();
-		processingTime = end - start;
+		if ( sources.isEmpty() || targets.isEmpty() )
+		{
+			final FramePairLinks pairLinks = new FramePairLinks( 0 );
+			pairLinks.time = System.nanoTime() - pairStart;
+			return pairLinks;
+		}
+
+		/*
+		 * Run the linker.
+		 */
+
+		final JaqamanLinkingCostMatrixCreator< Spot, Spot > creator = new JaqamanLinkingCostMatrixCreator< Spot, Spot >( sources, targets, costFunction, costThreshold, alternativeCostFactor, 1d );
+		final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker< Spot, Spot >( creator );
+		linker.setWorkspace( workspace );
+		linker.setAuction( auction );
+		linker.setDecomposition( decomposition );
+		if ( decomposition )
+		{
+			linker.setNumThreads( numThreads );
+		}
+		if ( !linker.checkInput() || !linker.process() )
+		{
+			errorMessage = "At frame " + frame0 + " to " + frame1 + ": " + linker.getErrorMessage();
+			return null;
+		}
 
-		return ok.get();
+		/*
+		 * Store the links of this pair. They are added to the graph once all
+		 * pairs are done.
+		 */
+
+		final Map< Spot, Double > costs = linker.getAssignmentCosts();
+		final Map< Spot, Spot > assignment = linker.getResult();
+		final FramePairLinks pairLinks = new FramePairLinks( assignment.size() );
+		for ( final Spot source : assignment.keySet() )
+		{
+			pairLinks.add( source, assignment.get( source ), costs.get( source ) );
+		}
+		pairLinks.time = System.nanoTime() - pairStart;
+		return pairLinks;
 	}
 
-	@Override
-	public void setLogger( final Logger logger )
+	/**
+	 * Returns the mean radius of the visible spots. We assume the detector did
+	 * a good job and that positions are measured accurately up to a fraction
+	 * of it.
+	 */
+	private double meanSpotRadius()
 	{
-		this.logger = logger;
+		double sum = 0d;
+		int n = 0;
+		for ( final Iterator< Spot > iterator = spots.iterator( true ); iterator.hasNext(); )
+		{
+			final Double radius = iterator.next().getFeature( Spot.RADIUS );
+			if ( null != radius )
+			{
+				sum += radius.doubleValue();
+				n++;
+			}
+		}
+		return ( n == 0 ) ? 1d : sum / n;
+	}
+
+	/**
+	 * Summarizes the time spent linking the frame pairs: total, mean and max
+	 * times, and the slowest pairs. The time of every pair is added if
+	 * {@link #DEBUG} is <code>true</code>.
+	 */
+	private static String timingSummary( final List< int[] > framePairs, final FramePairLinks[] links )
+	{
+		long total = 0;
+		int nLinks = 0;
+		final Integer[] order = new Integer[ links.length ];
+		for ( int i = 0; i < links.length; i++ )
+		{
+			total += links[ i ].time;
+			nLinks += links[ i ].size;
+			order[ i ] = Integer.valueOf( i );
+		}
+
+		final StringBuilder str = new StringBuilder();
+		str.append( String.format( "Frame to frame linking: %d links over %d frame pairs in %.2f ms.\n", nLinks, links.length, total / 1e6 ) );
+		if ( links.length == 0 ) { return str.toString(); }
+
+		// Slowest pairs first.
+		Arrays.sort( order, new Comparator< Integer >()
+		{
+			@Override
+			public int compare( final Integer o1, final Integer o2 )
+			{
+				final long t1 = links[ o1.intValue() ].time;
+				final long t2 = links[ o2.intValue() ].time;
+				return t1 < t2 ? 1 : ( t1 > t2 ? -1 : 0 );
+			}
+		} );
+		str.append( String.format( "  Mean time per frame pair: %.2f ms, max: %.2f ms.\n", total / 1e6 / links.length, links[ order[ 0 ].intValue() ].time / 1e6 ) );
+		str.append( "  Slowest frame pairs:\n" );
+		for ( int k = 0; k < Math.min( N_SLOWEST_PAIRS, order.length ); k++ )
+		{
+			final int i = order[ k ].intValue();
+			appendPairTiming( str, framePairs.get( i ), links[ i ] );
+		}
+
+		if ( DEBUG )
+		{
+			str.append( "  All frame pairs:\n" );
+			for ( int i = 0; i < links.length; i++ )
+			{
+				appendPairTiming( str, framePairs.get( i ), links[ i ] );
+			}
+		}
+		return str.toString();
+	}
+
+	private static void appendPairTiming( final StringBuilder str, final int[] framePair, final FramePairLinks pairLinks )
+	{
+		str.append( String.format( "  - frame %d to %d: %d links in %.2f ms.\n", framePair[ 0 ], framePair[ 1 ], pairLinks.size, pairLinks.time / 1e6 ) );
+	}
+
+	/**
+	 * The links found between the spots of a frame pair, and the time it took
+	 * to find them.
+	 */
+	private static final class FramePairLinks
+	{
+		private final Spot[] sources;
+
+		private final Spot[] targets;
+
+		private final double[] costs;
+
+		private int size;
+
+		/** Processing time in nanoseconds. */
+		private long time;
+
+		private FramePairLinks( final int capacity )
+		{
+			this.sources = new Spot[ capacity ];
+			this.targets = new Spot[ capacity ];
+			this.costs = new double[ capacity ];
+		}
+
+		private void add( final Spot source, final Spot target, final double cost )
+		{
+			sources[ size ] = source;
+			targets[ size ] = target;
+			costs[ size ] = cost;
+			size++;
+		}
 	}
 
 	private static final boolean checkSettingsValidity( final Map< String, Object > settings, final StringBuilder str )
@@ -260,6 +497,7 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 		// Linking
 		ok = ok & checkParameter( settings, KEY_LINKING_MAX_DISTANCE, Double.class, str );
 		ok = ok & checkFeatureMap( settings, KEY_LINKING_FEATURE_PENALTIES, str );
+		ok = ok & checkMotionModel( settings, str );
 		// Others
 		ok = ok & checkParameter( settings, KEY_ALTERNATIVE_LINKING_COST_FACTOR, Double.class, str );
 
@@ -269,6 +507,8 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 		mandatoryKeys.add( KEY_ALTERNATIVE_LINKING_COST_FACTOR );
 		final List< String > optionalKeys = new ArrayList< String >();
 		optionalKeys.add( KEY_LINKING_FEATURE_PENALTIES );
+		optionalKeys.add( KEY_LINKING_MOTION_MODEL );
+		optionalKeys.add( KEY_LINKING_PREDICTION_MAX_DISTANCE );
 		ok = ok & checkMapKeys( settings, mandatoryKeys, optionalKeys, str );
 
 		return ok;
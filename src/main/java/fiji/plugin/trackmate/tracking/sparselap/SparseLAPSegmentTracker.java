@@ -71,6 +71,8 @@ public class SparseLAPSegmentTracker implements SpotTracker, Benchmark
 
 	private int numThreads;
 
+	private boolean auction;
+
 	public SparseLAPSegmentTracker( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph, final Map< String, Object > settings )
 	{
 		this.graph = graph;
@@ -127,11 +129,19 @@ public class SparseLAPSegmentTracker implements SpotTracker, Benchmark
 		final JaqamanSegmentCostMatrixCreator costMatrixCreator = new JaqamanSegmentCostMatrixCreator( graph, settings );
 		final SlaveLogger jlLogger = new SlaveLogger( logger, 0, 0.9 );
 		final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker< Spot, Spot >( costMatrixCreator, jlLogger );
+		// Segments only compete locally: solve each cluster separately.
+		linker.setDecomposition( true );
+		linker.setNumThreads( numThreads );
+		linker.setAuction( auction );
 		if ( !linker.checkInput() || !linker.process() )
 		{
 			errorMessage = linker.getErrorMessage();
 			return false;
 		}
+		if ( auction )
+		{
+			logger.log( String.format( "Segment linking solved by auction, within %.3g of the optimal cost.\n", linker.getOptimalityGap() ) );
+		}
 
 
 		/*
@@ -178,6 +188,18 @@ public class SparseLAPSegmentTracker implements SpotTracker, Benchmark
 		this.logger = logger;
 	}
 
+	/**
+	 * Sets whether the LAP is solved with the auction solver instead of the
+	 * Jonker-Volgenant solver.
+	 *
+	 * @param auction
+	 *            if <code>true</code>, the auction solver is used.
+	 */
+	public void setAuction( final boolean auction )
+	{
+		this.auction = auction;
+	}
+
 	private static final boolean checkSettingsValidity( final Map< String, Object > settings, final StringBuilder str )
 	{
 		if ( null == settings )
@@ -1,6 +1,8 @@
 package fiji.plugin.trackmate.tracking.sparselap;
 
 import static fiji.plugin.trackmate.tracking.LAPUtils.checkFeatureMap;
+import static fiji.plugin.trackmate.tracking.LAPUtils.checkLAPSolver;
+import static fiji.plugin.trackmate.tracking.LAPUtils.checkMotionModel;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_GAP_CLOSING;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_MERGING;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_SPLITTING;
@@ -10,12 +12,16 @@ import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_CUTOFF_PERCENTILE;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_FEATURE_PENALTIES;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_DISTANCE;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_FRAME_GAP;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LAP_SOLVER;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_FEATURE_PENALTIES;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MOTION_MODEL;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_PREDICTION_MAX_DISTANCE;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_FEATURE_PENALTIES;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_MAX_DISTANCE;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_FEATURE_PENALTIES;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.LAP_SOLVER_AUCTION;
 import static fiji.plugin.trackmate.util.TMUtils.checkMapKeys;
 import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
 import fiji.plugin.trackmate.Logger;
@@ -122,6 +128,7 @@ public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements
 		 */
 
 		final long start = System.currentTimeMillis();
+		final boolean auction = LAP_SOLVER_AUCTION.equals( settings.get( KEY_LAP_SOLVER ) );
 
 		/*
 		 * 1. Frame to frame linking.
@@ -133,9 +140,18 @@ public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements
 		ftfSettings.put( KEY_LINKING_MAX_DISTANCE, settings.get( KEY_LINKING_MAX_DISTANCE ) );
 		ftfSettings.put( KEY_ALTERNATIVE_LINKING_COST_FACTOR, settings.get( KEY_ALTERNATIVE_LINKING_COST_FACTOR ) );
 		ftfSettings.put( KEY_LINKING_FEATURE_PENALTIES, settings.get( KEY_LINKING_FEATURE_PENALTIES ) );
+		if ( null != settings.get( KEY_LINKING_MOTION_MODEL ) )
+		{
+			ftfSettings.put( KEY_LINKING_MOTION_MODEL, settings.get( KEY_LINKING_MOTION_MODEL ) );
+		}
+		if ( null != settings.get( KEY_LINKING_PREDICTION_MAX_DISTANCE ) )
+		{
+			ftfSettings.put( KEY_LINKING_PREDICTION_MAX_DISTANCE, settings.get( KEY_LINKING_PREDICTION_MAX_DISTANCE ) );
+		}
 
 		final SparseLAPFrameToFrameTracker frameToFrameLinker = new SparseLAPFrameToFrameTracker( spots, ftfSettings );
 		frameToFrameLinker.setNumThreads( numThreads );
+		frameToFrameLinker.setAuction( auction );
 		final SlaveLogger ftfLogger = new SlaveLogger( logger, 0, 0.5 );
 		frameToFrameLinker.setLogger( ftfLogger );
 
@@ -172,6 +188,8 @@ public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements
 
 		// Solve.
 		final SparseLAPSegmentTracker segmentLinker = new SparseLAPSegmentTracker( graph, slSettings );
+		segmentLinker.setNumThreads( numThreads );
+		segmentLinker.setAuction( auction );
 		final SlaveLogger slLogger = new SlaveLogger( logger, 0.5, 0.5 );
 		segmentLinker.setLogger( slLogger );
 
@@ -224,6 +242,8 @@ public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements
 		// Others
 		ok = ok & checkParameter( settings, KEY_CUTOFF_PERCENTILE, Double.class, str );
 		ok = ok & checkParameter( settings, KEY_ALTERNATIVE_LINKING_COST_FACTOR, Double.class, str );
+		ok = ok & checkLAPSolver( settings, str );
+		ok = ok & checkMotionModel( settings, str );
 
 		// Check keys
 		final List< String > mandatoryKeys = new ArrayList< String >();
@@ -243,6 +263,9 @@ public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements
 		optionalKeys.add( KEY_SPLITTING_FEATURE_PENALTIES );
 		optionalKeys.add( KEY_MERGING_FEATURE_PENALTIES );
 		optionalKeys.add( KEY_BLOCKING_VALUE );
+		optionalKeys.add( KEY_LAP_SOLVER );
+		optionalKeys.add( KEY_LINKING_MOTION_MODEL );
+		optionalKeys.add( KEY_LINKING_PREDICTION_MAX_DISTANCE );
 		ok = ok & checkMapKeys( settings, mandatoryKeys, optionalKeys, str );
 
 		return ok;
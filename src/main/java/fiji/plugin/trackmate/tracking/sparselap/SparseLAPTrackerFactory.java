@@ -1,14 +1,26 @@
 package fiji.plugin.trackmate.tracking.sparselap;
 
+import static fiji.plugin.trackmate.io.IOUtils.readDoubleAttribute;
+import static fiji.plugin.trackmate.io.IOUtils.writeAttribute;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.DEFAULT_LAP_SOLVER;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.DEFAULT_LINKING_MOTION_MODEL;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.DEFAULT_LINKING_PREDICTION_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LAP_SOLVER;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MOTION_MODEL;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_PREDICTION_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.LAPUtils.checkLAPSolver;
+import static fiji.plugin.trackmate.tracking.LAPUtils.checkMotionModel;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.tracking.SpotTracker;
 import fiji.plugin.trackmate.tracking.SpotTrackerFactory;
 import fiji.plugin.trackmate.tracking.oldlap.LAPTrackerFactory;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import javax.swing.ImageIcon;
 
+import org.jdom2.Element;
 import org.scijava.plugin.Plugin;
 
 @Plugin( type = SpotTrackerFactory.class )
@@ -19,7 +31,7 @@ public class SparseLAPTrackerFactory extends LAPTrackerFactory
 
 	public static final String NAME = "LAP Tracker";
 
-	public static final String INFO_TEXT = "<html>" + "This tracker is based on the Linear Assignment Problem mathematical framework. <br>" + "Its implementation is adapted from the following paper: <br>" + "<i>Robust single-particle tracking in live-cell time-lapse sequences</i> - <br>" + "Jaqaman <i> et al.</i>, 2008, Nature Methods. <br>" + "<p>" + "Tracking happens in 2 steps: First spots are linked from frame to frame to <br>" + "build track segments. These track segments are investigated in a second step <br>" + "for gap-closing (missing detection), splitting and merging events.  <br> " + "<p>" + "Linking costs are proportional to the square distance between source and  <br> " + "target spots, which makes this tracker suitable for Brownian motion.  <br> " + "Penalties can be set to favor linking between spots that have similar  <br> " + "features. " + "<p>" + "Solving the LAP relies on the Jonker-Volgenant solver, and a sparse cost matrix formulation, allowing it to handle very large problems. </html>";
+	public static final String INFO_TEXT = "<html>" + "This tracker is based on the Linear Assignment Problem mathematical framework. <br>" + "Its implementation is adapted from the following paper: <br>" + "<i>Robust single-particle tracking in live-cell time-lapse sequences</i> - <br>" + "Jaqaman <i> et al.</i>, 2008, Nature Methods. <br>" + "<p>" + "Tracking happens in 2 steps: First spots are linked from frame to frame to <br>" + "build track segments. These track segments are investigated in a second step <br>" + "for gap-closing (missing detection), splitting and merging events.  <br> " + "<p>" + "Linking costs are proportional to the square distance between source and  <br> " + "target spots, which makes this tracker suitable for Brownian motion.  <br> " + "Penalties can be set to favor linking between spots that have similar  <br> " + "features. " + "<p>" + "For directed motion, a constant velocity motion model can predict where <br>" + "each track goes in the next frame, and targets are then searched around <br>" + "this prediction, which allows a small linking max distance. " + "<p>" + "Solving the LAP relies on the Jonker-Volgenant solver, and a sparse cost matrix formulation, allowing it to handle very large problems. <br>" + "For the largest problems, an auction solver that bids in parallel can be selected <br>" + "instead, at the price of an assignment that is optimal within a tiny tolerance. </html>";
 
 	@Override
 	public String getInfoText()
@@ -51,4 +63,116 @@ public class SparseLAPTrackerFactory extends LAPTrackerFactory
 		return new SparseLAPTracker( spots, settings );
 	}
 
+	@Override
+	public Map< String, Object > getDefaultSettings()
+	{
+		final Map< String, Object > settings = super.getDefaultSettings();
+		settings.put( KEY_LAP_SOLVER, DEFAULT_LAP_SOLVER );
+		settings.put( KEY_LINKING_MOTION_MODEL, DEFAULT_LINKING_MOTION_MODEL );
+		settings.put( KEY_LINKING_PREDICTION_MAX_DISTANCE, DEFAULT_LINKING_PREDICTION_MAX_DISTANCE );
+		return settings;
+	}
+
+	@Override
+	public boolean marshall( final Map< String, Object > settings, final Element element )
+	{
+		boolean ok = super.marshall( settings, element );
+		if ( null != settings.get( KEY_LAP_SOLVER ) )
+		{
+			final StringBuilder str = new StringBuilder();
+			ok = ok & writeAttribute( settings, element, KEY_LAP_SOLVER, String.class, str );
+		}
+		if ( null != settings.get( KEY_LINKING_MOTION_MODEL ) )
+		{
+			final StringBuilder str = new StringBuilder();
+			ok = ok & writeAttribute( settings, element, KEY_LINKING_MOTION_MODEL, String.class, str );
+		}
+		if ( null != settings.get( KEY_LINKING_PREDICTION_MAX_DISTANCE ) )
+		{
+			final StringBuilder str = new StringBuilder();
+			ok = ok & writeAttribute( settings, element, KEY_LINKING_PREDICTION_MAX_DISTANCE, Double.class, str );
+		}
+		return ok;
+	}
+
+	@Override
+	public boolean unmarshall( final Element element, final Map< String, Object > settings )
+	{
+		boolean ok = super.unmarshall( element, settings );
+		final String solver = element.getAttributeValue( KEY_LAP_SOLVER );
+		if ( null != solver )
+		{
+			settings.put( KEY_LAP_SOLVER, solver );
+		}
+		final String motionModel = element.getAttributeValue( KEY_LINKING_MOTION_MODEL );
+		if ( null != motionModel )
+		{
+			settings.put( KEY_LINKING_MOTION_MODEL, motionModel );
+		}
+		final boolean hasPredictionMaxDistance = null != element.getAttributeValue( KEY_LINKING_PREDICTION_MAX_DISTANCE );
+		if ( hasPredictionMaxDistance )
+		{
+			final StringBuilder errorHolder = new StringBuilder();
+			ok = ok & readDoubleAttribute( element, settings, KEY_LINKING_PREDICTION_MAX_DISTANCE, errorHolder );
+		}
+		if ( null != solver || null != motionModel || hasPredictionMaxDistance )
+		{
+			ok = ok & checkSettingsValidity( settings );
+		}
+		return ok;
+	}
+
+	/**
+	 * Checks the LAP tracker settings, plus the LAP solver and motion model
+	 * settings that only this tracker uses.
+	 */
+	@Override
+	public boolean checkSettingsValidity( final Map< String, Object > settings )
+	{
+		if ( null == settings ) { return super.checkSettingsValidity( settings ); }
+
+		final Map< String, Object > lapSettings = new HashMap< String, Object >( settings );
+		lapSettings.remove( KEY_LAP_SOLVER );
+		lapSettings.remove( KEY_LINKING_MOTION_MODEL );
+		lapSettings.remove( KEY_LINKING_PREDICTION_MAX_DISTANCE );
+		boolean ok = super.checkSettingsValidity( lapSettings );
+
+		final StringBuilder str = new StringBuilder();
+		if ( !ok )
+		{
+			str.append( errorMessage );
+		}
+		ok = ok & checkLAPSolver( settings, str );
+		ok = ok & checkMotionModel( settings, str );
+		if ( !ok )
+		{
+			errorMessage = str.toString();
+		}
+		return ok;
+	}
+
+	@Override
+	public String toString( final Map< String, Object > sm )
+	{
+		final String str = super.toString( sm );
+		if ( !checkSettingsValidity( sm ) ) { return str; }
+		final StringBuilder sb = new StringBuilder( str );
+		final Object solver = sm.get( KEY_LAP_SOLVER );
+		if ( null != solver )
+		{
+			sb.append( "  LAP solver: " + solver + "\n" );
+		}
+		final Object motionModel = sm.get( KEY_LINKING_MOTION_MODEL );
+		if ( null != motionModel )
+		{
+			sb.append( "  Linking motion model: " + motionModel + "\n" );
+		}
+		final Object predictionMaxDistance = sm.get( KEY_LINKING_PREDICTION_MAX_DISTANCE );
+		if ( null != predictionMaxDistance )
+		{
+			sb.append( String.format( "  Linking max distance to prediction: %.1f\n", predictionMaxDistance ) );
+		}
+		return sb.toString();
+	}
+
 }
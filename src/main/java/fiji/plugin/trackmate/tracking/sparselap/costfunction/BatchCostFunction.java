@@ -0,0 +1,50 @@
+package fiji.plugin.trackmate.tracking.sparselap.costfunction;
+
+import fiji.plugin.trackmate.Spot;
+
+import java.util.List;
+
+/**
+ * Interface for cost functions that can calculate in one call the costs to
+ * link a source spot to a block of target spots.
+ * <p>
+ * The feature values the cost depends on are read from the target spots once,
+ * when they are resolved in {@link SpotColumns}. The costs are then computed
+ * over these primitive arrays, without map lookups. A batch cost function
+ * must return exactly the same values as its
+ * {@link CostFunction#linkingCost(Object, Object)} method.
+ */
+public interface BatchCostFunction extends CostFunction< Spot, Spot >
+{
+
+	/**
+	 * Reads the values needed by this cost function from the specified spots.
+	 *
+	 * @param spots
+	 *            the spots to resolve.
+	 * @return a new {@link SpotColumns}, to be passed to
+	 *         {@link #linkingCosts(Spot, SpotColumns, int, int, double[])}.
+	 */
+	public SpotColumns resolve( List< Spot > spots );
+
+	/**
+	 * Computes the costs to link a source spot to a block of target spots.
+	 * <p>
+	 * This method can be called concurrently on the same columns.
+	 *
+	 * @param source
+	 *            the source spot.
+	 * @param targets
+	 *            the target spots, as returned by {@link #resolve(List)}.
+	 * @param from
+	 *            the index of the first target of the block, inclusive.
+	 * @param to
+	 *            the index of the last target of the block, exclusive.
+	 * @param costs
+	 *            the array in which to write the costs, at least
+	 *            <code>to - from</code> long. The cost to link to the target
+	 *            <code>i</code> is stored at index <code>i - from</code>.
+	 */
+	public void linkingCosts( Spot source, SpotColumns targets, int from, int to, double[] costs );
+
+}
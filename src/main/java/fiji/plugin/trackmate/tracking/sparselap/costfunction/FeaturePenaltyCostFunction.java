@@ -2,6 +2,7 @@ package fiji.plugin.trackmate.tracking.sparselap.costfunction;
 
 import fiji.plugin.trackmate.Spot;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -31,7 +32,7 @@ import java.util.Map;
  * @author Jean-Yves Tinevez - 2014
  * 
  */
-public class FeaturePenaltyCostFunction implements CostFunction< Spot, Spot >
+public class FeaturePenaltyCostFunction implements BatchCostFunction
 {
 
 	private final Map< String, Double > featurePenalties;
@@ -45,7 +46,51 @@ public class FeaturePenaltyCostFunction implements CostFunction< Spot, Spot >
 	public double linkingCost( final Spot source, final Spot target )
 	{
 		final double d2 = source.squareDistanceTo( target );
+		final double penalty = penalty( featurePenalties, source, target );
+		return d2 * penalty * penalty;
+	}
+
+	@Override
+	public SpotColumns resolve( final List< Spot > spots )
+	{
+		return new SpotColumns( spots, featurePenalties.keySet() );
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The penalties are accumulated feature by feature over the whole block,
+	 * in the order the features were resolved in, so that the costs are the
+	 * same as the ones returned by {@link #linkingCost(Spot, Spot)}.
+	 */
+	@Override
+	public void linkingCosts( final Spot source, final SpotColumns targets, final int from, final int to, final double[] costs )
+	{
+		penalties( featurePenalties, source, targets, from, to, costs );
+
+		final int n = to - from;
+		final double sx = SpotColumns.value( source, Spot.POSITION_X );
+		final double sy = SpotColumns.value( source, Spot.POSITION_Y );
+		final double sz = SpotColumns.value( source, Spot.POSITION_Z );
+		final double[] x = targets.x;
+		final double[] y = targets.y;
+		final double[] z = targets.z;
+		for ( int k = 0; k < n; k++ )
+		{
+			final double dx = x[ from + k ] - sx;
+			final double dy = y[ from + k ] - sy;
+			final double dz = z[ from + k ] - sz;
+			final double d2 = dx * dx + dy * dy + dz * dz;
+			costs[ k ] = d2 * costs[ k ] * costs[ k ];
+		}
+	}
 
+	/**
+	 * Returns the penalty factor <code>P = (1 + ∑ p )</code> between two
+	 * spots.
+	 */
+	static final double penalty( final Map< String, Double > featurePenalties, final Spot source, final Spot target )
+	{
 		double penalty = 1;
 		for ( final String feature : featurePenalties.keySet() )
 		{
@@ -57,7 +102,36 @@ public class FeaturePenaltyCostFunction implements CostFunction< Spot, Spot >
 			final double factor = featurePenalties.get( feature );
 			penalty += factor * 1.5 * ndiff;
 		}
+		return penalty;
+	}
 
-		return d2 * penalty * penalty;
+	/**
+	 * Writes the penalty factors between a source and a block of targets in
+	 * the <code>costs</code> array, at index <code>i - from</code> for target
+	 * <code>i</code>. They are accumulated feature by feature, and are the same
+	 * as the ones returned by {@link #penalty(Map, Spot, Spot)}.
+	 */
+	static final void penalties( final Map< String, Double > featurePenalties, final Spot source, final SpotColumns targets, final int from, final int to, final double[] costs )
+	{
+		final int n = to - from;
+		for ( int k = 0; k < n; k++ )
+		{
+			costs[ k ] = 1d;
+		}
+
+		for ( int f = 0; f < targets.featureNames.length; f++ )
+		{
+			final String feature = targets.featureNames[ f ];
+			final double a = SpotColumns.value( source, feature );
+			final double weight = featurePenalties.get( feature ) * 1.5;
+			final double[] values = targets.features[ f ];
+			for ( int k = 0; k < n; k++ )
+			{
+				final double b = values[ from + k ];
+				final double ndiff = ( a == -b ) ? 0d : Math.abs( a - b ) / ( ( a + b ) / 2 );
+				// NaN differences do not contribute.
+				costs[ k ] += ( ndiff == ndiff ) ? weight * ndiff : 0d;
+			}
+		}
 	}
 }
@@ -0,0 +1,159 @@
+package fiji.plugin.trackmate.tracking.sparselap.costfunction;
+
+import fiji.plugin.trackmate.Spot;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cost function that measures the square distance between a target and the
+ * position a motion model predicts for the source, rather than the source
+ * position itself. It is otherwise identical to the
+ * {@link FeaturePenaltyCostFunction}: the distance is tempered by the
+ * differences in feature values, if a feature penalty map is specified.
+ * <p>
+ * The predictions are read from a map that is owned by the caller, and can be
+ * updated between two linking steps. Sources that have no prediction in the
+ * map are considered to stay where they are.
+ * <p>
+ * Since predicted positions are more accurate than the source positions, the
+ * costs of sources with a prediction are compared to a tighter threshold than
+ * the others. Costs at or above the threshold of their source are returned as
+ * {@link Double#POSITIVE_INFINITY}, so that the cost matrix creator can be
+ * given the larger threshold.
+ *
+ */
+public class MotionPredictionCostFunction implements BatchCostFunction
+{
+
+	private final Map< Spot, double[] > predictions;
+
+	private final Map< String, Double > featurePenalties;
+
+	private final double costThreshold;
+
+	private final double predictionCostThreshold;
+
+	/**
+	 * Creates a new cost function.
+	 *
+	 * @param predictions
+	 *            the map of the predicted position, as <code>x, y, z</code>,
+	 *            of the sources.
+	 * @param featurePenalties
+	 *            the feature penalty map, or <code>null</code> to use the
+	 *            square distance only.
+	 * @param costThreshold
+	 *            the cost threshold for sources that have no prediction.
+	 * @param predictionCostThreshold
+	 *            the cost threshold for sources that have a prediction.
+	 */
+	public MotionPredictionCostFunction( final Map< Spot, double[] > predictions, final Map< String, Double > featurePenalties, final double costThreshold, final double predictionCostThreshold )
+	{
+		this.predictions = predictions;
+		this.featurePenalties = ( null == featurePenalties ) ? Collections.< String, Double > emptyMap() : featurePenalties;
+		this.costThreshold = costThreshold;
+		this.predictionCostThreshold = predictionCostThreshold;
+	}
+
+	@Override
+	public double linkingCost( final Spot source, final Spot target )
+	{
+		final double[] X = predictions.get( source );
+		final double sx, sy, sz, threshold;
+		if ( null == X )
+		{
+			sx = SpotColumns.value( source, Spot.POSITION_X );
+			sy = SpotColumns.value( source, Spot.POSITION_Y );
+			sz = SpotColumns.value( source, Spot.POSITION_Z );
+			threshold = costThreshold;
+		}
+		else
+		{
+			sx = X[ 0 ];
+			sy = X[ 1 ];
+			sz = X[ 2 ];
+			threshold = predictionCostThreshold;
+		}
+		final double dx = target.getFeature( Spot.POSITION_X ).doubleValue() - sx;
+		final double dy = target.getFeature( Spot.POSITION_Y ).doubleValue() - sy;
+		final double dz = target.getFeature( Spot.POSITION_Z ).doubleValue() - sz;
+		final double d2 = dx * dx + dy * dy + dz * dz;
+		final double penalty = FeaturePenaltyCostFunction.penalty( featurePenalties, source, target );
+		final double cost = d2 * penalty * penalty;
+		return ( cost < threshold ) ? cost : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Returns the region where the targets of the specified source can have a
+	 * cost below its threshold. Feature penalties can only increase costs, so
+	 * it is the ball centered on the predicted position of the source, or on
+	 * the source if it has no prediction, whose square radius is the
+	 * threshold of the source.
+	 *
+	 * @param source
+	 *            the source.
+	 * @param center
+	 *            a <code>double[]</code> array of length at least 3, in which
+	 *            the center of the region is written.
+	 * @return the radius of the region.
+	 */
+	public double searchRegion( final Spot source, final double[] center )
+	{
+		final double[] X = predictions.get( source );
+		if ( null == X )
+		{
+			center[ 0 ] = SpotColumns.value( source, Spot.POSITION_X );
+			center[ 1 ] = SpotColumns.value( source, Spot.POSITION_Y );
+			center[ 2 ] = SpotColumns.value( source, Spot.POSITION_Z );
+			return Math.sqrt( costThreshold );
+		}
+		center[ 0 ] = X[ 0 ];
+		center[ 1 ] = X[ 1 ];
+		center[ 2 ] = X[ 2 ];
+		return Math.sqrt( predictionCostThreshold );
+	}
+
+	@Override
+	public SpotColumns resolve( final List< Spot > spots )
+	{
+		return new SpotColumns( spots, featurePenalties.keySet() );
+	}
+
+	@Override
+	public void linkingCosts( final Spot source, final SpotColumns targets, final int from, final int to, final double[] costs )
+	{
+		FeaturePenaltyCostFunction.penalties( featurePenalties, source, targets, from, to, costs );
+
+		final int n = to - from;
+		final double[] X = predictions.get( source );
+		final double sx, sy, sz, threshold;
+		if ( null == X )
+		{
+			sx = SpotColumns.value( source, Spot.POSITION_X );
+			sy = SpotColumns.value( source, Spot.POSITION_Y );
+			sz = SpotColumns.value( source, Spot.POSITION_Z );
+			threshold = costThreshold;
+		}
+		else
+		{
+			sx = X[ 0 ];
+			sy = X[ 1 ];
+			sz = X[ 2 ];
+			threshold = predictionCostThreshold;
+		}
+		final double[] x = targets.x;
+		final double[] y = targets.y;
+		final double[] z = targets.z;
+		for ( int k = 0; k < n; k++ )
+		{
+			final double dx = x[ from + k ] - sx;
+			final double dy = y[ from + k ] - sy;
+			final double dz = z[ from + k ] - sz;
+			final double d2 = dx * dx + dy * dy + dz * dz;
+			final double cost = d2 * costs[ k ] * costs[ k ];
+			costs[ k ] = ( cost < threshold ) ? cost : Double.POSITIVE_INFINITY;
+		}
+	}
+}
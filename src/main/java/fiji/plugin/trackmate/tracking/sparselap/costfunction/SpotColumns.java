@@ -0,0 +1,96 @@
+package fiji.plugin.trackmate.tracking.sparselap.costfunction;
+
+import fiji.plugin.trackmate.Spot;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The position and some feature values of a list of spots, stored as one
+ * primitive array per feature.
+ * <p>
+ * Missing feature values are stored as {@link Double#NaN}. Instances are
+ * immutable and can be shared between threads.
+ *
+ * @see BatchCostFunction
+ */
+public class SpotColumns
+{
+
+	private final List< Spot > spots;
+
+	final double[] x;
+
+	final double[] y;
+
+	final double[] z;
+
+	final String[] featureNames;
+
+	/** The feature values, in the order of {@link #featureNames}. */
+	final double[][] features;
+
+	/**
+	 * Reads the position and the specified feature values of a list of spots.
+	 *
+	 * @param spots
+	 *            the spots. The list is not copied.
+	 * @param featureNames
+	 *            the features whose values to store.
+	 */
+	public SpotColumns( final List< Spot > spots, final Collection< String > featureNames )
+	{
+		this.spots = spots;
+		final int n = spots.size();
+		this.x = new double[ n ];
+		this.y = new double[ n ];
+		this.z = new double[ n ];
+		this.featureNames = featureNames.toArray( new String[ featureNames.size() ] );
+		this.features = new double[ this.featureNames.length ][ n ];
+
+		int i = 0;
+		for ( final Spot spot : spots )
+		{
+			x[ i ] = value( spot, Spot.POSITION_X );
+			y[ i ] = value( spot, Spot.POSITION_Y );
+			z[ i ] = value( spot, Spot.POSITION_Z );
+			for ( int f = 0; f < features.length; f++ )
+			{
+				features[ f ][ i ] = value( spot, this.featureNames[ f ] );
+			}
+			i++;
+		}
+	}
+
+	/**
+	 * Returns the number of spots stored.
+	 *
+	 * @return the number of spots.
+	 */
+	public int size()
+	{
+		return x.length;
+	}
+
+	/**
+	 * Returns the spot at the specified index.
+	 *
+	 * @param i
+	 *            the index of the spot.
+	 * @return the spot.
+	 */
+	public Spot get( final int i )
+	{
+		return spots.get( i );
+	}
+
+	/**
+	 * Returns the value of a feature of a spot, or {@link Double#NaN} if the
+	 * spot does not store this feature.
+	 */
+	static double value( final Spot spot, final String feature )
+	{
+		final Double val = spot.getFeature( feature );
+		return null == val ? Double.NaN : val.doubleValue();
+	}
+}
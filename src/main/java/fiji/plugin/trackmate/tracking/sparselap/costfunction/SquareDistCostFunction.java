@@ -2,6 +2,9 @@ package fiji.plugin.trackmate.tracking.sparselap.costfunction;
 
 import fiji.plugin.trackmate.Spot;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * A cost function that returns cost equal to the square distance. Suited to
  * Brownian motion.
@@ -9,7 +12,7 @@ import fiji.plugin.trackmate.Spot;
  * @author Jean-Yves Tinevez - 2014
  * 
  */
-public class SquareDistCostFunction implements CostFunction< Spot, Spot >
+public class SquareDistCostFunction implements BatchCostFunction
 {
 
 	@Override
@@ -18,4 +21,28 @@ public class SquareDistCostFunction implements CostFunction< Spot, Spot >
 		return source.squareDistanceTo( target );
 	}
 
+	@Override
+	public SpotColumns resolve( final List< Spot > spots )
+	{
+		return new SpotColumns( spots, Collections.< String > emptyList() );
+	}
+
+	@Override
+	public void linkingCosts( final Spot source, final SpotColumns targets, final int from, final int to, final double[] costs )
+	{
+		final double sx = SpotColumns.value( source, Spot.POSITION_X );
+		final double sy = SpotColumns.value( source, Spot.POSITION_Y );
+		final double sz = SpotColumns.value( source, Spot.POSITION_Z );
+		final double[] x = targets.x;
+		final double[] y = targets.y;
+		final double[] z = targets.z;
+		for ( int i = from; i < to; i++ )
+		{
+			final double dx = x[ i ] - sx;
+			final double dy = y[ i ] - sy;
+			final double dz = z[ i ] - sz;
+			costs[ i - from ] = dx * dx + dy * dy + dz * dz;
+		}
+	}
+
 }
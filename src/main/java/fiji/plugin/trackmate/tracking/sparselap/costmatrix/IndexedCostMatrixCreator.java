@@ -0,0 +1,390 @@
+package fiji.plugin.trackmate.tracking.sparselap.costmatrix;
+
+import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import net.imglib2.util.Util;
+
+/**
+ * A {@link CostMatrixCreator} that builds a cost matrix from the indices of
+ * the sources and targets of each acceptable link, as produced by a candidate
+ * search over indexed lists.
+ * <p>
+ * It yields the same matrix as the {@link DefaultCostMatrixCreator} fed with
+ * the matching source and target objects, but writes the row compressed
+ * storage directly from the primitive indices, with counting sorts. The
+ * sources and targets are only compared to sort the ones that have at least
+ * one link, and only if they are not sorted already.
+ *
+ * @param <K>
+ *            the type of sources.
+ * @param <J>
+ *            the type of targets.
+ */
+public class IndexedCostMatrixCreator< K extends Comparable< K >, J extends Comparable< J > > implements CostMatrixCreator< K, J >
+{
+
+	private static final String BASE_ERROR_MESSAGE = "[IndexedCostMatrixCreator] ";
+
+	private final List< K > sources;
+
+	private final List< J > targets;
+
+	private final double alternativeCostFactor;
+
+	private final double percentile;
+
+	private int[] rows = new int[ 16 ];
+
+	private int[] cols = new int[ 16 ];
+
+	private double[] costs = new double[ 16 ];
+
+	private int size;
+
+	private SparseCostMatrix scm;
+
+	private List< K > sourceList;
+
+	private List< J > targetList;
+
+	private double alternativeCost;
+
+	private long processingTime;
+
+	private String errorMessage;
+
+	/**
+	 * Creates a new cost matrix creator, with no link yet.
+	 *
+	 * @param sources
+	 *            the sources, indexed by the row indices of the links.
+	 * @param targets
+	 *            the targets, indexed by the column indices of the links.
+	 * @param alternativeCostFactor
+	 *            the Jaqaman et al. 2008 alternative cost factor.
+	 * @param percentile
+	 *            the percentile of the link costs the alternative cost is
+	 *            computed from.
+	 */
+	public IndexedCostMatrixCreator( final List< K > sources, final List< J > targets, final double alternativeCostFactor, final double percentile )
+	{
+		this.sources = sources;
+		this.targets = targets;
+		this.alternativeCostFactor = alternativeCostFactor;
+		this.percentile = percentile;
+	}
+
+	/**
+	 * Adds an acceptable link. Links can be added in any order.
+	 *
+	 * @param row
+	 *            the index of the source in the source list.
+	 * @param col
+	 *            the index of the target in the target list.
+	 * @param cost
+	 *            the cost of the link.
+	 */
+	public void add( final int row, final int col, final double cost )
+	{
+		ensureCapacity( size + 1 );
+		rows[ size ] = row;
+		cols[ size ] = col;
+		costs[ size ] = cost;
+		size++;
+	}
+
+	/**
+	 * Adds the first <code>n</code> links of the specified arrays.
+	 *
+	 * @param rows
+	 *            the source index of each link.
+	 * @param cols
+	 *            the target index of each link.
+	 * @param costs
+	 *            the cost of each link.
+	 * @param n
+	 *            the number of links to add.
+	 */
+	public void addAll( final int[] rows, final int[] cols, final double[] costs, final int n )
+	{
+		ensureCapacity( size + n );
+		System.arraycopy( rows, 0, this.rows, size, n );
+		System.arraycopy( cols, 0, this.cols, size, n );
+		System.arraycopy( costs, 0, this.costs, size, n );
+		size += n;
+	}
+
+	/**
+	 * Returns the number of links added so far.
+	 *
+	 * @return the number of links.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public boolean checkInput()
+	{
+		if ( size == 0 )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "No link was added.";
+			return false;
+		}
+		if ( alternativeCostFactor <= 0 )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "The alternative cost factor must be greater than 0. Was: " + alternativeCostFactor + ".";
+			return false;
+		}
+		if ( percentile < 0 || percentile > 1 )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "The percentile must no be smaller than 0 or greater than 1. Was: " + percentile;
+			return false;
+		}
+		for ( int k = 0; k < size; k++ )
+		{
+			if ( rows[ k ] < 0 || rows[ k ] >= sources.size() || cols[ k ] < 0 || cols[ k ] >= targets.size() )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "Link " + k + " has out of bounds indices: " + rows[ k ] + " -> " + cols[ k ] + ".";
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean process()
+	{
+		final long start = System.currentTimeMillis();
+
+		/*
+		 * Rank of the sources and targets that have links, in their natural
+		 * order.
+		 */
+
+		final int[] rowRank = new int[ sources.size() ];
+		final int[] usedRows = rank( rows, sources, rowRank );
+		final int[] colRank = new int[ targets.size() ];
+		final int[] usedCols = rank( cols, targets, colRank );
+		final int nRows = usedRows.length;
+		final int nCols = usedCols.length;
+
+		/*
+		 * Counting sort of the links by row.
+		 */
+
+		final int[] number = new int[ nRows ];
+		for ( int k = 0; k < size; k++ )
+		{
+			number[ rowRank[ rows[ k ] ] ]++;
+		}
+		final int[] fill = new int[ nRows ];
+		for ( int i = 1; i < nRows; i++ )
+		{
+			fill[ i ] = fill[ i - 1 ] + number[ i - 1 ];
+		}
+		final int[] kk = new int[ size ];
+		final double[] cc = new double[ size ];
+		for ( int k = 0; k < size; k++ )
+		{
+			final int index = fill[ rowRank[ rows[ k ] ] ]++;
+			kk[ index ] = colRank[ cols[ k ] ];
+			cc[ index ] = costs[ k ];
+		}
+
+		/*
+		 * Sort each row by column. Rows are short and often sorted already, so
+		 * we use an insertion sort.
+		 */
+
+		int rowStart = 0;
+		for ( int i = 0; i < nRows; i++ )
+		{
+			final int rowEnd = rowStart + number[ i ];
+			for ( int k = rowStart + 1; k < rowEnd; k++ )
+			{
+				final int col = kk[ k ];
+				if ( col > kk[ k - 1 ] )
+				{
+					continue;
+				}
+				final double cost = cc[ k ];
+				int l = k - 1;
+				while ( l >= rowStart && kk[ l ] > col )
+				{
+					kk[ l + 1 ] = kk[ l ];
+					cc[ l + 1 ] = cc[ l ];
+					l--;
+				}
+				if ( l >= rowStart && kk[ l ] == col )
+				{
+					errorMessage = BASE_ERROR_MESSAGE + "Found duplicate link from " + sources.get( usedRows[ i ] ) + " to " + targets.get( usedCols[ col ] ) + ".";
+					return false;
+				}
+				kk[ l + 1 ] = col;
+				cc[ l + 1 ] = cost;
+			}
+			rowStart = rowEnd;
+		}
+
+		scm = new SparseCostMatrix( cc, kk, number, nCols );
+
+		sourceList = new ArrayList< K >( nRows );
+		for ( final int row : usedRows )
+		{
+			sourceList.add( sources.get( row ) );
+		}
+		targetList = new ArrayList< J >( nCols );
+		for ( final int col : usedCols )
+		{
+			targetList.add( targets.get( col ) );
+		}
+
+		final double[] linkCosts = ( costs.length == size ) ? costs : Arrays.copyOf( costs, size );
+		if ( percentile == 1 )
+		{
+			alternativeCost = alternativeCostFactor * Util.max( linkCosts );
+		}
+		else
+		{
+			alternativeCost = alternativeCostFactor * Util.percentile( linkCosts, percentile );
+		}
+
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return true;
+	}
+
+	@Override
+	public SparseCostMatrix getResult()
+	{
+		return scm;
+	}
+
+	@Override
+	public List< K > getSourceList()
+	{
+		return sourceList;
+	}
+
+	@Override
+	public List< J > getTargetList()
+	{
+		return targetList;
+	}
+
+	/**
+	 * Returns the alternative cost, common to all the sources and targets.
+	 *
+	 * @return the alternative cost.
+	 */
+	public double getAlternativeCost()
+	{
+		return alternativeCost;
+	}
+
+	@Override
+	public double getAlternativeCostForSource( final K source )
+	{
+		return alternativeCost;
+	}
+
+	@Override
+	public double getAlternativeCostForTarget( final J target )
+	{
+		return alternativeCost;
+	}
+
+	@Override
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	@Override
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void ensureCapacity( final int capacity )
+	{
+		if ( capacity > rows.length )
+		{
+			final int newCapacity = Math.max( capacity, rows.length + ( rows.length >> 1 ) );
+			rows = Arrays.copyOf( rows, newCapacity );
+			cols = Arrays.copyOf( cols, newCapacity );
+			costs = Arrays.copyOf( costs, newCapacity );
+		}
+	}
+
+	/**
+	 * Writes in <code>rank</code> the rank of each object that has a link, in
+	 * the natural order of the objects, and returns the indices of these
+	 * objects in this order.
+	 */
+	private < T extends Comparable< T > > int[] rank( final int[] indices, final List< T > objects, final int[] rank )
+	{
+		final boolean[] used = new boolean[ objects.size() ];
+		int nUsed = 0;
+		for ( int k = 0; k < size; k++ )
+		{
+			if ( !used[ indices[ k ] ] )
+			{
+				used[ indices[ k ] ] = true;
+				nUsed++;
+			}
+		}
+		final int[] usedIndices = new int[ nUsed ];
+		int n = 0;
+		boolean sorted = true;
+		for ( int i = 0; i < used.length; i++ )
+		{
+			if ( used[ i ] )
+			{
+				if ( n > 0 && objects.get( usedIndices[ n - 1 ] ).compareTo( objects.get( i ) ) >= 0 )
+				{
+					sorted = false;
+				}
+				usedIndices[ n++ ] = i;
+			}
+		}
+
+		if ( !sorted )
+		{
+			final Integer[] order = new Integer[ nUsed ];
+			for ( int i = 0; i < nUsed; i++ )
+			{
+				order[ i ] = Integer.valueOf( usedIndices[ i ] );
+			}
+			Arrays.sort( order, new Comparator< Integer >()
+			{
+				@Override
+				public int compare( final Integer o1, final Integer o2 )
+				{
+					return objects.get( o1.intValue() ).compareTo( objects.get( o2.intValue() ) );
+				}
+			} );
+			for ( int i = 0; i < nUsed; i++ )
+			{
+				usedIndices[ i ] = order[ i ].intValue();
+			}
+		}
+
+		for ( int i = 0; i < nUsed; i++ )
+		{
+			rank[ usedIndices[ i ] ] = i;
+		}
+		return usedIndices;
+	}
+}
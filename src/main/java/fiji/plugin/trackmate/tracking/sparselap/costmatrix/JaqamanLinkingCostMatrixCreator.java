@@ -4,13 +4,24 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.BatchCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.MotionPredictionCostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.SpotColumns;
 import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
+import fiji.plugin.trackmate.tracking.util.GridIndex;
 
 /**
  * A {@link CostMatrixCreator} that can generate a cost matrix from a list of
  * sources, a list of targets and a {@link CostFunction} that can generate a
  * cost for any combination.
+ * <p>
+ * If the cost function is a {@link MotionPredictionCostFunction}, costs are
+ * only computed for the targets found around the predicted position of each
+ * source, through a {@link GridIndex} over the targets. Otherwise, if it is a
+ * {@link BatchCostFunction}, the costs from a source to all the targets are
+ * computed in one call.
  * 
  * @author Jean-Yves Tinevez - 2014
  * 
@@ -77,31 +88,110 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 	{
 		final long start = System.currentTimeMillis();
 
-		final List< K > accSources = new ArrayList< K >();
-		final List< J > accTargets = new ArrayList< J >();
-		final ResizableDoubleArray costs = new ResizableDoubleArray();
-
+		final List< K > sourceObjects = new ArrayList< K >();
 		for ( final K source : sources )
 		{
-			for ( final J target : targets )
+			sourceObjects.add( source );
+		}
+		final List< J > targetObjects = new ArrayList< J >();
+		for ( final J target : targets )
+		{
+			targetObjects.add( target );
+		}
+		final IndexedCostMatrixCreator< K, J > cmCreator = new IndexedCostMatrixCreator< K, J >( sourceObjects, targetObjects, alternativeCostFactor, percentile );
+
+		if ( costFunction instanceof MotionPredictionCostFunction )
+		{
+			/*
+			 * A motion prediction cost function is a CostFunction< Spot, Spot
+			 * >, so sources and targets are spots.
+			 */
+			final MotionPredictionCostFunction motionCostFunction = ( MotionPredictionCostFunction ) costFunction;
+			final int nSources = sourceObjects.size();
+			final double[] centers = new double[ 3 * nSources ];
+			final double[] radii = new double[ nSources ];
+			final double[] center = new double[ 3 ];
+			double minRadius = Double.POSITIVE_INFINITY;
+			for ( int i = 0; i < nSources; i++ )
 			{
+				radii[ i ] = motionCostFunction.searchRegion( ( Spot ) sourceObjects.get( i ), center );
+				System.arraycopy( center, 0, centers, 3 * i, 3 );
+				minRadius = Math.min( minRadius, radii[ i ] );
+			}
+
+			final int nTargets = targetObjects.size();
+			final double[] coords = new double[ 3 * nTargets ];
+			for ( int j = 0; j < nTargets; j++ )
+			{
+				final Spot target = ( Spot ) targetObjects.get( j );
+				coords[ 3 * j ] = target.getFeature( Spot.POSITION_X ).doubleValue();
+				coords[ 3 * j + 1 ] = target.getFeature( Spot.POSITION_Y ).doubleValue();
+				coords[ 3 * j + 2 ] = target.getFeature( Spot.POSITION_Z ).doubleValue();
+			}
+			final GridIndex index = new GridIndex( coords, nTargets, minRadius );
+			final GridIndex.Query query = index.query();
 
-				final double cost = costFunction.linkingCost( source, target );
-				if ( cost < costThreshold )
+			for ( int i = 0; i < nSources; i++ )
+			{
+				final K source = sourceObjects.get( i );
+				final int nFound = query.search( centers[ 3 * i ], centers[ 3 * i + 1 ], centers[ 3 * i + 2 ], radii[ i ] );
+				for ( int k = 0; k < nFound; k++ )
 				{
-					accSources.add( source );
-					accTargets.add( target );
-					costs.add( cost );
+					final int j = query.get( k );
+					final double cost = costFunction.linkingCost( source, targetObjects.get( j ) );
+					if ( cost < costThreshold )
+					{
+						cmCreator.add( i, j, cost );
+					}
+				}
+			}
+		}
+		else if ( costFunction instanceof BatchCostFunction )
+		{
+			final BatchCostFunction batchCostFunction = ( BatchCostFunction ) costFunction;
+			/*
+			 * A batch cost function is a CostFunction< Spot, Spot >, so sources
+			 * and targets are spots.
+			 */
+			@SuppressWarnings( "unchecked" )
+			final SpotColumns columns = batchCostFunction.resolve( ( List< Spot > ) ( List< ? > ) targetObjects );
+			final int nTargets = columns.size();
+			final double[] sourceCosts = new double[ nTargets ];
+
+			for ( int i = 0; i < sourceObjects.size(); i++ )
+			{
+				batchCostFunction.linkingCosts( ( Spot ) sourceObjects.get( i ), columns, 0, nTargets, sourceCosts );
+				for ( int j = 0; j < nTargets; j++ )
+				{
+					final double cost = sourceCosts[ j ];
+					if ( cost < costThreshold )
+					{
+						cmCreator.add( i, j, cost );
+					}
+				}
+			}
+		}
+		else
+		{
+			for ( int i = 0; i < sourceObjects.size(); i++ )
+			{
+				final K source = sourceObjects.get( i );
+				for ( int j = 0; j < targetObjects.size(); j++ )
+				{
+					final double cost = costFunction.linkingCost( source, targetObjects.get( j ) );
+					if ( cost < costThreshold )
+					{
+						cmCreator.add( i, j, cost );
+					}
 				}
 			}
 		}
-		costs.trimToSize();
 
 		/*
 		 * Check if accepted source or target lists are empty and deal with it.
 		 */
 
-		if ( accSources.isEmpty() || accTargets.isEmpty() )
+		if ( cmCreator.size() == 0 )
 		{
 
 			sourceList = Collections.emptyList();
@@ -114,8 +204,6 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 		}
 		else
 		{
-
-			final DefaultCostMatrixCreator< K, J > cmCreator = new DefaultCostMatrixCreator< K, J >( accSources, accTargets, costs.data, alternativeCostFactor, percentile );
 			if ( !cmCreator.checkInput() || !cmCreator.process() )
 			{
 				errorMessage = cmCreator.getErrorMessage();
@@ -125,10 +213,9 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 			scm = cmCreator.getResult();
 			sourceList = cmCreator.getSourceList();
 			targetList = cmCreator.getTargetList();
-			alternativeCost = cmCreator.computeAlternativeCosts();
+			alternativeCost = cmCreator.getAlternativeCost();
 		}
 
-
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
 		return true;
@@ -16,8 +16,10 @@ import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_MAX_DISTA
 import static fiji.plugin.trackmate.util.TMUtils.checkMapKeys;
 import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.BatchCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.FeaturePenaltyCostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.SpotColumns;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
 
@@ -182,6 +184,22 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 			allMiddles = Collections.emptyList();
 		}
 
+		/*
+		 * Sort the targets by frame, so that the candidate targets of a source
+		 * make a contiguous block, and read the values the cost functions
+		 * need once.
+		 */
+		final List< Spot > sortedStarts = new ArrayList< Spot >( segmentStarts );
+		Collections.sort( sortedStarts, Spot.frameComparator );
+		final int[] startFrames = getFrames( sortedStarts );
+		final SpotColumns gcStarts = allowGapClosing ? resolve( gcCostFunction, sortedStarts ) : null;
+		final SpotColumns sStarts = allowSplitting ? resolve( sCostFunction, sortedStarts ) : null;
+
+		final List< Spot > sortedMiddles = new ArrayList< Spot >( allMiddles );
+		Collections.sort( sortedMiddles, Spot.frameComparator );
+		final int[] middleFrames = getFrames( sortedMiddles );
+		final SpotColumns mMiddles = allowMerging ? resolve( mCostFunction, sortedMiddles ) : null;
+
 		final Object lock = new Object();
 
 		/*
@@ -213,31 +231,10 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 
 					if ( allowGapClosing )
 					{
-						for ( final Spot target : segmentStarts )
-						{
-							// Check frame interval, must be within user
-							// specification.
-							final int targetFrame = target.getFeature( Spot.FRAME ).intValue();
-							final int tdiff = targetFrame - sourceFrame;
-							if ( tdiff < 1 || tdiff > maxFrameInterval )
-							{
-								continue;
-							}
-
-							// Check max distance
-							final double cost = gcCostFunction.linkingCost( source, target );
-							if ( cost > gcCostThreshold )
-							{
-								continue;
-							}
-
-							synchronized ( lock )
-							{
-								sources.add( source );
-								targets.add( target );
-								linkCosts.add( cost );
-							}
-						}
+						// Frame interval must be within user specification.
+						final int from = firstIndexOf( startFrames, sourceFrame + 1 );
+						final int to = firstIndexOf( startFrames, sourceFrame + maxFrameInterval + 1 );
+						addLinks( gcCostFunction, source, gcStarts, from, to, gcCostThreshold, sources, targets, linkCosts, lock );
 					}
 
 					/*
@@ -246,30 +243,10 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 
 					if ( allowMerging )
 					{
-						for ( final Spot target : allMiddles )
-						{
-							// Check frame interval, must be 1.
-							final int targetFrame = target.getFeature( Spot.FRAME ).intValue();
-							final int tdiff = targetFrame - sourceFrame;
-							if ( tdiff != 1 )
-							{
-								continue;
-							}
-
-							// Check max distance
-							final double cost = mCostFunction.linkingCost( source, target );
-							if ( cost > mCostThreshold )
-							{
-								continue;
-							}
-
-							synchronized ( lock )
-							{
-								sources.add( source );
-								targets.add( target );
-								linkCosts.add( cost );
-							}
-						}
+						// Frame interval must be 1.
+						final int from = firstIndexOf( middleFrames, sourceFrame + 1 );
+						final int to = firstIndexOf( middleFrames, sourceFrame + 2 );
+						addLinks( mCostFunction, source, mMiddles, from, to, mCostThreshold, sources, targets, linkCosts, lock );
 					}
 				}
 			} );
@@ -298,31 +275,11 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 					@Override
 					public void run()
 					{
+						// Frame interval must be 1.
 						final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
-						for ( final Spot target : segmentStarts )
-						{
-							// Check frame interval, must be 1.
-							final int targetFrame = target.getFeature( Spot.FRAME ).intValue();
-							final int tdiff = targetFrame - sourceFrame;
-
-							if ( tdiff != 1 )
-							{
-								continue;
-							}
-
-							// Check max distance
-							final double cost = sCostFunction.linkingCost( source, target );
-							if ( cost > sCostThreshold )
-							{
-								continue;
-							}
-							synchronized ( lock )
-							{
-								sources.add( source );
-								targets.add( target );
-								linkCosts.add( cost );
-							}
-						}
+						final int from = firstIndexOf( startFrames, sourceFrame + 1 );
+						final int to = firstIndexOf( startFrames, sourceFrame + 2 );
+						addLinks( sCostFunction, source, sStarts, from, to, sCostThreshold, sources, targets, linkCosts, lock );
 					}
 				}
 						);
@@ -378,6 +335,84 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 		return true;
 	}
 
+	/**
+	 * Computes the costs to link a source to a block of candidate targets, and
+	 * stores the links whose cost is not larger than the threshold.
+	 */
+	private static void addLinks( final CostFunction< Spot, Spot > costFunction, final Spot source, final SpotColumns candidates, final int from, final int to, final double costThreshold, final List< Spot > sources, final List< Spot > targets, final ResizableDoubleArray linkCosts, final Object lock )
+	{
+		if ( from >= to ) { return; }
+
+		final double[] costs = new double[ to - from ];
+		if ( costFunction instanceof BatchCostFunction )
+		{
+			( ( BatchCostFunction ) costFunction ).linkingCosts( source, candidates, from, to, costs );
+		}
+		else
+		{
+			for ( int i = from; i < to; i++ )
+			{
+				costs[ i - from ] = costFunction.linkingCost( source, candidates.get( i ) );
+			}
+		}
+
+		synchronized ( lock )
+		{
+			for ( int i = from; i < to; i++ )
+			{
+				// Check max distance
+				final double cost = costs[ i - from ];
+				if ( cost > costThreshold )
+				{
+					continue;
+				}
+				sources.add( source );
+				targets.add( candidates.get( i ) );
+				linkCosts.add( cost );
+			}
+		}
+	}
+
+	private static SpotColumns resolve( final CostFunction< Spot, Spot > costFunction, final List< Spot > spots )
+	{
+		if ( costFunction instanceof BatchCostFunction ) { return ( ( BatchCostFunction ) costFunction ).resolve( spots ); }
+		return new SpotColumns( spots, Collections.< String > emptyList() );
+	}
+
+	private static int[] getFrames( final List< Spot > spots )
+	{
+		final int[] frames = new int[ spots.size() ];
+		int i = 0;
+		for ( final Spot spot : spots )
+		{
+			frames[ i++ ] = spot.getFeature( Spot.FRAME ).intValue();
+		}
+		return frames;
+	}
+
+	/**
+	 * Returns the index of the first element of a sorted array that is not
+	 * smaller than the specified frame.
+	 */
+	private static int firstIndexOf( final int[] frames, final int frame )
+	{
+		int lo = 0;
+		int hi = frames.length;
+		while ( lo < hi )
+		{
+			final int mid = ( lo + hi ) >>> 1;
+			if ( frames[ mid ] < frame )
+			{
+				lo = mid + 1;
+			}
+			else
+			{
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
 	protected CostFunction< Spot, Spot > getCostFunctionFor( final Map< String, Double > featurePenalties )
 	{
 		// Link Nick Perry original non sparse LAP framework.
@@ -0,0 +1,685 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.algorithm.Benchmark;
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.algorithm.OutputAlgorithm;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.util.Util;
+
+/**
+ * Solves linear assignment problems with the forward auction algorithm of
+ * Bertsekas, with ε-scaling, operating directly on a {@link SparseCostMatrix}.
+ * <p>
+ * Rows bid for columns by raising their prices, until all rows are assigned.
+ * The ε increment is first large, then divided by {@value #EPSILON_SCALING}
+ * after each phase, prices being kept from one phase to the next. The final
+ * ε is chosen so that the assignment found is within a relative tolerance of
+ * the optimum: the total cost exceeds the optimal one by at most
+ * <code>n × ε</code>. For integer costs and a tolerance small enough, the
+ * solution is exactly optimal. The actual gap between the cost found and a
+ * lower bound of the optimal cost, derived from the final prices, is
+ * reported by {@link #getOptimalityGap()}. Each bid raises the price by at
+ * least a few ulps of the price, so that ties between rows are always broken,
+ * whatever the tolerance and the magnitude of the costs.
+ * <p>
+ * When many rows are unassigned, their bids are computed in parallel and then
+ * resolved together (Jacobi auction). The bidding threads are started once
+ * per solve and synchronized at each round. When few rows remain, bids are
+ * processed one at a time (Gauss-Seidel auction), which converges in fewer
+ * iterations.
+ * <p>
+ * Unlike {@link LAPJV}, whose augmentation phase is sequential, this solver
+ * scales with the number of threads on very large problems. The cost matrix
+ * must be square and admit at least one complete assignment, which is always
+ * the case of the matrices built by {@link JaqamanLinker}.
+ *
+ * @see <a href="http://web.mit.edu/dimitrib/www/Auction_Encycl.pdf">Bertsekas.
+ *      Auction algorithms. Encyclopedia of Optimization (2001)</a>
+ */
+public class AuctionLAP implements OutputAlgorithm< int[] >, Benchmark, MultiThreaded
+{
+
+	private static final String BASE_ERROR_MESSAGE = "[AuctionLAP] ";
+
+	/** Default bound on the optimality gap, relative to the cost range. */
+	public static final double DEFAULT_RELATIVE_TOLERANCE = 1e-9;
+
+	/** Factor by which ε is divided between two phases. */
+	public static final double EPSILON_SCALING = 5d;
+
+	/**
+	 * Below this number of unassigned rows, bids are processed sequentially.
+	 */
+	private static final int PARALLEL_THRESHOLD = 4096;
+
+	/** Number of rows a thread takes at once when bidding in parallel. */
+	private static final int CHUNK_SIZE = 256;
+
+	/**
+	 * Minimal price increment of a bid, in ulps of the price and of the cost
+	 * plus price it is computed from.
+	 */
+	private static final double MIN_INCREMENT_ULPS = 4d;
+
+	private final SparseCostMatrix cm;
+
+	private double relativeTolerance = DEFAULT_RELATIVE_TOLERANCE;
+
+	private int numThreads;
+
+	private int[] output;
+
+	private double[] prices;
+
+	private double primalCost;
+
+	private double dualBound;
+
+	private int nPhases;
+
+	private long nBids;
+
+	private String errorMessage;
+
+	private long processingTime;
+
+	/**
+	 * Instantiates a new auction solver for the specified sparse cost matrix.
+	 *
+	 * @param cm
+	 *            the cost matrix of the linear assignment problem to solve.
+	 */
+	public AuctionLAP( final SparseCostMatrix cm )
+	{
+		this.cm = cm;
+		setNumThreads();
+	}
+
+	/**
+	 * Sets the bound on the optimality gap, relative to the range of costs in
+	 * the matrix. Smaller values give more accurate solutions at the expense of
+	 * more ε-scaling phases.
+	 *
+	 * @param relativeTolerance
+	 *            the relative tolerance, strictly positive.
+	 */
+	public void setRelativeTolerance( final double relativeTolerance )
+	{
+		this.relativeTolerance = relativeTolerance;
+	}
+
+	@Override
+	public boolean checkInput()
+	{
+		if ( cm.nRows != cm.nCols )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "This solver requires a square cost matrix. Found " + cm.nRows + " rows and " + cm.nCols + " columns.";
+			return false;
+		}
+		for ( int i = 0; i < cm.nRows; i++ )
+		{
+			if ( cm.number[ i ] == 0 )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "All the rows must have at least one cost. Row " + i + " has none.";
+				return false;
+			}
+		}
+		for ( final double c : cm.cc )
+		{
+			if ( Double.isNaN( c ) || Double.isInfinite( c ) )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "This solver only accepts finite costs. Found " + c + ".";
+				return false;
+			}
+		}
+		if ( !( relativeTolerance > 0 ) )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "The relative tolerance must be strictly positive. Was " + relativeTolerance + ".";
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean process()
+	{
+		final long start = System.currentTimeMillis();
+		errorMessage = null;
+		final int n = cm.nRows;
+
+		final double range;
+		if ( cm.cc.length == 0 )
+		{
+			range = 1d;
+		}
+		else
+		{
+			final double r = Util.max( cm.cc ) - Util.min( cm.cc );
+			range = r > 0 ? r : 1d;
+		}
+		final double finalEpsilon = relativeTolerance * range / ( n + 1 );
+
+		/*
+		 * Bidding for a column reduces the cost plus price of the best column
+		 * to the one of the second best. We therefore work with
+		 * "cost + price", which rows minimize.
+		 */
+
+		prices = new double[ n ];
+		final int[] x = new int[ n ];
+		final int[] y = new int[ n ];
+		final int[] free = new int[ n ];
+		final Bids bids = new Bids( n );
+
+		nPhases = 0;
+		nBids = 0;
+		final Bidders bidders = ( n >= PARALLEL_THRESHOLD && numThreads > 1 ) ? new Bidders( numThreads ) : null;
+		try
+		{
+			double epsilon = Math.max( range / EPSILON_SCALING, finalEpsilon );
+			while ( true )
+			{
+				nPhases++;
+				Arrays.fill( x, -1 );
+				Arrays.fill( y, -1 );
+				for ( int i = 0; i < n; i++ )
+				{
+					free[ i ] = i;
+				}
+				final double priceLimit = Util.max( prices ) + 4d * ( n + 1 ) * ( range + 2 * epsilon );
+
+				int nFree = n;
+				while ( nFree > 0 )
+				{
+					if ( null != bidders && nFree >= PARALLEL_THRESHOLD )
+					{
+						nFree = jacobiRound( x, y, free, nFree, bids, bidders, epsilon, range, priceLimit );
+					}
+					else
+					{
+						gaussSeidel( x, y, free, nFree, epsilon, range, priceLimit );
+						nFree = 0;
+					}
+					if ( null != errorMessage ) { return false; }
+				}
+
+				if ( epsilon <= finalEpsilon )
+				{
+					break;
+				}
+				epsilon = Math.max( epsilon / EPSILON_SCALING, finalEpsilon );
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Interrupted while bidding: " + e.getMessage();
+			return false;
+		}
+		catch ( final BrokenBarrierException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "A bidding thread was interrupted: " + e.getMessage();
+			return false;
+		}
+		finally
+		{
+			if ( null != bidders )
+			{
+				bidders.shutdown();
+			}
+		}
+
+		/*
+		 * Primal cost and dual bound. The row duals are the minimal cost plus
+		 * price of each row, the column duals the opposite of the prices.
+		 */
+
+		primalCost = 0;
+		dualBound = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			double min = Double.POSITIVE_INFINITY;
+			for ( int k = cm.start[ i ]; k < cm.start[ i ] + cm.number[ i ]; k++ )
+			{
+				final int j = cm.kk[ k ];
+				if ( j == x[ i ] )
+				{
+					primalCost += cm.cc[ k ];
+				}
+				min = Math.min( min, cm.cc[ k ] + prices[ j ] );
+			}
+			dualBound += min;
+		}
+		for ( int j = 0; j < n; j++ )
+		{
+			dualBound -= prices[ j ];
+		}
+
+		output = x;
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return true;
+	}
+
+	/**
+	 * Processes bids one at a time until all the specified rows are assigned.
+	 */
+	private void gaussSeidel( final int[] x, final int[] y, final int[] queue, final int nFree, final double epsilon, final double range, final double priceLimit )
+	{
+		final int n = queue.length;
+		int head = 0;
+		int count = nFree;
+		while ( count > 0 )
+		{
+			final int i = queue[ head ];
+			head = ( head + 1 ) % n;
+			count--;
+
+			double w1 = Double.POSITIVE_INFINITY;
+			double w2 = Double.POSITIVE_INFINITY;
+			int j1 = -1;
+			for ( int k = cm.start[ i ]; k < cm.start[ i ] + cm.number[ i ]; k++ )
+			{
+				final int j = cm.kk[ k ];
+				final double w = cm.cc[ k ] + prices[ j ];
+				if ( w < w1 )
+				{
+					w2 = w1;
+					w1 = w;
+					j1 = j;
+				}
+				else if ( w < w2 )
+				{
+					w2 = w;
+				}
+			}
+			nBids++;
+			prices[ j1 ] += increment( prices[ j1 ], w1, w2, epsilon, range );
+			if ( prices[ j1 ] > priceLimit )
+			{
+				infeasible();
+				return;
+			}
+
+			final int previous = y[ j1 ];
+			y[ j1 ] = i;
+			x[ i ] = j1;
+			if ( previous >= 0 )
+			{
+				x[ previous ] = -1;
+				queue[ ( head + count ) % n ] = previous;
+				count++;
+			}
+		}
+	}
+
+	/**
+	 * Returns the amount by which a row raises the price of its best column:
+	 * the difference between its two best costs plus price, plus ε. It is at
+	 * least a few ulps of the price, otherwise rows tied on a column would
+	 * trade it forever without changing its price.
+	 */
+	private static double increment( final double price, final double w1, final double w2, final double epsilon, final double range )
+	{
+		final double inc = ( w2 == Double.POSITIVE_INFINITY ? range : w2 - w1 ) + epsilon;
+		final double minInc = MIN_INCREMENT_ULPS * Math.max( Math.ulp( price ), Math.ulp( w1 ) );
+		return Math.max( inc, minInc );
+	}
+
+	/**
+	 * Computes the bids of all the specified rows in parallel, then gives each
+	 * column to its highest bidder.
+	 *
+	 * @return the number of rows still unassigned, stored at the beginning of
+	 *         the free array.
+	 */
+	private int jacobiRound( final int[] x, final int[] y, final int[] free, final int nFree, final Bids bids, final Bidders bidders, final double epsilon, final double range, final double priceLimit ) throws InterruptedException, BrokenBarrierException
+	{
+		bidders.bid( free, nFree, bids, epsilon, range );
+		nBids += nFree;
+
+		// Highest bid for each column.
+		int nTouched = 0;
+		for ( int f = 0; f < nFree; f++ )
+		{
+			final int j = bids.target[ f ];
+			final int best = bids.bestBidder[ j ];
+			if ( best < 0 )
+			{
+				bids.touched[ nTouched++ ] = j;
+				bids.bestBidder[ j ] = f;
+			}
+			else if ( bids.price[ f ] > bids.price[ best ] )
+			{
+				bids.bestBidder[ j ] = f;
+			}
+		}
+
+		// Assign columns, collecting the evicted rows.
+		int nEvicted = 0;
+		for ( int t = 0; t < nTouched; t++ )
+		{
+			final int j = bids.touched[ t ];
+			final int f = bids.bestBidder[ j ];
+			bids.bestBidder[ j ] = -1;
+			final int i = free[ f ];
+			prices[ j ] = bids.price[ f ];
+			if ( prices[ j ] > priceLimit )
+			{
+				infeasible();
+			}
+			final int previous = y[ j ];
+			y[ j ] = i;
+			x[ i ] = j;
+			if ( previous >= 0 )
+			{
+				x[ previous ] = -1;
+				bids.evicted[ nEvicted++ ] = previous;
+			}
+		}
+
+		// Next free rows: the losers, then the evicted rows.
+		int nextFree = 0;
+		for ( int f = 0; f < nFree; f++ )
+		{
+			final int i = free[ f ];
+			if ( x[ i ] < 0 )
+			{
+				free[ nextFree++ ] = i;
+			}
+		}
+		for ( int e = 0; e < nEvicted; e++ )
+		{
+			free[ nextFree++ ] = bids.evicted[ e ];
+		}
+		return nextFree;
+	}
+
+	private boolean infeasible()
+	{
+		errorMessage = BASE_ERROR_MESSAGE + "Prices diverge: the cost matrix does not admit a complete assignment.";
+		return false;
+	}
+
+	/**
+	 * Returns the cost of the assignment found minus a lower bound of the
+	 * optimal cost. The assignment is optimal if this gap is smaller than the
+	 * smallest difference between two assignment costs, for instance smaller
+	 * than 1 for integer costs.
+	 *
+	 * @return the optimality gap, non-negative.
+	 */
+	public double getOptimalityGap()
+	{
+		return Math.max( 0, primalCost - dualBound );
+	}
+
+	/**
+	 * Returns the total cost of the assignment found.
+	 *
+	 * @return the primal cost.
+	 */
+	public double getPrimalCost()
+	{
+		return primalCost;
+	}
+
+	/**
+	 * Returns the lower bound of the optimal assignment cost derived from the
+	 * final prices.
+	 *
+	 * @return the dual bound.
+	 */
+	public double getDualBound()
+	{
+		return dualBound;
+	}
+
+	/**
+	 * Returns the column dual variables, in the same convention as
+	 * {@link LAPJV#getColumnDuals()}.
+	 *
+	 * @return a new <code>double[]</code> array, or <code>null</code> if the
+	 *         problem was not solved yet.
+	 */
+	public double[] getColumnDuals()
+	{
+		if ( null == prices ) { return null; }
+		final double[] v = new double[ prices.length ];
+		for ( int j = 0; j < v.length; j++ )
+		{
+			v[ j ] = -prices[ j ];
+		}
+		return v;
+	}
+
+	/**
+	 * Returns a short report on the last solve: number of ε-scaling phases and
+	 * of bids, primal cost, dual bound and optimality gap.
+	 */
+	public String getReport()
+	{
+		return String.format( "%d phases, %d bids, cost = %.6g, lower bound = %.6g, gap = %.3g (%.3g relative).", nPhases, nBids, primalCost, dualBound, getOptimalityGap(), primalCost == 0 ? 0 : getOptimalityGap() / Math.abs( primalCost ) );
+	}
+
+	/**
+	 * Returns the row assignments. The row <code>i</code> is associated to the
+	 * column <code>x[i]</code> in the cost matrix.
+	 *
+	 * @return the row assignments as an <code>int[]</code> array.
+	 */
+	@Override
+	public int[] getResult()
+	{
+		return output;
+	}
+
+	@Override
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	@Override
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * The threads computing the bids of the free rows in the Jacobi rounds.
+	 * They are started once per solve, and wait on barriers between rounds.
+	 */
+	private final class Bidders
+	{
+
+		private final Thread[] threads;
+
+		private final CyclicBarrier roundStart;
+
+		private final CyclicBarrier roundEnd;
+
+		private final AtomicInteger ai = new AtomicInteger( 0 );
+
+		/*
+		 * Parameters of the current round, published to the threads by the
+		 * start barrier.
+		 */
+
+		private int[] free;
+
+		private int nFree;
+
+		private Bids bids;
+
+		private double epsilon;
+
+		private double range;
+
+		private Bidders( final int nThreads )
+		{
+			this.roundStart = new CyclicBarrier( nThreads + 1 );
+			this.roundEnd = new CyclicBarrier( nThreads + 1 );
+			this.threads = SimpleMultiThreading.newThreads( nThreads );
+			for ( int ithread = 0; ithread < threads.length; ithread++ )
+			{
+				threads[ ithread ] = new Thread( BASE_ERROR_MESSAGE + "thread " + ( 1 + ithread ) + "/" + threads.length )
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							while ( true )
+							{
+								roundStart.await();
+								try
+								{
+									computeBids();
+								}
+								finally
+								{
+									roundEnd.await();
+								}
+							}
+						}
+						catch ( final InterruptedException e )
+						{
+							// Shut down.
+						}
+						catch ( final BrokenBarrierException e )
+						{
+							// Shut down.
+						}
+					}
+				};
+				threads[ ithread ].setDaemon( true );
+				threads[ ithread ].start();
+			}
+		}
+
+		/**
+		 * Computes the bids of the specified free rows, and returns when they
+		 * are all stored in the specified bids.
+		 */
+		private void bid( final int[] free, final int nFree, final Bids bids, final double epsilon, final double range ) throws InterruptedException, BrokenBarrierException
+		{
+			this.free = free;
+			this.nFree = nFree;
+			this.bids = bids;
+			this.epsilon = epsilon;
+			this.range = range;
+			ai.set( 0 );
+			roundStart.await();
+			roundEnd.await();
+		}
+
+		private void computeBids()
+		{
+			for ( int from = ai.getAndAdd( CHUNK_SIZE ); from < nFree; from = ai.getAndAdd( CHUNK_SIZE ) )
+			{
+				final int to = Math.min( nFree, from + CHUNK_SIZE );
+				for ( int f = from; f < to; f++ )
+				{
+					final int i = free[ f ];
+					double w1 = Double.POSITIVE_INFINITY;
+					double w2 = Double.POSITIVE_INFINITY;
+					int j1 = -1;
+					for ( int k = cm.start[ i ]; k < cm.start[ i ] + cm.number[ i ]; k++ )
+					{
+						final int j = cm.kk[ k ];
+						final double w = cm.cc[ k ] + prices[ j ];
+						if ( w < w1 )
+						{
+							w2 = w1;
+							w1 = w;
+							j1 = j;
+						}
+						else if ( w < w2 )
+						{
+							w2 = w;
+						}
+					}
+					bids.target[ f ] = j1;
+					bids.price[ f ] = prices[ j1 ] + increment( prices[ j1 ], w1, w2, epsilon, range );
+				}
+			}
+		}
+
+		/**
+		 * Stops the threads waiting for the next round.
+		 */
+		private void shutdown()
+		{
+			for ( final Thread thread : threads )
+			{
+				thread.interrupt();
+			}
+			for ( final Thread thread : threads )
+			{
+				try
+				{
+					thread.join();
+				}
+				catch ( final InterruptedException e )
+				{
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Temporary arrays of the parallel bidding rounds.
+	 */
+	private static final class Bids
+	{
+		/** Column each free row bids for. */
+		private final int[] target;
+
+		/** Price each free row offers. */
+		private final double[] price;
+
+		/** Index in the free list of the best bidder of each column. */
+		private final int[] bestBidder;
+
+		/** Columns that received bids in the current round. */
+		private final int[] touched;
+
+		/** Rows whose column was taken in the current round. */
+		private final int[] evicted;
+
+		private Bids( final int n )
+		{
+			this.target = new int[ n ];
+			this.price = new double[ n ];
+			this.bestBidder = new int[ n ];
+			Arrays.fill( bestBidder, -1 );
+			this.touched = new int[ n ];
+			this.evicted = new int[ n ];
+		}
+	}
+}
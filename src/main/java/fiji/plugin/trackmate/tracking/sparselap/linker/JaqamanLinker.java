@@ -6,18 +6,32 @@ import fiji.plugin.trackmate.tracking.sparselap.costmatrix.CostMatrixCreator;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import net.imglib2.algorithm.BenchmarkAlgorithm;
+import net.imglib2.algorithm.MultiThreaded;
 import net.imglib2.algorithm.OutputAlgorithm;
+import net.imglib2.multithreading.SimpleMultiThreading;
 import net.imglib2.util.Util;
 
 /**
  * Links two lists of objects based on the LAP framework described in Jaqaman
  * <i>et al.</i>, Nature Methods, <b>2008</b>.
+ * <p>
+ * The sparse cost matrix usually splits in many independent clusters of
+ * objects that can only be linked to each other. The augmented LAP matrix is
+ * then block-diagonal, with one block per connected component of the
+ * bipartite cost graph. If the decomposition mode is on (see
+ * {@link #setDecomposition(boolean)}), each block is solved separately on
+ * several threads, and the assignments are merged. This gives the same
+ * optimal assignments as solving the whole matrix at once, for a fraction of
+ * the time on large problems.
  * 
  * @author Jean-Yves Tinevez - 2014
  * 
@@ -26,7 +40,7 @@ import net.imglib2.util.Util;
  * @param <J>
  *            the type of the target objects to link.
  */
-public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J > > extends BenchmarkAlgorithm implements OutputAlgorithm< Map< K, J > >
+public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J > > extends BenchmarkAlgorithm implements OutputAlgorithm< Map< K, J > >, MultiThreaded
 {
 	private Map< K, J > assignments;
 
@@ -36,6 +50,20 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 
 	private final Logger logger;
 
+	private boolean decomposition = false;
+
+	private int numThreads;
+
+	private LAPJVWorkspace workspace;
+
+	private Map< J, Double > initialTargetDuals;
+
+	private Map< J, Double > targetDuals;
+
+	private boolean auction = false;
+
+	private double optimalityGap;
+
 	/**
 	 * Creates a new linker for the two specified object lists.
 	 * 
@@ -57,6 +85,7 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 	{
 		this.costMatrixCreator = costMatrixCreator;
 		this.logger = logger;
+		setNumThreads();
 	}
 
 	public JaqamanLinker( final CostMatrixCreator< K, J > costMatrixCreator )
@@ -93,6 +122,86 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		return costs;
 	}
 
+	/**
+	 * Sets whether the LAP is decomposed in independent blocks, solved in
+	 * parallel, or solved as a whole.
+	 * 
+	 * @param decomposition
+	 *            if <code>true</code>, each connected component of the cost
+	 *            matrix is solved separately.
+	 */
+	public void setDecomposition( final boolean decomposition )
+	{
+		this.decomposition = decomposition;
+	}
+
+	/**
+	 * Sets whether the LAP is solved with the {@link AuctionLAP} solver rather
+	 * than with the {@link LAPJV} solver. The auction solver is parallel and
+	 * suited to very large problems, but only reaches the optimum within a
+	 * small tolerance (see {@link #getOptimalityGap()}). It does not use
+	 * workspaces nor warm starts.
+	 * 
+	 * @param auction
+	 *            if <code>true</code>, the auction solver is used.
+	 */
+	public void setAuction( final boolean auction )
+	{
+		this.auction = auction;
+	}
+
+	/**
+	 * Returns the difference between the total cost of the assignments found
+	 * and a lower bound of the optimal cost. It is always 0 for the
+	 * {@link LAPJV} solver, which is exact.
+	 * 
+	 * @return the optimality gap.
+	 */
+	public double getOptimalityGap()
+	{
+		return optimalityGap;
+	}
+
+	/**
+	 * Sets the workspace the LAP solver will reuse for its temporary arrays.
+	 * This saves allocations when a thread creates many linkers in a row, for
+	 * instance one per frame pair. Ignored in decomposition mode, where each
+	 * solving thread uses its own workspace.
+	 * 
+	 * @param workspace
+	 *            the workspace, not shared with a linker running concurrently.
+	 */
+	public void setWorkspace( final LAPJVWorkspace workspace )
+	{
+		this.workspace = workspace;
+	}
+
+	/**
+	 * Sets the dual variables the solver starts from for target columns,
+	 * typically those returned by {@link #getTargetDuals()} after solving a
+	 * similar problem involving the same targets. Targets not in the map start
+	 * cold. The assignments found are optimal regardless.
+	 * 
+	 * @param initialTargetDuals
+	 *            the target duals, or <code>null</code> to start cold.
+	 */
+	public void setInitialTargetDuals( final Map< J, Double > initialTargetDuals )
+	{
+		this.initialTargetDuals = initialTargetDuals;
+	}
+
+	/**
+	 * Returns the dual variables of the target columns at the end of the
+	 * solve, to warm-start another linker with
+	 * {@link #setInitialTargetDuals(Map)}.
+	 * 
+	 * @return the target duals.
+	 */
+	public Map< J, Double > getTargetDuals()
+	{
+		return targetDuals;
+	}
+
 	@Override
 	public boolean checkInput()
 	{
@@ -124,6 +233,7 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		{
 			assignments = Collections.emptyMap();
 			costs = Collections.emptyMap();
+			targetDuals = Collections.emptyMap();
 			final long end = System.currentTimeMillis();
 			processingTime = end - start;
 			return true;
@@ -138,61 +248,70 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		final int nCols = tl.getNCols();
 		final int nRows = tl.getNRows();
 
-		/*
-		 * Top right
-		 */
-
 		final double[] cctr = new double[ nRows ];
-		final int[] kktr = new int[ nRows ];
 		for ( int i = 0; i < nRows; i++ )
 		{
-			kktr[ i ] = i;
 			cctr[ i ] = costMatrixCreator.getAlternativeCostForSource( matrixRows.get( i ) );
 		}
-		final int[] numbertr = new int[ nRows ];
-		Arrays.fill( numbertr, 1 );
-		final SparseCostMatrix tr = new SparseCostMatrix( cctr, kktr, numbertr, nRows );
-
-		/*
-		 * Bottom left
-		 */
 		final double[] ccbl = new double[ nCols ];
-		final int[] kkbl = new int[ nCols ];
-		for ( int i = 0; i < kkbl.length; i++ )
+		for ( int i = 0; i < nCols; i++ )
 		{
-			kkbl[ i ] = i;
 			ccbl[ i ] = costMatrixCreator.getAlternativeCostForTarget( matrixCols.get( i ) );
 		}
-		final int[] numberbl = new int[ nCols ];
-		Arrays.fill( numberbl, 1 );
-		final SparseCostMatrix bl = new SparseCostMatrix( ccbl, kkbl, numberbl, nCols );
 
 		/*
-		 * Bottom right.
-		 * 
-		 * Alt. cost is the overall min of alternative costs. This deviate or
-		 * extend a bit the u-track code.
+		 * Alt. cost of the bottom right block is the overall min of
+		 * alternative costs. This deviate or extend a bit the u-track code.
 		 */
 		final double minCost = Math.min( Util.min( ccbl ), Util.min( cctr ) );
-		final SparseCostMatrix br = tl.transpose();
-		br.fillWith( minCost );
 
-		/*
-		 * Stitch them together
-		 */
-		final SparseCostMatrix full = ( tl.hcat( tr ) ).vcat( bl.hcat( br ) );
-		logger.setProgress( 0.6 );
+		// Initial duals of the target columns, NaN for cold ones.
+		double[] initialDuals = null;
+		if ( null != initialTargetDuals )
+		{
+			initialDuals = new double[ nCols ];
+			for ( int j = 0; j < nCols; j++ )
+			{
+				final Double dual = initialTargetDuals.get( matrixCols.get( j ) );
+				initialDuals[ j ] = null == dual ? Double.NaN : dual.doubleValue();
+			}
+		}
+		final double[] duals = new double[ nCols ];
+		optimalityGap = 0;
 
-		/*
-		 * Solve the full cost matrix.
-		 */
+		logger.setProgress( 0.6 );
 		logger.setStatus( "Solving the cost matrix..." );
-		final LAPJV solver = new LAPJV( full );
+		final boolean ok = decomposition ? solveComponents( tl, cctr, ccbl, minCost, initialDuals, duals, matrixRows, matrixCols ) : solveWhole( tl, cctr, ccbl, minCost, initialDuals, duals, matrixRows, matrixCols );
+		if ( !ok ) { return false; }
+
+		targetDuals = new HashMap< J, Double >( nCols );
+		for ( int j = 0; j < nCols; j++ )
+		{
+			targetDuals.put( matrixCols.get( j ), Double.valueOf( duals[ j ] ) );
+		}
+
+		logger.setProgress( 1 );
+		logger.setStatus( "" );
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+
+		return true;
+	}
+
+	/**
+	 * Solves the augmented LAP built from the whole cost matrix.
+	 */
+	private boolean solveWhole( final SparseCostMatrix tl, final double[] cctr, final double[] ccbl, final double minCost, final double[] initialDuals, final double[] duals, final List< K > matrixRows, final List< J > matrixCols )
+	{
+		final SparseCostMatrix full = tl.augment( cctr, ccbl, minCost );
+		final OutputAlgorithm< int[] > solver = createSolver( full, workspace, initialDuals, numThreads );
 		if ( !solver.checkInput() || !solver.process() )
 		{
 			errorMessage = solver.getErrorMessage();
 			return false;
 		}
+		System.arraycopy( columnDuals( solver ), 0, duals, 0, duals.length );
+		optimalityGap = optimalityGap( solver );
 
 		final int[] assgn = solver.getResult();
 		assignments = new HashMap< K, J >();
@@ -210,15 +329,301 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 				costs.put( source, Double.valueOf( cost ) );
 			}
 		}
+		return true;
+	}
 
-		logger.setProgress( 1 );
-		logger.setStatus( "" );
-		final long end = System.currentTimeMillis();
-		processingTime = end - start;
+	/**
+	 * Solves separately the augmented LAP of each connected component of the
+	 * cost matrix, on several threads.
+	 */
+	private boolean solveComponents( final SparseCostMatrix tl, final double[] cctr, final double[] ccbl, final double minCost, final double[] initialDuals, final double[] duals, final List< K > matrixRows, final List< J > matrixCols )
+	{
+		final int nRows = tl.nRows;
+		final int nCols = tl.nCols;
+
+		final int[] label = new int[ nRows + nCols ];
+		final int nComponents = labelComponents( tl.start, tl.number, tl.kk, nCols, label );
 
+		// Sources and targets of each component, in increasing order.
+		final int[] rowStart = new int[ nComponents + 1 ];
+		final int[] colStart = new int[ nComponents + 1 ];
+		for ( int i = 0; i < nRows; i++ )
+		{
+			rowStart[ label[ i ] + 1 ]++;
+		}
+		for ( int j = 0; j < nCols; j++ )
+		{
+			colStart[ label[ nRows + j ] + 1 ]++;
+		}
+		for ( int c = 0; c < nComponents; c++ )
+		{
+			rowStart[ c + 1 ] += rowStart[ c ];
+			colStart[ c + 1 ] += colStart[ c ];
+		}
+		final int[] rows = new int[ nRows ];
+		final int[] cols = new int[ nCols ];
+		final int[] rowFill = Arrays.copyOf( rowStart, nComponents );
+		final int[] colFill = Arrays.copyOf( colStart, nComponents );
+		for ( int i = 0; i < nRows; i++ )
+		{
+			rows[ rowFill[ label[ i ] ]++ ] = i;
+		}
+		final int[] localCol = new int[ nCols ];
+		for ( int j = 0; j < nCols; j++ )
+		{
+			final int c = label[ nRows + j ];
+			localCol[ j ] = colFill[ c ] - colStart[ c ];
+			cols[ colFill[ c ]++ ] = j;
+		}
+
+		// Largest components first, for load balancing.
+		final Integer[] order = new Integer[ nComponents ];
+		for ( int c = 0; c < nComponents; c++ )
+		{
+			order[ c ] = Integer.valueOf( c );
+		}
+		Arrays.sort( order, new Comparator< Integer >()
+		{
+			@Override
+			public int compare( final Integer o1, final Integer o2 )
+			{
+				return ( rowStart[ o2 + 1 ] - rowStart[ o2 ] ) - ( rowStart[ o1 + 1 ] - rowStart[ o1 ] );
+			}
+		} );
+
+		/*
+		 * Solve each component.
+		 */
+
+		final int[] rowAssignment = new int[ nRows ];
+		Arrays.fill( rowAssignment, -1 );
+		final double[] rowCost = new double[ nRows ];
+		final double[] gaps = new double[ nComponents ];
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final AtomicReference< String > error = new AtomicReference< String >();
+		final int nThreads = Math.max( 1, Math.min( numThreads, nComponents ) );
+		final Thread[] threads = SimpleMultiThreading.newThreads( nThreads );
+		for ( int ithread = 0; ithread < threads.length; ithread++ )
+		{
+			threads[ ithread ] = new Thread( "JaqamanLinker thread " + ( 1 + ithread ) + "/" + threads.length )
+			{
+				@Override
+				public void run()
+				{
+					final LAPJVWorkspace ws = new LAPJVWorkspace();
+					for ( int o = ai.getAndIncrement(); o < order.length; o = ai.getAndIncrement() )
+					{
+						if ( null != error.get() ) { return; }
+						final int c = order[ o ].intValue();
+						final int r0 = rowStart[ c ];
+						final int nr = rowStart[ c + 1 ] - r0;
+						final int c0 = colStart[ c ];
+						final int nc = colStart[ c + 1 ] - c0;
+						if ( nr == 0 )
+						{
+							/*
+							 * Lone target: its only option is not to be linked,
+							 * which gives its dual.
+							 */
+							for ( int l = 0; l < nc; l++ )
+							{
+								duals[ cols[ c0 + l ] ] = ccbl[ cols[ c0 + l ] ];
+							}
+							continue;
+						}
+
+						// Sub-matrix of the component.
+						int card = 0;
+						for ( int r = r0; r < r0 + nr; r++ )
+						{
+							card += tl.number[ rows[ r ] ];
+						}
+						final double[] cc = new double[ card ];
+						final int[] kk = new int[ card ];
+						final int[] number = new int[ nr ];
+						final double[] subtr = new double[ nr ];
+						final double[] subbl = new double[ nc ];
+						int index = 0;
+						for ( int r = 0; r < nr; r++ )
+						{
+							final int i = rows[ r0 + r ];
+							number[ r ] = tl.number[ i ];
+							subtr[ r ] = cctr[ i ];
+							for ( int k = tl.start[ i ]; k < tl.start[ i ] + tl.number[ i ]; k++ )
+							{
+								cc[ index ] = tl.cc[ k ];
+								kk[ index ] = localCol[ tl.kk[ k ] ];
+								index++;
+							}
+						}
+						for ( int l = 0; l < nc; l++ )
+						{
+							subbl[ l ] = ccbl[ cols[ c0 + l ] ];
+						}
+						final SparseCostMatrix full = new SparseCostMatrix( cc, kk, number, nc ).augment( subtr, subbl, minCost );
+
+						double[] initialSubDuals = null;
+						if ( null != initialDuals )
+						{
+							initialSubDuals = new double[ nc ];
+							for ( int l = 0; l < nc; l++ )
+							{
+								initialSubDuals[ l ] = initialDuals[ cols[ c0 + l ] ];
+							}
+						}
+						final OutputAlgorithm< int[] > solver = createSolver( full, ws, initialSubDuals, 1 );
+						if ( !solver.checkInput() || !solver.process() )
+						{
+							error.compareAndSet( null, solver.getErrorMessage() );
+							return;
+						}
+						gaps[ c ] = optimalityGap( solver );
+						final double[] subDuals = columnDuals( solver );
+						for ( int l = 0; l < nc; l++ )
+						{
+							duals[ cols[ c0 + l ] ] = subDuals[ l ];
+						}
+						final int[] assgn = solver.getResult();
+						for ( int r = 0; r < nr; r++ )
+						{
+							final int l = assgn[ r ];
+							if ( l < nc )
+							{
+								final int i = rows[ r0 + r ];
+								rowAssignment[ i ] = cols[ c0 + l ];
+								rowCost[ i ] = full.get( r, l, Double.POSITIVE_INFINITY );
+							}
+						}
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin( threads );
+
+		if ( null != error.get() )
+		{
+			errorMessage = error.get();
+			return false;
+		}
+		for ( final double gap : gaps )
+		{
+			optimalityGap += gap;
+		}
+
+		assignments = new HashMap< K, J >();
+		costs = new HashMap< K, Double >();
+		for ( int i = 0; i < nRows; i++ )
+		{
+			if ( rowAssignment[ i ] >= 0 )
+			{
+				final K source = matrixRows.get( i );
+				assignments.put( source, matrixCols.get( rowAssignment[ i ] ) );
+				costs.put( source, Double.valueOf( rowCost[ i ] ) );
+			}
+		}
 		return true;
 	}
 
+	/**
+	 * Creates the selected solver for the specified augmented matrix.
+	 */
+	private OutputAlgorithm< int[] > createSolver( final SparseCostMatrix full, final LAPJVWorkspace ws, final double[] initialDuals, final int nThreads )
+	{
+		if ( auction )
+		{
+			final AuctionLAP solver = new AuctionLAP( full );
+			solver.setNumThreads( nThreads );
+			return solver;
+		}
+		final LAPJV solver = new LAPJV( full, ws );
+		solver.setInitialColumnDuals( initialDuals );
+		return solver;
+	}
+
+	private static double[] columnDuals( final OutputAlgorithm< int[] > solver )
+	{
+		if ( solver instanceof AuctionLAP ) { return ( ( AuctionLAP ) solver ).getColumnDuals(); }
+		return ( ( LAPJV ) solver ).getColumnDuals();
+	}
+
+	private static double optimalityGap( final OutputAlgorithm< int[] > solver )
+	{
+		if ( solver instanceof AuctionLAP ) { return ( ( AuctionLAP ) solver ).getOptimalityGap(); }
+		return 0;
+	}
+
+	/**
+	 * Labels the connected components of a sparse cost matrix. Sources
+	 * (<code>0 .. nRows-1</code>) and targets (<code>nRows ..</code>) get the
+	 * index of their component, in order of first source. A target that no
+	 * source can link to forms a component of its own, numbered after the
+	 * others.
+	 *
+	 * @return the number of components.
+	 */
+	static int labelComponents( final int[] start, final int[] number, final int[] kk, final int nCols, final int[] label )
+	{
+		final int nRows = number.length;
+		final int[] parent = new int[ nRows + nCols ];
+		for ( int i = 0; i < parent.length; i++ )
+		{
+			parent[ i ] = i;
+		}
+		for ( int i = 0; i < nRows; i++ )
+		{
+			for ( int k = start[ i ]; k < start[ i ] + number[ i ]; k++ )
+			{
+				final int a = find( parent, i );
+				final int b = find( parent, nRows + kk[ k ] );
+				if ( a != b )
+				{
+					parent[ Math.max( a, b ) ] = Math.min( a, b );
+				}
+			}
+		}
+
+		Arrays.fill( label, -1 );
+		int nComponents = 0;
+		for ( int i = 0; i < nRows + nCols; i++ )
+		{
+			final int root = find( parent, i );
+			if ( label[ root ] < 0 )
+			{
+				label[ root ] = nComponents++;
+			}
+			label[ i ] = label[ root ];
+		}
+		return nComponents;
+	}
+
+	private static int find( final int[] parent, int i )
+	{
+		while ( parent[ i ] != i )
+		{
+			parent[ i ] = parent[ parent[ i ] ];
+			i = parent[ i ];
+		}
+		return i;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
 	public String resultToString()
 	{
 		if ( null == assignments ) { return "Not solved yet. Process the algorithm prior to calling this method."; }
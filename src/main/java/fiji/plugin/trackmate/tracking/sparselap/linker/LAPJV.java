@@ -53,6 +53,12 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 
 	private final SparseCostMatrix cm;
 
+	private final LAPJVWorkspace workspace;
+
+	private double[] initialDuals;
+
+	private double[] duals;
+
 	/**
 	 * Instantiates a new Jonker-Volgenant algorithm for the specified sparse
 	 * cost matrix.
@@ -61,8 +67,54 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 	 *            the cost matrix of the linear assignment problem to solve.
 	 */
 	public LAPJV( final SparseCostMatrix cm )
+	{
+		this( cm, null );
+	}
+
+	/**
+	 * Instantiates a new Jonker-Volgenant algorithm for the specified sparse
+	 * cost matrix, that will use the specified workspace for its temporary
+	 * arrays instead of allocating them.
+	 * 
+	 * @param cm
+	 *            the cost matrix of the linear assignment problem to solve.
+	 * @param workspace
+	 *            the workspace to use. Must not be shared with another solver
+	 *            running concurrently. If <code>null</code>, a new one is
+	 *            created for each call to {@link #process()}.
+	 */
+	public LAPJV( final SparseCostMatrix cm, final LAPJVWorkspace workspace )
 	{
 		this.cm = cm;
+		this.workspace = workspace;
+	}
+
+	/**
+	 * Sets the column dual variables to start from, for instance those of a
+	 * similar problem solved before (see {@link #getColumnDuals()}). The
+	 * solution is optimal whatever these values are, but good estimates save
+	 * most of the augmentation work. Columns with a <code>NaN</code> value, or
+	 * beyond the array length, start from their cold-start value.
+	 * 
+	 * @param initialDuals
+	 *            the column duals, one per column of the cost matrix. If
+	 *            <code>null</code>, the solver starts cold.
+	 */
+	public void setInitialColumnDuals( final double[] initialDuals )
+	{
+		this.initialDuals = initialDuals;
+	}
+
+	/**
+	 * Returns the column dual variables at the end of the last solve, which
+	 * can be used to warm-start the solver on a similar problem.
+	 * 
+	 * @return a new <code>double[]</code> array with one element per column,
+	 *         or <code>null</code> if the problem was not solved yet.
+	 */
+	public double[] getColumnDuals()
+	{
+		return duals;
 	}
 
 	@Override
@@ -70,12 +122,16 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 	{
 		final long start = System.currentTimeMillis();
 
-		final int[] x = new int[ cm.nRows ];
-		final int[] y = new int[ cm.nCols ];
-		final double[] v = new double[ cm.nCols ];
+		final LAPJVWorkspace ws = null == workspace ? new LAPJVWorkspace() : workspace;
+		ws.ensureCapacity( cm.nRows, cm.nCols );
+		final int[] x = ws.x;
+		final int[] y = ws.y;
+		final double[] v = ws.v;
+		Arrays.fill( x, 0, cm.nRows, 0 );
+		Arrays.fill( y, 0, cm.nCols, 0 );
 
-		final int[] col = new int[ cm.nCols ];
-		for ( int j = 0; j < col.length; j++ )
+		final int[] col = ws.col;
+		for ( int j = 0; j < cm.nCols; j++ )
 		{
 			col[ j ] = j;
 		}
@@ -84,7 +140,7 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 		 * Column reduction
 		 */
 
-		Arrays.fill( v, Double.MAX_VALUE );
+		Arrays.fill( v, 0, cm.nCols, Double.MAX_VALUE );
 		for ( int i = 0; i < cm.nRows; i++ )
 		{
 			for ( int k = cm.start[ i ]; k < cm.start[ i ] + cm.number[ i ]; k++ )
@@ -98,6 +154,30 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 			}
 		}
 
+		int f = 0;
+		final int[] free = ws.free;
+		if ( null != initialDuals )
+		{
+			/*
+			 * Warm start: all rows are free, and the column duals are the
+			 * specified ones where known. Any set of column duals is a valid
+			 * starting point for the augmenting row reduction.
+			 */
+			for ( int j = 0; j < cm.nCols; j++ )
+			{
+				y[ j ] = 0;
+				if ( j < initialDuals.length && !Double.isNaN( initialDuals[ j ] ) )
+				{
+					v[ j ] = initialDuals[ j ];
+				}
+			}
+			for ( int i = 0; i < cm.nRows; i++ )
+			{
+				free[ f++ ] = i;
+			}
+			return augment( x, y, v, col, free, f, ws, start );
+		}
+
 		for ( int j = cm.nCols - 1; j >= 0; j-- )
 		{
 			final int i = y[ j ] - 1;
@@ -119,8 +199,6 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 		 * Reduction transfer.
 		 */
 
-		int f = 0;
-		final int[] free = new int[ cm.nRows ];
 		for ( int i = 0; i < cm.nRows; i++ )
 		{
 			if ( x[ i ] == 0 )
@@ -154,7 +232,15 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 			}
 		}
 
-		if ( f == 0 ) { return true; }
+		return augment( x, y, v, col, free, f, ws, start );
+	}
+
+	/**
+	 * Augmenting row reduction and augmentation, from the specified free rows.
+	 */
+	private boolean augment( final int[] x, final int[] y, final double[] v, final int[] col, final int[] free, int f, final LAPJVWorkspace ws, final long start )
+	{
+		if ( f == 0 ) { return terminate( x, v, start ); }
 
 		/*
 		 * Augmenting row reduction.
@@ -225,14 +311,14 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 		 */
 
 		final int f0 = f;
-		final double[] d = new double[ cm.nCols ];
-		final int[] pred = new int[ cm.nCols ];
+		final double[] d = ws.d;
+		final int[] pred = ws.pred;
 		for ( f = 0; f < f0; f++ )
 		{
 			final int i1 = free[ f ];
 			int low = 0, up = 0;
 			// initialize d- and pred-array
-			Arrays.fill( d, Double.MAX_VALUE );
+			Arrays.fill( d, 0, cm.nCols, Double.MAX_VALUE );
 			for ( int k = cm.start[ i1 ]; k < cm.start[ i1 ] + cm.number[ i1 ]; k++ )
 			{
 				final int j = cm.kk[ k ];
@@ -336,15 +422,20 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 			while ( i1 != i );
 		}
 
-		/*
-		 * Terminate and prepare outputs.
-		 */
+		return terminate( x, v, start );
+	}
 
-		this.output = new int[ x.length ];
-		for ( int i = 0; i < x.length; i++ )
+	/**
+	 * Terminates and prepares outputs.
+	 */
+	private boolean terminate( final int[] x, final double[] v, final long start )
+	{
+		this.output = new int[ cm.nRows ];
+		for ( int i = 0; i < cm.nRows; i++ )
 		{
 			output[ i ] = x[ i ] - 1;
 		}
+		this.duals = Arrays.copyOf( v, cm.nCols );
 
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
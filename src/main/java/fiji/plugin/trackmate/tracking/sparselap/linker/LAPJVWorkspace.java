@@ -0,0 +1,59 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+/**
+ * Holds the temporary arrays of the {@link LAPJV} solver, so that they can be
+ * reused across many solves instead of being allocated for each of them.
+ * <p>
+ * The arrays only grow. A workspace is not thread-safe: use one workspace per
+ * thread.
+ */
+public class LAPJVWorkspace
+{
+
+	int[] x = new int[ 0 ];
+
+	int[] y = new int[ 0 ];
+
+	double[] v = new double[ 0 ];
+
+	int[] col = new int[ 0 ];
+
+	int[] free = new int[ 0 ];
+
+	double[] d = new double[ 0 ];
+
+	int[] pred = new int[ 0 ];
+
+	/**
+	 * Makes sure this workspace can hold the temporary arrays for a cost
+	 * matrix of the specified size.
+	 * 
+	 * @param nRows
+	 *            the number of rows of the cost matrix.
+	 * @param nCols
+	 *            the number of columns of the cost matrix.
+	 */
+	public void ensureCapacity( final int nRows, final int nCols )
+	{
+		if ( x.length < nRows )
+		{
+			final int n = grow( x.length, nRows );
+			x = new int[ n ];
+			free = new int[ n ];
+		}
+		if ( y.length < nCols )
+		{
+			final int n = grow( y.length, nCols );
+			y = new int[ n ];
+			v = new double[ n ];
+			col = new int[ n ];
+			d = new double[ n ];
+			pred = new int[ n ];
+		}
+	}
+
+	private static final int grow( final int current, final int needed )
+	{
+		return Math.max( needed, current + ( current >> 1 ) );
+	}
+}
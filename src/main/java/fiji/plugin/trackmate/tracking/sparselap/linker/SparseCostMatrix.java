@@ -515,6 +515,86 @@ public class SparseCostMatrix
 		return new SparseCostMatrix( cc2, kk2, number2, nRows );
 	}
 
+	/**
+	 * Returns the augmented LAP matrix built from this linking cost matrix and
+	 * the alternative costs of its rows and columns. If this matrix is A, with
+	 * n rows and m columns, you get
+	 * 
+	 * <pre>
+	 * ---------
+	 * | A  R  |
+	 * | C  B  |
+	 * ---------
+	 * </pre>
+	 * 
+	 * where R is the n x n diagonal matrix of row alternative costs, C is the
+	 * m x m diagonal matrix of column alternative costs, and B is the transpose
+	 * of A with all its values replaced by the specified value.
+	 * <p>
+	 * This is the same matrix as the one obtained by concatenating the 4 blocks
+	 * with {@link #hcat(SparseCostMatrix)} and {@link #vcat(SparseCostMatrix)},
+	 * but it is written in one pass, without building the blocks.
+	 * 
+	 * @param rowAlternativeCosts
+	 *            the alternative cost of each row, <code>n</code> long.
+	 * @param colAlternativeCosts
+	 *            the alternative cost of each column, <code>m</code> long.
+	 * @param value
+	 *            the value of the bottom right block.
+	 * @return a new sparse matrix.
+	 * @throws IllegalArgumentException
+	 *             if the alternative cost arrays do not have the right length.
+	 */
+	public final SparseCostMatrix augment( final double[] rowAlternativeCosts, final double[] colAlternativeCosts, final double value )
+	{
+		if ( rowAlternativeCosts.length != nRows ) { throw new IllegalArgumentException( "Expected " + nRows + " row alternative costs, found " + rowAlternativeCosts.length + "." ); }
+		if ( colAlternativeCosts.length != nCols ) { throw new IllegalArgumentException( "Expected " + nCols + " column alternative costs, found " + colAlternativeCosts.length + "." ); }
+
+		final int cardinality2 = 2 * cardinality + nRows + nCols;
+		final double[] cc2 = new double[ cardinality2 ];
+		final int[] kk2 = new int[ cardinality2 ];
+		final int[] number2 = new int[ nRows + nCols ];
+
+		// Top rows: A, then the diagonal of R.
+		int index = 0;
+		for ( int i = 0; i < nRows; i++ )
+		{
+			System.arraycopy( cc, start[ i ], cc2, index, number[ i ] );
+			System.arraycopy( kk, start[ i ], kk2, index, number[ i ] );
+			index += number[ i ];
+			cc2[ index ] = rowAlternativeCosts[ i ];
+			kk2[ index ] = nCols + i;
+			index++;
+			number2[ i ] = number[ i ] + 1;
+		}
+
+		// Bottom rows: the diagonal of C, then the transpose of A.
+		for ( int k = 0; k < cardinality; k++ )
+		{
+			number2[ nRows + kk[ k ] ]++;
+		}
+		final int[] fill = new int[ nCols ];
+		for ( int j = 0; j < nCols; j++ )
+		{
+			cc2[ index ] = colAlternativeCosts[ j ];
+			kk2[ index ] = j;
+			fill[ j ] = index + 1;
+			number2[ nRows + j ]++;
+			index += number2[ nRows + j ];
+		}
+		for ( int i = 0; i < nRows; i++ )
+		{
+			for ( int k = start[ i ]; k < start[ i ] + number[ i ]; k++ )
+			{
+				final int l = fill[ kk[ k ] ]++;
+				cc2[ l ] = value;
+				kk2[ l ] = nCols + i;
+			}
+		}
+
+		return new SparseCostMatrix( cc2, kk2, number2, nCols + nRows );
+	}
+
 	/**
 	 * Replace all the non-infinite values of this matrix by the specified
 	 * value.
@@ -0,0 +1,99 @@
+package fiji.plugin.trackmate.tracking.sparselap.motion;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.kalman.CVMKalmanFilter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link MotionModel} that follows each track with a constant velocity
+ * {@link CVMKalmanFilter}. A filter is started from the first link of a track,
+ * with the velocity of this link, so spots that are not part of a track yet
+ * have no prediction.
+ */
+public class ConstantVelocityMotionModel implements MotionModel
+{
+
+	private final double positionProcessStd;
+
+	private final double velocityProcessStd;
+
+	private final double positionMeasurementStd;
+
+	/** The filters of the tracks followed, keyed by their last spot. */
+	private Map< Spot, CVMKalmanFilter > filters = new HashMap< Spot, CVMKalmanFilter >();
+
+	/**
+	 * Creates a new constant velocity motion model.
+	 *
+	 * @param positionProcessStd
+	 *            the std of the noise affecting the position evolution.
+	 * @param velocityProcessStd
+	 *            the std of the noise affecting the velocity evolution.
+	 * @param positionMeasurementStd
+	 *            the std of the noise affecting the position measurement.
+	 * @see CVMKalmanFilter#CVMKalmanFilter(double[], double, double, double,
+	 *      double)
+	 */
+	public ConstantVelocityMotionModel( final double positionProcessStd, final double velocityProcessStd, final double positionMeasurementStd )
+	{
+		this.positionProcessStd = positionProcessStd;
+		this.velocityProcessStd = velocityProcessStd;
+		this.positionMeasurementStd = positionMeasurementStd;
+	}
+
+	@Override
+	public Map< Spot, double[] > predict( final int nFrames )
+	{
+		final Map< Spot, double[] > predictions = new HashMap< Spot, double[] >( filters.size() );
+		for ( final Spot spot : filters.keySet() )
+		{
+			final CVMKalmanFilter kf = filters.get( spot );
+			double[] X = kf.predict();
+			// Missing frames are occlusions, as in the KalmanTracker.
+			for ( int t = 1; t < nFrames; t++ )
+			{
+				kf.update( null );
+				X = kf.predict();
+			}
+			predictions.put( spot, new double[] { X[ 0 ], X[ 1 ], X[ 2 ] } );
+		}
+		return predictions;
+	}
+
+	@Override
+	public void update( final Map< Spot, Spot > links )
+	{
+		final Map< Spot, CVMKalmanFilter > newFilters = new HashMap< Spot, CVMKalmanFilter >( links.size() );
+		for ( final Spot source : links.keySet() )
+		{
+			final Spot target = links.get( source );
+			CVMKalmanFilter kf = filters.get( source );
+			if ( null == kf )
+			{
+				// We trust the initial state a lot.
+				kf = new CVMKalmanFilter( estimateInitialState( source, target ), Double.MIN_NORMAL, positionProcessStd, velocityProcessStd, positionMeasurementStd );
+			}
+			else
+			{
+				kf.update( toMeasurement( target ) );
+			}
+			newFilters.put( target, kf );
+		}
+		filters = newFilters;
+	}
+
+	private static final double[] toMeasurement( final Spot spot )
+	{
+		return new double[] { spot.getDoublePosition( 0 ), spot.getDoublePosition( 1 ), spot.getDoublePosition( 2 ) };
+	}
+
+	private static final double[] estimateInitialState( final Spot first, final Spot second )
+	{
+		// Velocity in length/frame, even if frames are missing in between.
+		final double dt = Math.max( 1d, second.diffTo( first, Spot.FRAME ) );
+		return new double[] { second.getDoublePosition( 0 ), second.getDoublePosition( 1 ), second.getDoublePosition( 2 ),
+				second.diffTo( first, Spot.POSITION_X ) / dt, second.diffTo( first, Spot.POSITION_Y ) / dt, second.diffTo( first, Spot.POSITION_Z ) / dt };
+	}
+}
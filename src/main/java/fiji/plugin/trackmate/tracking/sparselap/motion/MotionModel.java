@@ -0,0 +1,41 @@
+package fiji.plugin.trackmate.tracking.sparselap.motion;
+
+import fiji.plugin.trackmate.Spot;
+
+import java.util.Map;
+
+/**
+ * Interface for motion models that follow the tracks built by a frame to frame
+ * linker, and predict where they will be in the next frame. The linker can
+ * then search for targets around the predicted positions instead of around
+ * the source positions.
+ * <p>
+ * A model is used in alternation: {@link #predict(int)} is called before linking
+ * a frame pair, and {@link #update(Map)} with the links found for this pair.
+ */
+public interface MotionModel
+{
+
+	/**
+	 * Returns the positions, as <code>x, y, z</code>, that this model predicts
+	 * in the next frame for the last spot of the tracks it follows. Spots that
+	 * are not in the map have no prediction.
+	 *
+	 * @param nFrames
+	 *            the number of frames between the current frame and the next
+	 *            one, greater than 1 if frames are missing in between.
+	 * @return a new map of predicted positions.
+	 */
+	public Map< Spot, double[] > predict( int nFrames );
+
+	/**
+	 * Updates this model with the links found between the current frame and
+	 * the next one. Tracks that are not continued by one of these links are
+	 * dropped, new tracks are started from the links that do not continue one.
+	 *
+	 * @param links
+	 *            the links found, as a map from source to target spots.
+	 */
+	public void update( Map< Spot, Spot > links );
+
+}
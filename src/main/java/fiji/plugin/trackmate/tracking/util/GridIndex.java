@@ -0,0 +1,209 @@
+package fiji.plugin.trackmate.tracking.util;
+
+import java.util.Arrays;
+
+/**
+ * A spatial index over a set of 3D points stored in a primitive array, that
+ * can retrieve the points located around a query position.
+ * <p>
+ * Points are binned in a regular grid, whose cells are at least as large as
+ * the specified size. Cells are enlarged if needed, so that there are not
+ * many more cells than points. The points are stored sorted by cell, so that
+ * the index is made of two <code>int[]</code> arrays.
+ * <p>
+ * The index is immutable once built. It can be searched concurrently by
+ * several threads, each one using its own {@link Query}.
+ */
+public class GridIndex
+{
+
+	private final double[] coords;
+
+	private final double[] min = new double[ 3 ];
+
+	private final int[] dims = new int[ 3 ];
+
+	private final double cellSize;
+
+	/**
+	 * Index in {@link #points} of the first point of each cell, plus the
+	 * total number of points.
+	 */
+	private final int[] cellStart;
+
+	/** Point indices, sorted by cell. */
+	private final int[] points;
+
+	/**
+	 * Builds an index over the specified points.
+	 *
+	 * @param coords
+	 *            the point coordinates, as <code>x, y, z</code> per point.
+	 *            The array is not copied.
+	 * @param n
+	 *            the number of points.
+	 * @param minCellSize
+	 *            the minimal size of the grid cells. Ideally, the typical
+	 *            search radius.
+	 */
+	public GridIndex( final double[] coords, final int n, final double minCellSize )
+	{
+		this.coords = coords;
+		final double[] max = new double[ 3 ];
+		Arrays.fill( min, Double.POSITIVE_INFINITY );
+		Arrays.fill( max, Double.NEGATIVE_INFINITY );
+		for ( int i = 0; i < n; i++ )
+		{
+			for ( int d = 0; d < 3; d++ )
+			{
+				min[ d ] = Math.min( min[ d ], coords[ 3 * i + d ] );
+				max[ d ] = Math.max( max[ d ], coords[ 3 * i + d ] );
+			}
+		}
+		if ( n == 0 )
+		{
+			Arrays.fill( min, 0d );
+			Arrays.fill( max, 0d );
+		}
+
+		// Enlarge cells until we do not have too many of them.
+		final double maxCells = 2d * n + 8;
+		double cs = minCellSize > 0 ? minCellSize : Double.MIN_NORMAL;
+		while ( nCells( min, max, cs ) > maxCells )
+		{
+			cs *= 2;
+		}
+		cellSize = cs;
+		for ( int d = 0; d < 3; d++ )
+		{
+			dims[ d ] = ( int ) Math.floor( ( max[ d ] - min[ d ] ) / cellSize ) + 1;
+		}
+
+		// Counting sort of points by cell.
+		final int[] cellOf = new int[ n ];
+		cellStart = new int[ dims[ 0 ] * dims[ 1 ] * dims[ 2 ] + 1 ];
+		for ( int i = 0; i < n; i++ )
+		{
+			int cell = 0;
+			for ( int d = 2; d >= 0; d-- )
+			{
+				final int c = Math.min( dims[ d ] - 1, ( int ) ( ( coords[ 3 * i + d ] - min[ d ] ) / cellSize ) );
+				cell = cell * dims[ d ] + c;
+			}
+			cellOf[ i ] = cell;
+			cellStart[ cell + 1 ]++;
+		}
+		for ( int c = 0; c < cellStart.length - 1; c++ )
+		{
+			cellStart[ c + 1 ] += cellStart[ c ];
+		}
+		points = new int[ n ];
+		final int[] fill = Arrays.copyOf( cellStart, cellStart.length - 1 );
+		for ( int i = 0; i < n; i++ )
+		{
+			points[ fill[ cellOf[ i ] ]++ ] = i;
+		}
+	}
+
+	/**
+	 * Returns a new query object to search this index. Query objects are not
+	 * thread-safe, each thread must use its own.
+	 *
+	 * @return a new {@link Query}.
+	 */
+	public Query query()
+	{
+		return new Query();
+	}
+
+	private static double nCells( final double[] min, final double[] max, final double cs )
+	{
+		double n = 1d;
+		for ( int d = 0; d < 3; d++ )
+		{
+			n *= Math.floor( ( max[ d ] - min[ d ] ) / cs ) + 1d;
+		}
+		return n;
+	}
+
+	/**
+	 * Retrieves the points of the index that are in the cells intersecting a
+	 * box around a position. It returns a superset of the points within the
+	 * search radius, which are to be filtered by the caller.
+	 */
+	public final class Query
+	{
+
+		private int[] found = new int[ 16 ];
+
+		private int nFound;
+
+		private Query()
+		{}
+
+		/**
+		 * Searches the index for the points that might be within the
+		 * specified radius of a position.
+		 *
+		 * @return the number of candidate points found, accessible through
+		 *         {@link #get(int)}.
+		 */
+		public int search( final double x, final double y, final double z, final double radius )
+		{
+			nFound = 0;
+			final int x0 = lower( x - radius, 0 );
+			final int x1 = upper( x + radius, 0 );
+			final int y0 = lower( y - radius, 1 );
+			final int y1 = upper( y + radius, 1 );
+			final int z0 = lower( z - radius, 2 );
+			final int z1 = upper( z + radius, 2 );
+			if ( x1 < x0 || y1 < y0 || z1 < z0 ) { return 0; }
+			for ( int cz = z0; cz <= z1; cz++ )
+			{
+				for ( int cy = y0; cy <= y1; cy++ )
+				{
+					// Cells along X are contiguous.
+					final int row = ( cz * dims[ 1 ] + cy ) * dims[ 0 ];
+					final int start = cellStart[ row + x0 ];
+					final int end = cellStart[ row + x1 + 1 ];
+					if ( nFound + end - start > found.length )
+					{
+						found = Arrays.copyOf( found, Math.max( 2 * found.length, nFound + end - start ) );
+					}
+					for ( int k = start; k < end; k++ )
+					{
+						found[ nFound++ ] = points[ k ];
+					}
+				}
+			}
+			return nFound;
+		}
+
+		/**
+		 * Returns the index of the specified candidate point found by the last
+		 * search.
+		 */
+		public int get( final int k )
+		{
+			return found[ k ];
+		}
+
+		/**
+		 * Returns the coordinate of the specified point of the index.
+		 */
+		public double getCoordinate( final int point, final int d )
+		{
+			return coords[ 3 * point + d ];
+		}
+
+		private int lower( final double pos, final int d )
+		{
+			return ( int ) Math.max( 0d, Math.floor( ( pos - min[ d ] ) / cellSize ) );
+		}
+
+		private int upper( final double pos, final int d )
+		{
+			return ( int ) Math.min( dims[ d ] - 1d, Math.floor( ( pos - min[ d ] ) / cellSize ) );
+		}
+	}
+}
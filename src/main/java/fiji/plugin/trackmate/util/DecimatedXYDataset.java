@@ -0,0 +1,388 @@
+package fiji.plugin.trackmate.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jfree.data.DomainInfo;
+import org.jfree.data.DomainOrder;
+import org.jfree.data.Range;
+import org.jfree.data.RangeInfo;
+import org.jfree.data.xy.AbstractXYDataset;
+import org.jfree.data.xy.XYDataset;
+
+/**
+ * A {@link XYDataset} that stores its data in primitive columns, and only
+ * exposes a level-of-detail view of it, suited to the width in pixels of the
+ * plot.
+ * <p>
+ * The visible domain range is divided in as many bins as there are pixel
+ * columns. If the range holds more than {@link #RAW_POINTS_PER_COLUMN} points
+ * per column, each series exposes at most 3 points per non-empty bin, located
+ * at the mean X of the bin: the min, the max and the mean of the Y values in
+ * the bin. Otherwise the raw points in the range are exposed. The view is
+ * recomputed by {@link #setVisibleRange(double, double, int)}, which the
+ * {@link ExportableChartPanel} calls when the chart is zoomed or resized, so
+ * that the exported charts contain the decimated data as well. The domain and
+ * range bounds reported are those of the whole data, so that auto-ranging
+ * does not depend on the decimation.
+ */
+public class DecimatedXYDataset extends AbstractXYDataset implements DomainInfo, RangeInfo {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Above this number of points per pixel column, the data is decimated. */
+	public static final int RAW_POINTS_PER_COLUMN = 3;
+
+	/** Number of columns used until the dataset is told the plot width. */
+	private static final int DEFAULT_COLUMNS = 500;
+
+	private final List<SeriesData> seriesList = new ArrayList<SeriesData>();
+
+	private double lower = Double.NEGATIVE_INFINITY;
+	private double upper = Double.POSITIVE_INFINITY;
+	private int columns = DEFAULT_COLUMNS;
+
+	private double minX = Double.POSITIVE_INFINITY;
+	private double maxX = Double.NEGATIVE_INFINITY;
+	private double minY = Double.POSITIVE_INFINITY;
+	private double maxY = Double.NEGATIVE_INFINITY;
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Adds a series to this dataset. The values are copied, and the points
+	 * with a <code>NaN</code> X value are skipped.
+	 *
+	 * @param key  the series key.
+	 * @param x  the X values.
+	 * @param y  the Y values.
+	 * @param n  the number of values to take from the arrays.
+	 */
+	@SuppressWarnings("rawtypes")
+	public void addSeries(Comparable key, double[] x, double[] y, int n) {
+		double[] sx = new double[n];
+		double[] sy = new double[n];
+		int size = 0;
+		for (int i = 0; i < n; i++) {
+			if (Double.isNaN(x[i]))
+				continue;
+			sx[size] = x[i];
+			sy[size] = y[i];
+			size++;
+		}
+		SeriesData series = new SeriesData(key, Arrays.copyOf(sx, size), Arrays.copyOf(sy, size));
+		sort(series.x, series.y, 0, size - 1);
+		for (int i = 0; i < size; i++) {
+			minX = Math.min(minX, series.x[i]);
+			maxX = Math.max(maxX, series.x[i]);
+			if (!Double.isNaN(series.y[i])) {
+				minY = Math.min(minY, series.y[i]);
+				maxY = Math.max(maxY, series.y[i]);
+			}
+		}
+		seriesList.add(series);
+		updateView(series);
+		fireDatasetChanged();
+	}
+
+	/**
+	 * Recomputes the view of this dataset for the specified domain range and
+	 * plot width. Does nothing if they did not change.
+	 *
+	 * @param lower  the lower bound of the visible domain range.
+	 * @param upper  the upper bound of the visible domain range.
+	 * @param columns  the width of the plot, in pixels.
+	 */
+	public void setVisibleRange(double lower, double upper, int columns) {
+		columns = Math.max(1, columns);
+		if (lower == this.lower && upper == this.upper && columns == this.columns)
+			return;
+		this.lower = lower;
+		this.upper = upper;
+		this.columns = columns;
+		for (SeriesData series : seriesList) {
+			updateView(series);
+		}
+		fireDatasetChanged();
+	}
+
+	/**
+	 * @return <code>true</code> if at least one series currently exposes
+	 * decimated data rather than raw points.
+	 */
+	public boolean isDecimated() {
+		for (SeriesData series : seriesList) {
+			if (series.decimated)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of raw points in the specified series.
+	 */
+	public int getRawItemCount(int series) {
+		return seriesList.get(series).x.length;
+	}
+
+	/**
+	 * @return the X value of the specified raw point. Raw points are sorted
+	 * by X.
+	 */
+	public double getRawXValue(int series, int item) {
+		return seriesList.get(series).x[item];
+	}
+
+	/**
+	 * @return the Y value of the specified raw point.
+	 */
+	public double getRawYValue(int series, int item) {
+		return seriesList.get(series).y[item];
+	}
+
+	/*
+	 * XYDATASET METHODS
+	 */
+
+	@Override
+	public int getSeriesCount() {
+		return seriesList.size();
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Comparable getSeriesKey(int series) {
+		return seriesList.get(series).key;
+	}
+
+	@Override
+	public DomainOrder getDomainOrder() {
+		return DomainOrder.ASCENDING;
+	}
+
+	@Override
+	public int getItemCount(int series) {
+		return seriesList.get(series).viewX.length;
+	}
+
+	@Override
+	public Number getX(int series, int item) {
+		return Double.valueOf(getXValue(series, item));
+	}
+
+	@Override
+	public double getXValue(int series, int item) {
+		return seriesList.get(series).viewX[item];
+	}
+
+	@Override
+	public Number getY(int series, int item) {
+		return Double.valueOf(getYValue(series, item));
+	}
+
+	@Override
+	public double getYValue(int series, int item) {
+		return seriesList.get(series).viewY[item];
+	}
+
+	/*
+	 * DOMAININFO & RANGEINFO METHODS
+	 */
+
+	@Override
+	public double getDomainLowerBound(boolean includeInterval) {
+		return seriesList.isEmpty() ? Double.NaN : minX;
+	}
+
+	@Override
+	public double getDomainUpperBound(boolean includeInterval) {
+		return seriesList.isEmpty() ? Double.NaN : maxX;
+	}
+
+	@Override
+	public Range getDomainBounds(boolean includeInterval) {
+		return minX > maxX ? null : new Range(minX, maxX);
+	}
+
+	@Override
+	public double getRangeLowerBound(boolean includeInterval) {
+		return seriesList.isEmpty() ? Double.NaN : minY;
+	}
+
+	@Override
+	public double getRangeUpperBound(boolean includeInterval) {
+		return seriesList.isEmpty() ? Double.NaN : maxY;
+	}
+
+	@Override
+	public Range getRangeBounds(boolean includeInterval) {
+		return minY > maxY ? null : new Range(minY, maxY);
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void updateView(SeriesData series) {
+		final double[] x = series.x;
+		final double[] y = series.y;
+		final int from = lowerBound(x, lower);
+		final int to = upperBound(x, upper);
+		final int n = to - from;
+		if (n <= RAW_POINTS_PER_COLUMN * columns) {
+			series.viewX = Arrays.copyOfRange(x, from, to);
+			series.viewY = Arrays.copyOfRange(y, from, to);
+			series.decimated = false;
+			return;
+		}
+
+		// Bins over the visible part of the data.
+		final double lo = Math.max(lower, x[from]);
+		final double hi = Math.min(upper, x[to - 1]);
+		final double binWidth = (hi - lo) / columns;
+		final double[] vx = new double[3 * columns];
+		final double[] vy = new double[3 * columns];
+		int k = 0;
+		int i = from;
+		for (int b = 0; b < columns && i < to; b++) {
+			final double binEnd = b == columns - 1 ? Double.POSITIVE_INFINITY : lo + (b + 1) * binWidth;
+			double sumX = 0;
+			double sumY = 0;
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			int count = 0;
+			for (; i < to && x[i] < binEnd; i++) {
+				if (Double.isNaN(y[i]))
+					continue;
+				sumX += x[i];
+				sumY += y[i];
+				min = Math.min(min, y[i]);
+				max = Math.max(max, y[i]);
+				count++;
+			}
+			if (count == 0)
+				continue;
+			final double meanX = sumX / count;
+			vx[k] = meanX;
+			vy[k++] = min;
+			if (max > min) {
+				vx[k] = meanX;
+				vy[k++] = max;
+				vx[k] = meanX;
+				vy[k++] = sumY / count;
+			}
+		}
+		series.viewX = Arrays.copyOf(vx, k);
+		series.viewY = Arrays.copyOf(vy, k);
+		series.decimated = true;
+	}
+
+	/**
+	 * @return the index of the first value not smaller than the target.
+	 */
+	private static int lowerBound(double[] x, double target) {
+		int from = 0;
+		int to = x.length;
+		while (from < to) {
+			int mid = (from + to) >>> 1;
+			if (x[mid] < target)
+				from = mid + 1;
+			else
+				to = mid;
+		}
+		return from;
+	}
+
+	/**
+	 * @return the index of the first value larger than the target.
+	 */
+	private static int upperBound(double[] x, double target) {
+		int from = 0;
+		int to = x.length;
+		while (from < to) {
+			int mid = (from + to) >>> 1;
+			if (x[mid] <= target)
+				from = mid + 1;
+			else
+				to = mid;
+		}
+		return from;
+	}
+
+	/**
+	 * Sorts both arrays in place by increasing X, between the specified
+	 * inclusive bounds.
+	 */
+	private static void sort(double[] x, double[] y, int left, int right) {
+		while (right - left > 16) {
+			final int mid = (left + right) >>> 1;
+			final double pivot = median(x[left], x[mid], x[right]);
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (x[i] < pivot)
+					i++;
+				while (x[j] > pivot)
+					j--;
+				if (i <= j) {
+					swap(x, y, i++, j--);
+				}
+			}
+			// Recurse on the smaller part, loop on the larger one.
+			if (j - left < right - i) {
+				sort(x, y, left, j);
+				left = i;
+			} else {
+				sort(x, y, i, right);
+				right = j;
+			}
+		}
+		for (int i = left + 1; i <= right; i++) {
+			for (int j = i; j > left && x[j - 1] > x[j]; j--) {
+				swap(x, y, j, j - 1);
+			}
+		}
+	}
+
+	private static double median(double a, double b, double c) {
+		if (a < b)
+			return b < c ? b : (a < c ? c : a);
+		return a < c ? a : (b < c ? c : b);
+	}
+
+	private static void swap(double[] x, double[] y, int i, int j) {
+		double t = x[i];
+		x[i] = x[j];
+		x[j] = t;
+		t = y[i];
+		y[i] = y[j];
+		y[j] = t;
+	}
+
+	/*
+	 * INNER CLASS
+	 */
+
+	private static final class SeriesData {
+
+		@SuppressWarnings("rawtypes")
+		private final Comparable key;
+		/** Raw values, sorted by X. */
+		private final double[] x;
+		private final double[] y;
+		/** Currently exposed values. */
+		private double[] viewX;
+		private double[] viewY;
+		private boolean decimated;
+
+		@SuppressWarnings("rawtypes")
+		public SeriesData(Comparable key, double[] x, double[] y) {
+			this.key = key;
+			this.x = x;
+			this.y = y;
+		}
+	}
+}
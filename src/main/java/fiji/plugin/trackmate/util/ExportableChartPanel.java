@@ -8,20 +8,30 @@ import ij.measure.ResultsTable;
 import java.awt.Container;
 import java.awt.FileDialog;
 import java.awt.Frame;
+import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.geom.Rectangle2D;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.swing.JFileChooser;
 import javax.swing.JMenuItem;
 import javax.swing.JPopupMenu;
 
 import org.jfree.chart.ChartPanel;
+import org.jfree.chart.ChartRenderingInfo;
 import org.jfree.chart.ChartUtilities;
 import org.jfree.chart.JFreeChart;
+import org.jfree.chart.event.ChartChangeEvent;
 import org.jfree.chart.plot.XYPlot;
+import org.jfree.data.Range;
 import org.jfree.data.xy.XYDataset;
 import org.jfree.ui.ExtensionFileFilter;
 
@@ -35,6 +45,7 @@ public class ExportableChartPanel extends ChartPanel {
 
 	public ExportableChartPanel(JFreeChart chart) {
 		super(chart);
+		addResizeListener();
 	}
 
 	public ExportableChartPanel(JFreeChart chart,
@@ -44,6 +55,7 @@ public class ExportableChartPanel extends ChartPanel {
 			boolean zoom,
 			boolean tooltips) {
 		super(chart, properties, save, print, zoom, tooltips);
+		addResizeListener();
 	}
 
 	public ExportableChartPanel(JFreeChart chart, int width, int height,
@@ -53,6 +65,7 @@ public class ExportableChartPanel extends ChartPanel {
 		super(chart, width, height, minimumDrawWidth, minimumDrawHeight, 
 				maximumDrawWidth, maximumDrawHeight,
 				useBuffer, properties, save, print, zoom, tooltips);
+		addResizeListener();
 	}
 
 	public ExportableChartPanel(JFreeChart chart, int width, int height,
@@ -63,12 +76,54 @@ public class ExportableChartPanel extends ChartPanel {
 		super(chart, width, height, minimumDrawWidth, minimumDrawHeight, 
 				maximumDrawWidth, maximumDrawHeight,
 				useBuffer, properties, copy, save, print, zoom, tooltips);	
+		addResizeListener();
 	}
 
 	/*
 	 * METHODS
 	 */
 
+	/**
+	 * Adapts the {@link DecimatedXYDataset}s of the chart to its current
+	 * domain range and to the specified width. The links of the
+	 * {@link XYEdgeSeriesCollection}s are hidden while the points are
+	 * decimated.
+	 *
+	 * @param width  the width of the data area, in pixels.
+	 */
+	public void updateDecimation(int width) {
+		if (null == getChart() || !(getChart().getPlot() instanceof XYPlot))
+			return;
+		XYPlot plot = getChart().getXYPlot();
+		Range range = plot.getDomainAxis().getRange();
+		boolean decimated = false;
+		for (int i = 0; i < plot.getDatasetCount(); i++) {
+			XYDataset dataset = plot.getDataset(i);
+			if (dataset instanceof DecimatedXYDataset) {
+				DecimatedXYDataset decimatedDataset = (DecimatedXYDataset) dataset;
+				decimatedDataset.setVisibleRange(range.getLowerBound(), range.getUpperBound(), width);
+				decimated |= decimatedDataset.isDecimated();
+			}
+		}
+		for (int i = 0; i < plot.getDatasetCount(); i++) {
+			XYDataset dataset = plot.getDataset(i);
+			if (dataset instanceof XYEdgeSeriesCollection) {
+				((XYEdgeSeriesCollection) dataset).setVisible(!decimated);
+			}
+		}
+	}
+
+	/**
+	 * Overridden to decimate the data for the new zoom before the chart is
+	 * repainted. The decimation is not updated from the paint methods, since
+	 * it changes the datasets, which would trigger another repaint.
+	 */
+	@Override
+	public void chartChanged(ChartChangeEvent event) {
+		updateDecimation(getDataAreaWidth());
+		super.chartChanged(event);
+	}
+
 	@Override
 	protected JPopupMenu createPopupMenu(boolean properties, boolean copy, boolean save, boolean print, boolean zoom) {
 		JPopupMenu menu = super.createPopupMenu(properties, copy, save, print, zoom);
@@ -90,6 +145,12 @@ public class ExportableChartPanel extends ChartPanel {
 	}
 
 
+	/**
+	 * Displays the data of the chart in a {@link ResultsTable}. The raw data
+	 * of the {@link DecimatedXYDataset}s is exported, not the decimated view
+	 * of it. If all the series share the same X values, they are displayed
+	 * against a single X column. Otherwise each series gets its own X column.
+	 */
 	public void createDataTable() {
 		XYPlot plot = null;
 		try {
@@ -99,34 +160,69 @@ public class ExportableChartPanel extends ChartPanel {
 		}
 
 		String xColumnName = plot.getDomainAxis().getLabel();
+		String yLabel = plot.getRangeAxis().getLabel();
+
+		// Collect the series to export.
+		List<double[]> xs = new ArrayList<double[]>();
+		List<double[]> ys = new ArrayList<double[]>();
+		List<String> names = new ArrayList<String>();
+		int nPoints = 0;
+		for (int i = 0; i < plot.getDatasetCount(); i++) {
+			XYDataset dataset = plot.getDataset(i);
+			if (null == dataset || dataset instanceof XYEdgeSeriesCollection)
+				continue;
+
+			for (int j = 0; j < dataset.getSeriesCount(); j++) {
+				int n;
+				double[] x;
+				double[] y;
+				if (dataset instanceof DecimatedXYDataset) {
+					DecimatedXYDataset decimatedDataset = (DecimatedXYDataset) dataset;
+					n = decimatedDataset.getRawItemCount(j);
+					x = new double[n];
+					y = new double[n];
+					for (int k = 0; k < n; k++) {
+						x[k] = decimatedDataset.getRawXValue(j, k);
+						y[k] = decimatedDataset.getRawYValue(j, k);
+					}
+				} else {
+					n = dataset.getItemCount(j);
+					x = new double[n];
+					y = new double[n];
+					for (int k = 0; k < n; k++) {
+						x[k] = dataset.getXValue(j, k);
+						y[k] = dataset.getYValue(j, k);
+					}
+				}
+				xs.add(x);
+				ys.add(y);
+				names.add(dataset.getSeriesKey(j).toString());
+				nPoints = Math.max(nPoints, n);
+			}
+		}
 
-		ResultsTable table = new ResultsTable(); // In OUR case this will work: there is one common X axis
+		boolean commonX = true;
+		for (double[] x : xs) {
+			if (!Arrays.equals(x, xs.get(0))) {
+				commonX = false;
+				break;
+			}
+		}
 
-		int nPoints = plot.getDataset(0).getItemCount(0);
+		ResultsTable table = new ResultsTable();
 		for (int k = 0; k < nPoints; k++) {
 			table.incrementCounter();
-
-
-			double xVal =  plot.getDataset(0).getXValue(0, k);
-			table.addValue(xColumnName, xVal);
-
-			int nSets = plot.getDatasetCount();
-			for (int i = 0; i < nSets; i++) {
-
-				XYDataset dataset = plot.getDataset(i);
-				if (dataset instanceof XYEdgeSeriesCollection)
-					continue;
-
-				int nSeries = dataset.getSeriesCount();
-				for (int j = 0; j < nSeries; j++) {
-
-					@SuppressWarnings("rawtypes")
-					Comparable seriesKey = dataset.getSeriesKey(j);
-					String yColumnName = seriesKey.toString() + "("+plot.getRangeAxis().getLabel()+")";
-					double yVal = dataset.getYValue(j, k);
-					table.addValue(yColumnName, yVal);
+		}
+		for (int i = 0; i < xs.size(); i++) {
+			double[] x = xs.get(i);
+			double[] y = ys.get(i);
+			String yColumnName = names.get(i) + "(" + yLabel + ")";
+			for (int k = 0; k < nPoints; k++) {
+				if (!commonX || i == 0) {
+					String column = commonX ? xColumnName : names.get(i) + "(" + xColumnName + ")";
+					table.setValue(column, k, k < x.length ? x[k] : Double.NaN);
 				}
-
+				table.setValue(yColumnName, k, k < y.length ? y[k] : Double.NaN);
 			}
 		}
 		table.show(getChart().getTitle().getText());
@@ -193,6 +289,9 @@ public class ExportableChartPanel extends ChartPanel {
 				return;
 			}
 		}
+		// Export the data as it is displayed.
+		updateDecimation(getDataAreaWidth());
+
 		if (file.getPath().endsWith(".png")) {
 			ChartUtilities.saveChartAsPNG(file, getChart(), getWidth(), getHeight());
 
@@ -208,4 +307,32 @@ public class ExportableChartPanel extends ChartPanel {
 		}
 	}
 
+	/**
+	 * @return the width of the data area, estimated from the last rendering
+	 * and from the change of the panel width since then, or the panel width
+	 * if it was not rendered yet.
+	 */
+	private int getDataAreaWidth() {
+		Insets insets = getInsets();
+		int width = getWidth() - insets.left - insets.right;
+		ChartRenderingInfo info = getChartRenderingInfo();
+		Rectangle2D dataArea = info.getPlotInfo().getDataArea();
+		Rectangle2D chartArea = info.getChartArea();
+		if (dataArea.getWidth() <= 0 || chartArea.getWidth() <= 0)
+			return width;
+		return (int) (dataArea.getWidth() + width - chartArea.getWidth());
+	}
+
+	/**
+	 * Decimates the data for the new size of the panel.
+	 */
+	private void addResizeListener() {
+		addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				updateDecimation(getDataAreaWidth());
+			}
+		});
+	}
+
 }
@@ -2,10 +2,15 @@ package fiji.plugin.trackmate.util;
 
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.multithreading.SimpleMultiThreading;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleWeightedGraph;
@@ -181,4 +186,53 @@ public class ModelTools
 		return comparator;
 	}
 
+	/**
+	 * Returns the spots of each visible track of the specified model, sorted
+	 * with the specified comparator. Tracks are traversed and sorted in
+	 * parallel, once, so that exporters can then iterate over the returned
+	 * arrays without walking the track model again.
+	 *
+	 * @param model
+	 *            the model to read tracks from.
+	 * @param comparator
+	 *            the comparator used to sort the spots of each track, for
+	 *            instance {@link Spot#frameComparator}.
+	 * @param numThreads
+	 *            how many threads to use.
+	 * @return a new map from track IDs to sorted spot arrays, iterating in the
+	 *         same order as {@link fiji.plugin.trackmate.TrackModel#trackIDs(boolean)}.
+	 */
+	public static Map< Integer, Spot[] > sortedTrackSpots( final Model model, final Comparator< Spot > comparator, final int numThreads )
+	{
+		final Integer[] trackIDs = model.getTrackModel().trackIDs( true ).toArray( new Integer[] {} );
+		final Spot[][] sorted = new Spot[ trackIDs.length ][];
+
+		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		for ( int ithread = 0; ithread < threads.length; ithread++ )
+		{
+			threads[ ithread ] = new Thread( "ModelTools sorting track spots thread " + ( 1 + ithread ) + "/" + threads.length )
+			{
+				@Override
+				public void run()
+				{
+					for ( int i = ai.getAndIncrement(); i < trackIDs.length; i = ai.getAndIncrement() )
+					{
+						final Spot[] spots = model.getTrackModel().trackSpots( trackIDs[ i ] ).toArray( new Spot[] {} );
+						Arrays.sort( spots, comparator );
+						sorted[ i ] = spots;
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin( threads );
+
+		final Map< Integer, Spot[] > map = new LinkedHashMap< Integer, Spot[] >( trackIDs.length );
+		for ( int i = 0; i < trackIDs.length; i++ )
+		{
+			map.put( trackIDs[ i ], sorted[ i ] );
+		}
+		return map;
+	}
+
 }
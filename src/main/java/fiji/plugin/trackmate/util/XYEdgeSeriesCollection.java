@@ -16,6 +16,8 @@ public class XYEdgeSeriesCollection extends AbstractSeriesDataset implements XYD
 
 	private static final long serialVersionUID = 1157323153460912998L;
 	private ArrayList<XYEdgeSeries> seriesList = new ArrayList<XYEdgeSeries>();
+	/** If <code>false</code>, the series report no item, and are not drawn. */
+	private boolean visible = true;
 	
 	
 	/*
@@ -67,6 +69,21 @@ public class XYEdgeSeriesCollection extends AbstractSeriesDataset implements XYD
 	public List<XYEdgeSeries> getSeries() {
 		return seriesList;
 	}
+
+	/**
+	 * Sets whether the edges are exposed to the renderer. They are hidden
+	 * while the points they link are decimated, see {@link DecimatedXYDataset}.
+	 */
+	public void setVisible(boolean visible) {
+		if (this.visible == visible)
+			return;
+		this.visible = visible;
+		fireDatasetChanged();
+	}
+
+	public boolean isVisible() {
+		return visible;
+	}
 	
 	/*
 	 * XYDATASET METHODS
@@ -79,7 +96,7 @@ public class XYEdgeSeriesCollection extends AbstractSeriesDataset implements XYD
 
 	@Override
 	public int getItemCount(int series) {
-		return seriesList.get(series).getItemCount();
+		return visible ? seriesList.get(series).getItemCount() : 0;
 	}
 
 	@Override
@@ -0,0 +1,90 @@
+package fiji.plugin.trackmate.visualization;
+
+import java.awt.Color;
+
+import org.jfree.chart.renderer.InterpolatePaintScale;
+import org.jfree.chart.renderer.PaintScale;
+
+/**
+ * A fixed 256-entry color lookup table, built once from a {@link PaintScale}.
+ * <p>
+ * Mapping a feature value to a color is then an index computation, that
+ * returns a shared {@link Color} instance, instead of interpolating and
+ * creating a new {@link Color} at each call. The {@link #JET} instance is
+ * shared by all the feature color generators, and therefore by all the views
+ * that use them.
+ */
+public class ColorLookupTable
+{
+
+	/** The number of entries in the table. */
+	public static final int SIZE = 256;
+
+	/** The lookup table for the Jet colormap, from blue to red. */
+	public static final ColorLookupTable JET = new ColorLookupTable( InterpolatePaintScale.Jet );
+
+	private final Color[] colors = new Color[ SIZE ];
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Builds a lookup table by sampling the specified paint scale at
+	 * {@link #SIZE} regularly spaced values between its bounds.
+	 *
+	 * @param scale
+	 *            the paint scale to sample. It must return {@link Color}s.
+	 */
+	public ColorLookupTable( final PaintScale scale )
+	{
+		final double lower = scale.getLowerBound();
+		final double upper = scale.getUpperBound();
+		for ( int i = 0; i < SIZE; i++ )
+		{
+			colors[ i ] = ( Color ) scale.getPaint( lower + ( upper - lower ) * i / ( SIZE - 1 ) );
+		}
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns the index in the table of the specified value, scaled to the
+	 * range <code>[min, max]</code>. Values out of the range are clamped. If
+	 * the range is empty or undefined, the last entry is returned.
+	 *
+	 * @param value
+	 *            the value.
+	 * @param min
+	 *            the value mapped to the first entry.
+	 * @param max
+	 *            the value mapped to the last entry.
+	 * @return an index between 0 and {@link #SIZE}-1.
+	 */
+	public int index( final double value, final double min, final double max )
+	{
+		final double alpha = ( value - min ) / ( max - min );
+		if ( Double.isNaN( alpha ) || alpha >= 1 ) { return SIZE - 1; }
+		if ( alpha <= 0 ) { return 0; }
+		return ( int ) ( alpha * ( SIZE - 1 ) + 0.5 );
+	}
+
+	/**
+	 * Returns the color of the specified value, scaled to the range
+	 * <code>[min, max]</code>.
+	 *
+	 * @param value
+	 *            the value.
+	 * @param min
+	 *            the value mapped to the first color.
+	 * @param max
+	 *            the value mapped to the last color.
+	 * @return a shared color instance.
+	 */
+	public Color color( final double value, final double min, final double max )
+	{
+		return colors[ index( value, min, max ) ];
+	}
+}
@@ -0,0 +1,292 @@
+package fiji.plugin.trackmate.visualization;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Maintains incrementally the min and max of a feature over a set of objects.
+ * <p>
+ * Each object is mapped to its last known value in an open-addressing hash
+ * table made of two parallel arrays, so that no entry nor boxed value is
+ * allocated per object. The min and max are updated as values are added. They
+ * are only recomputed, by a scan of the table, when the last object holding
+ * one of them is removed or changes value. <code>null</code> objects, and
+ * <code>null</code> and <code>NaN</code> values, are ignored.
+ *
+ * @param <K>
+ *            the type of objects the feature is defined on.
+ */
+public class FeatureRange< K >
+{
+
+	private static final int MIN_CAPACITY = 16;
+
+	/** The objects, or <code>null</code> for free slots. */
+	private Object[] keys = new Object[ MIN_CAPACITY ];
+
+	/** The value of the object in the same slot. */
+	private double[] values = new double[ MIN_CAPACITY ];
+
+	private int size;
+
+	private double min = Double.POSITIVE_INFINITY;
+
+	private double max = Double.NEGATIVE_INFINITY;
+
+	/** How many objects have the min value. */
+	private int nMin;
+
+	/** How many objects have the max value. */
+	private int nMax;
+
+	/** Whether the min and max must be recomputed before being returned. */
+	private boolean dirty;
+
+	/**
+	 * Sets the feature value of the specified object, replacing its previous
+	 * value if any.
+	 *
+	 * @param obj
+	 *            the object. If <code>null</code>, nothing is done.
+	 * @param value
+	 *            its feature value. If <code>null</code> or <code>NaN</code>,
+	 *            the object is removed.
+	 */
+	public void put( final K obj, final Double value )
+	{
+		if ( null == obj ) { return; }
+		if ( null == value || Double.isNaN( value.doubleValue() ) )
+		{
+			remove( obj );
+			return;
+		}
+		final double val = value.doubleValue();
+		final int slot = slot( obj );
+		if ( null == keys[ slot ] )
+		{
+			keys[ slot ] = obj;
+			size++;
+		}
+		else
+		{
+			if ( values[ slot ] == val ) { return; }
+			discard( values[ slot ] );
+		}
+		values[ slot ] = val;
+		include( val );
+		if ( 2 * size > keys.length )
+		{
+			resize( 2 * keys.length );
+		}
+	}
+
+	/**
+	 * Removes the specified object.
+	 *
+	 * @param obj
+	 *            the object to remove. If <code>null</code>, nothing is done.
+	 */
+	public void remove( final K obj )
+	{
+		if ( null == obj ) { return; }
+		final int slot = slot( obj );
+		if ( null == keys[ slot ] ) { return; }
+		discard( values[ slot ] );
+		delete( slot );
+		size--;
+	}
+
+	/**
+	 * Removes all the objects that are not in the specified collection.
+	 *
+	 * @param objs
+	 *            the objects to keep.
+	 */
+	public void retainAll( final Collection< K > objs )
+	{
+		final Object[] oldKeys = keys;
+		final double[] oldValues = values;
+		keys = new Object[ oldKeys.length ];
+		values = new double[ oldKeys.length ];
+		clearRange();
+		for ( int i = 0; i < oldKeys.length; i++ )
+		{
+			if ( null == oldKeys[ i ] || !objs.contains( oldKeys[ i ] ) )
+			{
+				continue;
+			}
+			final int slot = slot( oldKeys[ i ] );
+			keys[ slot ] = oldKeys[ i ];
+			values[ slot ] = oldValues[ i ];
+			size++;
+			include( oldValues[ i ] );
+		}
+	}
+
+	public void clear()
+	{
+		Arrays.fill( keys, null );
+		clearRange();
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/**
+	 * Returns the smallest value, or {@link Double#POSITIVE_INFINITY} if there
+	 * are no values.
+	 *
+	 * @return the min.
+	 */
+	public double getMin()
+	{
+		if ( dirty )
+		{
+			recompute();
+		}
+		return min;
+	}
+
+	/**
+	 * Returns the largest value, or {@link Double#NEGATIVE_INFINITY} if there
+	 * are no values.
+	 *
+	 * @return the max.
+	 */
+	public double getMax()
+	{
+		if ( dirty )
+		{
+			recompute();
+		}
+		return max;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void clearRange()
+	{
+		size = 0;
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+		nMin = 0;
+		nMax = 0;
+		dirty = false;
+	}
+
+	/** Accounts for a value added to the table. */
+	private void include( final double val )
+	{
+		if ( dirty ) { return; }
+		if ( val < min )
+		{
+			min = val;
+			nMin = 1;
+		}
+		else if ( val == min )
+		{
+			nMin++;
+		}
+		if ( val > max )
+		{
+			max = val;
+			nMax = 1;
+		}
+		else if ( val == max )
+		{
+			nMax++;
+		}
+	}
+
+	/** Accounts for a value removed from the table. */
+	private void discard( final double val )
+	{
+		if ( dirty ) { return; }
+		if ( val == min && --nMin == 0 )
+		{
+			dirty = true;
+		}
+		if ( val == max && --nMax == 0 )
+		{
+			dirty = true;
+		}
+	}
+
+	private void recompute()
+	{
+		final int n = size;
+		clearRange();
+		size = n;
+		for ( int i = 0; i < keys.length; i++ )
+		{
+			if ( null != keys[ i ] )
+			{
+				include( values[ i ] );
+			}
+		}
+	}
+
+	/**
+	 * Returns the slot of the specified object, or the free slot where it
+	 * should be inserted.
+	 */
+	private int slot( final Object obj )
+	{
+		final int mask = keys.length - 1;
+		int i = home( obj, mask );
+		while ( null != keys[ i ] && !keys[ i ].equals( obj ) )
+		{
+			i = ( i + 1 ) & mask;
+		}
+		return i;
+	}
+
+	private static int home( final Object obj, final int mask )
+	{
+		final int h = obj.hashCode() * 0x9E3779B9;
+		return ( h ^ ( h >>> 16 ) ) & mask;
+	}
+
+	/**
+	 * Frees a slot, and moves back the objects that were displaced past it so
+	 * that they can still be found.
+	 */
+	private void delete( final int slot )
+	{
+		final int mask = keys.length - 1;
+		int hole = slot;
+		for ( int i = ( slot + 1 ) & mask; null != keys[ i ]; i = ( i + 1 ) & mask )
+		{
+			final int home = home( keys[ i ], mask );
+			final boolean movable = ( i > hole ) ? ( home <= hole || home > i ) : ( home <= hole && home > i );
+			if ( movable )
+			{
+				keys[ hole ] = keys[ i ];
+				values[ hole ] = values[ i ];
+				hole = i;
+			}
+		}
+		keys[ hole ] = null;
+	}
+
+	private void resize( final int capacity )
+	{
+		final Object[] oldKeys = keys;
+		final double[] oldValues = values;
+		keys = new Object[ capacity ];
+		values = new double[ capacity ];
+		for ( int i = 0; i < oldKeys.length; i++ )
+		{
+			if ( null != oldKeys[ i ] )
+			{
+				final int slot = slot( oldKeys[ i ] );
+				keys[ slot ] = oldKeys[ i ];
+				values[ slot ] = oldValues[ i ];
+			}
+		}
+	}
+}
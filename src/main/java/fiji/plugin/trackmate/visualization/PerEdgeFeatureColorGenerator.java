@@ -3,17 +3,17 @@ package fiji.plugin.trackmate.visualization;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.ModelChangeEvent;
 import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.TrackModel;
 import fiji.plugin.trackmate.features.manual.ManualEdgeColorAnalyzer;
 
 import java.awt.Color;
 
-import org.jfree.chart.renderer.InterpolatePaintScale;
 import org.jgrapht.graph.DefaultWeightedEdge;
 
 public class PerEdgeFeatureColorGenerator implements ModelChangeListener, TrackColorGenerator
 {
 
-	private static final InterpolatePaintScale generator = InterpolatePaintScale.Jet;
+	private static final ColorLookupTable generator = ColorLookupTable.JET;
 
 	private final Model model;
 
@@ -23,9 +23,8 @@ public class PerEdgeFeatureColorGenerator implements ModelChangeListener, TrackC
 
 	private double max;
 
-	private DefaultWeightedEdge edgeMin;
-
-	private DefaultWeightedEdge edgeMax;
+	/** The feature values of the edges of visible tracks. */
+	private final FeatureRange< DefaultWeightedEdge > range = new FeatureRange< DefaultWeightedEdge >();
 
 	private boolean autoMinMax = true;
 
@@ -62,7 +61,7 @@ public class PerEdgeFeatureColorGenerator implements ModelChangeListener, TrackC
 		}
 		if ( Double.isNaN( feat.doubleValue() ) ) { return TrackMateModelView.DEFAULT_UNDEFINED_FEATURE_COLOR; }
 		final double val = feat.doubleValue();
-		return generator.getPaint( ( val - min ) / ( max - min ) );
+		return generator.color( val, min, max );
 	}
 
 	@Override
@@ -76,68 +75,52 @@ public class PerEdgeFeatureColorGenerator implements ModelChangeListener, TrackC
 	@Override
 	public void modelChanged( final ModelChangeEvent event )
 	{
-		if ( !autoMinMax || event.getEventID() != ModelChangeEvent.MODEL_MODIFIED || event.getEdges().size() == 0 ) { return; }
+		if ( !autoMinMax ) { return; }
 
-		for ( final DefaultWeightedEdge edge : event.getEdges() )
+		switch ( event.getEventID() )
 		{
+		case ModelChangeEvent.TRACKS_COMPUTED:
+		case ModelChangeEvent.TRACKS_VISIBILITY_CHANGED:
+			resetMinAndMax();
+			break;
 
-			if ( event.getEdgeFlag( edge ) == ModelChangeEvent.FLAG_EDGE_ADDED || event.getEdgeFlag( edge ) == ModelChangeEvent.FLAG_EDGE_MODIFIED )
+		case ModelChangeEvent.MODEL_MODIFIED:
+		{
+			if ( event.getEdges().size() == 0 ) { return; }
+			// Only update the values of the edges changed.
+			final TrackModel trackModel = model.getTrackModel();
+			for ( final DefaultWeightedEdge edge : event.getEdges() )
 			{
-
-				if ( edge.equals( edgeMax ) || edge.equals( edgeMin ) )
+				final Integer trackID = trackModel.trackIDOf( edge );
+				if ( event.getEdgeFlag( edge ) == ModelChangeEvent.FLAG_EDGE_REMOVED || null == trackID || !trackModel.isVisible( trackID ) )
 				{
-					resetMinAndMax();
-					return;
+					range.remove( edge );
 				}
-
-				final double val = model.getFeatureModel().getEdgeFeature( edge, feature ).doubleValue();
-				if ( val > max || val < min )
-				{
-					resetMinAndMax();
-					return;
-				}
-
-			}
-			else if ( event.getEdgeFlag( edge ) == ModelChangeEvent.FLAG_EDGE_REMOVED )
-			{
-
-				if ( edge.equals( edgeMax ) || edge.equals( edgeMin ) )
+				else
 				{
-					resetMinAndMax();
-					return;
+					range.put( edge, model.getFeatureModel().getEdgeFeature( edge, feature ) );
 				}
-
 			}
+			min = range.getMin();
+			max = range.getMax();
+			break;
+		}
 		}
 	}
 
 	private void resetMinAndMax()
 	{
-		min = Double.POSITIVE_INFINITY;
-		max = Double.NEGATIVE_INFINITY;
+		range.clear();
 		// Only iterate over filtered edges
 		for ( final Integer trackID : model.getTrackModel().trackIDs( true ) )
 		{
 			for ( final DefaultWeightedEdge edge : model.getTrackModel().trackEdges( trackID ) )
 			{
-				final Double feat = model.getFeatureModel().getEdgeFeature( edge, feature );
-				if ( null == feat || Double.isNaN( feat.doubleValue() ) )
-				{
-					continue;
-				}
-				final double val = feat.doubleValue();
-				if ( val < min )
-				{
-					min = val;
-					edgeMin = edge;
-				}
-				if ( val > max )
-				{
-					max = val;
-					edgeMax = edge;
-				}
+				range.put( edge, model.getFeatureModel().getEdgeFeature( edge, feature ) );
 			}
 		}
+		min = range.getMin();
+		max = range.getMax();
 	}
 
 
@@ -192,6 +175,8 @@ public class PerEdgeFeatureColorGenerator implements ModelChangeListener, TrackC
 		if ( autoMode )
 		{
 			activate();
+			// The range was not maintained while we were not listening.
+			resetMinAndMax();
 		}
 		else
 		{
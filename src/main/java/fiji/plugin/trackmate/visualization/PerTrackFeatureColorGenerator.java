@@ -16,7 +16,6 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
-import org.jfree.chart.renderer.InterpolatePaintScale;
 import org.jgrapht.graph.DefaultWeightedEdge;
 
 /**
@@ -29,9 +28,16 @@ import org.jgrapht.graph.DefaultWeightedEdge;
 public class PerTrackFeatureColorGenerator implements TrackColorGenerator, ModelChangeListener
 {
 
-	private static final InterpolatePaintScale generator = InterpolatePaintScale.Jet;
+	private static final ColorLookupTable generator = ColorLookupTable.JET;
 
-	private Map< Integer, Color > colorMap;
+	/** The feature values of the visible tracks. */
+	private final FeatureRange< Integer > range = new FeatureRange< Integer >();
+
+	/**
+	 * When coloring by track index, the rank of visible tracks in the track
+	 * list.
+	 */
+	private Map< Integer, Integer > trackRanks = new HashMap< Integer, Integer >();
 
 	private final Model model;
 
@@ -57,8 +63,8 @@ public class PerTrackFeatureColorGenerator implements TrackColorGenerator, Model
 	 * <p>
 	 * First, the track features are <b>re-calculated</b> for the target feature
 	 * values to be accurate. We rely on the {@link #model} instance for that.
-	 * Then colors are calculated for all tracks when this method is called, and
-	 * cached.
+	 * Then the feature range is computed over all visible tracks. Colors are
+	 * read from a lookup table when needed.
 	 *
 	 * @param feature
 	 *            the track feature that will control coloring.
@@ -70,7 +76,7 @@ public class PerTrackFeatureColorGenerator implements TrackColorGenerator, Model
 	{
 		this.feature = feature;
 		autoMinMax();
-		refreshColorMap();
+		refreshTrackRanks();
 	}
 
 	@Override
@@ -85,74 +91,80 @@ public class PerTrackFeatureColorGenerator implements TrackColorGenerator, Model
 	public void modelChanged( final ModelChangeEvent event )
 	{
 		if ( !autoMode ) { return; }
-		if ( event.getEventID() == ModelChangeEvent.MODEL_MODIFIED )
-		{
-			final Set< DefaultWeightedEdge > edges = event.getEdges();
-			if ( edges.size() > 0 )
-			{
-				refreshColorMap();
-			}
-		}
-	}
-
-	private void refreshColorMap()
-	{
-		final TrackModel trackModel = model.getTrackModel();
-		final Set< Integer > trackIDs = trackModel.trackIDs( true );
-
-		if ( null == feature )
+		switch ( event.getEventID() )
 		{
+		case ModelChangeEvent.TRACKS_COMPUTED:
+		case ModelChangeEvent.TRACKS_VISIBILITY_CHANGED:
+			refreshColorMap();
+			break;
 
-			// Create value->color map
-			colorMap = new HashMap< Integer, Color >( trackIDs.size() );
-			for ( final Integer trackID : trackIDs )
-			{
-				colorMap.put( trackID, DEFAULT_TRACK_COLOR );
-			}
-		}
-		else if ( feature.equals( TrackIndexAnalyzer.TRACK_INDEX ) )
-		{
-			// Create value->color map
-			colorMap = new HashMap< Integer, Color >( trackIDs.size() );
-			int index = 0;
-			for ( final Integer trackID : trackIDs )
-			{
-				final Color color = generator.getPaint( ( double ) index++ / ( trackIDs.size() - 1 ) );
-				colorMap.put( trackID, color );
-			}
-		}
-		else
+		case ModelChangeEvent.MODEL_MODIFIED:
 		{
-			// Get min & max & all values
-			if ( autoMode )
+			final Set< DefaultWeightedEdge > edges = event.getEdges();
+			if ( edges.size() == 0 ) { return; }
+			if ( null == feature || feature.equals( TrackIndexAnalyzer.TRACK_INDEX ) )
 			{
-				autoMinMax();
+				refreshColorMap();
+				return;
 			}
 
-			// Create value->color map
+			// Only update the values of the tracks changed.
+			final TrackModel trackModel = model.getTrackModel();
 			final FeatureModel fm = model.getFeatureModel();
-			colorMap = new HashMap< Integer, Color >( trackIDs.size() );
-			for ( final Integer trackID : trackIDs )
+			final Set< Integer > trackIDs = trackModel.unsortedTrackIDs( false );
+			range.retainAll( trackIDs );
+			for ( final Integer trackID : event.getTrackUpdated() )
 			{
-				final Double val = fm.getTrackFeature( trackID, feature );
-				Color color;
-				if ( null == val )
+				// Edges modified then removed have no track anymore.
+				if ( null == trackID )
 				{
-					color = DEFAULT_TRACK_COLOR;
+					continue;
 				}
-				else if ( Double.isNaN( val.doubleValue() ) )
+				if ( trackIDs.contains( trackID ) && trackModel.isVisible( trackID ) )
 				{
-					color = TrackMateModelView.DEFAULT_UNDEFINED_FEATURE_COLOR;
+					range.put( trackID, fm.getTrackFeature( trackID, feature ) );
 				}
 				else
 				{
-					color = generator.getPaint( ( val - min ) / ( max - min ) );
+					range.remove( trackID );
 				}
-				colorMap.put( trackID, color );
 			}
+			min = range.getMin();
+			max = range.getMax();
+			break;
+		}
 		}
 	}
 
+	private void refreshColorMap()
+	{
+		if ( null == feature ) { return; }
+
+		if ( feature.equals( TrackIndexAnalyzer.TRACK_INDEX ) )
+		{
+			refreshTrackRanks();
+		}
+		else if ( autoMode )
+		{
+			// Get min & max
+			autoMinMax();
+		}
+	}
+
+	private void refreshTrackRanks()
+	{
+		if ( null == feature || !feature.equals( TrackIndexAnalyzer.TRACK_INDEX ) ) { return; }
+
+		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( true );
+		final Map< Integer, Integer > ranks = new HashMap< Integer, Integer >( trackIDs.size() );
+		int index = 0;
+		for ( final Integer trackID : trackIDs )
+		{
+			ranks.put( trackID, Integer.valueOf( index++ ) );
+		}
+		trackRanks = ranks;
+	}
+
 	@Override
 	public Color color( final DefaultWeightedEdge edge )
 	{
@@ -162,7 +174,7 @@ public class PerTrackFeatureColorGenerator implements TrackColorGenerator, Model
 	@Override
 	public void setCurrentTrackID( final Integer trackID )
 	{
-		this.color = colorMap.get( trackID );
+		this.color = colorOf( trackID );
 	}
 
 	@Override
@@ -190,7 +202,19 @@ public class PerTrackFeatureColorGenerator implements TrackColorGenerator, Model
 	 */
 	public Color colorOf( final Integer trackID )
 	{
-		return colorMap.get( trackID );
+		if ( null == feature ) { return DEFAULT_TRACK_COLOR; }
+
+		if ( feature.equals( TrackIndexAnalyzer.TRACK_INDEX ) )
+		{
+			final Integer rank = trackRanks.get( trackID );
+			if ( null == rank ) { return DEFAULT_TRACK_COLOR; }
+			return generator.color( rank.doubleValue(), 0, trackRanks.size() - 1 );
+		}
+
+		final Double val = model.getFeatureModel().getTrackFeature( trackID, feature );
+		if ( null == val ) { return DEFAULT_TRACK_COLOR; }
+		if ( Double.isNaN( val.doubleValue() ) ) { return TrackMateModelView.DEFAULT_UNDEFINED_FEATURE_COLOR; }
+		return generator.color( val.doubleValue(), min, max );
 	}
 
 
@@ -221,27 +245,15 @@ public class PerTrackFeatureColorGenerator implements TrackColorGenerator, Model
 	public void autoMinMax()
 	{
 		final TrackModel trackModel = model.getTrackModel();
-		final Set< Integer > trackIDs = trackModel.trackIDs( true );
 		final FeatureModel fm = model.getFeatureModel();
 
-		min = Double.POSITIVE_INFINITY;
-		max = Double.NEGATIVE_INFINITY;
-		for ( final Integer trackID : trackIDs )
+		range.clear();
+		for ( final Integer trackID : trackModel.trackIDs( true ) )
 		{
-			final Double val = fm.getTrackFeature( trackID, feature );
-			if ( null == val || Double.isNaN( val.doubleValue() ) )
-			{
-				continue;
-			}
-			if ( val < min )
-			{
-				min = val;
-			}
-			if ( val > max )
-			{
-				max = val;
-			}
+			range.put( trackID, fm.getTrackFeature( trackID, feature ) );
 		}
+		min = range.getMin();
+		max = range.getMax();
 	}
 
 	@Override
@@ -251,6 +263,8 @@ public class PerTrackFeatureColorGenerator implements TrackColorGenerator, Model
 		if ( autoMode )
 		{
 			activate();
+			// The range was not maintained while we were not listening.
+			refreshColorMap();
 		}
 		else
 		{
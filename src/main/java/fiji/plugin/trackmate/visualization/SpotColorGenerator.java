@@ -8,8 +8,6 @@ import fiji.plugin.trackmate.Spot;
 import java.awt.Color;
 import java.util.Set;
 
-import org.jfree.chart.renderer.InterpolatePaintScale;
-
 public class SpotColorGenerator implements FeatureColorGenerator< Spot >, ModelChangeListener
 {
 
@@ -23,7 +21,9 @@ public class SpotColorGenerator implements FeatureColorGenerator< Spot >, ModelC
 
 	private boolean autoMode = true;
 
-	private static final InterpolatePaintScale generator = InterpolatePaintScale.Jet;
+	private final FeatureRange< Spot > range = new FeatureRange< Spot >();
+
+	private static final ColorLookupTable generator = ColorLookupTable.JET;
 
 	public SpotColorGenerator( final Model model )
 	{
@@ -44,7 +44,7 @@ public class SpotColorGenerator implements FeatureColorGenerator< Spot >, ModelC
 			if ( null == feat ) { return TrackMateModelView.DEFAULT_UNASSIGNED_FEATURE_COLOR; }
 			final double val = feat.doubleValue();
 			if ( Double.isNaN( val ) ) { return TrackMateModelView.DEFAULT_UNDEFINED_FEATURE_COLOR; }
-			return generator.getPaint( ( val - min ) / ( max - min ) );
+			return generator.color( val, min, max );
 		}
 	}
 
@@ -75,7 +75,20 @@ public class SpotColorGenerator implements FeatureColorGenerator< Spot >, ModelC
 			final Set< Spot > spots = event.getSpots();
 			if ( spots.size() > 0 )
 			{
-				computeSpotColors();
+				// Only update the values of the spots changed.
+				for ( final Spot spot : spots )
+				{
+					if ( event.getSpotFlag( spot ) == ModelChangeEvent.FLAG_SPOT_REMOVED )
+					{
+						range.remove( spot );
+					}
+					else
+					{
+						range.put( spot, spot.getFeature( feature ) );
+					}
+				}
+				min = range.getMin();
+				max = range.getMax();
 			}
 		}
 		else if ( event.getEventID() == ModelChangeEvent.SPOTS_COMPUTED )
@@ -115,22 +128,16 @@ public class SpotColorGenerator implements FeatureColorGenerator< Spot >, ModelC
 		if ( null == feature ) { return; }
 
 		// Get min & max
-		min = Float.POSITIVE_INFINITY;
-		max = Float.NEGATIVE_INFINITY;
-		Double val;
+		range.clear();
 		for ( final int ikey : model.getSpots().keySet() )
 		{
 			for ( final Spot spot : model.getSpots().iterable( ikey, false ) )
 			{
-				val = spot.getFeature( feature );
-				if ( null == val || Double.isNaN( val.doubleValue() ) )
-					continue;
-				if ( val > max )
-					max = val.doubleValue();
-				if ( val < min )
-					min = val.doubleValue();
+				range.put( spot, spot.getFeature( feature ) );
 			}
 		}
+		min = range.getMin();
+		max = range.getMax();
 	}
 
 	/*
@@ -169,6 +176,8 @@ public class SpotColorGenerator implements FeatureColorGenerator< Spot >, ModelC
 		if ( autoMode )
 		{
 			activate();
+			// The range was not maintained while we were not listening.
+			computeSpotColors();
 		}
 		else
 		{
@@ -0,0 +1,190 @@
+package fiji.plugin.trackmate.visualization.hyperstack;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+
+/**
+ * An index of the edges of a model, bucketed by the frame of their source
+ * spot. It lets the {@link TrackOverlay} visit only the edges that are in the
+ * display time window, instead of iterating over the edges of all tracks at
+ * each repaint.
+ * <p>
+ * The index is kept current by the {@link ModelChangeEvent}s it is fed with,
+ * and is rebuilt from scratch when spots or tracks are recomputed.
+ */
+class EdgeFrameIndex implements ModelChangeListener
+{
+
+	private final Model model;
+
+	/** Frame of the source spot -> edges. */
+	private final TreeMap< Integer, Set< DefaultWeightedEdge > > buckets = new TreeMap< Integer, Set< DefaultWeightedEdge > >();
+
+	/** Edge -> the bucket it is currently stored in. */
+	private final Map< DefaultWeightedEdge, Integer > edgeFrames = new HashMap< DefaultWeightedEdge, Integer >();
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	EdgeFrameIndex( final Model model )
+	{
+		this.model = model;
+		rebuild();
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	@Override
+	public synchronized void modelChanged( final ModelChangeEvent event )
+	{
+		switch ( event.getEventID() )
+		{
+		case ModelChangeEvent.SPOTS_COMPUTED:
+		case ModelChangeEvent.TRACKS_COMPUTED:
+			rebuild();
+			break;
+
+		case ModelChangeEvent.MODEL_MODIFIED:
+		{
+			final TrackModel trackModel = model.getTrackModel();
+			final Set< DefaultWeightedEdge > edges = event.getEdges();
+			if ( null != edges )
+			{
+				for ( final DefaultWeightedEdge edge : edges )
+				{
+					remove( edge );
+					// Edges added or modified then removed in the same
+					// transaction are not in the track model anymore.
+					if ( event.getEdgeFlag( edge ) != ModelChangeEvent.FLAG_EDGE_REMOVED && null != trackModel.trackIDOf( edge ) )
+					{
+						put( edge, trackModel.getEdgeSource( edge ) );
+					}
+				}
+			}
+
+			// Spots moved to another frame take their edges with them.
+			final Set< Spot > spots = event.getSpots();
+			if ( null != spots )
+			{
+				for ( final Spot spot : spots )
+				{
+					if ( event.getSpotFlag( spot ) != ModelChangeEvent.FLAG_SPOT_FRAME_CHANGED )
+					{
+						continue;
+					}
+					for ( final DefaultWeightedEdge edge : trackModel.edgesOf( spot ) )
+					{
+						remove( edge );
+						if ( null != trackModel.trackIDOf( edge ) )
+						{
+							put( edge, trackModel.getEdgeSource( edge ) );
+						}
+					}
+				}
+			}
+			break;
+		}
+		}
+	}
+
+	/**
+	 * Adds to the specified collection the edges whose source spot frame lies
+	 * in the range <code>[minT, maxT[</code>.
+	 *
+	 * @param minT
+	 *            the first frame, inclusive.
+	 * @param maxT
+	 *            the last frame, exclusive.
+	 * @param target
+	 *            the collection to add the edges to.
+	 */
+	synchronized void getEdges( final int minT, final int maxT, final Collection< DefaultWeightedEdge > target )
+	{
+		if ( maxT <= minT )
+		{
+			return;
+		}
+		for ( final Set< DefaultWeightedEdge > bucket : buckets.subMap( Integer.valueOf( minT ), Integer.valueOf( maxT ) ).values() )
+		{
+			target.addAll( bucket );
+		}
+	}
+
+	/**
+	 * Adds all the edges of the model to the specified collection.
+	 *
+	 * @param target
+	 *            the collection to add the edges to.
+	 */
+	synchronized void getEdges( final Collection< DefaultWeightedEdge > target )
+	{
+		for ( final Set< DefaultWeightedEdge > bucket : buckets.values() )
+		{
+			target.addAll( bucket );
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void rebuild()
+	{
+		buckets.clear();
+		edgeFrames.clear();
+		synchronized ( model )
+		{
+			final TrackModel trackModel = model.getTrackModel();
+			for ( final Integer trackID : trackModel.unsortedTrackIDs( false ) )
+			{
+				for ( final DefaultWeightedEdge edge : trackModel.trackEdges( trackID ) )
+				{
+					put( edge, trackModel.getEdgeSource( edge ) );
+				}
+			}
+		}
+	}
+
+	private void put( final DefaultWeightedEdge edge, final Spot source )
+	{
+		final Integer frame = Integer.valueOf( source.getFeature( Spot.FRAME ).intValue() );
+		Set< DefaultWeightedEdge > bucket = buckets.get( frame );
+		if ( null == bucket )
+		{
+			bucket = new HashSet< DefaultWeightedEdge >();
+			buckets.put( frame, bucket );
+		}
+		bucket.add( edge );
+		edgeFrames.put( edge, frame );
+	}
+
+	private void remove( final DefaultWeightedEdge edge )
+	{
+		final Integer frame = edgeFrames.remove( edge );
+		if ( null == frame )
+		{
+			return;
+		}
+		final Set< DefaultWeightedEdge > bucket = buckets.get( frame );
+		bucket.remove( edge );
+		if ( bucket.isEmpty() )
+		{
+			buckets.remove( frame );
+		}
+	}
+}
@@ -29,6 +29,8 @@ public class HyperStackDisplayer extends AbstractTrackMateModelView
 
 	protected TrackOverlay trackOverlay;
 
+	protected final OverlayLayerCache layerCache;
+
 	private SpotEditTool editTool;
 
 	private Roi initialROI;
@@ -50,8 +52,11 @@ public class HyperStackDisplayer extends AbstractTrackMateModelView
 		{
 			this.imp = ViewUtils.makeEmpytImagePlus( model );
 		}
+		this.layerCache = new OverlayLayerCache( model, this.imp, displaySettings );
 		this.spotOverlay = createSpotOverlay();
 		this.trackOverlay = createTrackOverlay();
+		spotOverlay.setLayerCache( layerCache );
+		trackOverlay.setLayerCache( layerCache );
 	}
 
 	public HyperStackDisplayer( final Model model, final SelectionModel selectionModel )
@@ -107,6 +112,9 @@ public class HyperStackDisplayer extends AbstractTrackMateModelView
 	{
 		if ( DEBUG )
 			System.out.println( "[HyperStackDisplayer] Received model changed event ID: " + event.getEventID() + " from " + event.getSource() );
+		spotOverlay.modelChanged( event );
+		trackOverlay.modelChanged( event );
+		layerCache.modelChanged( event );
 		boolean redoOverlay = false;
 
 		switch ( event.getEventID() )
@@ -219,6 +227,23 @@ public class HyperStackDisplayer extends AbstractTrackMateModelView
 		return selectionModel;
 	}
 
+	/**
+	 * Registers a listener that will be notified of the time it takes to paint
+	 * the spot and track layers of this view.
+	 *
+	 * @param listener
+	 *            the listener to add.
+	 */
+	public void addPaintLatencyListener( final PaintLatencyListener listener )
+	{
+		layerCache.addPaintLatencyListener( listener );
+	}
+
+	public boolean removePaintLatencyListener( final PaintLatencyListener listener )
+	{
+		return layerCache.removePaintLatencyListener( listener );
+	}
+
 	/*
 	 * PRIVATE METHODS
 	 */
@@ -253,6 +278,8 @@ public class HyperStackDisplayer extends AbstractTrackMateModelView
 		}
 
 		super.setDisplaySettings( key, value );
+		// Whatever the setting, the cached layers are outdated.
+		layerCache.clear();
 		if ( dorefresh )
 		{
 			refresh();
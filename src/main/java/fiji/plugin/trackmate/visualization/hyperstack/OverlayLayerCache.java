@@ -0,0 +1,505 @@
+package fiji.plugin.trackmate.visualization.hyperstack;
+
+import ij.ImagePlus;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.util.TMUtils;
+import fiji.plugin.trackmate.visualization.MinMaxAdjustable;
+import fiji.plugin.trackmate.visualization.TrackMateModelView;
+
+/**
+ * A cache for the rasterised spot and track layers of a
+ * {@link HyperStackDisplayer}.
+ * <p>
+ * Each layer is cut in square tiles of {@link #TILE_SIZE} screen pixels,
+ * indexed in the zoomed image coordinates, so that panning reuses the tiles
+ * already rendered. Tiles are keyed by frame, z-slice and magnification, and
+ * kept in a bounded LRU cache per layer. Once a view is rendered, repainting
+ * it is a matter of blitting tiles.
+ * <p>
+ * The {@link ModelChangeEvent}s this cache receives only invalidate the tiles
+ * that overlap the spots and edges changed, at their old and new location.
+ * For this, the cache remembers where each spot was last drawn. A layer is
+ * discarded entirely when the range of its color generator changes, e.g. when
+ * an edit moves the min or max of the feature it is colored by, since this
+ * changes the colors of all objects. Other changes in the display settings
+ * must be followed by a call to {@link #clear()}.
+ */
+public class OverlayLayerCache implements ModelChangeListener
+{
+
+	public static final String SPOT_LAYER = "Spots";
+
+	public static final String TRACK_LAYER = "Tracks";
+
+	/** The size of the square tiles, in screen pixels. */
+	public static final int TILE_SIZE = 256;
+
+	/** The default maximal number of tiles stored per layer. */
+	public static final int DEFAULT_MAX_TILES = 96;
+
+	/**
+	 * Padding in screen pixels around the changed spots and edges, to account
+	 * for stroke width and antialiasing.
+	 */
+	private static final int PADDING = 4;
+
+	/** Extra horizontal padding when spot names are displayed. */
+	private static final int LABEL_PADDING = 200;
+
+	private final Model model;
+
+	private final double[] calibration;
+
+	private final Map< String, Object > displaySettings;
+
+	private final TileLRU spotTiles = new TileLRU();
+
+	private final TileLRU trackTiles = new TileLRU();
+
+	/**
+	 * Where spots were last drawn: X, Y in image pixels, radius in image
+	 * pixels and frame.
+	 */
+	private final Map< Spot, double[] > drawnSpots = new HashMap< Spot, double[] >();
+
+	private final List< PaintLatencyListener > listeners = new ArrayList< PaintLatencyListener >();
+
+	/**
+	 * Incremented at each invalidation, so that tiles rendered while the model
+	 * was changing are not stored.
+	 */
+	private long generation = 0;
+
+	/**
+	 * The min and max of the spot and track color generators when the tiles
+	 * were last checked.
+	 */
+	private final double[] colorRanges = new double[] { Double.NaN, Double.NaN, Double.NaN, Double.NaN };
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	public OverlayLayerCache( final Model model, final ImagePlus imp, final Map< String, Object > displaySettings )
+	{
+		this.model = model;
+		this.calibration = TMUtils.getSpatialCalibration( imp );
+		this.displaySettings = displaySettings;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns the cached tile of the specified layer, or <code>null</code> if
+	 * it is not in the cache.
+	 *
+	 * @param layer
+	 *            the layer, {@link #SPOT_LAYER} or {@link #TRACK_LAYER}.
+	 * @param frame
+	 *            the frame the tile was rendered for.
+	 * @param z
+	 *            the z-slice the tile was rendered for.
+	 * @param magnification
+	 *            the magnification the tile was rendered for.
+	 * @param tx
+	 *            the tile X index.
+	 * @param ty
+	 *            the tile Y index.
+	 * @return the tile image, or <code>null</code>.
+	 */
+	public synchronized BufferedImage getTile( final String layer, final int frame, final int z, final double magnification, final int tx, final int ty )
+	{
+		// The color generators might have updated their range after us.
+		checkColorRanges();
+		return tilesFor( layer ).get( new TileKey( frame, z, magnification, tx, ty ) );
+	}
+
+	/**
+	 * Stores a tile in the cache. The tile is discarded if the cache was
+	 * invalidated since the specified generation was read, because it might
+	 * have been rendered from stale data.
+	 *
+	 * @param layer
+	 *            the layer, {@link #SPOT_LAYER} or {@link #TRACK_LAYER}.
+	 * @param frame
+	 *            the frame the tile was rendered for.
+	 * @param z
+	 *            the z-slice the tile was rendered for.
+	 * @param magnification
+	 *            the magnification the tile was rendered for.
+	 * @param tx
+	 *            the tile X index.
+	 * @param ty
+	 *            the tile Y index.
+	 * @param tile
+	 *            the tile image.
+	 * @param fromGeneration
+	 *            the value of {@link #getGeneration()} read before rendering
+	 *            the tile.
+	 */
+	public synchronized void putTile( final String layer, final int frame, final int z, final double magnification, final int tx, final int ty, final BufferedImage tile, final long fromGeneration )
+	{
+		if ( fromGeneration != generation )
+		{
+			return;
+		}
+		tilesFor( layer ).put( new TileKey( frame, z, magnification, tx, ty ), tile );
+	}
+
+	public synchronized long getGeneration()
+	{
+		return generation;
+	}
+
+	/**
+	 * Records the location at which the specified spot is drawn, so that its
+	 * tiles can be invalidated if it is moved.
+	 *
+	 * @param spot
+	 *            the spot drawn.
+	 */
+	public synchronized void recordSpot( final Spot spot )
+	{
+		if ( drawnSpots.containsKey( spot ) )
+		{
+			return;
+		}
+		drawnSpots.put( spot, location( spot ) );
+	}
+
+	/**
+	 * Discards all the tiles of all layers.
+	 */
+	public synchronized void clear()
+	{
+		spotTiles.clear();
+		trackTiles.clear();
+		drawnSpots.clear();
+		generation++;
+	}
+
+	/**
+	 * Sets the maximal number of tiles stored per layer.
+	 *
+	 * @param maxTiles
+	 *            the maximal number of tiles.
+	 */
+	public synchronized void setMaxTiles( final int maxTiles )
+	{
+		spotTiles.maxTiles = maxTiles;
+		trackTiles.maxTiles = maxTiles;
+		spotTiles.trim();
+		trackTiles.trim();
+	}
+
+	public void addPaintLatencyListener( final PaintLatencyListener listener )
+	{
+		synchronized ( listeners )
+		{
+			listeners.add( listener );
+		}
+	}
+
+	public boolean removePaintLatencyListener( final PaintLatencyListener listener )
+	{
+		synchronized ( listeners )
+		{
+			return listeners.remove( listener );
+		}
+	}
+
+	/**
+	 * Notifies the {@link PaintLatencyListener}s that a layer has been
+	 * painted.
+	 *
+	 * @param layer
+	 *            the layer painted.
+	 * @param latency
+	 *            the paint duration, in nanoseconds.
+	 * @param tilesRendered
+	 *            the number of tiles rasterised for this paint.
+	 */
+	public void firePainted( final String layer, final long latency, final int tilesRendered )
+	{
+		final PaintLatencyListener[] targets;
+		synchronized ( listeners )
+		{
+			if ( listeners.isEmpty() )
+			{
+				return;
+			}
+			targets = listeners.toArray( new PaintLatencyListener[ listeners.size() ] );
+		}
+		for ( final PaintLatencyListener listener : targets )
+		{
+			listener.layerPainted( layer, latency, tilesRendered );
+		}
+	}
+
+	@Override
+	public synchronized void modelChanged( final ModelChangeEvent event )
+	{
+		switch ( event.getEventID() )
+		{
+		case ModelChangeEvent.SPOTS_COMPUTED:
+		case ModelChangeEvent.SPOTS_FILTERED:
+		case ModelChangeEvent.TRACKS_COMPUTED:
+		case ModelChangeEvent.TRACKS_VISIBILITY_CHANGED:
+			clear();
+			break;
+
+		case ModelChangeEvent.MODEL_MODIFIED:
+		{
+			generation++;
+			final TrackModel trackModel = model.getTrackModel();
+
+			// Edges changed, plus all edges of updated tracks: their color
+			// might have changed.
+			final Set< DefaultWeightedEdge > edges = new HashSet< DefaultWeightedEdge >();
+			if ( null != event.getEdges() )
+			{
+				edges.addAll( event.getEdges() );
+			}
+			if ( null != event.getTrackUpdated() )
+			{
+				for ( final Integer trackID : event.getTrackUpdated() )
+				{
+					final Set< DefaultWeightedEdge > trackEdges = trackModel.trackEdges( trackID );
+					if ( null != trackEdges )
+					{
+						edges.addAll( trackEdges );
+					}
+				}
+			}
+			for ( final DefaultWeightedEdge edge : edges )
+			{
+				invalidateEdge( trackModel.getEdgeSource( edge ), trackModel.getEdgeTarget( edge ) );
+			}
+
+			if ( null != event.getSpots() )
+			{
+				for ( final Spot spot : event.getSpots() )
+				{
+					final double[] old = drawnSpots.remove( spot );
+					if ( null != old )
+					{
+						invalidateSpot( old );
+					}
+					if ( event.getSpotFlag( spot ) != ModelChangeEvent.FLAG_SPOT_REMOVED )
+					{
+						invalidateSpot( location( spot ) );
+					}
+				}
+			}
+			checkColorRanges();
+			break;
+		}
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Discards the tiles of the layers whose color generator range changed
+	 * since the last call.
+	 */
+	private void checkColorRanges()
+	{
+		if ( rangeChanged( displaySettings.get( TrackMateModelView.KEY_SPOT_COLORING ), 0 ) )
+		{
+			spotTiles.clear();
+			generation++;
+		}
+		if ( rangeChanged( displaySettings.get( TrackMateModelView.KEY_TRACK_COLORING ), 2 ) )
+		{
+			trackTiles.clear();
+			generation++;
+		}
+	}
+
+	private boolean rangeChanged( final Object colorGenerator, final int offset )
+	{
+		if ( !( colorGenerator instanceof MinMaxAdjustable ) )
+		{
+			return false;
+		}
+		final MinMaxAdjustable adjustable = ( MinMaxAdjustable ) colorGenerator;
+		final double min = adjustable.getMin();
+		final double max = adjustable.getMax();
+		if ( Double.compare( min, colorRanges[ offset ] ) == 0 && Double.compare( max, colorRanges[ offset + 1 ] ) == 0 )
+		{
+			return false;
+		}
+		colorRanges[ offset ] = min;
+		colorRanges[ offset + 1 ] = max;
+		return true;
+	}
+
+	private TileLRU tilesFor( final String layer )
+	{
+		return TRACK_LAYER.equals( layer ) ? trackTiles : spotTiles;
+	}
+
+	private double[] location( final Spot spot )
+	{
+		return new double[] {
+				spot.getFeature( Spot.POSITION_X ).doubleValue() / calibration[ 0 ] + 0.5,
+				spot.getFeature( Spot.POSITION_Y ).doubleValue() / calibration[ 1 ] + 0.5,
+				spot.getFeature( Spot.RADIUS ).doubleValue() / calibration[ 0 ],
+				spot.getFeature( Spot.FRAME ).doubleValue() };
+	}
+
+	private void invalidateSpot( final double[] location )
+	{
+		final Double ratio = ( Double ) displaySettings.get( TrackMateModelView.KEY_SPOT_RADIUS_RATIO );
+		final double radius = Math.max( 2, location[ 2 ] * ( null == ratio ? 1 : ratio.doubleValue() ) );
+		final Boolean names = ( Boolean ) displaySettings.get( TrackMateModelView.KEY_DISPLAY_SPOT_NAMES );
+		final int padX = PADDING + ( null != names && names.booleanValue() ? LABEL_PADDING : 0 );
+		invalidate( spotTiles, ( int ) location[ 3 ], location[ 0 ] - radius, location[ 1 ] - radius, location[ 0 ] + radius, location[ 1 ] + radius, padX, PADDING );
+	}
+
+	private void invalidateEdge( final Spot source, final Spot target )
+	{
+		final double[] s = location( source );
+		final double[] t = location( target );
+		double xmin = Math.min( s[ 0 ], t[ 0 ] );
+		double xmax = Math.max( s[ 0 ], t[ 0 ] );
+		double ymin = Math.min( s[ 1 ], t[ 1 ] );
+		double ymax = Math.max( s[ 1 ], t[ 1 ] );
+		// Where the edge was drawn, if its spots moved since.
+		for ( final Spot spot : new Spot[] { source, target } )
+		{
+			final double[] old = drawnSpots.get( spot );
+			if ( null != old )
+			{
+				xmin = Math.min( xmin, old[ 0 ] );
+				xmax = Math.max( xmax, old[ 0 ] );
+				ymin = Math.min( ymin, old[ 1 ] );
+				ymax = Math.max( ymax, old[ 1 ] );
+			}
+		}
+		invalidate( trackTiles, -1, xmin, ymin, xmax, ymax, PADDING, PADDING );
+	}
+
+	/**
+	 * Removes the tiles that overlap the specified box, given in image pixel
+	 * coordinates and padded by the specified amount of screen pixels.
+	 */
+	private void invalidate( final TileLRU tiles, final int frame, final double xmin, final double ymin, final double xmax, final double ymax, final int padX, final int padY )
+	{
+		for ( final Iterator< TileKey > it = tiles.keySet().iterator(); it.hasNext(); )
+		{
+			final TileKey key = it.next();
+			if ( frame >= 0 && key.frame != frame )
+			{
+				continue;
+			}
+			final double sxmin = xmin * key.magnification - padX;
+			final double sxmax = xmax * key.magnification + padX;
+			final double symin = ymin * key.magnification - padY;
+			final double symax = ymax * key.magnification + padY;
+			final int txmin = key.tx * TILE_SIZE;
+			final int tymin = key.ty * TILE_SIZE;
+			if ( sxmax < txmin || sxmin > txmin + TILE_SIZE || symax < tymin || symin > tymin + TILE_SIZE )
+			{
+				continue;
+			}
+			it.remove();
+		}
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	private static final class TileLRU extends LinkedHashMap< TileKey, BufferedImage >
+	{
+		private static final long serialVersionUID = 1L;
+
+		private int maxTiles = DEFAULT_MAX_TILES;
+
+		public TileLRU()
+		{
+			super( 16, 0.75f, true );
+		}
+
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry< TileKey, BufferedImage > eldest )
+		{
+			return size() > maxTiles;
+		}
+
+		private void trim()
+		{
+			final Iterator< TileKey > it = keySet().iterator();
+			while ( size() > maxTiles && it.hasNext() )
+			{
+				it.next();
+				it.remove();
+			}
+		}
+	}
+
+	private static final class TileKey
+	{
+		private final int frame;
+
+		private final int z;
+
+		private final double magnification;
+
+		private final int tx;
+
+		private final int ty;
+
+		public TileKey( final int frame, final int z, final double magnification, final int tx, final int ty )
+		{
+			this.frame = frame;
+			this.z = z;
+			this.magnification = magnification;
+			this.tx = tx;
+			this.ty = ty;
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( !( obj instanceof TileKey ) ) { return false; }
+			final TileKey o = ( TileKey ) obj;
+			return frame == o.frame && z == o.z && magnification == o.magnification && tx == o.tx && ty == o.ty;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			final long bits = Double.doubleToLongBits( magnification );
+			int hash = frame;
+			hash = 31 * hash + z;
+			hash = 31 * hash + ( int ) ( bits ^ ( bits >>> 32 ) );
+			hash = 31 * hash + tx;
+			hash = 31 * hash + ty;
+			return hash;
+		}
+	}
+}
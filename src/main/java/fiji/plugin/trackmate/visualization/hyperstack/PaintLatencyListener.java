@@ -0,0 +1,28 @@
+package fiji.plugin.trackmate.visualization.hyperstack;
+
+import java.util.EventListener;
+
+/**
+ * Interface for listeners that want to be notified of how long it took to
+ * paint the overlay layers of a {@link HyperStackDisplayer}.
+ */
+public interface PaintLatencyListener extends EventListener
+{
+
+	/**
+	 * Called after an overlay layer has been painted.
+	 *
+	 * @param layer
+	 *            the name of the layer painted, one of
+	 *            {@link OverlayLayerCache#SPOT_LAYER} and
+	 *            {@link OverlayLayerCache#TRACK_LAYER}.
+	 * @param latency
+	 *            the time it took to paint the layer, in nanoseconds.
+	 * @param tilesRendered
+	 *            the number of tiles that had to be rasterised for this paint.
+	 *            0 means the layer was entirely blitted from the cache.
+	 *            Negative if the layer was painted without the cache.
+	 */
+	public void layerPainted( String layer, long latency, int tilesRendered );
+
+}
@@ -0,0 +1,275 @@
+package fiji.plugin.trackmate.visualization.hyperstack;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * A spatial index of the visible spots of a model, made of one regular 2D
+ * grid per frame. It lets the {@link SpotOverlay} query only the spots that
+ * fall in the current viewport and z-slice window, so that repaint cost scales
+ * with the number of spots on screen rather than with the frame population.
+ * <p>
+ * Grids are built lazily, the first time a frame is queried, and store the
+ * spot coordinates in primitive arrays so that culling does not need to read
+ * the spot feature maps. They are discarded when the {@link ModelChangeEvent}s
+ * this index is fed with signal that their content changed.
+ */
+class SpotGridIndex implements ModelChangeListener
+{
+
+	/** Target mean number of spots per grid cell. */
+	private static final int SPOTS_PER_CELL = 4;
+
+	private final Model model;
+
+	private final Map< Integer, FrameGrid > grids = new HashMap< Integer, FrameGrid >();
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	SpotGridIndex( final Model model )
+	{
+		this.model = model;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	@Override
+	public synchronized void modelChanged( final ModelChangeEvent event )
+	{
+		switch ( event.getEventID() )
+		{
+		case ModelChangeEvent.SPOTS_COMPUTED:
+		case ModelChangeEvent.SPOTS_FILTERED:
+			grids.clear();
+			break;
+
+		case ModelChangeEvent.MODEL_MODIFIED:
+		{
+			if ( null == event.getSpots() )
+			{
+				return;
+			}
+			for ( final Spot spot : event.getSpots() )
+			{
+				if ( event.getSpotFlag( spot ) == ModelChangeEvent.FLAG_SPOT_FRAME_CHANGED )
+				{
+					// We do not know the frame it was moved from.
+					grids.clear();
+					return;
+				}
+				final Double frame = spot.getFeature( Spot.FRAME );
+				if ( null != frame )
+				{
+					grids.remove( Integer.valueOf( frame.intValue() ) );
+				}
+			}
+			break;
+		}
+		}
+	}
+
+	/**
+	 * Adds to the specified collection the visible spots of the specified
+	 * frame whose center lies in the specified box. Bounds are in physical
+	 * units.
+	 *
+	 * @param frame
+	 *            the frame to query.
+	 * @param xmin
+	 *            the lower x bound.
+	 * @param xmax
+	 *            the upper x bound.
+	 * @param ymin
+	 *            the lower y bound.
+	 * @param ymax
+	 *            the upper y bound.
+	 * @param zmin
+	 *            the lower z bound.
+	 * @param zmax
+	 *            the upper z bound.
+	 * @param target
+	 *            the collection to add the spots to.
+	 */
+	synchronized void getSpots( final int frame, final double xmin, final double xmax, final double ymin, final double ymax, final double zmin, final double zmax, final Collection< Spot > target )
+	{
+		getGrid( frame ).query( xmin, xmax, ymin, ymax, zmin, zmax, target );
+	}
+
+	/**
+	 * Returns the largest radius of the visible spots in the specified frame.
+	 * Spots overlapping the viewport but whose center is outside of it can be
+	 * found by enlarging the query box by this amount.
+	 *
+	 * @param frame
+	 *            the frame.
+	 * @return the largest spot radius, in physical units.
+	 */
+	synchronized double getMaxRadius( final int frame )
+	{
+		return getGrid( frame ).maxRadius;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private FrameGrid getGrid( final int frame )
+	{
+		final Integer key = Integer.valueOf( frame );
+		FrameGrid grid = grids.get( key );
+		if ( null == grid )
+		{
+			final List< Spot > spots = new ArrayList< Spot >();
+			for ( final Iterator< Spot > it = model.getSpots().iterator( key, true ); it.hasNext(); )
+			{
+				spots.add( it.next() );
+			}
+			grid = new FrameGrid( spots );
+			grids.put( key, grid );
+		}
+		return grid;
+	}
+
+	/**
+	 * A regular grid over the spots of a single frame, stored in compressed
+	 * row form: the spots of cell <code>c</code> are
+	 * <code>spots[cellStart[c]]</code> to <code>spots[cellStart[c+1]-1]</code>.
+	 */
+	private static final class FrameGrid
+	{
+
+		private final Spot[] spots;
+
+		private final double[] xs;
+
+		private final double[] ys;
+
+		private final double[] zs;
+
+		private final int[] cellStart;
+
+		private final double x0;
+
+		private final double y0;
+
+		private final double cellWidth;
+
+		private final double cellHeight;
+
+		private final int nx;
+
+		private final int ny;
+
+		private final double maxRadius;
+
+		public FrameGrid( final List< Spot > list )
+		{
+			final int n = list.size();
+			final double[] x = new double[ n ];
+			final double[] y = new double[ n ];
+			final double[] z = new double[ n ];
+			double xmin = Double.POSITIVE_INFINITY;
+			double xmax = Double.NEGATIVE_INFINITY;
+			double ymin = Double.POSITIVE_INFINITY;
+			double ymax = Double.NEGATIVE_INFINITY;
+			double rmax = 0;
+			for ( int i = 0; i < n; i++ )
+			{
+				final Spot spot = list.get( i );
+				x[ i ] = spot.getFeature( Spot.POSITION_X ).doubleValue();
+				y[ i ] = spot.getFeature( Spot.POSITION_Y ).doubleValue();
+				z[ i ] = spot.getFeature( Spot.POSITION_Z ).doubleValue();
+				rmax = Math.max( rmax, spot.getFeature( Spot.RADIUS ).doubleValue() );
+				xmin = Math.min( xmin, x[ i ] );
+				xmax = Math.max( xmax, x[ i ] );
+				ymin = Math.min( ymin, y[ i ] );
+				ymax = Math.max( ymax, y[ i ] );
+			}
+			this.maxRadius = rmax;
+
+			final int side = Math.max( 1, ( int ) Math.ceil( Math.sqrt( ( double ) n / SPOTS_PER_CELL ) ) );
+			this.nx = side;
+			this.ny = side;
+			this.x0 = n > 0 ? xmin : 0;
+			this.y0 = n > 0 ? ymin : 0;
+			this.cellWidth = n > 0 && xmax > xmin ? ( xmax - xmin ) / nx : 1;
+			this.cellHeight = n > 0 && ymax > ymin ? ( ymax - ymin ) / ny : 1;
+
+			// Counting sort of spots by cell.
+			final int[] cells = new int[ n ];
+			this.cellStart = new int[ nx * ny + 1 ];
+			for ( int i = 0; i < n; i++ )
+			{
+				cells[ i ] = cellX( x[ i ] ) + nx * cellY( y[ i ] );
+				cellStart[ cells[ i ] + 1 ]++;
+			}
+			for ( int c = 0; c < nx * ny; c++ )
+			{
+				cellStart[ c + 1 ] += cellStart[ c ];
+			}
+			final int[] fill = new int[ nx * ny ];
+			this.spots = new Spot[ n ];
+			this.xs = new double[ n ];
+			this.ys = new double[ n ];
+			this.zs = new double[ n ];
+			for ( int i = 0; i < n; i++ )
+			{
+				final int index = cellStart[ cells[ i ] ] + fill[ cells[ i ] ]++;
+				spots[ index ] = list.get( i );
+				xs[ index ] = x[ i ];
+				ys[ index ] = y[ i ];
+				zs[ index ] = z[ i ];
+			}
+		}
+
+		private void query( final double xmin, final double xmax, final double ymin, final double ymax, final double zmin, final double zmax, final Collection< Spot > target )
+		{
+			if ( spots.length == 0 )
+			{
+				return;
+			}
+			final int cx0 = cellX( xmin );
+			final int cx1 = cellX( xmax );
+			final int cy0 = cellY( ymin );
+			final int cy1 = cellY( ymax );
+			for ( int cy = cy0; cy <= cy1; cy++ )
+			{
+				for ( int cx = cx0; cx <= cx1; cx++ )
+				{
+					final int c = cx + nx * cy;
+					for ( int i = cellStart[ c ]; i < cellStart[ c + 1 ]; i++ )
+					{
+						if ( xs[ i ] < xmin || xs[ i ] > xmax || ys[ i ] < ymin || ys[ i ] > ymax || zs[ i ] < zmin || zs[ i ] > zmax )
+						{
+							continue;
+						}
+						target.add( spots[ i ] );
+					}
+				}
+			}
+		}
+
+		private int cellX( final double x )
+		{
+			return Math.max( 0, Math.min( nx - 1, ( int ) Math.floor( ( x - x0 ) / cellWidth ) ) );
+		}
+
+		private int cellY( final double y )
+		{
+			return Math.max( 0, Math.min( ny - 1, ( int ) Math.floor( ( y - y0 ) / cellHeight ) ) );
+		}
+	}
+}
@@ -2,6 +2,7 @@ package fiji.plugin.trackmate.visualization.hyperstack;
 
 import static fiji.plugin.trackmate.visualization.TrackMateModelView.KEY_SPOT_COLORING;
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.util.TMUtils;
@@ -18,12 +19,14 @@ import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Stroke;
 import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -41,6 +44,12 @@ public class SpotOverlay extends Roi
 
 	private static final boolean DEBUG = false;
 
+	/**
+	 * How far spot names extend to the right of spots, in screen pixels, at
+	 * most.
+	 */
+	private static final int LABEL_MARGIN = 200;
+
 	protected Spot editingSpot;
 
 	protected final double[] calibration;
@@ -55,6 +64,18 @@ public class SpotOverlay extends Roi
 
 	protected final Model model;
 
+	/** The spatial index used to fetch only the spots in the viewport. */
+	private final SpotGridIndex spotIndex;
+
+	/** Reused at each repaint to collect the spots to draw. */
+	private final List< Spot > visibleSpots = new ArrayList< Spot >();
+
+	/** The cache for the rasterised spot layer. May be <code>null</code>. */
+	private OverlayLayerCache layerCache;
+
+	/** Spot names that would extend beyond this X are drawn on the left. */
+	private double labelLimit;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -66,6 +87,7 @@ public class SpotOverlay extends Roi
 		this.imp = imp;
 		this.calibration = TMUtils.getSpatialCalibration( imp );
 		this.displaySettings = displaySettings;
+		this.spotIndex = new SpotGridIndex( model );
 	}
 
 	/*
@@ -85,9 +107,6 @@ public class SpotOverlay extends Roi
 			return;
 		}
 
-		final boolean doLimitDrawingDepth = ( Boolean ) displaySettings.get( TrackMateModelView.KEY_LIMIT_DRAWING_DEPTH );
-		final double drawingDepth = ( Double ) displaySettings.get( TrackMateModelView.KEY_DRAWING_DEPTH );
-
 		final Graphics2D g2d = ( Graphics2D ) g;
 		// Save graphic device original settings
 		final AffineTransform originalTransform = g2d.getTransform();
@@ -108,26 +127,18 @@ public class SpotOverlay extends Roi
 		// Deal with normal spots.
 		@SuppressWarnings( "unchecked" )
 		final FeatureColorGenerator< Spot > colorGenerator = ( FeatureColorGenerator< Spot > ) displaySettings.get( KEY_SPOT_COLORING );
-		g2d.setStroke( new BasicStroke( 1.0f ) );
-		for ( final Iterator< Spot > iterator = spots.iterator( frame, true ); iterator.hasNext(); )
+		final Rectangle srcRect = ic.getSrcRect();
+		final long start = System.nanoTime();
+		int tilesRendered = -1;
+		labelLimit = imp.getWindow().getWidth();
+		// The editing spot moves with the mouse: draw live while editing.
+		if ( null != layerCache && null == editingSpot )
 		{
-			final Spot spot = iterator.next();
-
-			if ( editingSpot == spot || ( spotSelection != null && spotSelection.contains( spot ) ) )
-			{
-				continue;
-			}
-
-			final Color color = colorGenerator.color( spot );
-			g2d.setColor( color );
-
-			final double z = spot.getFeature( Spot.POSITION_Z ).doubleValue();
-			if ( doLimitDrawingDepth && Math.abs( z - zslice ) > drawingDepth )
-			{
-				continue;
-			}
-
-			drawSpot( g2d, spot, zslice, xcorner, ycorner, mag );
+			tilesRendered = drawCachedSpots( g2d, colorGenerator, frame, zslice, srcRect, xcorner, ycorner, mag );
+		}
+		else
+		{
+			drawSpots( g2d, colorGenerator, frame, zslice, srcRect.x, srcRect.y, srcRect.x + srcRect.width, srcRect.y + srcRect.height, xcorner, ycorner, mag, true );
 		}
 
 		// Deal with spot selection
@@ -182,17 +193,148 @@ public class SpotOverlay extends Roi
 		g2d.setStroke( originalStroke );
 		g2d.setColor( originalColor );
 		g2d.setFont( originalFont );
+
+		if ( null != layerCache )
+		{
+			layerCache.firePainted( OverlayLayerCache.SPOT_LAYER, System.nanoTime() - start, tilesRendered );
+		}
+	}
+
+	/**
+	 * Draws the spots of the specified frame whose center is within one
+	 * radius of the specified area, given in image pixel coordinates.
+	 *
+	 * @param live
+	 *            if <code>true</code>, the spots are drawn directly on screen,
+	 *            and the selected and editing spots are skipped because they
+	 *            are drawn afterwards. If <code>false</code>, the spots are
+	 *            drawn in a cache tile.
+	 */
+	private void drawSpots( final Graphics2D g2d, final FeatureColorGenerator< Spot > colorGenerator, final int frame, final double zslice, final double xpmin, final double ypmin, final double xpmax, final double ypmax, final int xcorner, final int ycorner, final double mag, final boolean live )
+	{
+		final boolean doLimitDrawingDepth = ( Boolean ) displaySettings.get( TrackMateModelView.KEY_LIMIT_DRAWING_DEPTH );
+		final double drawingDepth = ( Double ) displaySettings.get( TrackMateModelView.KEY_DRAWING_DEPTH );
+		final boolean spotNameVisible = ( Boolean ) displaySettings.get( TrackMateModelView.KEY_DISPLAY_SPOT_NAMES );
+		final double radiusRatio = ( Double ) displaySettings.get( TrackMateModelView.KEY_SPOT_RADIUS_RATIO );
+		g2d.setStroke( new BasicStroke( 1.0f ) );
+
+		/*
+		 * Only fetch the spots that can be seen in the area: their center
+		 * must be within one radius of it. Spot names extend further. Bounds
+		 * are converted to physical units, with the same pixel-center
+		 * convention as in drawSpot().
+		 */
+		final double margin = Math.max( spotIndex.getMaxRadius( frame ) * radiusRatio, 2 * calibration[ 0 ] );
+		final double labelMargin = spotNameVisible ? LABEL_MARGIN / mag * calibration[ 0 ] : 0;
+		final double xmin = ( xpmin - 0.5 ) * calibration[ 0 ] - margin - labelMargin;
+		final double xmax = ( xpmax - 0.5 ) * calibration[ 0 ] + margin + labelMargin;
+		final double ymin = ( ypmin - 0.5 ) * calibration[ 1 ] - margin;
+		final double ymax = ( ypmax - 0.5 ) * calibration[ 1 ] + margin;
+		final double zmin = doLimitDrawingDepth ? zslice - drawingDepth : Double.NEGATIVE_INFINITY;
+		final double zmax = doLimitDrawingDepth ? zslice + drawingDepth : Double.POSITIVE_INFINITY;
+		visibleSpots.clear();
+		spotIndex.getSpots( frame, xmin, xmax, ymin, ymax, zmin, zmax, visibleSpots );
+
+		for ( final Spot spot : visibleSpots )
+		{
+			if ( live && ( editingSpot == spot || ( spotSelection != null && spotSelection.contains( spot ) ) ) )
+			{
+				continue;
+			}
+
+			final Color color = colorGenerator.color( spot );
+			g2d.setColor( color );
+			drawSpot( g2d, spot, zslice, xcorner, ycorner, mag );
+			if ( !live )
+			{
+				layerCache.recordSpot( spot );
+			}
+		}
+		visibleSpots.clear();
+	}
+
+	/**
+	 * Blits the spot layer tiles covering the viewport, rendering the ones
+	 * missing from the cache.
+	 *
+	 * @return the number of tiles that had to be rendered.
+	 */
+	private int drawCachedSpots( final Graphics2D g2d, final FeatureColorGenerator< Spot > colorGenerator, final int frame, final double zslice, final Rectangle srcRect, final int xcorner, final int ycorner, final double mag )
+	{
+		final int size = OverlayLayerCache.TILE_SIZE;
+		final int z = imp.getSlice() - 1;
+		final int txmin = ( int ) Math.floor( srcRect.x * mag / size );
+		final int txmax = ( int ) Math.floor( ( srcRect.x + srcRect.width ) * mag / size );
+		final int tymin = ( int ) Math.floor( srcRect.y * mag / size );
+		final int tymax = ( int ) Math.floor( ( srcRect.y + srcRect.height ) * mag / size );
+		// Tiles are drawn in zoomed image coordinates.
+		final double screenLabelLimit = labelLimit;
+		labelLimit = imp.getWidth() * mag;
+
+		int rendered = 0;
+		final Composite blitComposite = AlphaComposite.getInstance( AlphaComposite.SRC_OVER );
+		for ( int ty = tymin; ty <= tymax; ty++ )
+		{
+			for ( int tx = txmin; tx <= txmax; tx++ )
+			{
+				BufferedImage tile = layerCache.getTile( OverlayLayerCache.SPOT_LAYER, frame, z, mag, tx, ty );
+				if ( null == tile )
+				{
+					final long generation = layerCache.getGeneration();
+					tile = new BufferedImage( size, size, BufferedImage.TYPE_INT_ARGB );
+					final Graphics2D tg = tile.createGraphics();
+					tg.translate( -tx * size, -ty * size );
+					tg.setComposite( composite );
+					tg.setFont( LABEL_FONT );
+					tg.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON );
+					drawSpots( tg, colorGenerator, frame, zslice, tx * size / mag, ty * size / mag, ( tx + 1 ) * size / mag, ( ty + 1 ) * size / mag, 0, 0, mag, false );
+					tg.dispose();
+					layerCache.putTile( OverlayLayerCache.SPOT_LAYER, frame, z, mag, tx, ty, tile, generation );
+					rendered++;
+				}
+				// The tile already has the layer composite applied.
+				g2d.setComposite( blitComposite );
+				g2d.drawImage( tile, ( int ) Math.round( tx * size - xcorner * mag ), ( int ) Math.round( ty * size - ycorner * mag ), null );
+				g2d.setComposite( composite );
+			}
+		}
+		labelLimit = screenLabelLimit;
+		return rendered;
 	}
 
 	protected void drawExtraLayer( final Graphics2D g2d, final int frame )
 	{
 	}
 
+	/**
+	 * Sets the cache in which to store the rasterised spot layer. If
+	 * <code>null</code>, spots are drawn directly at each repaint.
+	 *
+	 * @param layerCache
+	 *            the layer cache.
+	 */
+	public void setLayerCache( final OverlayLayerCache layerCache )
+	{
+		this.layerCache = layerCache;
+	}
+
 	public void setSpotSelection( final Collection< Spot > spots )
 	{
 		this.spotSelection = spots;
 	}
 
+	/**
+	 * Updates the spatial index of this overlay. Must be called by the view
+	 * owning this overlay for each {@link ModelChangeEvent} it receives.
+	 *
+	 * @param event
+	 *            the model change event.
+	 */
+	public void modelChanged( final ModelChangeEvent event )
+	{
+		spotIndex.modelChanged( event );
+	}
+
 	protected void drawSpot( final Graphics2D g2d, final Spot spot, final double zslice, final int xcorner, final int ycorner, final double magnification )
 	{
 		final double x = spot.getFeature( Spot.POSITION_X );
@@ -225,7 +367,7 @@ public class SpotOverlay extends Roi
 
 				final int xindent = fm.stringWidth( str );
 				int xtext = ( int ) ( xs + apparentRadius + 5 );
-				if ( xtext + xindent > imp.getWindow().getWidth() )
+				if ( xtext + xindent > labelLimit )
 				{
 					xtext = ( int ) ( xs - apparentRadius - 5 - xindent );
 				}
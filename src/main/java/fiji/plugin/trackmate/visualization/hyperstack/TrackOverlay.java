@@ -1,6 +1,7 @@
 package fiji.plugin.trackmate.visualization.hyperstack;
 
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.util.TMUtils;
 import fiji.plugin.trackmate.visualization.TrackColorGenerator;
@@ -14,11 +15,15 @@ import java.awt.Color;
 import java.awt.Composite;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Stroke;
 import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -43,6 +48,18 @@ public class TrackOverlay extends Roi
 
 	private TrackColorGenerator colorGenerator;
 
+	/**
+	 * The edges bucketed by frame, so that we only visit the ones in the
+	 * display window.
+	 */
+	private final EdgeFrameIndex edgeIndex;
+
+	/** Reused at each repaint to collect the edges to draw. */
+	private final List< DefaultWeightedEdge > edges = new ArrayList< DefaultWeightedEdge >();
+
+	/** The cache for the rasterised track layer. May be <code>null</code>. */
+	private OverlayLayerCache layerCache;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -54,6 +71,7 @@ public class TrackOverlay extends Roi
 		this.calibration = TMUtils.getSpatialCalibration( imp );
 		this.imp = imp;
 		this.displaySettings = displaySettings;
+		this.edgeIndex = new EdgeFrameIndex( model );
 	}
 
 	/*
@@ -65,6 +83,30 @@ public class TrackOverlay extends Roi
 		this.highlight = edges;
 	}
 
+	/**
+	 * Updates the edge index of this overlay. Must be called by the view
+	 * owning this overlay for each {@link ModelChangeEvent} it receives.
+	 *
+	 * @param event
+	 *            the model change event.
+	 */
+	public void modelChanged( final ModelChangeEvent event )
+	{
+		edgeIndex.modelChanged( event );
+	}
+
+	/**
+	 * Sets the cache in which to store the rasterised track layer. If
+	 * <code>null</code>, tracks are drawn directly at each repaint.
+	 *
+	 * @param layerCache
+	 *            the layer cache.
+	 */
+	public void setLayerCache( final OverlayLayerCache layerCache )
+	{
+		this.layerCache = layerCache;
+	}
+
 	@Override
 	public final synchronized void drawOverlay( final Graphics g )
 	{
@@ -86,27 +128,11 @@ public class TrackOverlay extends Roi
 		final Composite originalComposite = g2d.getComposite();
 		final Stroke originalStroke = g2d.getStroke();
 		final Color originalColor = g2d.getColor();
-		Spot source, target;
+		final long start = System.nanoTime();
 
-		// Deal with highlighted edges first: brute and thick display
-		g2d.setStroke( new BasicStroke( 4.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND ) );
-		g2d.setColor( TrackMateModelView.DEFAULT_HIGHLIGHT_COLOR );
-		for ( final DefaultWeightedEdge edge : highlight )
-		{
-			source = model.getTrackModel().getEdgeSource( edge );
-			target = model.getTrackModel().getEdgeTarget( edge );
-			drawEdge( g2d, source, target, xcorner, ycorner, magnification );
-		}
-
-		// The rest
 		final int currentFrame = imp.getFrame() - 1;
 		final int trackDisplayMode = ( Integer ) displaySettings.get( TrackMateModelView.KEY_TRACK_DISPLAY_MODE );
 		final int trackDisplayDepth = ( Integer ) displaySettings.get( TrackMateModelView.KEY_TRACK_DISPLAY_DEPTH );
-		final Set< Integer > filteredTrackKeys = model.getTrackModel().unsortedTrackIDs( true );
-
-		g2d.setStroke( new BasicStroke( 2.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND ) );
-		if ( trackDisplayMode == TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL || trackDisplayMode == TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_QUICK )
-			g2d.setComposite( AlphaComposite.getInstance( AlphaComposite.SRC_OVER ) );
 
 		// Determine bounds for limited view modes
 		int minT = 0;
@@ -130,36 +156,154 @@ public class TrackOverlay extends Roi
 			break;
 		}
 
+		// Only visit the edges in the display window
+		edges.clear();
+		if ( trackDisplayMode == TrackMateModelView.TRACK_DISPLAY_MODE_WHOLE )
+			edgeIndex.getEdges( edges );
+		else
+			edgeIndex.getEdges( minT, maxT, edges );
+
+		int tilesRendered = -1;
+		if ( null != layerCache )
+		{
+			/*
+			 * The cached layer does not depend on the frame in the whole
+			 * mode, and on the slice if the drawing depth is not limited. The
+			 * highlighted edges are drawn on top of it.
+			 */
+			final int frameKey = trackDisplayMode == TrackMateModelView.TRACK_DISPLAY_MODE_WHOLE ? -1 : currentFrame;
+			final int zKey = doLimitDrawingDepth ? imp.getSlice() - 1 : -1;
+			tilesRendered = drawCachedTracks( g2d, frameKey, zKey, trackDisplayMode, currentFrame, trackDisplayDepth, zslice, doLimitDrawingDepth, drawingDepth, xcorner, ycorner, magnification );
+			g2d.setComposite( originalComposite );
+			drawHighlight( g2d, xcorner, ycorner, magnification );
+		}
+		else
+		{
+			drawHighlight( g2d, xcorner, ycorner, magnification );
+			drawTracks( g2d, trackDisplayMode, currentFrame, trackDisplayDepth, zslice, doLimitDrawingDepth, drawingDepth, xcorner, ycorner, magnification, null );
+		}
+		edges.clear();
+
+		// Restore graphic device original settings
+		g2d.setTransform( originalTransform );
+		g2d.setComposite( originalComposite );
+		g2d.setStroke( originalStroke );
+		g2d.setColor( originalColor );
+
+		if ( null != layerCache )
+			layerCache.firePainted( OverlayLayerCache.TRACK_LAYER, System.nanoTime() - start, tilesRendered );
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Deals with highlighted edges: brute and thick display.
+	 */
+	private void drawHighlight( final Graphics2D g2d, final int xcorner, final int ycorner, final double magnification )
+	{
+		g2d.setStroke( new BasicStroke( 4.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND ) );
+		g2d.setColor( TrackMateModelView.DEFAULT_HIGHLIGHT_COLOR );
+		for ( final DefaultWeightedEdge edge : highlight )
+		{
+			final Spot source = model.getTrackModel().getEdgeSource( edge );
+			final Spot target = model.getTrackModel().getEdgeTarget( edge );
+			drawEdge( g2d, source, target, xcorner, ycorner, magnification );
+		}
+	}
+
+	/**
+	 * Blits the track layer tiles covering the viewport, rendering the ones
+	 * missing from the cache.
+	 *
+	 * @return the number of tiles that had to be rendered.
+	 */
+	private int drawCachedTracks( final Graphics2D g2d, final int frameKey, final int zKey, final int trackDisplayMode, final int currentFrame, final int trackDisplayDepth, final double zslice, final boolean doLimitDrawingDepth, final double drawingDepth, final int xcorner, final int ycorner, final double magnification )
+	{
+		final int size = OverlayLayerCache.TILE_SIZE;
+		final Rectangle srcRect = ic.getSrcRect();
+		final int txmin = ( int ) Math.floor( srcRect.x * magnification / size );
+		final int txmax = ( int ) Math.floor( ( srcRect.x + srcRect.width ) * magnification / size );
+		final int tymin = ( int ) Math.floor( srcRect.y * magnification / size );
+		final int tymax = ( int ) Math.floor( ( srcRect.y + srcRect.height ) * magnification / size );
+
+		int rendered = 0;
+		g2d.setComposite( AlphaComposite.getInstance( AlphaComposite.SRC_OVER ) );
+		for ( int ty = tymin; ty <= tymax; ty++ )
+		{
+			for ( int tx = txmin; tx <= txmax; tx++ )
+			{
+				BufferedImage tile = layerCache.getTile( OverlayLayerCache.TRACK_LAYER, frameKey, zKey, magnification, tx, ty );
+				if ( null == tile )
+				{
+					final long generation = layerCache.getGeneration();
+					tile = new BufferedImage( size, size, BufferedImage.TYPE_INT_ARGB );
+					final Graphics2D tg = tile.createGraphics();
+					tg.translate( -tx * size, -ty * size );
+					final double[] area = new double[] { tx * size / magnification, ty * size / magnification, ( tx + 1 ) * size / magnification, ( ty + 1 ) * size / magnification };
+					drawTracks( tg, trackDisplayMode, currentFrame, trackDisplayDepth, zslice, doLimitDrawingDepth, drawingDepth, 0, 0, magnification, area );
+					tg.dispose();
+					layerCache.putTile( OverlayLayerCache.TRACK_LAYER, frameKey, zKey, magnification, tx, ty, tile, generation );
+					rendered++;
+				}
+				g2d.drawImage( tile, ( int ) Math.round( tx * size - xcorner * magnification ), ( int ) Math.round( ty * size - ycorner * magnification ), null );
+			}
+		}
+		return rendered;
+	}
+
+	/**
+	 * Draws the edges collected for this repaint.
+	 *
+	 * @param area
+	 *            if <code>null</code>, edges are drawn directly on screen, and
+	 *            the highlighted edges are skipped. Otherwise, edges are drawn
+	 *            in a cache tile, and only those crossing the specified area,
+	 *            given as <code>{ xmin, ymin, xmax, ymax }</code> in image
+	 *            pixel coordinates, are drawn.
+	 */
+	private void drawTracks( final Graphics2D g2d, final int trackDisplayMode, final int currentFrame, final int trackDisplayDepth, final double zslice, final boolean doLimitDrawingDepth, final double drawingDepth, final int xcorner, final int ycorner, final double magnification, final double[] area )
+	{
+		final Set< Integer > filteredTrackKeys = model.getTrackModel().unsortedTrackIDs( true );
+		final boolean live = null == area;
+		// Stroke half-width, in image pixels.
+		final double pad = 2 / magnification;
+		Spot source, target;
+
+		g2d.setStroke( new BasicStroke( 2.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND ) );
+		if ( trackDisplayMode == TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL || trackDisplayMode == TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_QUICK )
+			g2d.setComposite( AlphaComposite.getInstance( AlphaComposite.SRC_OVER ) );
+
 		float transparency;
 		switch ( trackDisplayMode )
 		{
 
 		case TrackMateModelView.TRACK_DISPLAY_MODE_WHOLE:
 		{
-			for ( final Integer trackID : filteredTrackKeys )
+			for ( final DefaultWeightedEdge edge : edges )
 			{
-				colorGenerator.setCurrentTrackID( trackID );
-				Set< DefaultWeightedEdge > track;
-				synchronized ( model )
-				{
-					track = new HashSet< DefaultWeightedEdge >( model.getTrackModel().trackEdges( trackID ) );
-				}
-				for ( final DefaultWeightedEdge edge : track )
-				{
-					if ( highlight.contains( edge ) )
-						continue;
+				if ( live && highlight.contains( edge ) )
+					continue;
 
-					source = model.getTrackModel().getEdgeSource( edge );
-					target = model.getTrackModel().getEdgeTarget( edge );
+				final Integer trackID = model.getTrackModel().trackIDOf( edge );
+				if ( null == trackID || !filteredTrackKeys.contains( trackID ) )
+					continue;
 
-					final double zs = source.getFeature( Spot.POSITION_Z ).doubleValue();
-					final double zt = target.getFeature( Spot.POSITION_Z ).doubleValue();
-					if ( doLimitDrawingDepth && Math.abs( zs - zslice ) > drawingDepth && Math.abs( zt - zslice ) > drawingDepth )
-						continue;
+				source = model.getTrackModel().getEdgeSource( edge );
+				target = model.getTrackModel().getEdgeTarget( edge );
 
-					g2d.setColor( colorGenerator.color( edge ) );
-					drawEdge( g2d, source, target, xcorner, ycorner, magnification );
-				}
+				final double zs = source.getFeature( Spot.POSITION_Z ).doubleValue();
+				final double zt = target.getFeature( Spot.POSITION_Z ).doubleValue();
+				if ( doLimitDrawingDepth && Math.abs( zs - zslice ) > drawingDepth && Math.abs( zt - zslice ) > drawingDepth )
+					continue;
+
+				if ( !live && !crosses( source, target, area, pad ) )
+					continue;
+
+				colorGenerator.setCurrentTrackID( trackID );
+				g2d.setColor( colorGenerator.color( edge ) );
+				drawEdge( g2d, source, target, xcorner, ycorner, magnification );
 			}
 			break;
 		}
@@ -171,34 +315,29 @@ public class TrackOverlay extends Roi
 
 			g2d.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF );
 
-			for ( final Integer trackID : filteredTrackKeys )
+			for ( final DefaultWeightedEdge edge : edges )
 			{
-				colorGenerator.setCurrentTrackID( trackID );
-				Set< DefaultWeightedEdge > track;
-				synchronized ( model )
-				{
-					track = new HashSet< DefaultWeightedEdge >( model.getTrackModel().trackEdges( trackID ) );
-				}
-				for ( final DefaultWeightedEdge edge : track )
-				{
-					if ( highlight.contains( edge ) )
-						continue;
+				if ( live && highlight.contains( edge ) )
+					continue;
 
-					source = model.getTrackModel().getEdgeSource( edge );
-					final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
-					if ( sourceFrame < minT || sourceFrame >= maxT )
-						continue;
+				final Integer trackID = model.getTrackModel().trackIDOf( edge );
+				if ( null == trackID || !filteredTrackKeys.contains( trackID ) )
+					continue;
 
-					target = model.getTrackModel().getEdgeTarget( edge );
+				source = model.getTrackModel().getEdgeSource( edge );
+				target = model.getTrackModel().getEdgeTarget( edge );
 
-					final double zs = source.getFeature( Spot.POSITION_Z ).doubleValue();
-					final double zt = target.getFeature( Spot.POSITION_Z ).doubleValue();
-					if ( doLimitDrawingDepth && Math.abs( zs - zslice ) > drawingDepth && Math.abs( zt - zslice ) > drawingDepth )
-						continue;
+				final double zs = source.getFeature( Spot.POSITION_Z ).doubleValue();
+				final double zt = target.getFeature( Spot.POSITION_Z ).doubleValue();
+				if ( doLimitDrawingDepth && Math.abs( zs - zslice ) > drawingDepth && Math.abs( zt - zslice ) > drawingDepth )
+					continue;
 
-					g2d.setColor( colorGenerator.color( edge ) );
-					drawEdge( g2d, source, target, xcorner, ycorner, magnification );
-				}
+				if ( !live && !crosses( source, target, area, pad ) )
+					continue;
+
+				colorGenerator.setCurrentTrackID( trackID );
+				g2d.setColor( colorGenerator.color( edge ) );
+				drawEdge( g2d, source, target, xcorner, ycorner, magnification );
 			}
 			break;
 		}
@@ -210,42 +349,50 @@ public class TrackOverlay extends Roi
 
 			g2d.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON );
 
-			for ( final Integer trackID : filteredTrackKeys )
+			for ( final DefaultWeightedEdge edge : edges )
 			{
+				if ( live && highlight.contains( edge ) )
+					continue;
+
+				final Integer trackID = model.getTrackModel().trackIDOf( edge );
+				if ( null == trackID || !filteredTrackKeys.contains( trackID ) )
+					continue;
+
+				source = model.getTrackModel().getEdgeSource( edge );
+				target = model.getTrackModel().getEdgeTarget( edge );
+				if ( !live && !crosses( source, target, area, pad ) )
+					continue;
+
+				final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
+				transparency = ( float ) ( 1 - Math.abs( ( double ) sourceFrame - currentFrame ) / trackDisplayDepth );
 				colorGenerator.setCurrentTrackID( trackID );
-				final Set< DefaultWeightedEdge > track;
-				synchronized ( model )
-				{
-					track = new HashSet< DefaultWeightedEdge >( model.getTrackModel().trackEdges( trackID ) );
-				}
-				for ( final DefaultWeightedEdge edge : track )
-				{
-					if ( highlight.contains( edge ) )
-						continue;
-
-					source = model.getTrackModel().getEdgeSource( edge );
-					final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
-					if ( sourceFrame < minT || sourceFrame >= maxT )
-						continue;
-
-					transparency = ( float ) ( 1 - Math.abs( ( double ) sourceFrame - currentFrame ) / trackDisplayDepth );
-					target = model.getTrackModel().getEdgeTarget( edge );
-					g2d.setColor( colorGenerator.color( edge ) );
-					drawEdge( g2d, source, target, xcorner, ycorner, magnification, transparency );
-				}
+				g2d.setColor( colorGenerator.color( edge ) );
+				drawEdge( g2d, source, target, xcorner, ycorner, magnification, transparency );
 			}
 			break;
 
 		}
 
 		}
+	}
 
-		// Restore graphic device original settings
-		g2d.setTransform( originalTransform );
-		g2d.setComposite( originalComposite );
-		g2d.setStroke( originalStroke );
-		g2d.setColor( originalColor );
-
+	/**
+	 * Returns <code>true</code> if the bounding box of the edge between the
+	 * two spots, padded by the specified amount, overlaps the specified area,
+	 * in image pixel coordinates. Spots are then recorded in the layer cache.
+	 */
+	private boolean crosses( final Spot source, final Spot target, final double[] area, final double pad )
+	{
+		final double xs = source.getFeature( Spot.POSITION_X ) / calibration[ 0 ] + 0.5;
+		final double ys = source.getFeature( Spot.POSITION_Y ) / calibration[ 1 ] + 0.5;
+		final double xt = target.getFeature( Spot.POSITION_X ) / calibration[ 0 ] + 0.5;
+		final double yt = target.getFeature( Spot.POSITION_Y ) / calibration[ 1 ] + 0.5;
+		if ( Math.max( xs, xt ) + pad < area[ 0 ] || Math.min( xs, xt ) - pad > area[ 2 ] || Math.max( ys, yt ) + pad < area[ 1 ] || Math.min( ys, yt ) - pad > area[ 3 ] )
+			return false;
+
+		layerCache.recordSpot( source );
+		layerCache.recordSpot( target );
+		return true;
 	}
 
 	/*
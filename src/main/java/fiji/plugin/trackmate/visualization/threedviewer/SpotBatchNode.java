@@ -0,0 +1,702 @@
+package fiji.plugin.trackmate.visualization.threedviewer;
+
+import static fiji.plugin.trackmate.gui.TrackMateWizard.SMALL_FONT;
+import fiji.plugin.trackmate.visualization.TrackMateModelView;
+import ij3d.ContentNode;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.media.j3d.Appearance;
+import javax.media.j3d.BranchGroup;
+import javax.media.j3d.ColoringAttributes;
+import javax.media.j3d.Font3D;
+import javax.media.j3d.Geometry;
+import javax.media.j3d.GeometryArray;
+import javax.media.j3d.GeometryUpdater;
+import javax.media.j3d.IndexedGeometryArray;
+import javax.media.j3d.IndexedTriangleArray;
+import javax.media.j3d.LineAttributes;
+import javax.media.j3d.Material;
+import javax.media.j3d.OrientedShape3D;
+import javax.media.j3d.PolygonAttributes;
+import javax.media.j3d.Shape3D;
+import javax.media.j3d.Text3D;
+import javax.media.j3d.Transform3D;
+import javax.media.j3d.TransformGroup;
+import javax.media.j3d.TransparencyAttributes;
+import javax.media.j3d.View;
+import javax.vecmath.Color3f;
+import javax.vecmath.Tuple3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * A {@link ContentNode} that displays a batch of spheres, typically all the
+ * spots of one frame, as a single indexed triangle geometry.
+ * <p>
+ * Sphere centers, radii and colors are stored in primitive arrays, one slot
+ * per sphere. The geometry, which shares a unit-sphere index pattern between
+ * all slots and passes coordinates, normals and colors by reference, is only
+ * built when {@link #realize()} is called, so that a frame that is never
+ * viewed costs only these arrays. Mutators only update the slot arrays and
+ * mark the slot dirty; {@link #flush()} then pushes all dirty slots to the
+ * geometry in a single update. Removing a sphere moves the last slot in its
+ * place, so that all updates cost <code>O(changed)</code>.
+ * <p>
+ * Hidden spheres are collapsed to a radius of 0, which yields degenerate
+ * triangles that are not rendered.
+ *
+ * @param <K>
+ *            the type of the keys used to refer to spheres.
+ */
+public class SpotBatchNode<K> extends ContentNode {
+
+	private static final int DEFAULT_MERIDIAN_NUMBER = 12;
+	private static final int DEFAULT_PARALLEL_NUMBER = 12;
+
+	/**
+	 * Vertex coordinates of a sphere of radius 1, centered at (0, 0, 0). Also
+	 * used as normals.
+	 */
+	private static final float[] UNIT_VERTICES;
+	/**
+	 * Triangle indices into {@link #UNIT_VERTICES}.
+	 */
+	private static final int[] UNIT_INDICES;
+	static {
+		final int m = DEFAULT_MERIDIAN_NUMBER + 1;
+		final float[][][] globe = generateGlobe(DEFAULT_MERIDIAN_NUMBER, DEFAULT_PARALLEL_NUMBER);
+		UNIT_VERTICES = new float[3 * globe.length * m];
+		for (int j = 0; j < globe.length; j++) {
+			for (int k = 0; k < m; k++) {
+				System.arraycopy(globe[j][k], 0, UNIT_VERTICES, 3 * (j * m + k), 3);
+			}
+		}
+		// Same triangles as in SpotGroupNode#createSphere().
+		final int ntriangles = (2 * (globe.length - 1) - 2) * (m - 1);
+		UNIT_INDICES = new int[3 * ntriangles];
+		int i = 0;
+		for (int j = 0; j < globe.length - 1; j++) {
+			for (int k = 0; k < m - 1; k++) {
+				if (j != globe.length - 2) {
+					UNIT_INDICES[i++] = (j + 1) * m + k + 1;
+					UNIT_INDICES[i++] = j * m + k;
+					UNIT_INDICES[i++] = (j + 1) * m + k;
+				}
+				if (j != 0) {
+					UNIT_INDICES[i++] = j * m + k;
+					UNIT_INDICES[i++] = (j + 1) * m + k + 1;
+					UNIT_INDICES[i++] = j * m + k + 1;
+				}
+			}
+		}
+	}
+	/** Number of vertices per sphere. */
+	private static final int NV = UNIT_VERTICES.length / 3;
+	/** Number of indices per sphere. */
+	private static final int NI = UNIT_INDICES.length;
+
+	/**
+	 * The font size
+	 */
+	private final float fontsize = 3;
+	private final Font3D font3D = new Font3D(SMALL_FONT.deriveFont(fontsize), null);
+	private final Appearance textAp = new Appearance();
+	{
+		textAp.setLineAttributes(new LineAttributes(1, 1, true));
+		textAp.setColoringAttributes(new ColoringAttributes(new Color3f(TrackMateModelView.DEFAULT_SPOT_COLOR), ColoringAttributes.FASTEST));
+	}
+
+	/*
+	 * SLOT DATA
+	 */
+
+	private final Map<K, Integer> slots;
+	private Object[] keys;
+	private double[] xs;
+	private double[] ys;
+	private double[] zs;
+	private double[] rs;
+	private float[] rgb;
+	private boolean[] visible;
+	/** Number of used slots. */
+	private int n = 0;
+	/** Slots that changed since the last {@link #flush()}. */
+	private final BitSet dirty = new BitSet();
+
+	/*
+	 * GEOMETRY, only set once realized.
+	 */
+
+	private boolean realized = false;
+	private int geometryCapacity;
+	private IndexedTriangleArray geometry;
+	private float[] coords;
+	private float[] colors;
+	private Shape3D shape;
+	private final Appearance appearance;
+	private final PolygonAttributes polygonAtts;
+	private final TransparencyAttributes transparencyAtts;
+
+	/*
+	 * LABELS
+	 */
+
+	private boolean showLabels = false;
+	private BranchGroup labelGroup;
+	private final Map<K, BranchGroup> labels = new HashMap<K, BranchGroup>();
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Creates an empty batch.
+	 *
+	 * @param capacity
+	 *            the expected number of spheres.
+	 */
+	public SpotBatchNode(final int capacity) {
+		final int cap = Math.max(1, capacity);
+		this.slots = new HashMap<K, Integer>(cap);
+		this.keys = new Object[cap];
+		this.xs = new double[cap];
+		this.ys = new double[cap];
+		this.zs = new double[cap];
+		this.rs = new double[cap];
+		this.rgb = new float[3 * cap];
+		this.visible = new boolean[cap];
+
+		setCapability(ALLOW_CHILDREN_WRITE);
+		setCapability(ALLOW_CHILDREN_EXTEND);
+
+		appearance = new Appearance();
+		polygonAtts = new PolygonAttributes(PolygonAttributes.POLYGON_FILL, PolygonAttributes.CULL_NONE, 0f);
+		polygonAtts.setCapability(PolygonAttributes.ALLOW_MODE_WRITE);
+		appearance.setPolygonAttributes(polygonAtts);
+		transparencyAtts = new TransparencyAttributes(TransparencyAttributes.NONE, 0f);
+		transparencyAtts.setCapability(TransparencyAttributes.ALLOW_MODE_WRITE);
+		transparencyAtts.setCapability(TransparencyAttributes.ALLOW_VALUE_WRITE);
+		appearance.setTransparencyAttributes(transparencyAtts);
+		final Material material = new Material();
+		material.setColorTarget(Material.AMBIENT_AND_DIFFUSE);
+		appearance.setMaterial(material);
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Adds a visible sphere, or replaces the sphere with the same key.
+	 */
+	public void add(final K key, final double x, final double y, final double z, final double radius, final Color color) {
+		Integer slot = slots.get(key);
+		if (null == slot) {
+			ensureCapacity(n + 1);
+			slot = Integer.valueOf(n++);
+			slots.put(key, slot);
+		}
+		final int s = slot.intValue();
+		keys[s] = key;
+		xs[s] = x;
+		ys[s] = y;
+		zs[s] = z;
+		rs[s] = radius;
+		visible[s] = true;
+		setRGB(s, color.getRed() / 255f, color.getGreen() / 255f, color.getBlue() / 255f);
+		dirty.set(s);
+	}
+
+	/**
+	 * Removes the sphere with the specified key.
+	 *
+	 * @return <code>true</code> if the sphere was found.
+	 */
+	public boolean remove(final K key) {
+		final Integer slot = slots.remove(key);
+		if (null == slot) {
+			return false;
+		}
+		removeLabel(key);
+		final int s = slot.intValue();
+		final int last = --n;
+		if (s != last) {
+			// Move last slot in the hole.
+			@SuppressWarnings("unchecked")
+			final K lastKey = (K) keys[last];
+			keys[s] = lastKey;
+			xs[s] = xs[last];
+			ys[s] = ys[last];
+			zs[s] = zs[last];
+			rs[s] = rs[last];
+			visible[s] = visible[last];
+			System.arraycopy(rgb, 3 * last, rgb, 3 * s, 3);
+			slots.put(lastKey, slot);
+			dirty.set(s);
+		}
+		keys[last] = null;
+		dirty.clear(last);
+		return true;
+	}
+
+	public boolean contains(final K key) {
+		return slots.containsKey(key);
+	}
+
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Moves the sphere <code>key</code> and sets its radius.
+	 */
+	public void setCenter(final K key, final double x, final double y, final double z, final double radius) {
+		final Integer slot = slots.get(key);
+		if (null == slot) {
+			return;
+		}
+		final int s = slot.intValue();
+		xs[s] = x;
+		ys[s] = y;
+		zs[s] = z;
+		rs[s] = radius;
+		dirty.set(s);
+	}
+
+	/**
+	 * Change the radius of the sphere <code>key</code>. Its position is
+	 * unchanged.
+	 */
+	public void setRadius(final K key, final double radius) {
+		final Integer slot = slots.get(key);
+		if (null == slot || rs[slot.intValue()] == radius) {
+			return;
+		}
+		rs[slot.intValue()] = radius;
+		dirty.set(slot.intValue());
+	}
+
+	/**
+	 * Set the color of the sphere <code>key</code>.
+	 */
+	public void setColor(final K key, final Color3f color) {
+		final Integer slot = slots.get(key);
+		if (null == slot) {
+			return;
+		}
+		setRGB(slot.intValue(), color.x, color.y, color.z);
+		dirty.set(slot.intValue());
+	}
+
+	/**
+	 * Set the color of the sphere <code>key</code>.
+	 */
+	public void setColor(final K key, final Color color) {
+		final Integer slot = slots.get(key);
+		if (null == slot) {
+			return;
+		}
+		setRGB(slot.intValue(), color.getRed() / 255f, color.getGreen() / 255f, color.getBlue() / 255f);
+		dirty.set(slot.intValue());
+	}
+
+	public Color3f getColor3f(final K key) {
+		final Integer slot = slots.get(key);
+		if (null == slot) {
+			return null;
+		}
+		final int offset = 3 * slot.intValue();
+		return new Color3f(rgb[offset], rgb[offset + 1], rgb[offset + 2]);
+	}
+
+	/**
+	 * Set the visibility of the sphere <code>key</code>.
+	 */
+	public void setVisible(final K key, final boolean visible) {
+		final Integer slot = slots.get(key);
+		if (null == slot || this.visible[slot.intValue()] == visible) {
+			return;
+		}
+		this.visible[slot.intValue()] = visible;
+		dirty.set(slot.intValue());
+	}
+
+	/**
+	 * Set the visibility of all spheres given in argument to
+	 * <code>true</code>, all the others are set to invisible.
+	 */
+	public void setVisible(final Iterable<K> toShow) {
+		final boolean[] show = new boolean[n];
+		for (final K key : toShow) {
+			final Integer slot = slots.get(key);
+			if (null != slot) {
+				show[slot.intValue()] = true;
+			}
+		}
+		for (int s = 0; s < n; s++) {
+			if (visible[s] != show[s]) {
+				visible[s] = show[s];
+				dirty.set(s);
+			}
+		}
+	}
+
+	public void setShowLabels(final boolean showLabels) {
+		if (this.showLabels == showLabels) {
+			return;
+		}
+		this.showLabels = showLabels;
+		if (!realized) {
+			return;
+		}
+		if (showLabels) {
+			for (int s = 0; s < n; s++) {
+				updateLabel(s);
+			}
+		} else {
+			labelGroup.removeAllChildren();
+			labels.clear();
+		}
+	}
+
+	/**
+	 * Returns whether the geometry of this batch has been built.
+	 */
+	public boolean isRealized() {
+		return realized;
+	}
+
+	/**
+	 * Builds the geometry of this batch and adds it to this node. Does nothing
+	 * if it is already built.
+	 */
+	public void realize() {
+		if (realized) {
+			return;
+		}
+		realized = true;
+		dirty.clear();
+		makeGeometry();
+		shape = new Shape3D(geometry, appearance);
+		shape.setCapability(Shape3D.ALLOW_GEOMETRY_WRITE);
+		final BranchGroup bg = new BranchGroup();
+		bg.addChild(shape);
+		addChild(bg);
+
+		labelGroup = new BranchGroup();
+		labelGroup.setCapability(ALLOW_CHILDREN_WRITE);
+		labelGroup.setCapability(ALLOW_CHILDREN_EXTEND);
+		if (showLabels) {
+			for (int s = 0; s < n; s++) {
+				updateLabel(s);
+			}
+		}
+		addChild(labelGroup);
+	}
+
+	/**
+	 * Pushes all the changes made since the last call to the geometry, if it
+	 * is built.
+	 */
+	public void flush() {
+		if (!realized) {
+			dirty.clear();
+			return;
+		}
+		if (n > geometryCapacity) {
+			// Slot arrays outgrew the geometry.
+			dirty.clear();
+			makeGeometry();
+			shape.setGeometry(geometry);
+			if (showLabels) {
+				for (int s = 0; s < n; s++) {
+					updateLabel(s);
+				}
+			}
+			return;
+		}
+		geometry.updateData(new GeometryUpdater() {
+			@Override
+			public void updateData(final Geometry geom) {
+				for (int s = dirty.nextSetBit(0); s >= 0 && s < n; s = dirty.nextSetBit(s + 1)) {
+					writeSlot(s);
+				}
+			}
+		});
+		geometry.setValidIndexCount(n * NI);
+		if (showLabels) {
+			for (int s = dirty.nextSetBit(0); s >= 0 && s < n; s = dirty.nextSetBit(s + 1)) {
+				updateLabel(s);
+			}
+		}
+		dirty.clear();
+	}
+
+	@Override
+	public String toString() {
+		return "SpotBatchNode with " + n + " spots (realized: " + realized + ", showLabels: " + showLabels + ").";
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void setRGB(final int s, final float r, final float g, final float b) {
+		rgb[3 * s] = r;
+		rgb[3 * s + 1] = g;
+		rgb[3 * s + 2] = b;
+	}
+
+	private void ensureCapacity(final int capacity) {
+		if (capacity <= keys.length) {
+			return;
+		}
+		final int cap = Math.max(capacity, 2 * keys.length);
+		keys = Arrays.copyOf(keys, cap);
+		xs = Arrays.copyOf(xs, cap);
+		ys = Arrays.copyOf(ys, cap);
+		zs = Arrays.copyOf(zs, cap);
+		rs = Arrays.copyOf(rs, cap);
+		rgb = Arrays.copyOf(rgb, 3 * cap);
+		visible = Arrays.copyOf(visible, cap);
+	}
+
+	/**
+	 * Creates a new geometry sized after the current slot capacity, and
+	 * writes all slots in it.
+	 */
+	private void makeGeometry() {
+		geometryCapacity = keys.length;
+		coords = new float[3 * NV * geometryCapacity];
+		colors = new float[3 * NV * geometryCapacity];
+		final float[] normals = new float[3 * NV * geometryCapacity];
+		final int[] indices = new int[NI * geometryCapacity];
+		for (int s = 0; s < geometryCapacity; s++) {
+			System.arraycopy(UNIT_VERTICES, 0, normals, 3 * NV * s, 3 * NV);
+			for (int i = 0; i < NI; i++) {
+				indices[NI * s + i] = NV * s + UNIT_INDICES[i];
+			}
+		}
+		for (int s = 0; s < n; s++) {
+			writeSlot(s);
+		}
+
+		geometry = new IndexedTriangleArray(NV * geometryCapacity, GeometryArray.COORDINATES | GeometryArray.NORMALS | GeometryArray.COLOR_3 | GeometryArray.BY_REFERENCE | GeometryArray.USE_COORD_INDEX_ONLY | GeometryArray.BY_REFERENCE_INDICES, NI * geometryCapacity);
+		geometry.setCapability(GeometryArray.ALLOW_REF_DATA_WRITE);
+		geometry.setCapability(GeometryArray.ALLOW_REF_DATA_READ);
+		geometry.setCapability(GeometryArray.ALLOW_COUNT_WRITE);
+		geometry.setCapability(IndexedGeometryArray.ALLOW_COORDINATE_INDEX_WRITE);
+		geometry.setCoordRefFloat(coords);
+		geometry.setNormalRefFloat(normals);
+		geometry.setColorRefFloat(colors);
+		geometry.setCoordIndicesRef(indices);
+		geometry.setValidIndexCount(n * NI);
+	}
+
+	/**
+	 * Writes the vertices and colors of slot <code>s</code> in the geometry
+	 * arrays.
+	 */
+	private void writeSlot(final int s) {
+		final float x = (float) xs[s];
+		final float y = (float) ys[s];
+		final float z = (float) zs[s];
+		final float r = visible[s] ? (float) rs[s] : 0f;
+		final float red = rgb[3 * s];
+		final float green = rgb[3 * s + 1];
+		final float blue = rgb[3 * s + 2];
+		int offset = 3 * NV * s;
+		for (int v = 0; v < 3 * NV; v += 3) {
+			coords[offset] = UNIT_VERTICES[v] * r + x;
+			colors[offset++] = red;
+			coords[offset] = UNIT_VERTICES[v + 1] * r + y;
+			colors[offset++] = green;
+			coords[offset] = UNIT_VERTICES[v + 2] * r + z;
+			colors[offset++] = blue;
+		}
+	}
+
+	/**
+	 * Re-creates the label of slot <code>s</code>, or removes it if the slot
+	 * is hidden.
+	 */
+	private void updateLabel(final int s) {
+		@SuppressWarnings("unchecked")
+		final K key = (K) keys[s];
+		removeLabel(key);
+		if (!visible[s]) {
+			return;
+		}
+		final Text3D textGeom = new Text3D(font3D, key.toString());
+		textGeom.setAlignment(Text3D.ALIGN_FIRST);
+
+		final OrientedShape3D textShape = new OrientedShape3D();
+		textShape.setAlignmentMode(OrientedShape3D.ROTATE_NONE);
+		textShape.addGeometry(textGeom);
+		textShape.setAppearance(textAp);
+
+		final Transform3D translation = new Transform3D();
+		translation.rotX(Math.PI);
+		translation.setTranslation(new Vector3d(xs[s] + 1.5f * rs[s], ys[s], zs[s]));
+		final TransformGroup tg = new TransformGroup(translation);
+		tg.addChild(textShape);
+		final BranchGroup bg = new BranchGroup();
+		bg.setCapability(BranchGroup.ALLOW_DETACH);
+		bg.addChild(tg);
+		labelGroup.addChild(bg);
+		labels.put(key, bg);
+	}
+
+	private void removeLabel(final K key) {
+		final BranchGroup label = labels.remove(key);
+		if (null != label) {
+			labelGroup.removeChild(label);
+		}
+	}
+
+	/*
+	 * CONTENTNODE METHODS
+	 */
+
+	@Override
+	public void colorUpdated(final Color3f color) {
+		for (int s = 0; s < n; s++) {
+			setRGB(s, color.x, color.y, color.z);
+			dirty.set(s);
+		}
+		flush();
+	}
+
+	@Override
+	public void transparencyUpdated(final float transparency) {
+		transparencyAtts.setTransparencyMode(transparency > 0 ? TransparencyAttributes.BLENDED : TransparencyAttributes.NONE);
+		transparencyAtts.setTransparency(transparency);
+	}
+
+	@Override
+	public void shadeUpdated(final boolean shaded) {
+		polygonAtts.setPolygonMode(shaded ? PolygonAttributes.POLYGON_FILL : PolygonAttributes.POLYGON_LINE);
+	}
+
+	@Override
+	public void getCenter(final Tuple3d center) {
+		double x = 0, y = 0, z = 0;
+		for (int s = 0; s < n; s++) {
+			x += xs[s];
+			y += ys[s];
+			z += zs[s];
+		}
+		center.x = x / n;
+		center.y = y / n;
+		center.z = z / n;
+	}
+
+	@Override
+	public void getMax(final Tuple3d max) {
+		max.x = Double.NEGATIVE_INFINITY;
+		max.y = Double.NEGATIVE_INFINITY;
+		max.z = Double.NEGATIVE_INFINITY;
+		for (int s = 0; s < n; s++) {
+			max.x = Math.max(max.x, xs[s] + rs[s]);
+			max.y = Math.max(max.y, ys[s] + rs[s]);
+			max.z = Math.max(max.z, zs[s] + rs[s]);
+		}
+	}
+
+	@Override
+	public void getMin(final Tuple3d min) {
+		min.x = Double.POSITIVE_INFINITY;
+		min.y = Double.POSITIVE_INFINITY;
+		min.z = Double.POSITIVE_INFINITY;
+		for (int s = 0; s < n; s++) {
+			min.x = Math.min(min.x, xs[s] - rs[s]);
+			min.y = Math.min(min.y, ys[s] - rs[s]);
+			min.z = Math.min(min.z, zs[s] - rs[s]);
+		}
+	}
+
+	@Override
+	public float getVolume() {
+		double volume = 0;
+		for (int s = 0; s < n; s++) {
+			volume += 4. / 3. * Math.PI * rs[s] * rs[s] * rs[s];
+		}
+		return (float) volume;
+	}
+
+	@Override
+	public void channelsUpdated(final boolean[] channels) {}
+	@Override
+	public void thresholdUpdated(final int threshold) {}
+	@Override
+	public void eyePtChanged(final View view) {}
+
+	@Override
+	public void lutUpdated(final int[] r, final int[] g, final int[] b, final int[] a) {}
+
+	@Override
+	public void swapDisplayedData(final String path, final String name) {}
+
+	@Override
+	public void restoreDisplayedData(final String path, final String name) {}
+
+	@Override
+	public void clearDisplayedData() {}
+
+	/**
+	 * Generate a globe of radius 1.0. First dimension is Z, then comes a
+	 * double array x,y. Minimal accepted meridians and parallels is 3.
+	 * <p>
+	 * Same as in {@link SpotGroupNode}.
+	 */
+	private static float[][][] generateGlobe(int meridians, int parallels) {
+		if (meridians < 3) meridians = 3;
+		if (parallels < 3) parallels = 3;
+		// a circle of radius 1
+		float angle_increase = (float) (2*Math.PI / meridians);
+		final float[][] xy_points = new float[meridians+1][2];    //plus 1 to repeat last point
+		xy_points[0][0] = 1;     // first point
+		xy_points[0][1] = 0;
+		for (int m=1; m<meridians; m++) {
+			final float temp_angle = angle_increase*m;
+			xy_points[m][0] = (float) Math.cos(temp_angle);
+			xy_points[m][1] = (float) Math.sin(temp_angle);
+		}
+		xy_points[xy_points.length-1][0] = 1; // last point
+		xy_points[xy_points.length-1][1] = 0;
+
+		// Build parallels from circle
+		angle_increase = (float) (Math.PI / parallels);   // = 180 / parallels in radians
+		final float[][][] xyz = new float[parallels+1][xy_points.length][3];
+		for (int p=1; p<xyz.length-1; p++) {
+			final float radius = (float) Math.sin(angle_increase*p);
+			final float Z = (float) Math.cos(angle_increase*p);
+			for (int mm=0; mm<xyz[0].length-1; mm++) {
+				//scaling circle to appropriate radius, and positioning the Z
+				xyz[p][mm][0] = xy_points[mm][0] * radius;
+				xyz[p][mm][1] = xy_points[mm][1] * radius;
+				xyz[p][mm][2] = Z;
+			}
+			xyz[p][xyz[0].length-1][0] = xyz[p][0][0];  //last one equals first one
+			xyz[p][xyz[0].length-1][1] = xyz[p][0][1];
+			xyz[p][xyz[0].length-1][2] = xyz[p][0][2];
+		}
+
+		// south and north poles
+		for (int ns=0; ns<xyz[0].length; ns++) {
+			xyz[0][ns][0] = 0;	//south pole
+			xyz[0][ns][1] = 0;
+			xyz[0][ns][2] = 1;
+			xyz[xyz.length-1][ns][0] = 0;    //north pole
+			xyz[xyz.length-1][ns][1] = 0;
+			xyz[xyz.length-1][ns][2] = -1;
+		}
+
+		return xyz;
+	}
+
+}
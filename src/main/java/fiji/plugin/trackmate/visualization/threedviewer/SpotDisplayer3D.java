@@ -6,27 +6,25 @@ import fiji.plugin.trackmate.SelectionChangeEvent;
 import fiji.plugin.trackmate.SelectionModel;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
-import fiji.plugin.trackmate.util.TMUtils;
 import fiji.plugin.trackmate.visualization.AbstractTrackMateModelView;
 import fiji.plugin.trackmate.visualization.FeatureColorGenerator;
 import fiji.plugin.trackmate.visualization.TrackColorGenerator;
 import ij3d.Content;
 import ij3d.ContentInstant;
 import ij3d.Image3DUniverse;
+import ij3d.TimelapseListener;
 
 import java.awt.Color;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 
 import javax.media.j3d.BadTransformException;
 import javax.vecmath.Color3f;
-import javax.vecmath.Color4f;
-import javax.vecmath.Point4d;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 
@@ -45,7 +43,7 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 
 	private static final String SPOT_CONTENT_NAME = "Spots";
 
-	private TreeMap< Integer, SpotGroupNode< Spot >> blobs;
+	private TreeMap< Integer, SpotBatchNode< Spot >> blobs;
 
 	private TrackDisplayNode trackNode;
 
@@ -66,10 +64,23 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 
 	private TreeMap< Integer, ContentInstant > contentAllFrames;
 
+	/**
+	 * Builds the spot geometry of a frame the first time it is shown.
+	 */
+	private final TimelapseListener frameRealizer = new TimelapseListener()
+	{
+		@Override
+		public void timepointChanged( final int timepoint )
+		{
+			realizeFrame( timepoint );
+		}
+	};
+
 	public SpotDisplayer3D( final Model model, final SelectionModel selectionModel, final Image3DUniverse universe )
 	{
 		super( model, selectionModel );
 		this.universe = universe;
+		universe.addTimelapseListener( frameRealizer );
 		setModel( model );
 	}
 
@@ -96,13 +107,9 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 		case ModelChangeEvent.SPOTS_FILTERED:
 			for ( final int frame : blobs.keySet() )
 			{
-				final SpotGroupNode< Spot > frameBlobs = blobs.get( frame );
-				for ( final Iterator< Spot > it = model.getSpots().iterator( frame, false ); it.hasNext(); )
-				{
-					final Spot spot = it.next();
-					final boolean visible = spot.getFeature( SpotCollection.VISIBLITY ).compareTo( SpotCollection.ZERO ) > 0;
-					frameBlobs.setVisible( spot, visible );
-				}
+				final SpotBatchNode< Spot > frameBlobs = blobs.get( frame );
+				frameBlobs.setVisible( model.getSpots().iterable( frame, true ) );
+				frameBlobs.flush();
 			}
 			break;
 
@@ -131,32 +138,25 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 
 			// Iterate each spot of the event.
 			final Set< Spot > spotsModified = event.getSpots();
+			final Set< SpotBatchNode< Spot > > touched = new HashSet< SpotBatchNode< Spot > >();
 			for ( final Spot spot : spotsModified )
 			{
 				final int spotFlag = event.getSpotFlag( spot );
 				final int frame = spot.getFeature( Spot.FRAME ).intValue();
-				final SpotGroupNode< Spot > spotGroupNode = blobs.get( frame );
+				final SpotBatchNode< Spot > spotGroupNode = blobs.get( frame );
 
 				switch ( spotFlag )
 				{
 				case ModelChangeEvent.FLAG_SPOT_REMOVED:
-					spotGroupNode.remove( spot );
+					if ( null != spotGroupNode )
+					{
+						spotGroupNode.remove( spot );
+						touched.add( spotGroupNode );
+					}
 					break;
 
 				case ModelChangeEvent.FLAG_SPOT_ADDED:
 				{
-
-					// Sphere location and radius
-					final double[] coords = new double[ 3 ];
-					TMUtils.localize( spot, coords );
-					final Double radius = spot.getFeature( Spot.RADIUS );
-					final double[] pos = new double[] { coords[ 0 ], coords[ 1 ], coords[ 2 ], radius * radiusRatio };
-					final Point4d center = new Point4d( pos );
-
-					// Sphere color
-					final Color4f color = new Color4f( spotColorGenerator.color( spot ) );
-					color.w = 0;
-
 					// Do we have an empty frame?
 					if ( null == spotGroupNode )
 					{
@@ -175,7 +175,8 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 					}
 					else
 					{
-						spotGroupNode.add( spot, center, color );
+						addSpot( spotGroupNode, spot, radiusRatio, spotColorGenerator );
+						touched.add( spotGroupNode );
 					}
 
 					break;
@@ -185,33 +186,24 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 				{
 
 					// Where did it belonged?
-					Integer targetFrame = -1;
-					for ( final Integer f : blobs.keySet() )
+					SpotBatchNode< Spot > source = null;
+					for ( final SpotBatchNode< Spot > frameBlobs : blobs.values() )
 					{
-						if ( blobs.get( f ).centers.containsKey( spot ) )
+						if ( frameBlobs.contains( spot ) )
 						{
-							targetFrame = f;
+							source = frameBlobs;
 							break;
 						}
 					}
 
-					if ( targetFrame < 0 )
+					if ( null == source )
 					{
 						System.err.println( "[SpotDisplayer3D] Could not find the frame spot " + spot + " belongs to." );
 						return;
 					}
 
-					blobs.get( targetFrame ).remove( spot );
-					// Sphere location and radius
-					final double[] coords = new double[ 3 ];
-					TMUtils.localize( spot, coords );
-					final Double radius = spot.getFeature( Spot.RADIUS );
-					final double[] pos = new double[] { coords[ 0 ], coords[ 1 ], coords[ 2 ], radius * radiusRatio };
-					final Point4d center = new Point4d( pos );
-
-					// Sphere color
-					final Color4f color = new Color4f( spotColorGenerator.color( spot ) );
-					color.w = 0;
+					source.remove( spot );
+					touched.add( source );
 					if ( null == spotGroupNode )
 					{
 						/*
@@ -221,7 +213,8 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 					}
 					else
 					{
-						spotGroupNode.add( spot, center, color );
+						addSpot( spotGroupNode, spot, radiusRatio, spotColorGenerator );
+						touched.add( spotGroupNode );
 					}
 					break;
 				}
@@ -230,18 +223,10 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 				{
 					if ( null != spotGroupNode )
 					{
-						spotGroupNode.remove( spot );
-						// Sphere location and radius
-						final double[] coords = new double[ 3 ];
-						TMUtils.localize( spot, coords );
-						final Double radius = spot.getFeature( Spot.RADIUS );
-						final double[] pos = new double[] { coords[ 0 ], coords[ 1 ], coords[ 2 ], radius * radiusRatio };
-						final Point4d center = new Point4d( pos );
-
-						// Sphere color
-						final Color4f color = new Color4f( spotColorGenerator.color( spot ) );
-						color.w = 0;
-						spotGroupNode.add( spot, center, color );
+						// Move it in place, keeping its visibility.
+						spotGroupNode.setCenter( spot, spot.getFeature( Spot.POSITION_X ), spot.getFeature( Spot.POSITION_Y ), spot.getFeature( Spot.POSITION_Z ), radiusRatio * spot.getFeature( Spot.RADIUS ) );
+						spotGroupNode.setColor( spot, spotColorGenerator.color( spot ) );
+						touched.add( spotGroupNode );
 					}
 					break;
 				}
@@ -252,11 +237,17 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 				}
 				}
 			}
+			for ( final SpotBatchNode< Spot > frameBlobs : touched )
+			{
+				frameBlobs.flush();
+			}
 
 			/*
 			 * Deal with edges
 			 */
 
+			// The track meshes are rebuilt once for the whole event.
+			boolean rebuildTracks = false;
 			for ( final DefaultWeightedEdge edge : event.getEdges() )
 			{
 				final int edgeFlag = event.getEdgeFlag( edge );
@@ -266,17 +257,7 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 				case ModelChangeEvent.FLAG_EDGE_MODIFIED:
 				case ModelChangeEvent.FLAG_EDGE_REMOVED:
 				{
-					if ( null == trackNode )
-					{
-						trackContent = makeTrackContent();
-						universe.removeContent( TRACK_CONTENT_NAME );
-						universe.addContent( trackContent );
-					}
-					else
-					{
-						trackNode.makeMeshes();
-						updateTrackColors();
-					}
+					rebuildTracks = true;
 					break;
 				}
 
@@ -286,6 +267,21 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 				}
 				}
 			}
+			if ( rebuildTracks )
+			{
+				if ( null == trackNode )
+				{
+					trackContent = makeTrackContent();
+					universe.removeContent( TRACK_CONTENT_NAME );
+					universe.addContent( trackContent );
+				}
+				else
+				{
+					trackNode.makeMeshes();
+					trackNode.refresh();
+				}
+				updateTrackColors();
+			}
 			break;
 		}
 
@@ -386,6 +382,11 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 	@Override
 	public void clear()
 	{
+		universe.removeTimelapseListener( frameRealizer );
+		if ( null != trackNode )
+		{
+			universe.removeTimelapseListener( trackNode );
+		}
 		universe.removeContent( SPOT_CONTENT_NAME );
 		universe.removeContent( TRACK_CONTENT_NAME );
 	}
@@ -411,6 +412,10 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 	private Content makeTrackContent()
 	{
 		// Prepare tracks instant
+		if ( null != trackNode )
+		{
+			universe.removeTimelapseListener( trackNode );
+		}
 		trackNode = new TrackDisplayNode( model );
 		universe.addTimelapseListener( trackNode );
 
@@ -428,7 +433,7 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 	private void makeSpotContent()
 	{
 
-		blobs = new TreeMap< Integer, SpotGroupNode< Spot >>();
+		blobs = new TreeMap< Integer, SpotBatchNode< Spot >>();
 		contentAllFrames = new TreeMap< Integer, ContentInstant >();
 		final double radiusRatio = ( Double ) displaySettings.get( KEY_SPOT_RADIUS_RATIO );
 		final SpotCollection spots = model.getSpots();
@@ -444,32 +449,55 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 			buildFrameContent( spots, frame, radiusRatio, spotColorGenerator );
 		}
 
+		// Frames are realized when shown; the first one is shown on opening.
+		if ( !blobs.isEmpty() )
+		{
+			realizeFrame( blobs.firstKey() );
+		}
+
 		spotContent = new Content( SPOT_CONTENT_NAME, contentAllFrames );
 		spotContent.showCoordinateSystem( false );
 		universe.removeContent( SPOT_CONTENT_NAME );
 		universe.addContentLater( spotContent );
 	}
 
-	private void buildFrameContent( final SpotCollection spots, final Integer frame, final double radiusRatio, final FeatureColorGenerator< Spot > spotColorGenerator )
+	/**
+	 * Builds the geometry of the specified frame, if it has content and was
+	 * not built yet.
+	 */
+	private void realizeFrame( final int frame )
 	{
-		final Map< Spot, Point4d > centers = new HashMap< Spot, Point4d >( spots.getNSpots( frame, false ) );
-		final Map< Spot, Color4f > colors = new HashMap< Spot, Color4f >( spots.getNSpots( frame, false ) );
-		final double[] coords = new double[ 3 ];
+		final SpotBatchNode< Spot > frameBlobs = blobs.get( frame );
+		if ( null != frameBlobs && !frameBlobs.isRealized() )
+		{
+			frameBlobs.setShowLabels( ( Boolean ) displaySettings.get( KEY_DISPLAY_SPOT_NAMES ) );
+			frameBlobs.realize();
+		}
+	}
 
+	/**
+	 * Adds or updates the sphere of the specified spot, from its current
+	 * position, radius and color.
+	 */
+	private static void addSpot( final SpotBatchNode< Spot > frameBlobs, final Spot spot, final double radiusRatio, final FeatureColorGenerator< Spot > spotColorGenerator )
+	{
+		frameBlobs.add( spot, spot.getFeature( Spot.POSITION_X ), spot.getFeature( Spot.POSITION_Y ), spot.getFeature( Spot.POSITION_Z ), radiusRatio * spot.getFeature( Spot.RADIUS ), spotColorGenerator.color( spot ) );
+	}
+
+	private void buildFrameContent( final SpotCollection spots, final Integer frame, final double radiusRatio, final FeatureColorGenerator< Spot > spotColorGenerator )
+	{
+		final SpotBatchNode< Spot > blobGroup = new SpotBatchNode< Spot >( spots.getNSpots( frame, false ) );
 		for ( final Iterator< Spot > it = spots.iterator( frame, false ); it.hasNext(); )
 		{
-			final Spot spot = it.next();
-			TMUtils.localize( spot, coords );
-			final Double radius = spot.getFeature( Spot.RADIUS );
-			final double[] pos = new double[] { coords[ 0 ], coords[ 1 ], coords[ 2 ], radius * radiusRatio };
-			centers.put( spot, new Point4d( pos ) );
-			final Color4f col = new Color4f( spotColorGenerator.color( spot ) );
-			col.w = 0f;
-			colors.put( spot, col );
+			addSpot( blobGroup, it.next(), radiusRatio, spotColorGenerator );
+		}
+		// Set visibility:
+		if ( spots.getNSpots( frame, true ) > 0 )
+		{
+			blobGroup.setVisible( spots.iterable( frame, true ) );
 		}
-		final SpotGroupNode< Spot > blobGroup = new SpotGroupNode< Spot >( centers, colors );
-		final ContentInstant contentThisFrame = new ContentInstant( "Spots_frame_" + frame );
 
+		final ContentInstant contentThisFrame = new ContentInstant( "Spots_frame_" + frame );
 		try
 		{
 			contentThisFrame.display( blobGroup );
@@ -479,12 +507,6 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 			System.err.println( "Bad content for frame " + frame + ". Generated an exception:\n" + bte.getLocalizedMessage() + "\nContent was:\n" + blobGroup.toString() );
 		}
 
-		// Set visibility:
-		if ( spots.getNSpots( frame, true ) > 0 )
-		{
-			blobGroup.setVisible( spots.iterable( frame, true ) );
-		}
-
 		contentAllFrames.put( frame, contentThisFrame );
 		blobs.put( frame, blobGroup );
 	}
@@ -495,12 +517,13 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 
 		for ( final int frame : blobs.keySet() )
 		{
-			final SpotGroupNode< Spot > spotGroup = blobs.get( frame );
+			final SpotBatchNode< Spot > spotGroup = blobs.get( frame );
 			for ( final Iterator< Spot > iterator = model.getSpots().iterator( frame, false ); iterator.hasNext(); )
 			{
 				final Spot spot = iterator.next();
 				spotGroup.setRadius( spot, radiusRatio * spot.getFeature( Spot.RADIUS ) );
 			}
+			spotGroup.flush();
 		}
 	}
 
@@ -511,28 +534,20 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 
 		for ( final int frame : blobs.keySet() )
 		{
-			final SpotGroupNode< Spot > spotGroup = blobs.get( frame );
+			final SpotBatchNode< Spot > spotGroup = blobs.get( frame );
 			for ( final Iterator< Spot > iterator = model.getSpots().iterator( frame, false ); iterator.hasNext(); )
 			{
 				final Spot spot = iterator.next();
-				spotGroup.setColor( spot, new Color3f( spotColorGenerator.color( spot ) ) );
+				spotGroup.setColor( spot, spotColorGenerator.color( spot ) );
 			}
+			spotGroup.flush();
 		}
 	}
 
 	private void updateTrackColors()
 	{
 		final TrackColorGenerator colorGenerator = ( TrackColorGenerator ) displaySettings.get( KEY_TRACK_COLORING );
-
-		for ( final Integer trackID : model.getTrackModel().trackIDs( true ) )
-		{
-			colorGenerator.setCurrentTrackID( trackID );
-			for ( final DefaultWeightedEdge edge : model.getTrackModel().trackEdges( trackID ) )
-			{
-				final Color color = colorGenerator.color( edge );
-				trackNode.setColor( edge, color );
-			}
-		}
+		trackNode.setColors( colorGenerator );
 	}
 
 	private void highlightSpots( final Collection< Spot > spots )
@@ -544,10 +559,11 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 				final Integer frame = previousFrameHighlight.get( spot );
 				if ( null != frame )
 				{
-					final SpotGroupNode< Spot > spotGroupNode = blobs.get( frame );
+					final SpotBatchNode< Spot > spotGroupNode = blobs.get( frame );
 					if ( null != spotGroupNode )
 					{
 						spotGroupNode.setColor( spot, previousColorHighlight.get( spot ) );
+						spotGroupNode.flush();
 					}
 				}
 			}
@@ -561,13 +577,14 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 			final int frame = spot.getFeature( Spot.FRAME ).intValue();
 			// Store current settings
 			previousSpotHighlight.add( spot );
-			final SpotGroupNode< Spot > spotGroupNode = blobs.get( frame );
-			if ( null != spotGroupNode )
+			final SpotBatchNode< Spot > spotGroupNode = blobs.get( frame );
+			if ( null != spotGroupNode && spotGroupNode.contains( spot ) )
 			{
 				previousColorHighlight.put( spot, spotGroupNode.getColor3f( spot ) );
 				previousFrameHighlight.put( spot, frame );
 				// Update target spot display
-				blobs.get( frame ).setColor( spot, highlightColor );
+				spotGroupNode.setColor( spot, highlightColor );
+				spotGroupNode.flush();
 			}
 		}
 	}
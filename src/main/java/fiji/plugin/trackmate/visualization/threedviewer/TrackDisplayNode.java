@@ -2,81 +2,104 @@ package fiji.plugin.trackmate.visualization.threedviewer;
 
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
-import fiji.plugin.trackmate.util.TMUtils;
+import fiji.plugin.trackmate.visualization.TrackColorGenerator;
 import fiji.plugin.trackmate.visualization.TrackMateModelView;
 import ij3d.ContentNode;
 import ij3d.TimelapseListener;
 
 import java.awt.Color;
 import java.util.ArrayList;
-import java.util.BitSet;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import javax.media.j3d.Appearance;
 import javax.media.j3d.BranchGroup;
-import javax.media.j3d.LineArray;
+import javax.media.j3d.Geometry;
+import javax.media.j3d.GeometryArray;
+import javax.media.j3d.GeometryUpdater;
+import javax.media.j3d.IndexedGeometryArray;
+import javax.media.j3d.IndexedLineArray;
 import javax.media.j3d.LineAttributes;
 import javax.media.j3d.RenderingAttributes;
 import javax.media.j3d.Shape3D;
-import javax.media.j3d.Switch;
 import javax.media.j3d.TransparencyAttributes;
 import javax.media.j3d.View;
 import javax.vecmath.Color3f;
-import javax.vecmath.Color4f;
 import javax.vecmath.Point3d;
 import javax.vecmath.Tuple3d;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 
+/**
+ * A {@link ContentNode} that displays all the tracks of a model in the 3D
+ * viewer.
+ * <p>
+ * All the edges are stored in a single {@link IndexedLineArray}, whose vertex
+ * coordinates and colors are passed by reference. Edges are sorted by the frame
+ * of their source spot, so that the edges of a frame are a contiguous range of
+ * vertices, given by a per-frame offset array. Changing the current time-point
+ * therefore only rewrites the alpha of the frames whose transparency changed,
+ * and track visibility is set by rewriting the index array with the edges of
+ * visible tracks.
+ */
 public class TrackDisplayNode extends ContentNode implements TimelapseListener {
 
 	/** The model, needed to retrieve connectivity. */
 	private final Model model;
 
-	/** Hold the color and transparency of all spots for a given track. */
-	private final HashMap<Integer,Color> colors = new HashMap<Integer, Color>();
-
 	private int displayDepth = TrackMateModelView.DEFAULT_TRACK_DISPLAY_DEPTH;
 	private int displayMode = TrackMateModelView.DEFAULT_TRACK_DISPLAY_MODE;
 
 	private int currentTimePoint = 0;
 
 	/**
-	 * Reference for each frame, then for each track, the line primitive indices of edges
-	 * present in that track and in that frame. <p>
-	 * For instance
-	 * <pre>
-	 *  frameIndices.get(2).get(3) = { 5, 10 }
-	 * </pre>
-	 * indicates that in the frame number 2, the track number 3 has 2 edges, that
-	 * are represented in the {@link LineArray} primitive by points with indices 5 and 10.
+	 * The frames that contain at least one edge source, sorted.
 	 */
-	private HashMap<Integer, HashMap<Integer, ArrayList<Integer> > > frameIndices;
+	private int[] frames;
 	/**
-	 * Dictionary referencing the line vertices corresponding to each edge, for each track.
+	 * Per-frame offsets into the vertex arrays: the edges whose source is in
+	 * frame <code>frames[i]</code> are represented by vertices
+	 * <code>frameStart[i]</code> (inclusive) to <code>frameStart[i+1]</code>
+	 * (exclusive).
 	 */
-	private Map<Integer, HashMap<DefaultWeightedEdge, Integer>> edgeIndices;
-
+	private int[] frameStart;
+	/**
+	 * The alpha currently used for each frame, so that only frames whose alpha
+	 * changes are rewritten.
+	 */
+	private float[] frameAlpha;
+	/**
+	 * For each edge, in vertex order, the index of the track it belongs to in
+	 * {@link #trackIndex}.
+	 */
+	private int[] edgeTrack;
+	/**
+	 * Index of the first vertex representing each edge.
+	 */
+	private Map<DefaultWeightedEdge, Integer> edgeIndices;
 	/**
-	 * Primitives: one {@link LineArray} per track.
+	 * Maps track IDs to their index in the track visibility array.
 	 */
-	private Map<Integer, LineArray> lines;
+	private HashMap<Integer, Integer> trackIndex;
 	/**
-	 * Switch used for display. Is the only child of this {@link ContentNode}.
+	 * The RGBA colors of all the vertices, by reference.
 	 */
-	private Switch trackSwitch;
+	private float[] colors;
 	/**
-	 * Boolean set that controls the visibility of each tracks.
+	 * The vertex indices of the edges of visible tracks, written to the
+	 * primitive when the visibility changes.
 	 */
-	private BitSet switchMask;
+	private int[] indices;
 	/**
-	 * Maps track IDs to their index in the switch mask.
+	 * The single primitive that displays all edges. <code>null</code> if the
+	 * model has no edges.
 	 */
-	private HashMap<Integer, Integer> switchMaskIndex;
+	private IndexedLineArray line;
 
 
 	/*
@@ -88,7 +111,6 @@ public class TrackDisplayNode extends ContentNode implements TimelapseListener {
 		setCapability(ALLOW_CHILDREN_WRITE);
 		setCapability(ALLOW_CHILDREN_EXTEND);
 		makeMeshes();
-		setTrackVisible(model.getTrackModel().trackIDs(true));
 	}
 
 	/*
@@ -100,27 +122,38 @@ public class TrackDisplayNode extends ContentNode implements TimelapseListener {
 	 * all other tracks to false.
 	 */
 	public void setTrackVisible(final Collection<Integer> trackIDs) {
-		switchMask.set(0, model.getTrackModel().nTracks(false), false);
+		if (null == line) {
+			return;
+		}
+		final boolean[] visible = new boolean[trackIndex.size()];
 		for (final Integer trackID : trackIDs) {
-			final int trackIndex = switchMaskIndex.get(trackID).intValue();
-			switchMask.set(trackIndex, true);
+			final Integer index = trackIndex.get(trackID);
+			if (null != index) {
+				visible[index.intValue()] = true;
+			}
 		}
-		trackSwitch.setChildMask(switchMask);
+		int n = 0;
+		for (int e = 0; e < edgeTrack.length; e++) {
+			if (visible[edgeTrack[e]]) {
+				indices[n++] = 2 * e;
+				indices[n++] = 2 * e + 1;
+			}
+		}
+		line.setCoordinateIndices(0, indices);
+		line.setValidIndexCount(n);
 	}
 
 	public void setTrackDisplayMode(final int mode) {
 		this.displayMode = mode;
 		if (displayMode == TrackMateModelView.TRACK_DISPLAY_MODE_WHOLE) {
-			final Color4f color = new Color4f();
-			for (final Integer trackID : lines.keySet()) {
-				final LineArray line = lines.get(trackID);
-
-				for (int i = 0; i < line.getVertexCount(); i++) {
-					line.getColor(i, color);
-					color.w = 1f;
-					line.setColor(i, color);
+			updateColors(new GeometryUpdater() {
+				@Override
+				public void updateData(final Geometry geometry) {
+					for (int i = 0; i < frames.length; i++) {
+						setFrameAlpha(i, 1f);
+					}
 				}
-			}
+			});
 		}
 	}
 
@@ -129,202 +162,70 @@ public class TrackDisplayNode extends ContentNode implements TimelapseListener {
 	}
 
 	void refresh() {
-		// Holder for passing values
-		final Color4f color = new Color4f();
-		switch (displayMode) {
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_WHOLE: {
-			break;
-		}
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL: {
-			float tp;
-			int frameDist;
-			for (final int frame : frameIndices.keySet()) {
-				frameDist = Math.abs(frame - currentTimePoint);
-				if (frameDist > displayDepth)
-					tp = 0f;
-				else
-					tp = 1f - (float) frameDist / displayDepth;
-
-				for (final Integer trackID : lines.keySet()) {
-					final LineArray line = lines.get(trackID);
-					for (final Integer index : frameIndices.get(frame).get(trackID)) {
-						line.getColor(index, color);
-						color.w = tp;
-						line.setColor(index, color);
-						line.setColor(index+1, color);
-					}
-				}
-			}
-			break;
-		}
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_QUICK: {
-			float tp;
-			int frameDist;
-			for (final int frame : frameIndices.keySet()) {
-				frameDist = Math.abs(frame - currentTimePoint);
-				if (frameDist > displayDepth)
-					tp = 0f;
-				else
-					tp = 1f;
-
-				for (final Integer trackID : lines.keySet()) {
-					final LineArray line = lines.get(trackID);
-					for (final Integer index : frameIndices.get(frame).get(trackID)) {
-						line.getColor(index, color);
-						color.w = tp;
-						line.setColor(index, color);
-						line.setColor(index+1, color);
-					}
-				}
-			}
-			break;
-		}
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD: {
-			float tp;
-			int frameDist;
-			for (final int frame : frameIndices.keySet()) {
-				frameDist = currentTimePoint - frame;
-				if (frameDist <= 0 || frameDist > displayDepth)
-					tp = 0f;
-				else
-					tp = 1f - (float) frameDist / displayDepth;
-
-				for (final Integer trackID : lines.keySet()) {
-					final LineArray line = lines.get(trackID);
-					for (final Integer index : frameIndices.get(frame).get(trackID)) {
-						line.getColor(index, color);
-						color.w = tp;
-						line.setColor(index, color);
-						line.setColor(index+1, color);
-					}
-				}
-			}
-			break;
-		}
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD_QUICK: {
-			float tp;
-			int frameDist;
-			for (final int frame : frameIndices.keySet()) {
-				frameDist = currentTimePoint - frame;
-				if (frameDist <= 0 || frameDist > displayDepth)
-					tp = 0f;
-				else
-					tp = 1f;
-
-				for (final Integer trackID : lines.keySet()) {
-					final LineArray line = lines.get(trackID);
-					if (null == line) {
-						continue;
-					}
-					for (final Integer index : frameIndices.get(frame).get(trackID)) {
-						line.getColor(index, color);
-						color.w = tp;
-						line.setColor(index, color);
-						line.setColor(index+1, color);
-					}
-				}
-			}
-			break;
-		}
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD: {
-			float tp;
-			int frameDist;
-			for (final int frame : frameIndices.keySet()) {
-				frameDist = frame - currentTimePoint;
-				if (frameDist < 0 || frameDist > displayDepth)
-					tp = 0f;
-				else
-					tp = 1f - (float) frameDist / displayDepth;
-
-				for (final Integer trackID : lines.keySet()) {
-					final LineArray line = lines.get(trackID);
-					if (null == line) {
-						continue;
-					}
-					for (final Integer index : frameIndices.get(frame).get(trackID)) {
-						line.getColor(index, color);
-						color.w = tp;
-						line.setColor(index, color);
-						line.setColor(index+1, color);
-					}
-				}
-			}
-			break;
+		if (displayMode == TrackMateModelView.TRACK_DISPLAY_MODE_WHOLE) {
+			return;
 		}
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD_QUICK: {
-			float tp;
-			int frameDist;
-			for (final int frame : frameIndices.keySet()) {
-				frameDist = frame - currentTimePoint;
-				if (frameDist < 0 || frameDist > displayDepth)
-					tp = 0f;
-				else
-					tp = 1f;
-
-				for (final Integer trackID : lines.keySet()) {
-					final LineArray line = lines.get(trackID);
-					if (null == line) {
-						continue;
-					}
-					for (final Integer index : frameIndices.get(frame).get(trackID)) {
-						line.getColor(index, color);
-						color.w = tp;
-						line.setColor(index, color);
-						line.setColor(index+1, color);
-					}
+		updateColors(new GeometryUpdater() {
+			@Override
+			public void updateData(final Geometry geometry) {
+				for (int i = 0; i < frames.length; i++) {
+					setFrameAlpha(i, alphaOf(frames[i]));
 				}
 			}
-			break;
-		}
-		}
-
+		});
 	}
 
 	/**
 	 * Sets the color of the given edge mesh.
 	 */
 	public void setColor(final DefaultWeightedEdge edge, final Color color) {
-		// First, find to what track it belongs to
-		final int trackID = model.getTrackModel().trackIDOf(edge);
-
-		// Set color of corresponding line primitive
-		final Color4f color4 = new Color4f();
-		final int index = edgeIndices.get(trackID).get(edge);
-		final LineArray line = lines.get(trackID);
-		if (null == line) {
+		final Integer index = edgeIndices.get(edge);
+		if (null == index) {
 			return;
 		}
-		line.getColor(index, color4);
 		final float[] val = color.getRGBColorComponents(null);
-		color4.x = val[0];
-		color4.y = val[1];
-		color4.z = val[2];
-		line.setColor(index, color4);
-		line.setColor(index+1, color4);
+		updateColors(new GeometryUpdater() {
+			@Override
+			public void updateData(final Geometry geometry) {
+				setEdgeColor(index.intValue(), val);
+			}
+		});
+	}
+
+	/**
+	 * Sets the color of all the edge meshes, as given by the specified color
+	 * generator, in a single geometry update.
+	 */
+	public void setColors(final TrackColorGenerator colorGenerator) {
+		updateColors(new GeometryUpdater() {
+			@Override
+			public void updateData(final Geometry geometry) {
+				final float[] val = new float[3];
+				for (final Integer trackID : model.getTrackModel().trackIDs(true)) {
+					colorGenerator.setCurrentTrackID(trackID);
+					for (final DefaultWeightedEdge edge : model.getTrackModel().trackEdges(trackID)) {
+						final Integer index = edgeIndices.get(edge);
+						if (null == index) {
+							continue;
+						}
+						colorGenerator.color(edge).getRGBColorComponents(val);
+						setEdgeColor(index.intValue(), val);
+					}
+				}
+			}
+		});
 	}
 
 	/**
 	 * Returns the color of the specified edge mesh.
 	 */
 	public Color getColor(final DefaultWeightedEdge edge) {
-		// First, find to what track it belongs to
-		final int trackID = model.getTrackModel().trackIDOf(edge);
-		// Retrieve color from index
-		final Color4f color = new Color4f();
-		final int index = edgeIndices.get(trackID).get(edge);
-		final LineArray line = lines.get(trackID);
-		if (null == line) {
+		final Integer index = edgeIndices.get(edge);
+		if (null == index) {
 			return null;
 		}
-		line.getColor(index, color);
-		return color.get();
+		final int offset = 4 * index.intValue();
+		return new Color(colors[offset], colors[offset + 1], colors[offset + 2], colors[offset + 3]);
 	}
 
 
@@ -342,37 +243,174 @@ public class TrackDisplayNode extends ContentNode implements TimelapseListener {
 	 * PRIVATE METHODS
 	 */
 
+	/**
+	 * Returns the alpha of the edges whose source is in the specified frame,
+	 * given the current display mode, depth and time-point.
+	 */
+	private float alphaOf(final int frame) {
+		int frameDist;
+		switch (displayMode) {
+
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL:
+			frameDist = Math.abs(frame - currentTimePoint);
+			return frameDist > displayDepth ? 0f : 1f - (float) frameDist / displayDepth;
+
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_QUICK:
+			frameDist = Math.abs(frame - currentTimePoint);
+			return frameDist > displayDepth ? 0f : 1f;
+
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD:
+			frameDist = currentTimePoint - frame;
+			return (frameDist <= 0 || frameDist > displayDepth) ? 0f : 1f - (float) frameDist / displayDepth;
+
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD_QUICK:
+			frameDist = currentTimePoint - frame;
+			return (frameDist <= 0 || frameDist > displayDepth) ? 0f : 1f;
+
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD:
+			frameDist = frame - currentTimePoint;
+			return (frameDist < 0 || frameDist > displayDepth) ? 0f : 1f - (float) frameDist / displayDepth;
+
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD_QUICK:
+			frameDist = frame - currentTimePoint;
+			return (frameDist < 0 || frameDist > displayDepth) ? 0f : 1f;
+
+		default:
+			return 1f;
+		}
+	}
+
+	/**
+	 * Writes the specified alpha in the vertices of the frame with the
+	 * specified index, if it changed. Must be called from a
+	 * {@link GeometryUpdater}.
+	 */
+	private void setFrameAlpha(final int frameIndex, final float alpha) {
+		if (frameAlpha[frameIndex] == alpha) {
+			return;
+		}
+		frameAlpha[frameIndex] = alpha;
+		for (int v = frameStart[frameIndex]; v < frameStart[frameIndex + 1]; v++) {
+			colors[4 * v + 3] = alpha;
+		}
+	}
+
+	/**
+	 * Writes the specified RGB components in the two vertices of the edge
+	 * starting at the specified vertex index. Must be called from a
+	 * {@link GeometryUpdater}.
+	 */
+	private void setEdgeColor(final int index, final float[] rgb) {
+		for (int v = index; v < index + 2; v++) {
+			colors[4 * v] = rgb[0];
+			colors[4 * v + 1] = rgb[1];
+			colors[4 * v + 2] = rgb[2];
+		}
+	}
+
+	/**
+	 * Runs the specified updater on the by-reference color array, through the
+	 * primitive so that the change is picked up by the renderer.
+	 */
+	private void updateColors(final GeometryUpdater updater) {
+		if (null == line) {
+			return;
+		}
+		line.updateData(updater);
+	}
+
 	protected void makeMeshes() {
 
-		this.trackSwitch = new Switch(Switch.CHILD_MASK);
-		trackSwitch.setCapability(Switch.ALLOW_SWITCH_WRITE);
-		trackSwitch.setCapability(Switch.ALLOW_CHILDREN_WRITE);
-		trackSwitch.setCapability(Switch.ALLOW_CHILDREN_EXTEND);
-		this.switchMask = new BitSet();
-
-		// All edges of ALL tracks
-		final int ntracks = model.getTrackModel().nTracks(false);
-
-		// Instantiate refs fields
-		final int nframes = model.getSpots().keySet().size();
-		frameIndices = new HashMap<Integer, HashMap<Integer, ArrayList<Integer>>>(nframes, 1); // optimum
-		for (final int frameIndex : model.getSpots().keySet()) {
-			frameIndices.put(frameIndex, new HashMap<Integer, ArrayList<Integer>>(ntracks));
-			for (final Integer trackID : model.getTrackModel().trackIDs(true)) {
-				frameIndices.get(frameIndex).put(trackID, new ArrayList<Integer>());
+		// Collect the edges of visible tracks, with their track and frame
+		final List<DefaultWeightedEdge> edges = new ArrayList<DefaultWeightedEdge>();
+		final Set<Integer> trackIDs = model.getTrackModel().trackIDs(true);
+		trackIndex = new HashMap<Integer, Integer>(trackIDs.size());
+		int nedges = 0;
+		for (final Integer trackID : trackIDs) {
+			nedges += model.getTrackModel().trackEdges(trackID).size();
+		}
+		final int[] tracks = new int[nedges];
+		final int[] edgeFrames = new int[nedges];
+		int t = 0;
+		for (final Integer trackID : trackIDs) {
+			trackIndex.put(trackID, Integer.valueOf(t));
+			for (final DefaultWeightedEdge edge : model.getTrackModel().trackEdges(trackID)) {
+				tracks[edges.size()] = t;
+				edgeFrames[edges.size()] = model.getTrackModel().getEdgeSource(edge).getFeature(Spot.FRAME).intValue();
+				edges.add(edge);
+			}
+			t++;
+		}
+
+		// Sorted distinct frames
+		final int[] sorted = edgeFrames.clone();
+		Arrays.sort(sorted);
+		int nframes = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i == 0 || sorted[i] != sorted[i - 1]) {
+				sorted[nframes++] = sorted[i];
 			}
 		}
-		edgeIndices = new HashMap<Integer, HashMap<DefaultWeightedEdge,Integer>>(ntracks);
-		for (final Integer trackID : model.getTrackModel().trackIDs(true)) {
-			final int nedges = model.getTrackModel().trackEdges(trackID).size();
-			edgeIndices.put(trackID, new HashMap<DefaultWeightedEdge, Integer>(nedges, 1));
+		frames = Arrays.copyOf(sorted, nframes);
+
+		// Counting sort of edges by frame
+		final int[] frameOf = new int[nedges];
+		frameStart = new int[nframes + 1];
+		for (int e = 0; e < nedges; e++) {
+			frameOf[e] = Arrays.binarySearch(frames, edgeFrames[e]);
+			frameStart[frameOf[e] + 1] += 2;
+		}
+		for (int i = 0; i < nframes; i++) {
+			frameStart[i + 1] += frameStart[i];
+		}
+		final int[] fill = new int[nframes];
+		frameAlpha = new float[nframes];
+		Arrays.fill(frameAlpha, 1f);
+
+		final double[] coordinates = new double[6 * nedges];
+		colors = new float[8 * nedges];
+		edgeTrack = new int[nedges];
+		indices = new int[2 * nedges];
+		edgeIndices = new HashMap<DefaultWeightedEdge, Integer>(nedges);
+
+		final float[] color = TrackMateModelView.DEFAULT_SPOT_COLOR.getRGBComponents(null);
+		color[3] = 1f; // opaque edge for now
+
+		for (int e = 0; e < nedges; e++) {
+			final DefaultWeightedEdge edge = edges.get(e);
+			final int v = frameStart[frameOf[e]] + fill[frameOf[e]];
+			fill[frameOf[e]] += 2;
+			edgeIndices.put(edge, Integer.valueOf(v));
+			edgeTrack[v / 2] = tracks[e];
+
+			final Spot source = model.getTrackModel().getEdgeSource(edge);
+			final Spot target = model.getTrackModel().getEdgeTarget(edge);
+			coordinates[3 * v] = source.getFeature(Spot.POSITION_X);
+			coordinates[3 * v + 1] = source.getFeature(Spot.POSITION_Y);
+			coordinates[3 * v + 2] = source.getFeature(Spot.POSITION_Z);
+			coordinates[3 * v + 3] = target.getFeature(Spot.POSITION_X);
+			coordinates[3 * v + 4] = target.getFeature(Spot.POSITION_Y);
+			coordinates[3 * v + 5] = target.getFeature(Spot.POSITION_Z);
+			System.arraycopy(color, 0, colors, 4 * v, 4);
+			System.arraycopy(color, 0, colors, 4 * v + 4, 4);
+		}
+
+		removeAllChildren();
+		line = null;
+		if (nedges == 0) {
+			return;
 		}
-		lines = new HashMap<Integer, LineArray>(ntracks);
 
-		// Holder for coordinates (array ref will not be used, just its elements)
-		double[] coordinates = new double[3];
+		// One primitive for all edges of all tracks
+		line = new IndexedLineArray(2 * nedges, GeometryArray.COORDINATES | GeometryArray.COLOR_4 | GeometryArray.BY_REFERENCE | GeometryArray.USE_COORD_INDEX_ONLY, 2 * nedges);
+		line.setCapability(GeometryArray.ALLOW_REF_DATA_WRITE);
+		line.setCapability(GeometryArray.ALLOW_REF_DATA_READ);
+		line.setCapability(GeometryArray.ALLOW_COUNT_WRITE);
+		line.setCapability(IndexedGeometryArray.ALLOW_COORDINATE_INDEX_WRITE);
+		line.setCoordRefDouble(coordinates);
+		line.setColorRefFloat(colors);
 
-		// Common line appearance
+		// Line appearance
 		final Appearance appearance = new Appearance();
 		final LineAttributes lineAtts = new LineAttributes(4f, LineAttributes.PATTERN_SOLID, true);
 		appearance.setLineAttributes(lineAtts);
@@ -383,68 +421,13 @@ public class TrackDisplayNode extends ContentNode implements TimelapseListener {
 		renderingAtts.setAlphaTestValue(0.3f);
 		appearance.setRenderingAttributes(renderingAtts);
 
-		// Iterate over each track
-		switchMaskIndex = new HashMap<Integer, Integer>(ntracks);
-		int trackIndex = 0;
-		for (final Integer trackID : model.getTrackModel().trackIDs(true)) {
-			switchMaskIndex.put(trackID, trackIndex++);
-
-			final Set<DefaultWeightedEdge> track = model.getTrackModel().trackEdges(trackID);
-
-			// One line object to display all edges of one track
-			final LineArray line = new LineArray(2 * track.size(), LineArray.COORDINATES | LineArray.COLOR_4);
-			line.setCapability(LineArray.ALLOW_COLOR_WRITE);
-
-			// Color
-			Color trackColor = colors.get(trackID);
-			if (null == trackColor) {
-				trackColor = TrackMateModelView.DEFAULT_SPOT_COLOR;
-			}
-			final Color4f color = new Color4f(trackColor);
-			color.w = 1f; // opaque edge for now
-
-			// Iterate over track edge
-			int edgeIndex = 0;
-			for (final DefaultWeightedEdge edge : track) {
-				// Find source and target
-				final Spot target = model.getTrackModel().getEdgeTarget(edge);
-				final Spot source = model.getTrackModel().getEdgeSource(edge);
-
-				// Add coords and colors of each vertex
-				coordinates = new double[3];
-				TMUtils.localize(source, coordinates);
-				line.setCoordinate(edgeIndex, coordinates);
-				line.setColor(edgeIndex, color);
-				edgeIndex++;
-				coordinates = new double[3];
-				TMUtils.localize(target, coordinates);
-				line.setCoordinate(edgeIndex, coordinates);
-				line.setColor(edgeIndex, color);
-				edgeIndex++;
-
-				// Keep refs
-				edgeIndices.get(trackID).put(edge, edgeIndex-2);
-				final int frame = source.getFeature(Spot.FRAME).intValue();
-				frameIndices.get(frame).get(trackID).add(edgeIndex-2);
-
-			} // Finished building this track's line
-
-			// Add primitive to the switch and to the ref list
-			lines.put(trackID, line);
-			trackSwitch.addChild(new Shape3D(line, appearance));
-
-		} // Finish iterating over tracks
-
-		// Add main switch to this content
-		switchMask = new BitSet(ntracks);
-		switchMask.set(0, ntracks, true); // all visible
-		trackSwitch.setChildMask(switchMask);
-
-		removeAllChildren();
 		final BranchGroup branchGroup = new BranchGroup();
 		branchGroup.setCapability(BranchGroup.ALLOW_DETACH);
-		branchGroup.addChild(trackSwitch);
+		branchGroup.addChild(new Shape3D(line, appearance));
 		addChild(branchGroup);
+
+		// All the tracks the meshes were built from are visible
+		setTrackVisible(trackIDs);
 	}
 
 
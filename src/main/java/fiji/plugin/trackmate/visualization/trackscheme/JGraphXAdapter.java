@@ -3,11 +3,13 @@ package fiji.plugin.trackmate.visualization.trackscheme;
 import com.mxgraph.model.mxCell;
 import com.mxgraph.model.mxGeometry;
 import com.mxgraph.model.mxICell;
+import com.mxgraph.util.mxRectangle;
 import com.mxgraph.view.mxGraph;
 
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
 
+import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.Set;
 
@@ -18,26 +20,91 @@ import org.jgrapht.graph.DefaultWeightedEdge;
 
 public class JGraphXAdapter extends mxGraph implements GraphListener<Spot, DefaultWeightedEdge> {
 
+	/** Maximal number of released cells kept for reuse. */
+	private static final int MAX_POOL_SIZE = 10000;
+
 	private HashMap<Spot, mxCell> 					vertexToCellMap 	= new HashMap<Spot, mxCell>();
 	private HashMap<DefaultWeightedEdge, mxCell> 	edgeToCellMap 		= new HashMap<DefaultWeightedEdge, mxCell>();
 	private HashMap<mxCell, Spot>					cellToVertexMap		= new HashMap<mxCell, Spot>();
 	private HashMap<mxCell, DefaultWeightedEdge>	cellToEdgeMap		= new HashMap<mxCell, DefaultWeightedEdge>();
 	private Model tmm;
+	/** Provides the thumbnails referred to in cell styles, may be <code>null</code>. */
+	private SpotThumbnailService thumbnailService;
+	/** Released vertex cells, reused by {@link #addJGraphTVertex(Spot)}. */
+	private final ArrayDeque<mxCell> vertexPool = new ArrayDeque<mxCell>();
+	/** Released edge cells, reused by {@link #addJGraphTEdge(DefaultWeightedEdge)}. */
+	private final ArrayDeque<mxCell> edgePool = new ArrayDeque<mxCell>();
+	/** Bounds of the whole virtualised graph, <code>null</code> if it is not virtualised. */
+	private mxRectangle virtualBounds;
 
 	/*
 	 * CONSTRUCTOR
 	 */
 
 	public JGraphXAdapter(final Model tmm) {
+		this(tmm, false);
+	}
+
+	/**
+	 * Creates an adapter for the specified model.
+	 * @param tmm  the model to mirror.
+	 * @param virtual  if <code>true</code>, no cell is created for the tracks of the
+	 * model. They are created on demand by a {@link ViewportCellManager}.
+	 */
+	public JGraphXAdapter(final Model tmm, final boolean virtual) {
 		super();
 		this.tmm = tmm;
-		insertTrackCollection(tmm);
+		if (!virtual) {
+			insertTrackCollection(tmm);
+		}
 	}
 
 	/*
 	 * METHODS
 	 */
+
+	public void setThumbnailService(final SpotThumbnailService thumbnailService) {
+		this.thumbnailService = thumbnailService;
+	}
+
+	/**
+	 * @return the service that provides the spot thumbnails referred to in
+	 * cell styles, or <code>null</code> if there is none.
+	 */
+	public SpotThumbnailService getThumbnailService() {
+		return thumbnailService;
+	}
 	
+	/**
+	 * Sets the bounds, in unscaled graph coordinates, of the whole graph when
+	 * only part of its cells exist, so that the scroll range covers all of it.
+	 * @param bounds  the bounds of all the cells, existing or not.
+	 */
+	public void setVirtualBounds(final mxRectangle bounds) {
+		this.virtualBounds = bounds;
+	}
+
+	/**
+	 * Overridden to include the cells of a virtualised graph that do not exist.
+	 */
+	@Override
+	public mxRectangle getGraphBounds() {
+		final mxRectangle bounds = super.getGraphBounds();
+		if (null == virtualBounds) {
+			return bounds;
+		}
+		final double scale = getView().getScale();
+		final mxRectangle all = new mxRectangle(
+				(virtualBounds.getX() + getView().getTranslate().getX()) * scale,
+				(virtualBounds.getY() + getView().getTranslate().getY()) * scale,
+				virtualBounds.getWidth() * scale,
+				virtualBounds.getHeight() * scale);
+		if (null != bounds) {
+			all.add(bounds);
+		}
+		return all;
+	}
+
 	/**
 	 * Overridden method so that when a label is changed, we change the target spot's name.
 	 */
@@ -68,7 +135,12 @@ public class JGraphXAdapter extends mxGraph implements GraphListener<Spot, Defau
 		mxCell cell = null;
 		getModel().beginUpdate();
 		try {
-			cell = new mxCell(vertex, new mxGeometry(), "");
+			cell = vertexPool.poll();
+			if (null == cell) {
+				cell = new mxCell(vertex, new mxGeometry(), "");
+			} else {
+				cell.setStyle("");
+			}
 			cell.setVertex(true);
 			cell.setId(null);
 			cell.setValue(vertex.getName());
@@ -91,12 +163,17 @@ public class JGraphXAdapter extends mxGraph implements GraphListener<Spot, Defau
 		try {
 			Spot source = tmm.getTrackModel().getEdgeSource(edge);
 			Spot target = tmm.getTrackModel().getEdgeTarget(edge);				
-			cell = new mxCell(edge);
+			cell = edgePool.poll();
+			if (null == cell) {
+				cell = new mxCell(edge);
+				cell.setGeometry(new mxGeometry());
+				cell.getGeometry().setRelative(true);
+			} else {
+				cell.setStyle(null);
+			}
 			cell.setEdge(true);
 			cell.setId(null);
 			cell.setValue(String.format("%.1f", tmm.getTrackModel().getEdgeWeight(edge)));
-			cell.setGeometry(new mxGeometry());
-			cell.getGeometry().setRelative(true);
 			addEdge(cell, defaultParent, vertexToCellMap.get(source),  vertexToCellMap.get(target), null);
 			edgeToCellMap.put(edge, cell);
 			cellToEdgeMap.put(cell, edge);
@@ -145,6 +222,37 @@ public class JGraphXAdapter extends mxGraph implements GraphListener<Spot, Defau
 		cellToEdgeMap.remove(cell);
 	}
 
+	/**
+	 * Removes the cell of the specified spot from the graph, without touching
+	 * the spot itself, and keeps it to be reused for another spot. Its edges
+	 * must have been released before.
+	 */
+	public void releaseVertex(Spot spot) {
+		mxCell cell = vertexToCellMap.remove(spot);
+		if (null == cell)
+			return;
+		cellToVertexMap.remove(cell);
+		getModel().remove(cell);
+		if (vertexPool.size() < MAX_POOL_SIZE) {
+			vertexPool.push(cell);
+		}
+	}
+
+	/**
+	 * Removes the cell of the specified edge from the graph, without touching
+	 * the edge itself, and keeps it to be reused for another edge.
+	 */
+	public void releaseEdge(DefaultWeightedEdge edge) {
+		mxCell cell = edgeToCellMap.remove(edge);
+		if (null == cell)
+			return;
+		cellToEdgeMap.remove(cell);
+		getModel().remove(cell);
+		if (edgePool.size() < MAX_POOL_SIZE) {
+			edgePool.push(cell);
+		}
+	}
+
 	
 
 	
@@ -175,6 +175,7 @@ public class SaveAction extends AbstractAction {
 					public mxICanvas createCanvas(int width, int height) {
 						TrackSchemeSvgCanvas canvas = new TrackSchemeSvgCanvas(mxDomUtils.createSvgDocument(width, height));
 						canvas.setEmbedded(true);
+						canvas.setThumbnailService(trackScheme.getGraph().getThumbnailService());
 						return canvas;
 					}
 				});
@@ -1,7 +1,6 @@
 package fiji.plugin.trackmate.visualization.trackscheme;
 
 import ij.ImagePlus;
-import ij.process.ImageProcessor;
 
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
@@ -12,7 +11,6 @@ import javax.imageio.ImageIO;
 import net.imagej.ImgPlus;
 import net.imglib2.RandomAccess;
 import net.imglib2.img.Img;
-import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.outofbounds.OutOfBoundsConstantValueFactory;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.view.Views;
@@ -46,6 +44,29 @@ public class SpotIconGrabber< T extends RealType< T >>
 	 * thanks to the calibration stored in the {@link ImgPlus}.
 	 */
 	public String getImageString( final Spot spot )
+	{
+		// Convert to base64
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		final BufferedImage img = getImage( spot );
+		try
+		{
+			ImageIO.write( img, "png", bos );
+			return mxBase64.encodeToString( bos.toByteArray(), false );
+		}
+		catch ( final IOException e )
+		{
+			e.printStackTrace();
+			return "";
+		}
+	}
+
+	/**
+	 * Returns the thumbnail of the specified spot, as an 8-bit gray image
+	 * whose display range is the min and max of the thumbnail pixels. The spot
+	 * x,y,z and radius coordinates are used to get a location on the image
+	 * given at construction.
+	 */
+	public BufferedImage getImage( final Spot spot )
 	{
 		// Get crop coordinates
 		final double[] calibration = TMUtils.getSpatialCalibration( img );
@@ -73,24 +94,34 @@ public class SpotIconGrabber< T extends RealType< T >>
 
 		final Img< T > crop = grabImage( x, y, slice, width, height );
 
-		// Convert to ImagePlus
-		final ImagePlus imp = ImageJFunctions.wrap( crop, crop.toString() );
-		final ImageProcessor ip = imp.getProcessor();
-		ip.resetMinAndMax();
-
-		// Convert to base64
-		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		final BufferedImage img = ip.getBufferedImage();
-		try
+		// Scale to 8-bit with auto min & max
+		final int w = ( int ) width;
+		final int h = ( int ) height;
+		final double[] values = new double[ w * h ];
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		final RandomAccess< T > ra = crop.randomAccess();
+		for ( int j = 0; j < h; j++ )
 		{
-			ImageIO.write( img, "png", bos );
-			return mxBase64.encodeToString( bos.toByteArray(), false );
+			ra.setPosition( j, 1 );
+			for ( int i = 0; i < w; i++ )
+			{
+				ra.setPosition( i, 0 );
+				final double val = ra.get().getRealDouble();
+				values[ i + j * w ] = val;
+				min = Math.min( min, val );
+				max = Math.max( max, val );
+			}
 		}
-		catch ( final IOException e )
+		final double scale = max > min ? 256 / ( max - min ) : 0;
+		final byte[] pixels = new byte[ w * h ];
+		for ( int i = 0; i < pixels.length; i++ )
 		{
-			e.printStackTrace();
-			return "";
+			pixels[ i ] = ( byte ) Math.min( 255, ( int ) ( ( values[ i ] - min ) * scale ) );
 		}
+		final BufferedImage bi = new BufferedImage( w, h, BufferedImage.TYPE_BYTE_GRAY );
+		bi.getRaster().setDataElements( 0, 0, w, h, pixels );
+		return bi;
 	}
 
 	public final Img< T > grabImage( final long x, final long y, final long slice, final long width, final long height )
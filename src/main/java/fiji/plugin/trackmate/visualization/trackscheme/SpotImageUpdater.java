@@ -36,22 +36,32 @@ public class SpotImageUpdater {
 		if (frame == previousFrame) {
 			// Keep the same image than in memory
 		} else {
-			ImgPlus img = TMUtils.rawWraps(settings.imp);
-			int targetChannel = 0;
-			if (settings != null && settings.detectorSettings != null) {
-				// Try to extract it from detector settings target channel
-				Map<String, Object> ds = settings.detectorSettings;
-				Object obj = ds.get(KEY_TARGET_CHANNEL);
-				if (null != obj && obj instanceof Integer) {
-					targetChannel = ((Integer) obj) - 1;
-				}
-			} // TODO: be more flexible about that
-			ImgPlus<?> imgCT = HyperSliceImgPlus.fixTimeAxis( 
-					HyperSliceImgPlus.fixChannelAxis(img, targetChannel), 
-					frame);
-			grabber = new SpotIconGrabber(imgCT);
+			grabber = getGrabber(frame);
 			previousFrame = frame;
 		}
 		return grabber.getImageString(spot);			
 	}
+
+	/**
+	 * @return a new icon grabber on the target channel of the raw image, at
+	 * the given frame. Grabbers are independent, so several can be used
+	 * concurrently for different frames.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public SpotIconGrabber<?> getGrabber(final int frame) {
+		ImgPlus img = TMUtils.rawWraps(settings.imp);
+		int targetChannel = 0;
+		if (settings != null && settings.detectorSettings != null) {
+			// Try to extract it from detector settings target channel
+			Map<String, Object> ds = settings.detectorSettings;
+			Object obj = ds.get(KEY_TARGET_CHANNEL);
+			if (null != obj && obj instanceof Integer) {
+				targetChannel = ((Integer) obj) - 1;
+			}
+		} // TODO: be more flexible about that
+		ImgPlus<?> imgCT = HyperSliceImgPlus.fixTimeAxis( 
+				HyperSliceImgPlus.fixChannelAxis(img, targetChannel), 
+				frame);
+		return new SpotIconGrabber(imgCT);
+	}
 }
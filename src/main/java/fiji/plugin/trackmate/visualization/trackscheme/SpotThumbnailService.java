@@ -0,0 +1,419 @@
+package fiji.plugin.trackmate.visualization.trackscheme;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+
+import com.mxgraph.util.mxBase64;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * Captures the thumbnails of spots displayed in TrackScheme in background
+ * threads, and keeps them in a bounded LRU cache.
+ * <p>
+ * Thumbnails are stored as raw 8-bit gray {@link BufferedImage}s, keyed by a
+ * short pseudo-URL built from the spot ID, frame and radius (see
+ * {@link #urlOf(Spot)}). This URL is what is put in the
+ * {@link com.mxgraph.util.mxConstants#STYLE_IMAGE} style of spot cells; the
+ * {@link mxScaledLabelShape} resolves it through the
+ * {@link JGraphXAdapter#getThumbnailService()} when painting. PNG encoding is
+ * only done when exporting to a format that needs it.
+ * <p>
+ * Requests for spots that are visible in the viewport are rendered before the
+ * others, and the thumbnails of the spots declared as visible with
+ * {@link #setVisible(Collection)} are never evicted from the cache. Finished
+ * thumbnails are reported in batches to the
+ * {@link ThumbnailListener} on the event dispatch thread, so that cell styles
+ * are only updated once the image is available.
+ */
+public class SpotThumbnailService
+{
+
+	/** Prefix of the pseudo-URLs used for thumbnails in cell styles. */
+	public static final String URL_PREFIX = "thumbnail:";
+
+	/** Default maximal number of thumbnails kept in the cache. */
+	public static final int DEFAULT_MAX_THUMBNAILS = 10000;
+
+	/** Number of per-frame icon grabbers kept. */
+	private static final int MAX_GRABBERS = 8;
+
+	/**
+	 * Interface for the listeners notified when thumbnails are ready.
+	 */
+	public static interface ThumbnailListener
+	{
+		/**
+		 * Called on the event dispatch thread when the thumbnails of the
+		 * specified spots are available.
+		 *
+		 * @param urls
+		 *            the thumbnail URL for each spot, to set in their cell
+		 *            style.
+		 */
+		public void thumbnailsReady( Map< Spot, String > urls );
+	}
+
+	private final SpotImageUpdater updater;
+
+	private final ThumbnailListener listener;
+
+	private final Logger logger;
+
+	/** URLs of the thumbnails currently displayed, that must not be evicted. */
+	private final Set< String > pinned = new HashSet< String >();
+
+	private final ThumbnailCache cache = new ThumbnailCache( DEFAULT_MAX_THUMBNAILS, pinned );
+
+	/** Best priority of the pending request for each URL. */
+	private final Map< String, Integer > pending = new HashMap< String, Integer >();
+
+	private final Map< Integer, SpotIconGrabber< ? > > grabbers = new LinkedHashMap< Integer, SpotIconGrabber< ? > >( MAX_GRABBERS, 0.75f, true )
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry< Integer, SpotIconGrabber< ? > > eldest )
+		{
+			return size() > MAX_GRABBERS;
+		}
+	};
+
+	private final ThreadPoolExecutor executor;
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	private final ConcurrentLinkedQueue< Spot > finished = new ConcurrentLinkedQueue< Spot >();
+
+	private final AtomicBoolean notificationScheduled = new AtomicBoolean( false );
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	public SpotThumbnailService( final SpotImageUpdater updater, final ThumbnailListener listener, final Logger logger )
+	{
+		this.updater = updater;
+		this.listener = listener;
+		this.logger = logger;
+		final int nThreads = Runtime.getRuntime().availableProcessors();
+		final AtomicInteger threadIndex = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor( nThreads, nThreads, 10, TimeUnit.SECONDS, new PriorityBlockingQueue< Runnable >(), new ThreadFactory()
+		{
+			@Override
+			public Thread newThread( final Runnable r )
+			{
+				final Thread thread = new Thread( r, "TrackScheme thumbnail thread " + threadIndex.incrementAndGet() );
+				thread.setDaemon( true );
+				thread.setPriority( Thread.MIN_PRIORITY );
+				return thread;
+			}
+		} );
+		executor.allowCoreThreadTimeOut( true );
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns the pseudo-URL of the thumbnail of the specified spot.
+	 */
+	public static String urlOf( final Spot spot )
+	{
+		return URL_PREFIX + spot.ID() + '/' + spot.getFeature( Spot.FRAME ).intValue() + '/' + spot.getFeature( Spot.RADIUS );
+	}
+
+	/**
+	 * Returns the thumbnail with the specified URL, or <code>null</code> if it
+	 * is not in the cache.
+	 */
+	public BufferedImage getImage( final String url )
+	{
+		synchronized ( cache )
+		{
+			return cache.get( url );
+		}
+	}
+
+	/**
+	 * Returns the thumbnail with the specified URL as a PNG data URI, or
+	 * <code>null</code> if it is not in the cache.
+	 */
+	public String toDataURI( final String url )
+	{
+		final BufferedImage img = getImage( url );
+		if ( null == img ) { return null; }
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try
+		{
+			ImageIO.write( img, "png", bos );
+			return "data:image/png;base64," + mxBase64.encodeToString( bos.toByteArray(), false );
+		}
+		catch ( final IOException e )
+		{
+			logger.error( "Could not encode thumbnail " + url + " as PNG:\n" + e.getMessage() + '\n' );
+			return null;
+		}
+	}
+
+	/**
+	 * Requests the thumbnails of the specified spots. Thumbnails already in
+	 * the cache are reported immediately; the others are captured in the
+	 * background.
+	 *
+	 * @param spots
+	 *            the spots to capture.
+	 * @param visible
+	 *            if <code>true</code>, these spots are currently visible and
+	 *            will be captured before the spots requested as not visible.
+	 */
+	public void request( final Collection< Spot > spots, final boolean visible )
+	{
+		final int priority = visible ? 0 : 1;
+		boolean cached = false;
+		for ( final Spot spot : spots )
+		{
+			final String url = urlOf( spot );
+			if ( null != getImage( url ) )
+			{
+				finished.add( spot );
+				cached = true;
+				continue;
+			}
+			synchronized ( pending )
+			{
+				final Integer previous = pending.get( url );
+				if ( null != previous && previous.intValue() <= priority )
+				{
+					continue;
+				}
+				pending.put( url, Integer.valueOf( priority ) );
+			}
+			executor.execute( new Capture( spot, url, priority, sequence.incrementAndGet() ) );
+		}
+		if ( cached )
+		{
+			scheduleNotification();
+		}
+	}
+
+	/**
+	 * Declares the spots whose cell is currently visible, replacing the
+	 * previous ones. Their thumbnails are kept in the cache, whatever the
+	 * number of thumbnails captured for other spots afterwards.
+	 *
+	 * @param spots
+	 *            the visible spots.
+	 */
+	public void setVisible( final Collection< Spot > spots )
+	{
+		synchronized ( cache )
+		{
+			pinned.clear();
+			for ( final Spot spot : spots )
+			{
+				pinned.add( urlOf( spot ) );
+			}
+		}
+	}
+
+	/**
+	 * Discards the cached thumbnail of the specified spot, for instance
+	 * because it moved.
+	 */
+	public void invalidate( final Spot spot )
+	{
+		synchronized ( cache )
+		{
+			cache.remove( urlOf( spot ) );
+		}
+	}
+
+	/**
+	 * Cancels all pending captures and discards all cached thumbnails.
+	 */
+	public void clear()
+	{
+		executor.getQueue().clear();
+		synchronized ( pending )
+		{
+			pending.clear();
+		}
+		synchronized ( cache )
+		{
+			pinned.clear();
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Stops the background threads. This service cannot be used afterwards.
+	 */
+	public void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private SpotIconGrabber< ? > getGrabber( final int frame )
+	{
+		synchronized ( grabbers )
+		{
+			final Integer key = Integer.valueOf( frame );
+			SpotIconGrabber< ? > grabber = grabbers.get( key );
+			if ( null == grabber )
+			{
+				grabber = updater.getGrabber( frame );
+				grabbers.put( key, grabber );
+			}
+			return grabber;
+		}
+	}
+
+	private void scheduleNotification()
+	{
+		if ( !notificationScheduled.compareAndSet( false, true ) ) { return; }
+		SwingUtilities.invokeLater( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				notificationScheduled.set( false );
+				final Map< Spot, String > urls = new HashMap< Spot, String >();
+				Spot spot;
+				while ( null != ( spot = finished.poll() ) )
+				{
+					urls.put( spot, urlOf( spot ) );
+				}
+				if ( !urls.isEmpty() )
+				{
+					listener.thumbnailsReady( urls );
+				}
+			}
+		} );
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * The capture of one spot thumbnail, ordered by priority then by request
+	 * order in the executor queue.
+	 */
+	private final class Capture implements Runnable, Comparable< Capture >
+	{
+
+		private final Spot spot;
+
+		private final String url;
+
+		private final int priority;
+
+		private final long index;
+
+		public Capture( final Spot spot, final String url, final int priority, final long index )
+		{
+			this.spot = spot;
+			this.url = url;
+			this.priority = priority;
+			this.index = index;
+		}
+
+		@Override
+		public void run()
+		{
+			synchronized ( pending )
+			{
+				// Already done by a request with a better priority?
+				if ( !pending.containsKey( url ) ) { return; }
+			}
+			BufferedImage img = getImage( url );
+			if ( null == img )
+			{
+				img = getGrabber( spot.getFeature( Spot.FRAME ).intValue() ).getImage( spot );
+				synchronized ( cache )
+				{
+					cache.put( url, img );
+				}
+			}
+			synchronized ( pending )
+			{
+				pending.remove( url );
+			}
+			finished.add( spot );
+			scheduleNotification();
+		}
+
+		@Override
+		public int compareTo( final Capture o )
+		{
+			if ( priority != o.priority ) { return priority < o.priority ? -1 : 1; }
+			return index < o.index ? -1 : ( index == o.index ? 0 : 1 );
+		}
+	}
+
+	/**
+	 * Access-ordered map that drops its least recently used thumbnail that is
+	 * not pinned when it exceeds its capacity.
+	 */
+	private static final class ThumbnailCache extends LinkedHashMap< String, BufferedImage >
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		private final int maxThumbnails;
+
+		private final Set< String > pinned;
+
+		public ThumbnailCache( final int maxThumbnails, final Set< String > pinned )
+		{
+			super( 16, 0.75f, true );
+			this.maxThumbnails = maxThumbnails;
+			this.pinned = pinned;
+		}
+
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry< String, BufferedImage > eldest )
+		{
+			if ( size() <= maxThumbnails ) { return false; }
+			if ( !pinned.contains( eldest.getKey() ) ) { return true; }
+			// Drop the least recently used one that is not displayed.
+			final Iterator< String > it = keySet().iterator();
+			while ( it.hasNext() )
+			{
+				if ( !pinned.contains( it.next() ) )
+				{
+					it.remove();
+					break;
+				}
+			}
+			return false;
+		}
+	}
+
+}
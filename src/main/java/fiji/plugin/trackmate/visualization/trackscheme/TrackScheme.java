@@ -33,9 +33,11 @@ import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -43,6 +45,8 @@ import java.util.TreeMap;
 import javax.swing.ImageIcon;
 import javax.swing.JViewport;
 import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 
@@ -99,6 +103,12 @@ public class TrackScheme extends AbstractTrackMateModelView
 
 	static final String KEY = "TRACKSCHEME";
 
+	/**
+	 * Above this number of spots in visible tracks, TrackScheme only creates
+	 * cells around the viewport.
+	 */
+	public static final int DEFAULT_VIRTUAL_THRESHOLD = 50000;
+
 	/*
 	 * FIELDS
 	 */
@@ -145,6 +155,12 @@ public class TrackScheme extends AbstractTrackMateModelView
 	 */
 	private SpotImageUpdater spotImageUpdater;
 
+	/**
+	 * Captures and caches spot thumbnails in the background, from the
+	 * {@link #spotImageUpdater}. <code>null</code> if there is no updater.
+	 */
+	private SpotThumbnailService thumbnailService;
+
 	TrackSchemeStylist stylist;
 
 	/**
@@ -156,6 +172,18 @@ public class TrackScheme extends AbstractTrackMateModelView
 	/** Flag reporting whether we ran a thumbnail capture. See createThumbnails. */
 	private boolean thumbnailCaptured = false;
 
+	/**
+	 * The number of spots in visible tracks above which rendering is
+	 * virtualised.
+	 */
+	private int virtualThreshold = DEFAULT_VIRTUAL_THRESHOLD;
+
+	/**
+	 * Creates the cells around the viewport in virtualised mode,
+	 * <code>null</code> if all the cells are created.
+	 */
+	private ViewportCellManager cellManager;
+
 	/*
 	 * CONSTRUCTORS
 	 */
@@ -174,6 +202,38 @@ public class TrackScheme extends AbstractTrackMateModelView
 	public void setSpotImageUpdater( final SpotImageUpdater spotImageUpdater )
 	{
 		this.spotImageUpdater = spotImageUpdater;
+		if ( null != thumbnailService )
+		{
+			thumbnailService.shutdown();
+		}
+		thumbnailService = null == spotImageUpdater ? null : new SpotThumbnailService( spotImageUpdater, new ThumbnailUpdater(), model.getLogger() );
+		if ( null != graph )
+		{
+			graph.setThumbnailService( thumbnailService );
+		}
+	}
+
+	/**
+	 * Sets the number of spots in visible tracks above which TrackScheme only
+	 * creates the cells of the spots and links around the viewport. Must be
+	 * called before {@link #render()}.
+	 *
+	 * @param virtualThreshold
+	 *            the number of spots. 0 always virtualises the rendering,
+	 *            {@link Integer#MAX_VALUE} never does.
+	 */
+	public void setVirtualThreshold( final int virtualThreshold )
+	{
+		this.virtualThreshold = virtualThreshold;
+	}
+
+	/**
+	 * Returns <code>true</code> if only the cells around the viewport are
+	 * created.
+	 */
+	public boolean isVirtualised()
+	{
+		return null != cellManager;
 	}
 
 	public SelectionModel getSelectionModel()
@@ -236,12 +296,12 @@ public class TrackScheme extends AbstractTrackMateModelView
 	 * Used to instantiate and configure the {@link JGraphXAdapter} that will be
 	 * used for display.
 	 */
-	private JGraphXAdapter createGraph()
+	private JGraphXAdapter createGraph( final boolean virtual )
 	{
 
 		gui.logger.setStatus( "Creating graph adapter." );
 
-		final JGraphXAdapter graph = new JGraphXAdapter( model );
+		final JGraphXAdapter graph = new JGraphXAdapter( model, virtual );
 		graph.setAllowLoops( false );
 		graph.setAllowDanglingEdges( false );
 		graph.setCellsCloneable( false );
@@ -251,6 +311,7 @@ public class TrackScheme extends AbstractTrackMateModelView
 		graph.setGridEnabled( false );
 		graph.setLabelsVisible( true );
 		graph.setDropEnabled( false );
+		graph.setThumbnailService( thumbnailService );
 
 		// Cells removed from JGraphX
 		graph.addListener( mxEvent.CELLS_REMOVED, new CellRemovalListener() );
@@ -294,12 +355,14 @@ public class TrackScheme extends AbstractTrackMateModelView
 			}
 
 			// Update cell look
-			if ( spotImageUpdater != null && doThumbnailCapture )
+			if ( !spot.getName().equals( cell.getValue() ) )
+			{
+				graph.getModel().setValue( cell, spot.getName() );
+			}
+			if ( thumbnailService != null && doThumbnailCapture )
 			{
-				String style = cell.getStyle();
-				final String imageStr = spotImageUpdater.getImageString( spot );
-				style = mxStyleUtils.setStyle( style, mxConstants.STYLE_IMAGE, "data:image/base64," + imageStr );
-				graph.getModel().setStyle( cell, style );
+				thumbnailService.invalidate( spot );
+				thumbnailService.request( Collections.singleton( spot ), true );
 			}
 		}
 		finally
@@ -324,17 +387,21 @@ public class TrackScheme extends AbstractTrackMateModelView
 		}
 		// Instantiate JGraphX cell
 		cellAdded = graph.addJGraphTVertex( spot );
+		if ( null != cellManager )
+		{
+			// Keep it at next layouts
+			cellManager.addLooseSpot( spot );
+		}
 		// Position it
 		final int row = spot.getFeature( Spot.FRAME ).intValue();
 		final double x = ( targetColumn - 1 ) * X_COLUMN_SIZE - DEFAULT_CELL_WIDTH / 2;
 		final double y = ( 0.5 + row ) * Y_COLUMN_SIZE - DEFAULT_CELL_HEIGHT / 2;
 		final mxGeometry geometry = new mxGeometry( x, y, DEFAULT_CELL_WIDTH, DEFAULT_CELL_HEIGHT );
 		cellAdded.setGeometry( geometry );
-		// Set its style
-		if ( null != spotImageUpdater && doThumbnailCapture )
+		// Set its style when its thumbnail is ready
+		if ( null != thumbnailService && doThumbnailCapture )
 		{
-			final String imageStr = spotImageUpdater.getImageString( spot );
-			graph.getModel().setStyle( cellAdded, mxConstants.STYLE_IMAGE + "=" + "data:image/base64," + imageStr );
+			thumbnailService.request( Collections.singleton( spot ), true );
 		}
 		return cellAdded;
 	}
@@ -554,7 +621,8 @@ public class TrackScheme extends AbstractTrackMateModelView
 	@Override
 	public void centerViewOn( final Spot spot )
 	{
-		gui.centerViewOn( graph.getCellFor( spot ) );
+		final mxICell cell = null == cellManager ? graph.getCellFor( spot ) : cellManager.getCellFor( spot );
+		gui.centerViewOn( cell );
 	}
 
 	/**
@@ -568,11 +636,23 @@ public class TrackScheme extends AbstractTrackMateModelView
 	@Override
 	public void modelChanged( final ModelChangeEvent event )
 	{
+		// Tracks to lay out again at next layout
+		if ( null != graphLayout )
+		{
+			graphLayout.modelChanged( event );
+		}
+
 		// Only catch model changes
 		if ( event.getEventID() != ModelChangeEvent.MODEL_MODIFIED ) {
 			return;
 		}
 
+		if ( null != cellManager )
+		{
+			virtualModelChanged( event );
+			return;
+		}
+
 		graph.getModel().beginUpdate();
 		try
 		{
@@ -769,6 +849,133 @@ public class TrackScheme extends AbstractTrackMateModelView
 		}
 	}
 
+	/**
+	 * Reflects model changes in virtualised mode. The layout is updated, and
+	 * the cells around the viewport regenerated from it.
+	 */
+	private void virtualModelChanged( final ModelChangeEvent event )
+	{
+		// Feature edits leave the layout as it is.
+		boolean layoutChanged = false;
+		for ( final Spot spot : event.getSpots() )
+		{
+			final int flag = event.getSpotFlag( spot );
+			if ( flag == ModelChangeEvent.FLAG_SPOT_ADDED )
+			{
+				cellManager.addLooseSpot( spot );
+				layoutChanged = true;
+			}
+			else if ( flag == ModelChangeEvent.FLAG_SPOT_REMOVED )
+			{
+				cellManager.removeLooseSpot( spot );
+				layoutChanged = true;
+			}
+			else if ( flag == ModelChangeEvent.FLAG_SPOT_FRAME_CHANGED )
+			{
+				layoutChanged = true;
+			}
+			else if ( flag == ModelChangeEvent.FLAG_SPOT_MODIFIED && null != graph.getCellFor( spot ) )
+			{
+				// Only cells around the viewport exist. The others are made
+				// from the spot when scrolled into view.
+				updateCellOf( spot );
+			}
+		}
+		for ( final DefaultWeightedEdge edge : event.getEdges() )
+		{
+			final int flag = event.getEdgeFlag( edge );
+			if ( flag == ModelChangeEvent.FLAG_EDGE_ADDED )
+			{
+				layoutChanged = true;
+			}
+			else if ( flag == ModelChangeEvent.FLAG_EDGE_REMOVED )
+			{
+				/*
+				 * Keep showing spots left out of any track. The layout drops
+				 * the ones that are still in a visible track from the loose
+				 * spots.
+				 */
+				for ( final Spot spot : new Spot[] { model.getTrackModel().getEdgeSource( edge ), model.getTrackModel().getEdgeTarget( edge ) } )
+				{
+					final Integer spotFlag = event.getSpotFlag( spot );
+					if ( null == spotFlag || spotFlag.intValue() != ModelChangeEvent.FLAG_SPOT_REMOVED )
+					{
+						cellManager.addLooseSpot( spot );
+					}
+				}
+				layoutChanged = true;
+			}
+		}
+
+		// Removed spots and edges lose their cells there.
+		if ( layoutChanged )
+		{
+			doTrackLayout();
+		}
+
+		// Restyle the remaining cells of the modified tracks.
+		if ( null == stylist ) { return; }
+		final Map< Integer, Set< mxCell >> edgesToUpdate = new HashMap< Integer, Set< mxCell >>();
+		for ( final DefaultWeightedEdge edge : event.getEdges() )
+		{
+			final mxCell cell = graph.getCellFor( edge );
+			if ( null == cell )
+			{
+				continue;
+			}
+			final Integer trackID = model.getTrackModel().trackIDOf( edge );
+			Set< mxCell > edgeSet = edgesToUpdate.get( trackID );
+			if ( edgeSet == null )
+			{
+				edgeSet = new HashSet< mxCell >();
+				edgesToUpdate.put( trackID, edgeSet );
+			}
+			edgeSet.add( cell );
+		}
+		final Collection< mxCell > spotsWithStyleToUpdate = new HashSet< mxCell >();
+		for ( final Spot spot : event.getSpots() )
+		{
+			final mxCell cell = graph.getCellFor( spot );
+			if ( null != cell )
+			{
+				spotsWithStyleToUpdate.add( cell );
+			}
+		}
+		stylist.execute( edgesToUpdate );
+		stylist.updateVertexStyle( spotsWithStyleToUpdate );
+		SwingUtilities.invokeLater( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				gui.graphComponent.refresh();
+				gui.graphComponent.repaint();
+			}
+		} );
+	}
+
+	/**
+	 * In virtualised mode, creates the cells around the viewport and recycles
+	 * the others. The cells removed there are not removed from the model.
+	 */
+	private void refreshViewport()
+	{
+		if ( null == cellManager ) { return; }
+		final boolean fireSelection = doFireSelectionChangeEvent;
+		final boolean fireModel = doFireModelChangeEvent;
+		doFireSelectionChangeEvent = false;
+		doFireModelChangeEvent = false;
+		try
+		{
+			cellManager.update();
+		}
+		finally
+		{
+			doFireSelectionChangeEvent = fireSelection;
+			doFireModelChangeEvent = fireModel;
+		}
+	}
+
 	@Override
 	public Map< String, Object > getDisplaySettings()
 	{
@@ -803,8 +1010,14 @@ public class TrackScheme extends AbstractTrackMateModelView
 	public void render()
 	{
 		final long start = System.currentTimeMillis();
-		// Graph to mirror model
-		this.graph = createGraph();
+		// Graph to mirror model, or only part of it if it is large
+		int nSpots = 0;
+		for ( final Integer trackID : model.getTrackModel().trackIDs( true ) )
+		{
+			nSpots += model.getTrackModel().trackSpots( trackID ).size();
+		}
+		final boolean virtual = nSpots > virtualThreshold;
+		this.graph = createGraph( virtual );
 		gui.logger.setProgress( 0.5 );
 
 		SwingUtilities.invokeLater( new Runnable()
@@ -821,6 +1034,30 @@ public class TrackScheme extends AbstractTrackMateModelView
 				TrackScheme.this.stylist = new TrackSchemeStylist( graph, ( TrackColorGenerator ) displaySettings.get( KEY_TRACK_COLORING ) );
 				gui.logger.setStatus( "Creating layout manager." );
 				TrackScheme.this.graphLayout = new TrackSchemeGraphLayout( graph, model, gui.graphComponent );
+				if ( virtual )
+				{
+					gui.logger.setStatus( "Creating viewport cell manager." );
+					cellManager = new ViewportCellManager( graph, model, gui.graphComponent, new VirtualCellStyler() );
+					graphLayout.setCellManager( cellManager );
+					gui.graphComponent.getViewport().addChangeListener( new ChangeListener()
+					{
+						@Override
+						public void stateChanged( final ChangeEvent e )
+						{
+							refreshViewport();
+						}
+					} );
+					final mxIEventListener scaleListener = new mxIEventListener()
+					{
+						@Override
+						public void invoke( final Object sender, final mxEventObject evt )
+						{
+							refreshViewport();
+						}
+					};
+					graph.getView().addListener( mxEvent.SCALE, scaleListener );
+					graph.getView().addListener( mxEvent.SCALE_AND_TRANSLATE, scaleListener );
+				}
 
 				// Execute style and layout
 				gui.logger.setProgress( 0.75 );
@@ -833,7 +1070,7 @@ public class TrackScheme extends AbstractTrackMateModelView
 
 				gui.logger.setStatus( "Refreshing display." );
 				gui.graphComponent.refresh();
-				final mxRectangle bounds = graph.getView().validatePoints( null, graph.getDefaultParent() );
+				final mxRectangle bounds = virtual ? graph.getGraphBounds() : graph.getView().validatePoints( null, graph.getDefaultParent() );
 				if ( null == bounds )
 				{ // This happens when there is not track to display
 					return;
@@ -1031,6 +1268,10 @@ public class TrackScheme extends AbstractTrackMateModelView
 			public void windowClosing( final WindowEvent e )
 			{
 				model.removeModelChangeListener( TrackScheme.this );
+				if ( null != thumbnailService )
+				{
+					thumbnailService.shutdown();
+				}
 			}
 		} );
 		gui.setLocationByPlatform( true );
@@ -1041,6 +1282,108 @@ public class TrackScheme extends AbstractTrackMateModelView
 	 * INNER CLASSES
 	 */
 
+	/**
+	 * Puts the thumbnails captured by the {@link #thumbnailService} in the
+	 * style of their cell, and repaints them.
+	 * <p>
+	 * The URL of a thumbnail does not change when it is captured again, e.g.
+	 * after the spot was modified or after the thumbnail was evicted from the
+	 * cache. So cells that already have the right URL in their style must still
+	 * be repainted, for the new image to be displayed.
+	 */
+	private class ThumbnailUpdater implements SpotThumbnailService.ThumbnailListener
+	{
+
+		@Override
+		public void thumbnailsReady( final Map< Spot, String > urls )
+		{
+			if ( null == graph ) { return; }
+			boolean repaint = false;
+			graph.getModel().beginUpdate();
+			try
+			{
+				for ( final Spot spot : urls.keySet() )
+				{
+					final mxICell cell = graph.getCellFor( spot );
+					if ( null == cell )
+					{
+						continue;
+					}
+					final String url = urls.get( spot );
+					final String style = cell.getStyle();
+					if ( null != style && style.contains( url ) )
+					{
+						repaint = true;
+						continue;
+					}
+					graph.getModel().setStyle( cell, mxStyleUtils.setStyle( style, mxConstants.STYLE_IMAGE, url ) );
+				}
+			}
+			finally
+			{
+				graph.getModel().endUpdate();
+			}
+			if ( repaint && null != gui )
+			{
+				gui.graphComponent.refresh();
+			}
+		}
+	}
+
+	/**
+	 * Styles the cells created by the {@link #cellManager}, and restores
+	 * their selection and thumbnail.
+	 */
+	private class VirtualCellStyler implements ViewportCellManager.CellCreationListener
+	{
+
+		@Override
+		public void cellsCreated( final Collection< mxCell > vertices, final Map< Integer, Set< mxCell > > edges )
+		{
+			if ( null != stylist )
+			{
+				final Set< mxICell > styled = stylist.execute( edges );
+				final Collection< mxCell > missed = new ArrayList< mxCell >( vertices );
+				missed.removeAll( styled );
+				stylist.updateVertexStyle( missed );
+			}
+
+			final ArrayList< Object > selected = new ArrayList< Object >();
+			final ArrayList< Spot > spots = new ArrayList< Spot >( vertices.size() );
+			for ( final mxCell cell : vertices )
+			{
+				final Spot spot = graph.getSpotFor( cell );
+				spots.add( spot );
+				if ( selectionModel.getSpotSelection().contains( spot ) )
+				{
+					selected.add( cell );
+				}
+			}
+			for ( final Set< mxCell > edgeSet : edges.values() )
+			{
+				for ( final mxCell cell : edgeSet )
+				{
+					if ( selectionModel.getEdgeSelection().contains( graph.getEdgeFor( cell ) ) )
+					{
+						selected.add( cell );
+					}
+				}
+			}
+			if ( !selected.isEmpty() )
+			{
+				final boolean fireSelection = doFireSelectionChangeEvent;
+				doFireSelectionChangeEvent = false;
+				graph.getSelectionModel().addCells( selected.toArray() );
+				doFireSelectionChangeEvent = fireSelection;
+			}
+
+			if ( null != thumbnailService && doThumbnailCapture && !spots.isEmpty() )
+			{
+				thumbnailService.request( spots, true );
+			}
+		}
+	}
+
 	private class CellRemovalListener implements mxIEventListener
 	{
 
@@ -1205,7 +1548,11 @@ public class TrackScheme extends AbstractTrackMateModelView
 				final HashSet< mxCell > set = new HashSet< mxCell >( edges.size() );
 				for ( final DefaultWeightedEdge edge : edges )
 				{
-					set.add( graph.getCellFor( edge ) );
+					final mxCell cell = graph.getCellFor( edge );
+					if ( null != cell )
+					{
+						set.add( cell );
+					}
 				}
 				edgeMap.put( trackID, set );
 			}
@@ -1247,40 +1594,61 @@ public class TrackScheme extends AbstractTrackMateModelView
 				spotPerFrame.get( frame ).add( spot );
 			}
 		}
-		// Set spot image to cell style
-		if ( null != spotImageUpdater )
+		// Request thumbnails, visible cells first. Cell styles are updated as
+		// they are ready.
+		if ( null != thumbnailService )
 		{
-			gui.logger.setStatus( "Collecting spot thumbnails." );
-			int index = 0;
-			try
+			final Set< Spot > visible = getSpotsInViewport();
+			thumbnailService.setVisible( visible );
+			thumbnailService.request( visible, true );
+			if ( null == cellManager )
 			{
-				graph.getModel().beginUpdate();
-
-				// Iterate per frame
+				// In virtualised mode, cells request theirs when created.
+				final Set< Spot > others = new LinkedHashSet< Spot >();
 				for ( final Integer frame : frames )
 				{
-					for ( final Spot spot : spotPerFrame.get( frame ) )
-					{
-
-						final mxICell cell = graph.getCellFor( spot );
-						final String imageStr = spotImageUpdater.getImageString( spot );
-						String style = cell.getStyle();
-						style = mxStyleUtils.setStyle( style, mxConstants.STYLE_IMAGE, "data:image/base64," + imageStr );
-						graph.getModel().setStyle( cell, style );
+					others.addAll( spotPerFrame.get( frame ) );
+				}
+				others.removeAll( visible );
+				thumbnailService.request( others, false );
+			}
+			thumbnailCaptured = true; // After that they will be kept in
+			// synch thanks to #modelChanged
 
+			// Captures of cells scrolled into view are moved up the queue, and
+			// their thumbnails are kept in the cache while they are visible.
+			gui.graphComponent.getViewport().addChangeListener( new ChangeListener()
+			{
+				@Override
+				public void stateChanged( final ChangeEvent e )
+				{
+					if ( doThumbnailCapture && null != thumbnailService )
+					{
+						final Set< Spot > visible = getSpotsInViewport();
+						thumbnailService.setVisible( visible );
+						thumbnailService.request( visible, true );
 					}
-					gui.logger.setProgress( ( double ) index++ / frames.size() );
 				}
-			}
-			finally
+			} );
+		}
+	}
+
+	/**
+	 * Returns the spots whose cell is currently visible in the viewport.
+	 */
+	private Set< Spot > getSpotsInViewport()
+	{
+		final Set< Spot > spots = new HashSet< Spot >();
+		final Object[] cells = gui.graphComponent.getCells( gui.graphComponent.getViewport().getViewRect() );
+		for ( final Object obj : cells )
+		{
+			final Spot spot = graph.getSpotFor( ( mxICell ) obj );
+			if ( null != spot )
 			{
-				graph.getModel().endUpdate();
-				gui.logger.setProgress( 0d );
-				gui.logger.setStatus( "" );
-				thumbnailCaptured = true; // After that they will be kept in
-				// synch thanks to #modelChanged
+				spots.add( spot );
 			}
 		}
+		return spots;
 	}
 
 	public void doTrackLayout()
@@ -1297,6 +1665,7 @@ public class TrackScheme extends AbstractTrackMateModelView
 			}
 		}
 		unlaidSpotColumn = maxLength;
+		refreshViewport();
 		gui.graphComponent.refresh();
 	}
 
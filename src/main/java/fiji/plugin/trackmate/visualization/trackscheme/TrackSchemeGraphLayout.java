@@ -9,8 +9,12 @@ import com.mxgraph.layout.mxGraphLayout;
 import com.mxgraph.model.mxCell;
 import com.mxgraph.model.mxGeometry;
 import com.mxgraph.model.mxICell;
+import com.mxgraph.util.mxEvent;
+import com.mxgraph.util.mxEventObject;
+import com.mxgraph.util.mxEventSource.mxIEventListener;
 
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition;
 import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition.TrackBranchDecomposition;
@@ -19,7 +23,10 @@ import fiji.plugin.trackmate.graph.SortedDepthFirstIterator;
 import fiji.plugin.trackmate.graph.TimeDirectedNeighborIndex;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -37,6 +44,16 @@ import org.jgrapht.traverse.DepthFirstIterator;
  * to tracks. It also sets the style of each cell so that they have a coloring
  * depending on the lane they belong to. Each lane's width and color is
  * available to other classes for further exploitation.
+ * <p>
+ * The layout of a track within its lane does not depend on the other tracks,
+ * so it is computed once in lane-relative columns and cached. Subsequent calls
+ * to {@link #execute(Object)} only recompute the tracks that were invalidated
+ * through {@link #modelChanged(ModelChangeEvent)} or by moving their cells,
+ * and only move the cells of the lanes whose first column changed.
+ * <p>
+ * In virtualised mode, set with {@link #setCellManager(ViewportCellManager)},
+ * the layout does not move cells. It stores the position of every spot in the
+ * cell manager instead, which creates cells only around the viewport.
  *
  * @author Jean-Yves Tinevez <jeanyves.tinevez@gmail.com> - Mar 2011 - 2012 -
  *         2014
@@ -64,6 +81,15 @@ public class TrackSchemeGraphLayout extends mxGraphLayout implements Benchmark
 
 	private long processingTime;
 
+	/** The cached lane-relative layout of each track, by track ID. */
+	private final Map< Integer, TrackLayout > layouts = new HashMap< Integer, TrackLayout >();
+
+	/** The IDs of the tracks whose cached layout is stale. */
+	private final Set< Integer > invalidated = new HashSet< Integer >();
+
+	/** Receives the spot positions in virtualised mode, <code>null</code> otherwise. */
+	private ViewportCellManager cellManager;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -74,43 +100,111 @@ public class TrackSchemeGraphLayout extends mxGraphLayout implements Benchmark
 		this.graph = graph;
 		this.model = model;
 		this.component = component;
+
+		// Cells moved by hand are put back in place at next layout.
+		graph.addListener( mxEvent.CELLS_MOVED, new mxIEventListener()
+		{
+			@Override
+			public void invoke( final Object sender, final mxEventObject evt )
+			{
+				final Object[] cells = ( Object[] ) evt.getProperty( "cells" );
+				if ( null == cells ) { return; }
+				for ( final Object obj : cells )
+				{
+					final Spot spot = graph.getSpotFor( ( mxICell ) obj );
+					if ( null != spot )
+					{
+						invalidate( spot );
+					}
+				}
+			}
+		} );
 	}
 
 	/*
 	 * PUBLIC METHODS
 	 */
 
+	/**
+	 * Marks the tracks modified by the specified event, so that they are laid
+	 * out again at the next call to {@link #execute(Object)}.
+	 *
+	 * @param event
+	 *            the event.
+	 */
+	public void modelChanged( final ModelChangeEvent event )
+	{
+		if ( event.getEventID() != ModelChangeEvent.MODEL_MODIFIED )
+		{
+			invalidateAll();
+			return;
+		}
+		if ( null != event.getTrackUpdated() )
+		{
+			invalidated.addAll( event.getTrackUpdated() );
+		}
+		// Renamed spots change the order of branches.
+		for ( final Spot spot : event.getSpots() )
+		{
+			invalidate( spot );
+		}
+	}
+
+	/**
+	 * Switches the layout to virtualised mode: spot positions are stored in
+	 * the specified cell manager instead of being applied to cells.
+	 *
+	 * @param cellManager
+	 *            the cell manager, or <code>null</code> to lay out cells
+	 *            directly.
+	 */
+	public void setCellManager( final ViewportCellManager cellManager )
+	{
+		this.cellManager = cellManager;
+		invalidateAll();
+	}
+
+	/**
+	 * Discards all the cached track layouts. The next call to
+	 * {@link #execute(Object)} will lay out all tracks.
+	 */
+	public void invalidateAll()
+	{
+		layouts.clear();
+		invalidated.clear();
+	}
+
 	@Override
 	public void execute( final Object parent )
 	{
 
 		final long start = System.currentTimeMillis();
 
-		/*
-		 * To be able to deal with lonely cells later (i.e. cells that are not
-		 * part of a track), we retrieve the list of all cells.
-		 */
-		final Object[] objs = graph.getChildVertices( graph.getDefaultParent() );
-		final ArrayList< mxCell > lonelyCells = new ArrayList< mxCell >( objs.length );
-		for ( final Object obj : objs )
-		{
-			lonelyCells.add( ( mxCell ) obj );
-		}
-
 		/*
 		 * Get a neighbor cache
 		 */
 		final TimeDirectedNeighborIndex neighborCache = model.getTrackModel().getDirectedNeighborIndex();
 
 		/*
-		 * Compute column width from recursive cumsum
+		 * How many rows do we have to parse?
 		 */
-		final Map< Spot, Integer > cumulativeBranchWidth = GraphUtils.cumulativeBranchWidth( model.getTrackModel() );
+		final int maxFrame = model.getSpots().lastKey();
 
 		/*
-		 * How many rows do we have to parse?
+		 * Discard stale layouts.
 		 */
-		final int maxFrame = model.getSpots().lastKey();
+		for ( final Integer trackID : invalidated )
+		{
+			layouts.remove( trackID );
+		}
+		invalidated.clear();
+		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( true ); // will be sorted by track name
+		layouts.keySet().retainAll( trackIDs );
+
+		if ( null != cellManager )
+		{
+			cellManager.clearPositions();
+		}
 
 		graph.getModel().beginUpdate();
 		try
@@ -119,196 +213,267 @@ public class TrackSchemeGraphLayout extends mxGraphLayout implements Benchmark
 			/*
 			 * Pass n tracks info on component
 			 */
-			final int ntracks = model.getTrackModel().nTracks( true );
+			final int ntracks = trackIDs.size();
 			component.columnWidths = new int[ ntracks ];
 			component.columnTrackIDs = new Integer[ ntracks ];
 
+			int trackIndex = 0;
+			int base = START_COLUMN;
+			for ( final Integer trackID : trackIDs )
+			{
+				// Pass name & trackID to component
+				component.columnTrackIDs[ trackIndex ] = trackID;
+
+				TrackLayout layout = layouts.get( trackID );
+				if ( null == layout )
+				{
+					layout = layoutTrack( trackID, neighborCache, maxFrame );
+					layouts.put( trackID, layout );
+				}
+
+				if ( null != cellManager )
+				{
+					for ( int i = 0; i < layout.size; i++ )
+					{
+						cellManager.setPosition( layout.spots[ i ], layout.rows[ i ], base + layout.columns[ i ] );
+					}
+				}
+				else if ( layout.base != base )
+				{
+					// Only move the cells of the lanes that shifted.
+					for ( int i = 0; i < layout.size; i++ )
+					{
+						setCellGeometry( graph.getCellFor( layout.spots[ i ] ), layout.rows[ i ], base + layout.columns[ i ] );
+					}
+					layout.base = base;
+				}
+
+				// When done with a track, move all columns to the next free
+				// column
+				final int maxCol = base + layout.span;
+				component.columnWidths[ trackIndex ] = trackIndex == 0 ? maxCol - START_COLUMN : layout.span + 1;
+				base = maxCol + 1;
+
+				trackIndex++;
+			} // loop over tracks
+
 			/*
-			 * Initialize the column occupancy array
+			 * Deal with lonely cells, that is cells that are not part of a
+			 * visible track.
 			 */
 			final int[] columns = new int[ maxFrame + 1 ];
 			for ( int i = 0; i < columns.length; i++ )
 			{
-				columns[ i ] = START_COLUMN;
+				columns[ i ] = ntracks == 0 ? START_COLUMN : base;
+			}
+			if ( null != cellManager )
+			{
+				for ( final Iterator< Spot > it = cellManager.getLooseSpots().iterator(); it.hasNext(); )
+				{
+					final Spot spot = it.next();
+					final Integer trackID = model.getTrackModel().trackIDOf( spot );
+					if ( null != trackID && layouts.containsKey( trackID ) )
+					{
+						// Joined a visible track, laid out with it.
+						it.remove();
+						continue;
+					}
+					final int frame = spot.getFeature( Spot.FRAME ).intValue();
+					cellManager.setPosition( spot, frame, columns[ frame ]++ );
+				}
+				cellManager.commitPositions();
+			}
+			else
+			{
+				final Object[] objs = graph.getChildVertices( graph.getDefaultParent() );
+				final List< mxCell > lonelyCells = new ArrayList< mxCell >();
+				for ( final Object obj : objs )
+				{
+					final Spot spot = graph.getSpotFor( ( mxICell ) obj );
+					final Integer trackID = model.getTrackModel().trackIDOf( spot );
+					if ( null == trackID || !layouts.containsKey( trackID ) )
+					{
+						lonelyCells.add( ( mxCell ) obj );
+					}
+				}
+				for ( final mxCell cell : lonelyCells )
+				{
+					final Spot spot = graph.getSpotFor( cell );
+					final int frame = spot.getFeature( Spot.FRAME ).intValue();
+					setCellGeometry( cell, frame, columns[ frame ]++ );
+				}
 			}
 
-			int trackIndex = 0;
-			for ( final Integer trackID : model.getTrackModel().trackIDs( true ) )
-			{ // will be sorted by track name
+			// Before we leave, we regenerate the row length, for our brothers
+			rowLengths = new HashMap< Integer, Integer >( columns.length );
+			for ( int i = 0; i < columns.length; i++ )
+			{
+				rowLengths.put( i, columns[ i ] );
+			}
 
-				// Get Tracks
-				final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
+		}
+		finally
+		{
+			graph.getModel().endUpdate();
+		}
 
-				// Pass name & trackID to component
-				component.columnTrackIDs[ trackIndex ] = trackID;
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+	}
 
-				// Get first spot
-				final TreeSet< Spot > sortedTrack = new TreeSet< Spot >( Spot.frameComparator );
-				sortedTrack.addAll( track );
-				final Spot first = sortedTrack.first();
+	/**
+	 * Computes the layout of a single track, in columns relative to the first
+	 * column of its lane.
+	 */
+	private TrackLayout layoutTrack( final Integer trackID, final TimeDirectedNeighborIndex neighborCache, final int maxFrame )
+	{
+		// Get Tracks
+		final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
+		final TrackLayout layout = new TrackLayout( track.size() );
 
-				/*
-				 * A special case: our quick layout below fails for graph that
-				 * are not trees. That is: if a track has at least a spot that
-				 * has more than one predecessor. If we have to deal with such a
-				 * case, we revert to the old, slow scheme.
-				 */
+		/*
+		 * Initialize the column occupancy array
+		 */
+		final int[] columns = new int[ maxFrame + 1 ];
 
-				final boolean isTree = GraphUtils.isTree( track, neighborCache );
+		// Get first spot
+		final TreeSet< Spot > sortedTrack = new TreeSet< Spot >( Spot.frameComparator );
+		sortedTrack.addAll( track );
+		final Spot first = sortedTrack.first();
 
-				if ( isTree )
-				{
+		/*
+		 * A special case: our quick layout below fails for graph that are not
+		 * trees. That is: if a track has at least a spot that has more than one
+		 * predecessor. If we have to deal with such a case, we revert to the
+		 * old, slow scheme.
+		 */
 
-					/*
-					 * Quick layout for a tree-like track
-					 */
+		final boolean isTree = GraphUtils.isTree( track, neighborCache );
 
-					// First loop: Loop over spots in good order
-					final SortedDepthFirstIterator< Spot, DefaultWeightedEdge > iterator = model.getTrackModel().getSortedDepthFirstIterator( first, Spot.nameComparator, false );
+		if ( isTree )
+		{
 
-					while ( iterator.hasNext() )
-					{
+			/*
+			 * Compute column width from recursive cumsum, children first.
+			 */
+			final List< Spot > byFrame = new ArrayList< Spot >( track );
+			Collections.sort( byFrame, Spot.frameComparator );
+			final Map< Spot, Integer > cumulativeBranchWidth = new HashMap< Spot, Integer >( track.size() );
+			for ( int i = byFrame.size() - 1; i >= 0; i-- )
+			{
+				final Spot spot = byFrame.get( i );
+				final Set< Spot > successors = neighborCache.successorsOf( spot );
+				int width = successors.isEmpty() ? 1 : 0;
+				for ( final Spot successor : successors )
+				{
+					width += cumulativeBranchWidth.get( successor );
+				}
+				cumulativeBranchWidth.put( spot, width );
+			}
 
-						final Spot spot = iterator.next();
+			/*
+			 * Quick layout for a tree-like track
+			 */
 
-						// Get corresponding JGraphX cell, add it if it does not
-						// exist in the JGraphX yet
-						final mxICell cell = graph.getCellFor( spot );
+			// First loop: Loop over spots in good order
+			final SortedDepthFirstIterator< Spot, DefaultWeightedEdge > iterator = model.getTrackModel().getSortedDepthFirstIterator( first, Spot.nameComparator, false );
 
-						// This is cell is in a track, remove it from the list
-						// of lonely cells
-						lonelyCells.remove( cell );
+			while ( iterator.hasNext() )
+			{
 
-						// Determine in what row to put the spot
-						final int frame = spot.getFeature( Spot.FRAME ).intValue();
+				final Spot spot = iterator.next();
 
-						// Cell size, position and style
-						final int cellPos = columns[ frame ] + cumulativeBranchWidth.get( spot ) / 2;
-						setCellGeometry( cell, frame, cellPos );
-						columns[ frame ] += cumulativeBranchWidth.get( spot );
+				// Determine in what row to put the spot
+				final int frame = spot.getFeature( Spot.FRAME ).intValue();
 
-						// If it is a leaf, we fill the remaining row below and
-						// above
-						if ( neighborCache.successorsOf( spot ).size() == 0 )
-						{
-							final int target = columns[ frame ];
-							for ( int i = 0; i <= maxFrame; i++ )
-							{
-								columns[ i ] = target;
-							}
-						}
+				// Cell size, position and style
+				final int cellPos = columns[ frame ] + cumulativeBranchWidth.get( spot ) / 2;
+				layout.add( spot, frame, cellPos );
+				columns[ frame ] += cumulativeBranchWidth.get( spot );
 
+				// If it is a leaf, we fill the remaining row below and
+				// above
+				if ( neighborCache.successorsOf( spot ).size() == 0 )
+				{
+					final int target = columns[ frame ];
+					for ( int i = 0; i <= maxFrame; i++ )
+					{
+						columns[ i ] = target;
 					}
-
 				}
-				else
-				{
 
-					/*
-					 * Layout in branches for merging tracks
-					 */
+			}
+
+		}
+		else
+		{
 
-					final TrackBranchDecomposition branchDecomposition = ConvexBranchesDecomposition.processTrack( trackID, model.getTrackModel(), neighborCache, false, false );
-					final SimpleDirectedGraph< List< Spot >, DefaultEdge > branchGraph = ConvexBranchesDecomposition.buildBranchGraph( branchDecomposition );
-					final DepthFirstIterator< List< Spot >, DefaultEdge > depthFirstIterator = new DepthFirstIterator< List< Spot >, DefaultEdge >( branchGraph );
+			/*
+			 * Layout in branches for merging tracks
+			 */
 
-					while ( depthFirstIterator.hasNext() )
-					{
-						final List< Spot > branch = depthFirstIterator.next();
-
-						final int firstFrame = branch.get( 0 ).getFeature( Spot.FRAME ).intValue();
-						final int lastFrame = branch.get( branch.size() - 1 ).getFeature( Spot.FRAME ).intValue();
-
-						// Determine target column.
-						int targetColumn = columns[ firstFrame ];
-						for ( final Spot spot : branch )
-						{
-							final int sFrame = spot.getFeature( Spot.FRAME ).intValue();
-							if ( columns[ sFrame ] > targetColumn )
-							{
-								targetColumn = columns[ sFrame ];
-							}
-						}
-
-						// Place spots.
-						for ( final Spot spot : branch )
-						{
-							// Get corresponding JGraphX cell, add it if it does
-							// not exist in the JGraphX yet
-							final mxICell cell = graph.getCellFor( spot );
-
-							// This is cell is in a track, remove it from the
-							// list of lonely cells
-							lonelyCells.remove( cell );
-
-							// Determine in what row to put the spot
-							final int frame = spot.getFeature( Spot.FRAME ).intValue();
-
-							// Cell position
-							setCellGeometry( cell, frame, targetColumn );
-						}
-
-						// Update column index.
-						for ( int frame = firstFrame; frame <= lastFrame; frame++ )
-						{
-							columns[ frame ] = targetColumn + 1;
-						}
-					}
-				}
+			final TrackBranchDecomposition branchDecomposition = ConvexBranchesDecomposition.processTrack( trackID, model.getTrackModel(), neighborCache, false, false );
+			final SimpleDirectedGraph< List< Spot >, DefaultEdge > branchGraph = ConvexBranchesDecomposition.buildBranchGraph( branchDecomposition );
+			final DepthFirstIterator< List< Spot >, DefaultEdge > depthFirstIterator = new DepthFirstIterator< List< Spot >, DefaultEdge >( branchGraph );
 
-				// When done with a track, move all columns to the next free
-				// column
-				int maxCol = 0;
-				for ( int j = 0; j < columns.length; j++ )
+			while ( depthFirstIterator.hasNext() )
+			{
+				final List< Spot > branch = depthFirstIterator.next();
+
+				final int firstFrame = branch.get( 0 ).getFeature( Spot.FRAME ).intValue();
+				final int lastFrame = branch.get( branch.size() - 1 ).getFeature( Spot.FRAME ).intValue();
+
+				// Determine target column.
+				int targetColumn = columns[ firstFrame ];
+				for ( final Spot spot : branch )
 				{
-					if ( columns[ j ] > maxCol )
+					final int sFrame = spot.getFeature( Spot.FRAME ).intValue();
+					if ( columns[ sFrame ] > targetColumn )
 					{
-						maxCol = columns[ j ];
+						targetColumn = columns[ sFrame ];
 					}
 				}
-				for ( int i = 0; i < columns.length; i++ )
+
+				// Place spots.
+				for ( final Spot spot : branch )
 				{
-					columns[ i ] = maxCol + 1;
+					// Determine in what row to put the spot
+					final int frame = spot.getFeature( Spot.FRAME ).intValue();
+					layout.add( spot, frame, targetColumn );
 				}
 
-				// Store column widths for the panel background
-				int sumWidth = START_COLUMN;
-				for ( int i = 0; i < trackIndex; i++ )
+				// Update column index.
+				for ( int frame = firstFrame; frame <= lastFrame; frame++ )
 				{
-					sumWidth += component.columnWidths[ i ];
+					columns[ frame ] = targetColumn + 1;
 				}
-				component.columnWidths[ trackIndex ] = maxCol - sumWidth;
-
-				trackIndex++;
-			} // loop over tracks
-
-			// Deal with lonely cells
-			for ( final mxCell cell : lonelyCells )
-			{
-				final Spot spot = graph.getSpotFor( cell );
-				final int frame = spot.getFeature( Spot.FRAME ).intValue();
-				setCellGeometry( cell, frame, columns[ frame ]++ );
 			}
+		}
 
-			// Before we leave, we regenerate the row length, for our brothers
-			rowLengths = new HashMap< Integer, Integer >( columns.length );
-			for ( int i = 0; i < columns.length; i++ )
+		int span = 0;
+		for ( int j = 0; j < columns.length; j++ )
+		{
+			if ( columns[ j ] > span )
 			{
-				rowLengths.put( i, columns[ i ] );
+				span = columns[ j ];
 			}
-
 		}
-		finally
+		layout.span = span;
+		return layout;
+	}
+
+	private void invalidate( final Spot spot )
+	{
+		final Integer trackID = model.getTrackModel().trackIDOf( spot );
+		if ( null != trackID )
 		{
-			graph.getModel().endUpdate();
+			invalidated.add( trackID );
 		}
-
-		final long end = System.currentTimeMillis();
-		processingTime = end - start;
 	}
 
 	private final void setCellGeometry( final mxICell cell, final int row, final int targetColumn )
 	{
+		if ( null == cell ) { return; }
 
 		final double x = ( targetColumn ) * X_COLUMN_SIZE - DEFAULT_CELL_WIDTH / 2;
 		final double y = ( 0.5 + row ) * Y_COLUMN_SIZE - DEFAULT_CELL_HEIGHT / 2;
@@ -333,4 +498,48 @@ public class TrackSchemeGraphLayout extends mxGraphLayout implements Benchmark
 	{
 		return processingTime;
 	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * The layout of one track, in columns relative to the first column of its
+	 * lane.
+	 */
+	private static final class TrackLayout
+	{
+
+		private final Spot[] spots;
+
+		private final int[] rows;
+
+		private final int[] columns;
+
+		private int size = 0;
+
+		/** The largest relative column used by the track. */
+		private int span;
+
+		/**
+		 * The first column of the lane the cells are currently placed in, -1
+		 * if they were not placed yet. Unused in virtualised mode.
+		 */
+		private int base = -1;
+
+		public TrackLayout( final int nSpots )
+		{
+			this.spots = new Spot[ nSpots ];
+			this.rows = new int[ nSpots ];
+			this.columns = new int[ nSpots ];
+		}
+
+		private void add( final Spot spot, final int row, final int column )
+		{
+			spots[ size ] = spot;
+			rows[ size ] = row;
+			columns[ size ] = column;
+			size++;
+		}
+	}
 }
@@ -12,10 +12,30 @@ import org.w3c.dom.Element;
 
 public class TrackSchemeSvgCanvas extends mxSvgCanvas {
 
+	/** Resolves thumbnail pseudo-URLs, may be <code>null</code>. */
+	private SpotThumbnailService thumbnailService;
+
 	public TrackSchemeSvgCanvas(Document document) {
 		super(document);
 	}
 
+	public void setThumbnailService(SpotThumbnailService thumbnailService) {
+		this.thumbnailService = thumbnailService;
+	}
+
+	/**
+	 * Overridden to embed thumbnails kept in raw form by the
+	 * {@link SpotThumbnailService} as PNG data.
+	 */
+	@Override
+	public String getImageForStyle(Map<String, Object> style) {
+		String img = super.getImageForStyle(style);
+		if (null != img && img.startsWith(SpotThumbnailService.URL_PREFIX)) {
+			return null == thumbnailService ? null : thumbnailService.toDataURI(img);
+		}
+		return img;
+	}
+
 	@Override
 	public Element drawShape(int x, int y, int w, int h, Map<String, Object> style) {
 
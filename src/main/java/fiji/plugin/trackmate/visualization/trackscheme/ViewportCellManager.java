@@ -0,0 +1,451 @@
+package fiji.plugin.trackmate.visualization.trackscheme;
+
+import static fiji.plugin.trackmate.visualization.trackscheme.TrackScheme.DEFAULT_CELL_HEIGHT;
+import static fiji.plugin.trackmate.visualization.trackscheme.TrackScheme.DEFAULT_CELL_WIDTH;
+import static fiji.plugin.trackmate.visualization.trackscheme.TrackScheme.X_COLUMN_SIZE;
+import static fiji.plugin.trackmate.visualization.trackscheme.TrackScheme.Y_COLUMN_SIZE;
+
+import com.mxgraph.model.mxCell;
+import com.mxgraph.model.mxGeometry;
+import com.mxgraph.util.mxPoint;
+import com.mxgraph.util.mxRectangle;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+/**
+ * Limits the JGraphX cells of a virtualised TrackScheme to the spots and links
+ * around the viewport.
+ * <p>
+ * In virtualised mode, the {@link TrackSchemeGraphLayout} does not move cells,
+ * but stores the row and column of every spot here, in primitive arrays sorted
+ * by row then column. At each call to {@link #update()}, the spots lying in
+ * the viewport plus a margin are looked up in these arrays, and cells are
+ * created for them and their links. The cells that went out of view are
+ * removed from the graph and recycled by the {@link JGraphXAdapter}. The
+ * number of cells is therefore bounded by the viewport size rather than by the
+ * model size. Selection and label edition still work through the cell maps of
+ * the adapter, since the user can only act on cells that exist.
+ */
+public class ViewportCellManager
+{
+
+	/**
+	 * Interface for the listener notified of the cells created by an update,
+	 * so that they can be styled and selected.
+	 */
+	public static interface CellCreationListener
+	{
+		/**
+		 * Called after cells were created.
+		 *
+		 * @param vertices
+		 *            the new spot cells.
+		 * @param edges
+		 *            the new edge cells, by the ID of the track they belong to.
+		 */
+		public void cellsCreated( Collection< mxCell > vertices, Map< Integer, Set< mxCell > > edges );
+	}
+
+	/** Fraction of the viewport size added on each side of it. */
+	private static final double MARGIN = 0.5;
+
+	private final JGraphXAdapter graph;
+
+	private final Model model;
+
+	private final TrackSchemeGraphComponent component;
+
+	private final CellCreationListener listener;
+
+	/*
+	 * Positions set by the layout, in the order they were set.
+	 */
+
+	private Spot[] spots = new Spot[ 16 ];
+
+	private int[] rows = new int[ 16 ];
+
+	private int[] columns = new int[ 16 ];
+
+	private int size = 0;
+
+	/** Index of each spot in the position arrays. */
+	private final Map< Spot, Integer > indices = new HashMap< Spot, Integer >();
+
+	/*
+	 * Positions sorted by row then column, in compressed row storage.
+	 */
+
+	private Spot[] sortedSpots = new Spot[ 0 ];
+
+	private int[] sortedColumns = new int[ 0 ];
+
+	private int[] rowStart = new int[] { 0 };
+
+	private int maxRow = -1;
+
+	private int maxColumn = -1;
+
+	/** Spots shown though they are not part of a visible track. */
+	private final Set< Spot > looseSpots = new LinkedHashSet< Spot >();
+
+	private boolean updating = false;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	public ViewportCellManager( final JGraphXAdapter graph, final Model model, final TrackSchemeGraphComponent component, final CellCreationListener listener )
+	{
+		this.graph = graph;
+		this.model = model;
+		this.component = component;
+		this.listener = listener;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Discards all the spot positions. Called by the layout before it sets
+	 * them again.
+	 */
+	public void clearPositions()
+	{
+		Arrays.fill( spots, 0, size, null );
+		size = 0;
+		indices.clear();
+	}
+
+	/**
+	 * Sets the position of a spot. The positions are only used after
+	 * {@link #commitPositions()} is called.
+	 *
+	 * @param spot
+	 *            the spot.
+	 * @param row
+	 *            the row it is displayed in.
+	 * @param column
+	 *            the column it is displayed in.
+	 */
+	public void setPosition( final Spot spot, final int row, final int column )
+	{
+		final Integer index = indices.get( spot );
+		if ( null != index )
+		{
+			rows[ index ] = row;
+			columns[ index ] = column;
+			return;
+		}
+		if ( size == spots.length )
+		{
+			final int capacity = 2 * size;
+			spots = Arrays.copyOf( spots, capacity );
+			rows = Arrays.copyOf( rows, capacity );
+			columns = Arrays.copyOf( columns, capacity );
+		}
+		spots[ size ] = spot;
+		rows[ size ] = row;
+		columns[ size ] = column;
+		indices.put( spot, Integer.valueOf( size ) );
+		size++;
+	}
+
+	/**
+	 * Sorts the positions set since the last call to {@link #clearPositions()}
+	 * and updates the bounds of the graph accordingly.
+	 */
+	public void commitPositions()
+	{
+		maxRow = -1;
+		maxColumn = -1;
+		for ( int i = 0; i < size; i++ )
+		{
+			maxRow = Math.max( maxRow, rows[ i ] );
+			maxColumn = Math.max( maxColumn, columns[ i ] );
+		}
+
+		// Counting sort on rows.
+		rowStart = new int[ maxRow + 2 ];
+		for ( int i = 0; i < size; i++ )
+		{
+			rowStart[ rows[ i ] + 1 ]++;
+		}
+		for ( int r = 0; r <= maxRow; r++ )
+		{
+			rowStart[ r + 1 ] += rowStart[ r ];
+		}
+		final long[] keys = new long[ size ];
+		final int[] fill = Arrays.copyOf( rowStart, maxRow + 1 );
+		for ( int i = 0; i < size; i++ )
+		{
+			keys[ fill[ rows[ i ] ]++ ] = ( ( long ) columns[ i ] << 32 ) | i;
+		}
+
+		// Then sort each row on columns.
+		sortedSpots = new Spot[ size ];
+		sortedColumns = new int[ size ];
+		for ( int r = 0; r <= maxRow; r++ )
+		{
+			Arrays.sort( keys, rowStart[ r ], rowStart[ r + 1 ] );
+		}
+		for ( int k = 0; k < size; k++ )
+		{
+			final int i = ( int ) keys[ k ];
+			sortedSpots[ k ] = spots[ i ];
+			sortedColumns[ k ] = columns[ i ];
+		}
+
+		graph.setVirtualBounds( new mxRectangle( 0, 0, ( maxColumn + 1 ) * X_COLUMN_SIZE, ( maxRow + 1 ) * Y_COLUMN_SIZE ) );
+	}
+
+	/**
+	 * Registers a spot that must be displayed though it does not belong to a
+	 * visible track.
+	 */
+	public void addLooseSpot( final Spot spot )
+	{
+		looseSpots.add( spot );
+	}
+
+	public void removeLooseSpot( final Spot spot )
+	{
+		looseSpots.remove( spot );
+	}
+
+	/**
+	 * Returns the spots displayed though they do not belong to a visible
+	 * track, in the order they were added. The set is not copied: the layout
+	 * removes the spots that joined a visible track from it.
+	 */
+	public Set< Spot > getLooseSpots()
+	{
+		return looseSpots;
+	}
+
+	/**
+	 * Returns the cell of the specified spot, creating it if the spot has a
+	 * position but is out of view.
+	 *
+	 * @return the cell, or <code>null</code> if the spot is not laid out.
+	 */
+	public mxCell getCellFor( final Spot spot )
+	{
+		final mxCell cell = graph.getCellFor( spot );
+		if ( null != cell || !indices.containsKey( spot ) ) { return cell; }
+		final List< mxCell > created = new ArrayList< mxCell >( 1 );
+		graph.getModel().beginUpdate();
+		try
+		{
+			created.add( createVertex( spot ) );
+		}
+		finally
+		{
+			graph.getModel().endUpdate();
+		}
+		listener.cellsCreated( created, new HashMap< Integer, Set< mxCell > >() );
+		return created.get( 0 );
+	}
+
+	/**
+	 * Creates the cells of the spots and links that are in the viewport plus a
+	 * margin, removes the others, and moves the cells that remain to their
+	 * current position.
+	 */
+	public void update()
+	{
+		if ( updating ) { return; }
+		updating = true;
+		try
+		{
+			final TrackModel trackModel = model.getTrackModel();
+
+			/*
+			 * Viewport in graph coordinates.
+			 */
+
+			final Rectangle view = component.getViewport().getViewRect();
+			final double scale = graph.getView().getScale();
+			final mxPoint translate = graph.getView().getTranslate();
+			final double x0 = ( view.x - MARGIN * view.width ) / scale - translate.getX();
+			final double x1 = ( view.x + ( 1 + MARGIN ) * view.width ) / scale - translate.getX();
+			final double y0 = ( view.y - MARGIN * view.height ) / scale - translate.getY();
+			final double y1 = ( view.y + ( 1 + MARGIN ) * view.height ) / scale - translate.getY();
+			final int minColumn = ( int ) Math.floor( x0 / X_COLUMN_SIZE ) - 1;
+			final int maxCol = ( int ) Math.ceil( x1 / X_COLUMN_SIZE ) + 1;
+			final int minRow = Math.max( 0, ( int ) Math.floor( y0 / Y_COLUMN_SIZE ) - 1 );
+			final int maxR = Math.min( maxRow, ( int ) Math.ceil( y1 / Y_COLUMN_SIZE ) + 1 );
+
+			/*
+			 * Spots in view, then their links and the spots at the other end.
+			 */
+
+			final Set< Spot > visibleSpots = new HashSet< Spot >();
+			for ( int r = minRow; r <= maxR; r++ )
+			{
+				final int end = rowStart[ r + 1 ];
+				for ( int k = lowerBound( rowStart[ r ], end, minColumn ); k < end && sortedColumns[ k ] <= maxCol; k++ )
+				{
+					visibleSpots.add( sortedSpots[ k ] );
+				}
+			}
+			final Set< Spot > wantedSpots = new HashSet< Spot >( visibleSpots );
+			final Set< DefaultWeightedEdge > wantedEdges = new HashSet< DefaultWeightedEdge >();
+			for ( final Spot spot : visibleSpots )
+			{
+				for ( final DefaultWeightedEdge edge : trackModel.edgesOf( spot ) )
+				{
+					final Spot source = trackModel.getEdgeSource( edge );
+					final Spot other = source == spot ? trackModel.getEdgeTarget( edge ) : source;
+					if ( !indices.containsKey( other ) )
+					{
+						continue;
+					}
+					wantedEdges.add( edge );
+					wantedSpots.add( other );
+				}
+			}
+
+			final List< mxCell > newVertices = new ArrayList< mxCell >();
+			final Map< Integer, Set< mxCell > > newEdges = new HashMap< Integer, Set< mxCell > >();
+			boolean changed = false;
+			graph.getModel().beginUpdate();
+			try
+			{
+				// Release the cells out of view, links first.
+				for ( final mxCell cell : new ArrayList< mxCell >( graph.getEdgeCells() ) )
+				{
+					final DefaultWeightedEdge edge = graph.getEdgeFor( cell );
+					if ( !wantedEdges.contains( edge ) )
+					{
+						graph.releaseEdge( edge );
+						changed = true;
+					}
+				}
+				for ( final mxCell cell : new ArrayList< mxCell >( graph.getVertexCells() ) )
+				{
+					final Spot spot = graph.getSpotFor( cell );
+					if ( !wantedSpots.contains( spot ) )
+					{
+						graph.releaseVertex( spot );
+						changed = true;
+					}
+				}
+
+				// Move or create the cells in view.
+				for ( final Spot spot : wantedSpots )
+				{
+					final mxCell cell = graph.getCellFor( spot );
+					if ( null == cell )
+					{
+						newVertices.add( createVertex( spot ) );
+					}
+					else
+					{
+						changed |= setCellGeometry( cell, indices.get( spot ).intValue() );
+					}
+				}
+				for ( final DefaultWeightedEdge edge : wantedEdges )
+				{
+					if ( null != graph.getCellFor( edge ) )
+					{
+						continue;
+					}
+					final Integer trackID = trackModel.trackIDOf( edge );
+					Set< mxCell > edgeSet = newEdges.get( trackID );
+					if ( null == edgeSet )
+					{
+						edgeSet = new HashSet< mxCell >();
+						newEdges.put( trackID, edgeSet );
+					}
+					edgeSet.add( graph.addJGraphTEdge( edge ) );
+				}
+			}
+			finally
+			{
+				graph.getModel().endUpdate();
+			}
+
+			if ( !newVertices.isEmpty() || !newEdges.isEmpty() )
+			{
+				listener.cellsCreated( newVertices, newEdges );
+				changed = true;
+			}
+			if ( changed )
+			{
+				component.refresh();
+			}
+		}
+		finally
+		{
+			updating = false;
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private mxCell createVertex( final Spot spot )
+	{
+		final mxCell cell = graph.addJGraphTVertex( spot );
+		final mxGeometry geometry = cell.getGeometry();
+		geometry.setWidth( DEFAULT_CELL_WIDTH );
+		geometry.setHeight( DEFAULT_CELL_HEIGHT );
+		setCellGeometry( cell, indices.get( spot ).intValue() );
+		return cell;
+	}
+
+	/**
+	 * Places a cell at the position of the specified index.
+	 *
+	 * @return <code>true</code> if the cell moved.
+	 */
+	private boolean setCellGeometry( final mxCell cell, final int index )
+	{
+		final double x = columns[ index ] * X_COLUMN_SIZE - DEFAULT_CELL_WIDTH / 2;
+		final double y = ( 0.5 + rows[ index ] ) * Y_COLUMN_SIZE - DEFAULT_CELL_HEIGHT / 2;
+		final mxGeometry geometry = cell.getGeometry();
+		if ( geometry.getX() == x && geometry.getY() == y ) { return false; }
+		geometry.setX( x );
+		geometry.setY( y );
+		return true;
+	}
+
+	/**
+	 * Returns the first index in the sorted range <code>[from, to[</code>
+	 * whose column is not smaller than the specified one.
+	 */
+	private int lowerBound( int from, int to, final int column )
+	{
+		while ( from < to )
+		{
+			final int mid = ( from + to ) >>> 1;
+			if ( sortedColumns[ mid ] < column )
+			{
+				from = mid + 1;
+			}
+			else
+			{
+				to = mid;
+			}
+		}
+		return from;
+	}
+}
@@ -5,6 +5,7 @@ import com.mxgraph.shape.mxRectangleShape;
 import com.mxgraph.util.mxConstants;
 import com.mxgraph.util.mxUtils;
 import com.mxgraph.view.mxCellState;
+import com.mxgraph.view.mxGraph;
 
 import java.awt.Image;
 import java.awt.Rectangle;
@@ -31,7 +32,17 @@ public class mxScaledLabelShape extends mxRectangleShape {
 		
 		String imgStr = mxUtils.getString(state.getStyle(), mxConstants.STYLE_IMAGE);
 		if (imgStr != null)  {
-			Image img = canvas.loadImage(mxUtils.getString(state.getStyle(), mxConstants.STYLE_IMAGE));
+			Image img;
+			if (imgStr.startsWith(SpotThumbnailService.URL_PREFIX)) {
+				// Thumbnail kept in raw form by the thumbnail service.
+				img = null;
+				mxGraph graph = state.getView().getGraph();
+				if (graph instanceof JGraphXAdapter && null != ((JGraphXAdapter) graph).getThumbnailService()) {
+					img = ((JGraphXAdapter) graph).getThumbnailService().getImage(imgStr);
+				}
+			} else {
+				img = canvas.loadImage(imgStr);
+			}
 			if (img != null) {
 				Rectangle bounds = getImageBounds(canvas, state);
 				int x = bounds.x;
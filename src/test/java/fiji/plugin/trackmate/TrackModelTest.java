@@ -253,4 +253,58 @@ public class TrackModelTest
 		assertTrue( model.isVisible( id ) );
 	}
 
+	@Test
+	public void testAddingTracksInBulk()
+	{
+		final TrackModel model = new TrackModel();
+		final List< Spot > trackStarts = new ArrayList< Spot >();
+		for ( int i = 0; i < N_TRACKS; i++ )
+		{
+			final Set< Spot > spots = new HashSet< Spot >();
+			final Spot[] sources = new Spot[ DEPTH - 1 ];
+			final Spot[] targets = new Spot[ DEPTH - 1 ];
+			final double[] weights = new double[ DEPTH - 1 ];
+			Spot previous = null;
+			for ( int j = 0; j < DEPTH; j++ )
+			{
+				final Spot spot = new Spot( 0d, 0d, 0d, 1d, -1d );
+				spots.add( spot );
+				if ( null != previous )
+				{
+					sources[ j - 1 ] = previous;
+					targets[ j - 1 ] = spot;
+					weights[ j - 1 ] = j;
+				}
+				else
+				{
+					trackStarts.add( spot );
+				}
+				previous = spot;
+			}
+			final Integer id = model.addTrack( spots, sources, targets, weights, "Bulk_" + i, i > 0 );
+			assertEquals( "Bulk_" + i, model.name( id ) );
+			assertEquals( i > 0, model.isVisible( id ) );
+		}
+
+		assertEquals( N_TRACKS, model.nTracks( false ) );
+		assertEquals( N_TRACKS - 1, model.nTracks( true ) );
+		assertEquals( N_TRACKS * ( DEPTH - 1 ), model.edgesAdded.size() );
+		for ( final Integer id : model.trackIDs( false ) )
+		{
+			assertEquals( DEPTH, model.trackSpots( id ).size() );
+			assertEquals( DEPTH - 1, model.trackEdges( id ).size() );
+			for ( final Spot spot : model.trackSpots( id ) )
+			{
+				assertEquals( id, model.trackIDOf( spot ) );
+			}
+		}
+
+		// Tracks added in bulk must behave as the others afterwards
+		model.addEdge( trackStarts.get( 0 ), trackStarts.get( 1 ), 1 );
+		assertEquals( N_TRACKS - 1, model.nTracks( false ) );
+		final Integer merged = model.trackIDOf( trackStarts.get( 0 ) );
+		assertEquals( 2 * DEPTH, model.trackSpots( merged ).size() );
+		assertTrue( model.isVisible( merged ) );
+	}
+
 }
@@ -0,0 +1,191 @@
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import ij.measure.ResultsTable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.action.ExportStatsToIJAction;
+import fiji.plugin.trackmate.features.edges.EdgeTimeLocationAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackDurationAnalyzer;
+
+public class FeatureTableWriterTest
+{
+
+	private Model model;
+
+	/**
+	 * Two tracks, with spots added out of frame order, and a spot that is not
+	 * in a track.
+	 */
+	@Before
+	public void setUp()
+	{
+		model = new Model();
+		model.setPhysicalUnits( "micron", "s" );
+		final FeatureModel fm = model.getFeatureModel();
+		fm.declareEdgeFeatures( EdgeTimeLocationAnalyzer.FEATURES, EdgeTimeLocationAnalyzer.FEATURE_NAMES, EdgeTimeLocationAnalyzer.FEATURE_SHORT_NAMES, EdgeTimeLocationAnalyzer.FEATURE_DIMENSIONS, EdgeTimeLocationAnalyzer.IS_INT );
+		fm.declareTrackFeatures( TrackDurationAnalyzer.FEATURES, TrackDurationAnalyzer.FEATURE_NAMES, TrackDurationAnalyzer.FEATURE_SHORT_NAMES, TrackDurationAnalyzer.FEATURE_DIMENSIONS, TrackDurationAnalyzer.IS_INT );
+
+		final Spot a2 = new Spot( 2d, 0d, 0d, 1d, 10d, "A2" );
+		final Spot a0 = new Spot( 0d, 0d, 0d, 1d, 12d, "A0" );
+		final Spot a1 = new Spot( 1d, 0d, 0d, 1d, 11d, "A1" );
+		final Spot b0 = new Spot( 5d, 5d, 0d, 2d, 20d, "B0" );
+		final Spot b1 = new Spot( 6d, 5d, 0d, 2d, 21d, "B1" );
+		final Spot lonely = new Spot( 9d, 9d, 0d, 1d, 1d, "Lonely" );
+		model.beginUpdate();
+		try
+		{
+			model.addSpotTo( a2, 2 );
+			model.addSpotTo( a0, 0 );
+			model.addSpotTo( a1, 1 );
+			model.addSpotTo( b0, 0 );
+			model.addSpotTo( b1, 1 );
+			model.addSpotTo( lonely, 0 );
+			model.addEdge( a1, a2, 1d );
+			model.addEdge( a0, a1, 1d );
+			model.addEdge( b0, b1, 1d );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		for ( final Spot spot : Arrays.asList( a0, a1, a2, b0, b1, lonely ) )
+		{
+			spot.putFeature( Spot.POSITION_T, spot.getFeature( Spot.FRAME ) );
+		}
+		new EdgeTimeLocationAnalyzer().process( model.getTrackModel().edgeSet(), model );
+		new TrackDurationAnalyzer().process( model.getTrackModel().trackIDs( true ), model );
+	}
+
+	@Test
+	public final void testSpotTable() throws IOException
+	{
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final FeatureTableWriter writer = new FeatureTableWriter( model );
+		writer.setNumThreads( 2 );
+		writer.writeSpots( os );
+		final List< String[] > rows = parse( os );
+
+		final String[] header = rows.get( 0 );
+		assertEquals( "LABEL", header[ 0 ] );
+		assertEquals( "ID", header[ 1 ] );
+		assertEquals( "TRACK_ID", header[ 2 ] );
+		assertTrue( "Missing units in " + Arrays.toString( header ), Arrays.asList( header ).contains( Spot.POSITION_X + " (micron)" ) );
+		assertSameTable( ExportStatsToIJAction.createSpotTable( model ), rows );
+
+		// The lonely spot is not exported, and spots are sorted by frame
+		// within each track.
+		assertEquals( 5, rows.size() - 1 );
+		final int frameColumn = Arrays.asList( header ).indexOf( Spot.FRAME );
+		for ( int row = 2; row < rows.size(); row++ )
+		{
+			if ( rows.get( row )[ 2 ].equals( rows.get( row - 1 )[ 2 ] ) )
+			{
+				assertTrue( "Spots are not sorted by frame.", Integer.parseInt( rows.get( row )[ frameColumn ] ) > Integer.parseInt( rows.get( row - 1 )[ frameColumn ] ) );
+			}
+		}
+	}
+
+	@Test
+	public final void testEdgeTable() throws IOException
+	{
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		new FeatureTableWriter( model ).writeEdges( os );
+		final List< String[] > rows = parse( os );
+
+		assertEquals( "LABEL", rows.get( 0 )[ 0 ] );
+		assertEquals( "TRACK_ID", rows.get( 0 )[ 1 ] );
+		assertEquals( 3, rows.size() - 1 );
+		assertSameTable( ExportStatsToIJAction.createEdgeTable( model ), rows );
+	}
+
+	@Test
+	public final void testTrackTable() throws IOException
+	{
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		new FeatureTableWriter( model, FeatureTableWriter.TSV_DELIMITER ).writeTracks( os );
+		final String[] lines = new String( os.toByteArray(), "UTF-8" ).split( "\n" );
+		assertEquals( "LABEL", lines[ 0 ].split( "\t" )[ 0 ] );
+
+		final List< String[] > rows = parse( new String( os.toByteArray(), "UTF-8" ).replace( '\t', ',' ) );
+		assertEquals( 2, rows.size() - 1 );
+		assertSameTable( ExportStatsToIJAction.createTrackTable( model ), rows );
+	}
+
+	/**
+	 * Checks that the rows written have the same labels, in the same order,
+	 * and the same values as the ImageJ table. Missing values are written as
+	 * "None" in the ImageJ table, and as empty fields in the file.
+	 */
+	private static void assertSameTable( final ResultsTable expected, final List< String[] > rows )
+	{
+		final String[] header = rows.get( 0 );
+		final String[] columns = new String[ header.length ];
+		for ( int c = 0; c < header.length; c++ )
+		{
+			final int units = header[ c ].indexOf( " (" );
+			columns[ c ] = units < 0 ? header[ c ] : header[ c ].substring( 0, units );
+		}
+
+		// Same columns.
+		final List< String > columnList = Arrays.asList( columns );
+		for ( int i = 0; i <= expected.getLastColumn(); i++ )
+		{
+			if ( expected.columnExists( i ) )
+			{
+				assertTrue( "Missing column " + expected.getColumnHeading( i ), columnList.contains( expected.getColumnHeading( i ) ) );
+			}
+		}
+
+		// Same rows, in the same order.
+		assertEquals( "Unexpected number of rows.", expected.getCounter(), rows.size() - 1 );
+		for ( int row = 0; row < expected.getCounter(); row++ )
+		{
+			final String[] fields = rows.get( row + 1 );
+			assertEquals( header.length, fields.length );
+			assertEquals( expected.getLabel( row ), fields[ 0 ] );
+			for ( int c = 1; c < columns.length; c++ )
+			{
+				final String expectedString = expected.getStringValue( columns[ c ], row );
+				if ( "None".equals( expectedString ) )
+				{
+					assertEquals( "Column " + columns[ c ] + ", row " + row + ".", "", fields[ c ] );
+					continue;
+				}
+				double expectedValue = expected.getValue( columns[ c ], row );
+				if ( Double.isNaN( expectedValue ) )
+				{
+					expectedValue = Double.parseDouble( expectedString );
+				}
+				assertEquals( "Column " + columns[ c ] + ", row " + row + ".", expectedValue, Double.parseDouble( fields[ c ] ), 1e-9 * Math.abs( expectedValue ) );
+			}
+		}
+	}
+
+	private static List< String[] > parse( final ByteArrayOutputStream os ) throws IOException
+	{
+		return parse( new String( os.toByteArray(), "UTF-8" ) );
+	}
+
+	private static List< String[] > parse( final String str )
+	{
+		final String[] lines = str.split( "\n" );
+		final String[][] rows = new String[ lines.length ][];
+		for ( int i = 0; i < lines.length; i++ )
+		{
+			rows[ i ] = lines[ i ].split( ",", -1 );
+		}
+		return Arrays.asList( rows );
+	}
+}
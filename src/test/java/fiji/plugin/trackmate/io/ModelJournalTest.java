@@ -0,0 +1,263 @@
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+
+public class ModelJournalTest
+{
+
+	private File file;
+
+	private Model model;
+
+	private Spot s1, s2, s3, s4;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		file = File.createTempFile( "ModelJournalTest", ".xml" );
+
+		model = new Model();
+		// Keep the edge features needed to save the model up to date, as the
+		// GUI does.
+		model.getFeatureModel().declareEdgeFeatures( EdgeTargetAnalyzer.FEATURES, EdgeTargetAnalyzer.FEATURE_NAMES, EdgeTargetAnalyzer.FEATURE_SHORT_NAMES, EdgeTargetAnalyzer.FEATURE_DIMENSIONS, EdgeTargetAnalyzer.IS_INT );
+		model.addModelChangeListener( new ModelChangeListener()
+		{
+			@Override
+			public void modelChanged( final ModelChangeEvent event )
+			{
+				if ( event.getEventID() == ModelChangeEvent.MODEL_MODIFIED )
+				{
+					new EdgeTargetAnalyzer().process( model.getTrackModel().edgeSet(), model );
+				}
+			}
+		} );
+
+		s1 = new Spot( 0d, 0d, 0d, 1d, -1d, "S1" );
+		s2 = new Spot( 1d, 0d, 0d, 1d, -1d, "S2" );
+		s3 = new Spot( 2d, 0d, 0d, 1d, -1d, "S3" );
+		s4 = new Spot( 10d, 10d, 0d, 1d, -1d, "S4" );
+		model.beginUpdate();
+		try
+		{
+			model.addSpotTo( s1, 0 );
+			model.addSpotTo( s2, 1 );
+			model.addSpotTo( s3, 2 );
+			model.addSpotTo( s4, 0 );
+			model.addEdge( s1, s2, 1d );
+			model.addEdge( s2, s3, 1d );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		final TmXmlWriter writer = new TmXmlWriter( file, Logger.VOID_LOGGER );
+		writer.appendModel( model );
+		writer.writeToFile();
+	}
+
+	@After
+	public void tearDown()
+	{
+		file.delete();
+		ModelJournal.journalFileFor( file ).delete();
+		ModelJournal.snapshotFileFor( file ).delete();
+	}
+
+	@Test
+	public void testRecordAndReplay() throws IOException
+	{
+		final ModelJournal journal = ModelJournal.attach( model, file, Logger.VOID_LOGGER );
+		edit();
+		journal.close();
+
+		assertTrue( "A journal should have been recorded.", ModelJournal.hasJournal( file ) );
+		final Model replayed = new TmXmlReader( file ).getModel();
+		final int nRecords = ModelJournal.replay( replayed, file, Logger.VOID_LOGGER );
+		assertTrue( "Some records should have been replayed.", nRecords > 0 );
+		assertSameModel( model, replayed );
+	}
+
+	@Test
+	public void testTruncatedRecord() throws IOException
+	{
+		final ModelJournal journal = ModelJournal.attach( model, file, Logger.VOID_LOGGER );
+		edit();
+		journal.close();
+
+		// Simulate a crash in the middle of writing a record.
+		final OutputStream os = new FileOutputStream( ModelJournal.journalFileFor( file ), true );
+		try
+		{
+			os.write( ( "S\t" + s4.ID() + "\tS4\tPOSITION_X=" ).getBytes( "UTF-8" ) );
+		}
+		finally
+		{
+			os.close();
+		}
+
+		final Model replayed = new TmXmlReader( file ).getModel();
+		ModelJournal.replay( replayed, file, Logger.VOID_LOGGER );
+		assertSameModel( model, replayed );
+	}
+
+	@Test
+	public void testTruncate() throws IOException
+	{
+		final byte[] saved = read( file );
+		final ModelJournal journal = ModelJournal.attach( model, file, Logger.VOID_LOGGER );
+		edit();
+		journal.compact();
+		journal.truncate();
+		journal.close();
+
+		assertFalse( "The journal should have been discarded.", ModelJournal.hasJournal( file ) );
+		assertArrayEquals( "The TrackMate file should not have been modified.", saved, read( file ) );
+	}
+
+	@Test
+	public void testCompact() throws IOException
+	{
+		final byte[] saved = read( file );
+		final ModelJournal journal = ModelJournal.attach( model, file, Logger.VOID_LOGGER );
+		edit();
+		journal.compact();
+
+		// Edits after compaction go to a fresh journal.
+		model.beginUpdate();
+		try
+		{
+			model.removeSpot( s1 );
+			s2.putFeature( Spot.POSITION_Y, 5d );
+			model.updateFeatures( s2 );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		journal.close();
+
+		assertArrayEquals( "The TrackMate file should not have been modified.", saved, read( file ) );
+		final File snapshotFile = ModelJournal.snapshotFileFor( file );
+		assertTrue( "The journal should have been compacted to a snapshot.", snapshotFile.exists() );
+		assertTrue( ModelJournal.hasJournal( file ) );
+
+		final Model replayed = new TmXmlReader( snapshotFile ).getModel();
+		assertNotNull( replayed );
+		ModelJournal.replay( replayed, file, Logger.VOID_LOGGER );
+		assertSameModel( model, replayed );
+	}
+
+	/**
+	 * Adds, moves, modifies and removes spots and edges.
+	 */
+	private void edit()
+	{
+		final Spot s5 = new Spot( 3d, 0d, 0d, 1d, -1d, "S5" );
+		model.beginUpdate();
+		try
+		{
+			model.addSpotTo( s5, 3 );
+			model.addEdge( s3, s5, 2d );
+			model.moveSpotFrom( s4, 0, 4 );
+			s3.putFeature( Spot.POSITION_X, 2.5d );
+			model.updateFeatures( s3 );
+			model.removeEdge( s1, s2 );
+			model.setEdgeWeight( model.getTrackModel().getEdge( s2, s3 ), 3d );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+	}
+
+	private static void assertSameModel( final Model expected, final Model actual )
+	{
+		final Map< Integer, Spot > actualSpots = new HashMap< Integer, Spot >();
+		for ( final Iterator< Spot > it = actual.getSpots().iterator( false ); it.hasNext(); )
+		{
+			final Spot spot = it.next();
+			actualSpots.put( Integer.valueOf( spot.ID() ), spot );
+		}
+		assertEquals( "Unexpected number of spots.", expected.getSpots().getNSpots( false ), actualSpots.size() );
+
+		for ( final Iterator< Spot > it = expected.getSpots().iterator( false ); it.hasNext(); )
+		{
+			final Spot spot = it.next();
+			final Spot other = actualSpots.get( Integer.valueOf( spot.ID() ) );
+			assertNotNull( "Missing spot " + spot + ".", other );
+			assertEquals( spot.getName(), other.getName() );
+			for ( final String feature : new String[] { Spot.FRAME, Spot.POSITION_X, Spot.POSITION_Y, Spot.POSITION_Z, Spot.RADIUS } )
+			{
+				assertEquals( "Bad " + feature + " for spot " + spot + ".", spot.getFeature( feature ), other.getFeature( feature ), 0d );
+			}
+			final int frame = spot.getFeature( Spot.FRAME ).intValue();
+			assertTrue( "Spot " + spot + " is not in frame " + frame + ".", contains( actual, frame, other ) );
+		}
+
+		assertEquals( "Unexpected number of edges.", expected.getTrackModel().edgeSet().size(), actual.getTrackModel().edgeSet().size() );
+		for ( final DefaultWeightedEdge edge : expected.getTrackModel().edgeSet() )
+		{
+			final Spot source = actualSpots.get( Integer.valueOf( expected.getTrackModel().getEdgeSource( edge ).ID() ) );
+			final Spot target = actualSpots.get( Integer.valueOf( expected.getTrackModel().getEdgeTarget( edge ).ID() ) );
+			final DefaultWeightedEdge other = actual.getTrackModel().getEdge( source, target );
+			assertNotNull( "Missing edge " + edge + ".", other );
+			assertEquals( expected.getTrackModel().getEdgeWeight( edge ), actual.getTrackModel().getEdgeWeight( other ), 0d );
+		}
+	}
+
+	private static boolean contains( final Model model, final int frame, final Spot spot )
+	{
+		for ( final Iterator< Spot > it = model.getSpots().iterator( frame, false ); it.hasNext(); )
+		{
+			if ( it.next() == spot ) { return true; }
+		}
+		return false;
+	}
+
+	private static byte[] read( final File file ) throws IOException
+	{
+		final byte[] bytes = new byte[ ( int ) file.length() ];
+		final InputStream is = new FileInputStream( file );
+		try
+		{
+			int offset = 0;
+			int n;
+			while ( offset < bytes.length && ( n = is.read( bytes, offset, bytes.length - offset ) ) > 0 )
+			{
+				offset += n;
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,288 @@
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.jdom2.Attribute;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.action.ISBIChallengeExporter;
+import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition;
+
+/**
+ * Checks the streamed exports against the JDOM documents the exporters used to
+ * build. The reference documents are built here the way the exporters did
+ * before they were streamed.
+ */
+public class StreamingXmlWriterTest
+{
+
+	private static final double[] CALIBRATION = new double[] { 0.5, 0.5, 2d };
+
+	private File file;
+
+	private Model model;
+
+	private Settings settings;
+
+	/**
+	 * A track with a split and a gap, a simple track, and a spot that is not
+	 * in a track.
+	 */
+	@Before
+	public void setUp() throws IOException
+	{
+		file = File.createTempFile( "StreamingXmlWriterTest", ".xml" );
+
+		settings = new Settings();
+		settings.imageFileName = "VIRUS snr 7 density mid.tif";
+
+		model = new Model();
+		final Spot a0 = new Spot( 0.1d, 0.2d, 0d, 1d, -1d, "A0" );
+		final Spot a1 = new Spot( 1.3d, 0.4d, 0d, 1d, -1d, "A1" );
+		final Spot a2 = new Spot( 2.5d, 0.6d, 2d, 1d, -1d, "A2" );
+		final Spot a3 = new Spot( 3.7d, 0.8d, 4d, 1d, -1d, "A3" );
+		final Spot b3 = new Spot( 3.9d, -1.2d, 4d, 1d, -1d, "B3" );
+		final Spot a5 = new Spot( 5.1d, 1.4d, 4d, 1d, -1d, "A5" );
+		final Spot c0 = new Spot( 20d, 20d, 0d, 1d, -1d, "C0" );
+		final Spot c1 = new Spot( 21d, 20.5d, 0d, 1d, -1d, "C1" );
+		final Spot lonely = new Spot( 50d, 50d, 0d, 1d, -1d, "Lonely" );
+		model.beginUpdate();
+		try
+		{
+			model.addSpotTo( a0, 0 );
+			model.addSpotTo( a1, 1 );
+			model.addSpotTo( a2, 2 );
+			model.addSpotTo( a3, 3 );
+			model.addSpotTo( b3, 3 );
+			model.addSpotTo( a5, 5 );
+			model.addSpotTo( c0, 0 );
+			model.addSpotTo( c1, 1 );
+			model.addSpotTo( lonely, 2 );
+			model.addEdge( a0, a1, 1d );
+			model.addEdge( a1, a2, 1d );
+			model.addEdge( a2, a3, 1d );
+			model.addEdge( a2, b3, 1d );
+			model.addEdge( a3, a5, 1d );
+			model.addEdge( c0, c1, 1d );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		for ( final Spot spot : Arrays.asList( a0, a1, a2, a3, b3, a5, c0, c1, lonely ) )
+		{
+			spot.putFeature( Spot.POSITION_T, spot.getFeature( Spot.FRAME ) );
+		}
+	}
+
+	@After
+	public void tearDown()
+	{
+		file.delete();
+	}
+
+	@Test
+	public final void testPrettyPrint() throws IOException, JDOMException
+	{
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final StreamingXmlWriter writer = new StreamingXmlWriter( os );
+		writer.startElement( "root" );
+		writer.startElement( "content" );
+		writer.attribute( "name", "a<b & \"c\"" );
+		writer.emptyElement( "detection" );
+		writer.attribute( "t", "0" );
+		writer.startElement( "particle" );
+		writer.endElement();
+		// Elements left open are closed by close().
+		writer.close();
+
+		final String xml = new String( os.toByteArray(), "UTF-8" );
+		final String body = xml.substring( xml.indexOf( "?>" ) + 2 );
+		assertEquals( "\n<root>"
+				+ "\n  <content name=\"a&lt;b &amp; &quot;c&quot;\">"
+				+ "\n    <detection t=\"0\"/>"
+				+ "\n    <particle></particle>"
+				+ "\n  </content>"
+				+ "\n</root>\n", body );
+
+		final Element root = new SAXBuilder().build( new ByteArrayInputStream( os.toByteArray() ) ).getRootElement();
+		assertEquals( "a<b & \"c\"", root.getChild( "content" ).getAttributeValue( "name" ) );
+	}
+
+	@Test
+	public final void testIcyExport() throws IOException, JDOMException
+	{
+		final IcyTrackFormatWriter writer = new IcyTrackFormatWriter( file, model, CALIBRATION );
+		writer.setNumThreads( 2 );
+		assertTrue( writer.getErrorMessage(), writer.checkInput() && writer.process() );
+
+		final Element expected = legacyIcyExport( model, CALIBRATION );
+		final Element actual = new SAXBuilder().build( file ).getRootElement();
+		assertSameElement( expected, actual, Collections.< String > emptySet() );
+	}
+
+	@Test
+	public final void testISBIExport() throws IOException, JDOMException
+	{
+		ISBIChallengeExporter.exportToFile( model, settings, file, Logger.VOID_LOGGER );
+
+		final Element expected = legacyISBIExport( model, settings );
+		final Element actual = new SAXBuilder().build( file ).getRootElement();
+		assertSameElement( expected, actual, Collections.singleton( "generationDateTime" ) );
+		assertEquals( "7", actual.getChild( "TrackContestISBI2012" ).getAttributeValue( "snr" ) );
+	}
+
+	/**
+	 * Checks that two elements have the same name, the same attributes in the
+	 * same order, and the same children in the same order.
+	 */
+	private static void assertSameElement( final Element expected, final Element actual, final Set< String > ignoredAttributes )
+	{
+		assertEquals( expected.getName(), actual.getName() );
+
+		final List< Attribute > expectedAttributes = expected.getAttributes();
+		final List< Attribute > actualAttributes = actual.getAttributes();
+		assertEquals( "Attributes of " + expected.getName() + ".", expectedAttributes.size(), actualAttributes.size() );
+		for ( int i = 0; i < expectedAttributes.size(); i++ )
+		{
+			final Attribute expectedAttribute = expectedAttributes.get( i );
+			assertEquals( expectedAttribute.getName(), actualAttributes.get( i ).getName() );
+			if ( !ignoredAttributes.contains( expectedAttribute.getName() ) )
+			{
+				assertEquals( "Attribute " + expectedAttribute.getName() + " of " + expected.getName() + ".", expectedAttribute.getValue(), actualAttributes.get( i ).getValue() );
+			}
+		}
+
+		final List< Element > expectedChildren = expected.getChildren();
+		final List< Element > actualChildren = actual.getChildren();
+		assertEquals( "Children of " + expected.getName() + ".", expectedChildren.size(), actualChildren.size() );
+		for ( int i = 0; i < expectedChildren.size(); i++ )
+		{
+			assertSameElement( expectedChildren.get( i ), actualChildren.get( i ), ignoredAttributes );
+		}
+	}
+
+	/*
+	 * LEGACY EXPORTS
+	 */
+
+	/**
+	 * The document {@link IcyTrackFormatWriter} built with JDOM before it was
+	 * streamed.
+	 */
+	private static Element legacyIcyExport( final Model model, final double[] calibration )
+	{
+		final ConvexBranchesDecomposition splitter = new ConvexBranchesDecomposition( model, true, true );
+		splitter.checkInput();
+		splitter.process();
+
+		final Element root = new Element( "root" );
+		final Element trackFile = new Element( "trackfile" );
+		trackFile.setAttribute( "version", "1" );
+		root.addContent( trackFile );
+
+		final Element trackGroup = new Element( "trackgroup" );
+		final Map< Spot, Integer > beginnings = new HashMap< Spot, Integer >();
+		final Map< Spot, Integer > endings = new HashMap< Spot, Integer >();
+		final Collection< List< Spot >> branches = splitter.getBranches();
+		for ( final List< Spot > branch : branches )
+		{
+			final int branchID = branch.hashCode();
+			beginnings.put( branch.get( 0 ), Integer.valueOf( branchID ) );
+			endings.put( branch.get( branch.size() - 1 ), Integer.valueOf( branchID ) );
+
+			final Element track = new Element( "track" );
+			track.setAttribute( "id", "" + branchID );
+			for ( final Spot spot : branch )
+			{
+				final double x = spot.getDoublePosition( 0 ) / calibration[ 0 ];
+				final double y = spot.getDoublePosition( 1 ) / calibration[ 1 ];
+				final int z = ( int ) ( spot.getDoublePosition( 2 ) / calibration[ 2 ] );
+				final int t = spot.getFeature( Spot.FRAME ).intValue();
+				final Element detection = new Element( "detection" );
+				detection.setAttribute( "t", Integer.toString( t ) );
+				detection.setAttribute( "x", "" + x );
+				detection.setAttribute( "y", "" + y );
+				detection.setAttribute( "z", Integer.toString( z ) );
+				detection.setAttribute( "classname", "plugins.nchenouard.particleTracking.sequenceGenerator.ProfileSpotTrack" );
+				detection.setAttribute( "type", "1" );
+				track.addContent( detection );
+			}
+			trackGroup.addContent( track );
+		}
+		root.addContent( trackGroup );
+
+		final Element linklist = new Element( "linklist" );
+		final Collection< List< Spot >> links = splitter.getLinks();
+		for ( final List< Spot > link : links )
+		{
+			final Element linkEl = new Element( "link" );
+			linkEl.setAttribute( "from", "" + endings.get( link.get( 0 ) ).intValue() );
+			linkEl.setAttribute( "to", "" + beginnings.get( link.get( 1 ) ).intValue() );
+			linklist.addContent( linkEl );
+		}
+		root.addContent( linklist );
+
+		return root;
+	}
+
+	/**
+	 * The document {@link ISBIChallengeExporter} built with JDOM before it was
+	 * streamed. The date attribute is not compared.
+	 */
+	private static Element legacyISBIExport( final Model model, final Settings settings )
+	{
+		final Element root = new Element( "root" );
+		final Element content = new Element( "TrackContestISBI2012" );
+		// The file name of the fixture matches the ISBI naming pattern.
+		final String[] tokens = settings.imageFileName.substring( 0, settings.imageFileName.indexOf( '.' ) ).split( " " );
+		content.setAttribute( "snr", tokens[ 2 ] );
+		content.setAttribute( "density", tokens[ 4 ] );
+		content.setAttribute( "scenario", tokens[ 0 ] );
+		content.setAttribute( "generationDateTime", "" );
+
+		final Integer[] visibleTracks = model.getTrackModel().trackIDs( true ).toArray( new Integer[] {} );
+		for ( int i = 0; i < model.getTrackModel().nTracks( true ); i++ )
+		{
+			final Element trackElement = new Element( "particle" );
+			final Set< Spot > track = model.getTrackModel().trackSpots( visibleTracks[ i ] );
+			final TreeSet< Spot > sortedTrack = new TreeSet< Spot >( Spot.timeComparator );
+			sortedTrack.addAll( track );
+			for ( final Spot spot : sortedTrack )
+			{
+				final Element spotElement = new Element( "detection" );
+				spotElement.setAttribute( "t", "" + spot.getFeature( Spot.FRAME ).intValue() );
+				spotElement.setAttribute( "x", "" + spot.getFeature( Spot.POSITION_X ) );
+				spotElement.setAttribute( "y", "" + spot.getFeature( Spot.POSITION_Y ) );
+				spotElement.setAttribute( "z", "" + spot.getFeature( Spot.POSITION_Z ) );
+				trackElement.addContent( spotElement );
+			}
+			content.addContent( trackElement );
+		}
+		root.addContent( content );
+		return root;
+	}
+}
@@ -0,0 +1,154 @@
+package fiji.plugin.trackmate.tracking.flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+
+public class MinCostFlowTrackerTest
+{
+
+	@Test
+	public final void testSolverIsOptimal()
+	{
+		final Random ran = new Random( 7l );
+		final SuccessiveShortestPath solver = new SuccessiveShortestPath();
+		for ( int trial = 0; trial < 500; trial++ )
+		{
+			final int nRows = 1 + ran.nextInt( 5 );
+			final int nCols = 1 + ran.nextInt( 5 );
+			final int[] rowStart = new int[ nRows + 1 ];
+			final List< Integer > cols = new ArrayList< Integer >();
+			final List< Double > costs = new ArrayList< Double >();
+			final double[][] matrix = new double[ nRows ][ nCols ];
+			for ( int i = 0; i < nRows; i++ )
+			{
+				for ( int j = 0; j < nCols; j++ )
+				{
+					matrix[ i ][ j ] = Double.NaN;
+					if ( ran.nextDouble() < 0.6 )
+					{
+						matrix[ i ][ j ] = 10 * ran.nextDouble() - 8;
+						cols.add( j );
+						costs.add( matrix[ i ][ j ] );
+					}
+				}
+				rowStart[ i + 1 ] = cols.size();
+			}
+			final int[] colArray = new int[ cols.size() ];
+			final double[] costArray = new double[ cols.size() ];
+			for ( int e = 0; e < colArray.length; e++ )
+			{
+				colArray[ e ] = cols.get( e );
+				costArray[ e ] = costs.get( e );
+			}
+
+			final int[] assignment = new int[ nRows ];
+			final double cost = solver.solve( nRows, nCols, rowStart, colArray, costArray, assignment );
+
+			// The assignment must be valid and have the returned cost.
+			final boolean[] taken = new boolean[ nCols ];
+			double sum = 0d;
+			for ( int i = 0; i < nRows; i++ )
+			{
+				final int j = assignment[ i ];
+				if ( j < 0 )
+				{
+					continue;
+				}
+				assertTrue( "Column " + j + " is assigned twice.", !taken[ j ] );
+				assertTrue( "Row " + i + " is assigned to column " + j + " without an arc.", !Double.isNaN( matrix[ i ][ j ] ) );
+				taken[ j ] = true;
+				sum += matrix[ i ][ j ];
+			}
+			assertEquals( sum, cost, 1e-9 );
+			assertEquals( "Non-optimal flow for trial " + trial + ".", bruteForce( matrix, 0, new boolean[ nCols ] ), cost, 1e-9 );
+		}
+	}
+
+	@Test
+	public final void testTracksWithMissedDetections()
+	{
+		final Random ran = new Random( 11l );
+		final int nParticles = 40;
+		final int nFrames = 30;
+		final SpotCollection spots = new SpotCollection();
+		final List< List< Spot > > tracks = new ArrayList< List< Spot > >();
+		for ( int p = 0; p < nParticles; p++ )
+		{
+			// Particles move on parallel lines, 20 apart.
+			final List< Spot > track = new ArrayList< Spot >();
+			for ( int t = 0; t < nFrames; t++ )
+			{
+				// Missed detections, never two in a row, never at the start.
+				if ( t > 0 && t < nFrames - 1 && ran.nextDouble() < 0.15 && track.get( track.size() - 1 ).getFeature( Spot.FRAME ).intValue() == t - 1 )
+				{
+					continue;
+				}
+				final Spot spot = new Spot( 20d * p + ran.nextGaussian(), 2d * t, 0d, 1d, 1d );
+				spots.add( spot, Integer.valueOf( t ) );
+				track.add( spot );
+			}
+			tracks.add( track );
+		}
+		spots.setVisible( true );
+
+		final MinCostFlowTracker tracker = new MinCostFlowTracker( spots, 8d, 10d, 2, 1.05d, 5 );
+		tracker.setNumThreads( 2 );
+		assertTrue( tracker.getErrorMessage(), tracker.checkInput() && tracker.process() );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = tracker.getResult();
+
+		int nLinks = 0;
+		for ( final List< Spot > track : tracks )
+		{
+			for ( int i = 0; i < track.size() - 1; i++ )
+			{
+				final Spot source = track.get( i );
+				final Spot target = track.get( i + 1 );
+				final DefaultWeightedEdge edge = graph.getEdge( source, target );
+				assertNotNull( "Missing link between " + source + " and " + target + ".", edge );
+				assertEquals( source.squareDistanceTo( target ), graph.getEdgeWeight( edge ), 1e-9 );
+				nLinks++;
+			}
+		}
+		assertEquals( "Unexpected number of links.", nLinks, graph.edgeSet().size() );
+	}
+
+	@Test
+	public final void testInvalidWindowSize()
+	{
+		final MinCostFlowTracker tracker = new MinCostFlowTracker( new SpotCollection(), 8d, 10d, 3, 1.05d, 3 );
+		assertTrue( !tracker.checkInput() );
+	}
+
+	/**
+	 * Returns the min cost over all the valid assignments of the rows from
+	 * the specified one.
+	 */
+	private static double bruteForce( final double[][] matrix, final int row, final boolean[] taken )
+	{
+		if ( row == matrix.length ) { return 0d; }
+		double best = bruteForce( matrix, row + 1, taken );
+		for ( int j = 0; j < taken.length; j++ )
+		{
+			if ( taken[ j ] || Double.isNaN( matrix[ row ][ j ] ) )
+			{
+				continue;
+			}
+			taken[ j ] = true;
+			best = Math.min( best, matrix[ row ][ j ] + bruteForce( matrix, row + 1, taken ) );
+			taken[ j ] = false;
+		}
+		return best;
+	}
+}
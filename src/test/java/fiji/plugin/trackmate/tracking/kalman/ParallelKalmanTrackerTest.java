@@ -0,0 +1,112 @@
+package fiji.plugin.trackmate.tracking.kalman;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+
+public class ParallelKalmanTrackerTest
+{
+
+	@Test
+	public final void testFilterBankMatchesKalmanFilter()
+	{
+		final Random ran = new Random( 1l );
+		final int nFilters = 50;
+		final CVMKalmanFilter[] expected = new CVMKalmanFilter[ nFilters ];
+		final CVMKalmanFilterBank bank = new CVMKalmanFilterBank( 5d, 4d, 0.3d );
+		for ( int i = 0; i < nFilters; i++ )
+		{
+			final double[] X0 = new double[ 6 ];
+			for ( int d = 0; d < 6; d++ )
+			{
+				X0[ d ] = 100 * ran.nextDouble();
+			}
+			expected[ i ] = new CVMKalmanFilter( X0, Double.MIN_NORMAL, 5d, 4d, 0.3d );
+			assertEquals( i, bank.add( X0, Double.MIN_NORMAL ) );
+		}
+
+		for ( int t = 0; t < 30; t++ )
+		{
+			bank.predict( 0, nFilters );
+			for ( int i = 0; i < nFilters; i++ )
+			{
+				final double[] Xp = expected[ i ].predict();
+				for ( int d = 0; d < 3; d++ )
+				{
+					assertEquals( "Unexpected prediction for filter " + i + " at step " + t + ".", Xp[ d ], bank.getPredictedPosition( i, d ), 0d );
+				}
+
+				// Occlusion once in a while.
+				final double[] Xm = ran.nextDouble() < 0.2 ? null : new double[] { Xp[ 0 ] + ran.nextGaussian(), Xp[ 1 ] + ran.nextGaussian(), Xp[ 2 ] + ran.nextGaussian() };
+				expected[ i ].update( Xm );
+				bank.update( i, Xm );
+				assertEquals( expected[ i ].getNOcclusion(), bank.getNOcclusion( i ) );
+			}
+		}
+	}
+
+	@Test
+	public final void testSameTracksAsKalmanTracker()
+	{
+		final Random ran = new Random( 5l );
+		final int nParticles = 2500;
+		final int nFrames = 12;
+		final double size = 500;
+		final double speed = 4;
+
+		final SpotCollection spots = new SpotCollection();
+		final double[][] pos = new double[ nParticles ][ 2 ];
+		final double[][] vel = new double[ nParticles ][ 2 ];
+		for ( int p = 0; p < nParticles; p++ )
+		{
+			pos[ p ][ 0 ] = ran.nextDouble() * size;
+			pos[ p ][ 1 ] = ran.nextDouble() * size;
+			final double theta = 2 * Math.PI * ran.nextDouble();
+			vel[ p ][ 0 ] = speed * Math.cos( theta );
+			vel[ p ][ 1 ] = speed * Math.sin( theta );
+		}
+		for ( int t = 0; t < nFrames; t++ )
+		{
+			for ( int p = 0; p < nParticles; p++ )
+			{
+				// Missed detections.
+				if ( t > 0 && ran.nextDouble() < 0.05 )
+				{
+					continue;
+				}
+				spots.add( new Spot( pos[ p ][ 0 ], pos[ p ][ 1 ], 0d, 1d, 1d ), Integer.valueOf( t ) );
+				pos[ p ][ 0 ] += vel[ p ][ 0 ] + 0.5 * ran.nextGaussian();
+				pos[ p ][ 1 ] += vel[ p ][ 1 ] + 0.5 * ran.nextGaussian();
+			}
+		}
+		spots.setVisible( true );
+
+		final KalmanTracker sequential = new KalmanTracker( spots, 6d, 2, 8d );
+		assertTrue( sequential.getErrorMessage(), sequential.checkInput() && sequential.process() );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > expected = sequential.getResult();
+
+		final ParallelKalmanTracker parallel = new ParallelKalmanTracker( spots, 6d, 2, 8d );
+		parallel.setNumThreads( 4 );
+		assertTrue( parallel.getErrorMessage(), parallel.checkInput() && parallel.process() );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > actual = parallel.getResult();
+
+		assertEquals( "Unexpected number of links.", expected.edgeSet().size(), actual.edgeSet().size() );
+		for ( final DefaultWeightedEdge edge : expected.edgeSet() )
+		{
+			final Spot source = expected.getEdgeSource( edge );
+			final Spot target = expected.getEdgeTarget( edge );
+			final DefaultWeightedEdge other = actual.getEdge( source, target );
+			assertNotNull( "Missing link between " + source + " and " + target + ".", other );
+			assertEquals( expected.getEdgeWeight( edge ), actual.getEdgeWeight( other ), 0d );
+		}
+	}
+}
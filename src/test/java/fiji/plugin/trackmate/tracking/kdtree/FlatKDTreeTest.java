@@ -0,0 +1,73 @@
+package fiji.plugin.trackmate.tracking.kdtree;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FlatKDTreeTest
+{
+
+	/**
+	 * Greedily links random sources to their nearest non-visited target, and
+	 * compares with a brute-force search.
+	 */
+	@Test
+	public final void testSearchNonVisited()
+	{
+		final Random ran = new Random( 3l );
+		final FlatKDTree tree = new FlatKDTree();
+		// Several builds of various sizes, to exercise the buffer reuse. 2D
+		// and 3D points.
+		final int[] sizes = new int[] { 1, 2, 10, 500, 37, 2000 };
+		for ( int s = 0; s < sizes.length; s++ )
+		{
+			final int n = sizes[ s ];
+			final boolean is3D = s % 2 == 0;
+			final double[] targets = new double[ 3 * n ];
+			for ( int i = 0; i < targets.length; i++ )
+			{
+				targets[ i ] = ( i % 3 == 2 && !is3D ) ? 0d : 100 * ran.nextDouble();
+			}
+			tree.build( targets, n );
+			assertEquals( n, tree.size() );
+
+			final boolean[] visited = new boolean[ n ];
+			for ( int q = 0; q < n + 5; q++ )
+			{
+				final double x = 100 * ran.nextDouble();
+				final double y = 100 * ran.nextDouble();
+				final double z = is3D ? 100 * ran.nextDouble() : 0d;
+
+				int expected = -1;
+				double expectedDist = Double.MAX_VALUE;
+				for ( int i = 0; i < n; i++ )
+				{
+					final double dx = targets[ 3 * i ] - x;
+					final double dy = targets[ 3 * i + 1 ] - y;
+					final double dz = targets[ 3 * i + 2 ] - z;
+					final double d = dx * dx + dy * dy + dz * dz;
+					if ( !visited[ i ] && d < expectedDist )
+					{
+						expected = i;
+						expectedDist = d;
+					}
+				}
+
+				final int actual = tree.search( x, y, z );
+				assertEquals( "Unexpected nearest neighbor for query " + q + " over " + n + " points.", expected, actual );
+				if ( expected >= 0 )
+				{
+					assertEquals( expectedDist, tree.getSquareDistance(), 0d );
+					// Only link one query in two.
+					if ( q % 2 == 0 )
+					{
+						tree.setVisited();
+						visited[ actual ] = true;
+					}
+				}
+			}
+		}
+	}
+}
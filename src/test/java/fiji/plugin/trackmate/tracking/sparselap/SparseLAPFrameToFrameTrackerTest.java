@@ -0,0 +1,121 @@
+package fiji.plugin.trackmate.tracking.sparselap;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MOTION_MODEL;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_PREDICTION_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.MOTION_MODEL_CONSTANT_VELOCITY;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.MOTION_MODEL_NONE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+
+public class SparseLAPFrameToFrameTrackerTest
+{
+
+	private static final int N_PAIRS = 20;
+
+	private static final int N_FRAMES = 13;
+
+	/** No spot in this frame, so the linker has to jump over it. */
+	private static final int MISSING_FRAME = 9;
+
+	private static final double SPEED = 8d;
+
+	private static final double NOISE = 0.1d;
+
+	private SpotCollection spots;
+
+	/** The index of the mover each spot belongs to. */
+	private Map< Spot, Integer > movers;
+
+	/**
+	 * Pairs of movers that go in opposite directions on two close lanes, and
+	 * cross each other between frames 5 and 6. Positions are measured with a
+	 * small noise.
+	 */
+	@Before
+	public void setUp()
+	{
+		final Random ran = new Random( 3l );
+		spots = new SpotCollection();
+		movers = new HashMap< Spot, Integer >();
+		for ( int t = 0; t < N_FRAMES; t++ )
+		{
+			if ( t == MISSING_FRAME )
+			{
+				continue;
+			}
+			for ( int k = 0; k < N_PAIRS; k++ )
+			{
+				final Spot a = new Spot( -44d + SPEED * t + NOISE * ran.nextGaussian(), 100d * k + NOISE * ran.nextGaussian(), 0d, 1d, 1d );
+				final Spot b = new Spot( 44d - SPEED * t + NOISE * ran.nextGaussian(), 100d * k + 1d + NOISE * ran.nextGaussian(), 0d, 1d, 1d );
+				spots.add( a, Integer.valueOf( t ) );
+				spots.add( b, Integer.valueOf( t ) );
+				movers.put( a, Integer.valueOf( 2 * k ) );
+				movers.put( b, Integer.valueOf( 2 * k + 1 ) );
+			}
+		}
+		spots.setVisible( true );
+	}
+
+	@Test
+	public final void testConstantVelocityLinksCrossingMovers()
+	{
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = track( MOTION_MODEL_CONSTANT_VELOCITY );
+
+		// All the frame pairs, including the one across the missing frame.
+		final int nFramePairs = N_FRAMES - 2;
+		assertEquals( "Unexpected number of links.", 2 * N_PAIRS * nFramePairs, graph.edgeSet().size() );
+		assertEquals( "Some links connect different movers.", 0, countWrongLinks( graph ) );
+	}
+
+	@Test
+	public final void testNoMotionModelSwapsCrossingMovers()
+	{
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = track( MOTION_MODEL_NONE );
+
+		// Movers cannot be followed over the missing frame,
+		assertEquals( "Unexpected number of links.", 2 * N_PAIRS * ( N_FRAMES - 3 ), graph.edgeSet().size() );
+		// and they are swapped where they cross.
+		assertTrue( "Movers should have been swapped where they cross.", countWrongLinks( graph ) >= 2 * N_PAIRS );
+	}
+
+	private SimpleWeightedGraph< Spot, DefaultWeightedEdge > track( final String motionModel )
+	{
+		final Map< String, Object > settings = new HashMap< String, Object >();
+		settings.put( KEY_LINKING_MAX_DISTANCE, Double.valueOf( 12d ) );
+		settings.put( KEY_ALTERNATIVE_LINKING_COST_FACTOR, Double.valueOf( 1.05d ) );
+		settings.put( KEY_LINKING_MOTION_MODEL, motionModel );
+		settings.put( KEY_LINKING_PREDICTION_MAX_DISTANCE, Double.valueOf( 2d ) );
+
+		final SparseLAPFrameToFrameTracker tracker = new SparseLAPFrameToFrameTracker( spots, settings );
+		tracker.setNumThreads( 2 );
+		assertTrue( tracker.getErrorMessage(), tracker.checkInput() && tracker.process() );
+		return tracker.getResult();
+	}
+
+	private int countWrongLinks( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph )
+	{
+		int nWrong = 0;
+		for ( final DefaultWeightedEdge edge : graph.edgeSet() )
+		{
+			if ( !movers.get( graph.getEdgeSource( edge ) ).equals( movers.get( graph.getEdgeTarget( edge ) ) ) )
+			{
+				nWrong++;
+			}
+		}
+		return nWrong;
+	}
+}
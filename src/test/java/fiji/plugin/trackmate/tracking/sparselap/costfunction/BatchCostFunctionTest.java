@@ -0,0 +1,93 @@
+package fiji.plugin.trackmate.tracking.sparselap.costfunction;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+
+public class BatchCostFunctionTest
+{
+
+	private static final String FEATURE_1 = "FEATURE_1";
+
+	private static final String FEATURE_2 = "FEATURE_2";
+
+	@Test
+	public final void testSquareDistCostFunction()
+	{
+		checkSameCosts( new SquareDistCostFunction() );
+	}
+
+	@Test
+	public final void testFeaturePenaltyCostFunction()
+	{
+		final Map< String, Double > featurePenalties = new HashMap< String, Double >();
+		featurePenalties.put( FEATURE_1, 1d );
+		featurePenalties.put( FEATURE_2, 0.3d );
+		featurePenalties.put( Spot.QUALITY, 2d );
+		checkSameCosts( new FeaturePenaltyCostFunction( featurePenalties ) );
+	}
+
+	@Test
+	public final void testMotionPredictionCostFunction()
+	{
+		final List< Spot > spots = createSpots();
+		// Half of the sources have a prediction.
+		final Map< Spot, double[] > predictions = new HashMap< Spot, double[] >();
+		for ( int i = 0; i < spots.size(); i += 2 )
+		{
+			final Spot spot = spots.get( i );
+			predictions.put( spot, new double[] { spot.getDoublePosition( 0 ) + 20d, spot.getDoublePosition( 1 ) - 10d, spot.getDoublePosition( 2 ) } );
+		}
+		final Map< String, Double > featurePenalties = new HashMap< String, Double >();
+		featurePenalties.put( FEATURE_1, 1d );
+		checkSameCosts( new MotionPredictionCostFunction( predictions, featurePenalties, 1000d, 100d ), spots );
+		checkSameCosts( new MotionPredictionCostFunction( predictions, null, 1000d, 100d ), spots );
+	}
+
+	private static void checkSameCosts( final BatchCostFunction costFunction )
+	{
+		checkSameCosts( costFunction, createSpots() );
+	}
+
+	private static List< Spot > createSpots()
+	{
+		final Random ran = new Random( 3l );
+		final List< Spot > spots = new ArrayList< Spot >();
+		for ( int i = 0; i < 200; i++ )
+		{
+			final Spot spot = new Spot( 100 * ran.nextDouble(), 100 * ran.nextDouble(), 10 * ran.nextDouble(), 1d, ran.nextDouble() );
+			spot.putFeature( FEATURE_1, 1 + ran.nextDouble() );
+			// Opposite values, and NaN values.
+			spot.putFeature( FEATURE_2, ( i % 7 == 0 ) ? Double.NaN : ( ( i % 2 == 0 ) ? 1d : -1d ) );
+			spots.add( spot );
+		}
+		return spots;
+	}
+
+	private static void checkSameCosts( final BatchCostFunction costFunction, final List< Spot > spots )
+	{
+		final SpotColumns columns = costFunction.resolve( spots );
+		assertEquals( spots.size(), columns.size() );
+
+		final int from = 13;
+		final int to = 171;
+		final double[] costs = new double[ to - from ];
+		for ( final Spot source : spots )
+		{
+			costFunction.linkingCosts( source, columns, from, to, costs );
+			for ( int i = from; i < to; i++ )
+			{
+				final double expected = costFunction.linkingCost( source, spots.get( i ) );
+				assertEquals( "Unexpected cost for target " + i + ".", expected, costs[ i - from ], 0d );
+			}
+		}
+	}
+}
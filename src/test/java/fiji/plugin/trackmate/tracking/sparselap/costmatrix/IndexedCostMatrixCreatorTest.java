@@ -0,0 +1,100 @@
+package fiji.plugin.trackmate.tracking.sparselap.costmatrix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
+
+public class IndexedCostMatrixCreatorTest
+{
+
+	@Test
+	public final void testSameAsDefaultCreator()
+	{
+		final Random ran = new Random( 7l );
+		final List< Spot > sources = createSpots( 300 );
+		final List< Spot > targets = createSpots( 250 );
+		// Not in their natural order.
+		Collections.shuffle( sources, ran );
+		Collections.shuffle( targets, ran );
+
+		// Random links, in random order, leaving some spots without link.
+		final List< int[] > links = new ArrayList< int[] >();
+		for ( int i = 0; i < sources.size(); i++ )
+		{
+			for ( int j = 0; j < targets.size(); j++ )
+			{
+				if ( ran.nextDouble() < 0.01 )
+				{
+					links.add( new int[] { i, j } );
+				}
+			}
+		}
+		Collections.shuffle( links, ran );
+
+		final IndexedCostMatrixCreator< Spot, Spot > creator = new IndexedCostMatrixCreator< Spot, Spot >( sources, targets, 1.05, 0.9 );
+		final List< Spot > rows = new ArrayList< Spot >( links.size() );
+		final List< Spot > cols = new ArrayList< Spot >( links.size() );
+		final double[] costs = new double[ links.size() ];
+		for ( int k = 0; k < links.size(); k++ )
+		{
+			final int[] link = links.get( k );
+			costs[ k ] = ran.nextDouble();
+			creator.add( link[ 0 ], link[ 1 ], costs[ k ] );
+			rows.add( sources.get( link[ 0 ] ) );
+			cols.add( targets.get( link[ 1 ] ) );
+		}
+		final DefaultCostMatrixCreator< Spot, Spot > reference = new DefaultCostMatrixCreator< Spot, Spot >( rows, cols, costs, 1.05, 0.9 );
+
+		assertTrue( creator.getErrorMessage(), creator.checkInput() && creator.process() );
+		assertTrue( reference.getErrorMessage(), reference.checkInput() && reference.process() );
+
+		assertEquals( reference.getSourceList(), creator.getSourceList() );
+		assertEquals( reference.getTargetList(), creator.getTargetList() );
+		assertEquals( reference.getAlternativeCostForSource( null ), creator.getAlternativeCost(), 0d );
+
+		final SparseCostMatrix expected = reference.getResult();
+		final SparseCostMatrix actual = creator.getResult();
+		assertEquals( expected.getNRows(), actual.getNRows() );
+		assertEquals( expected.getNCols(), actual.getNCols() );
+		for ( int i = 0; i < expected.getNRows(); i++ )
+		{
+			for ( int j = 0; j < expected.getNCols(); j++ )
+			{
+				assertEquals( "Bad value at row " + i + ", col " + j + ".", expected.get( i, j, Double.POSITIVE_INFINITY ), actual.get( i, j, Double.POSITIVE_INFINITY ), 0d );
+			}
+		}
+	}
+
+	@Test
+	public final void testDuplicateLink()
+	{
+		final List< Spot > sources = createSpots( 3 );
+		final List< Spot > targets = createSpots( 3 );
+		final IndexedCostMatrixCreator< Spot, Spot > creator = new IndexedCostMatrixCreator< Spot, Spot >( sources, targets, 1.05, 1d );
+		creator.add( 0, 1, 1d );
+		creator.add( 2, 2, 1d );
+		creator.add( 0, 1, 2d );
+		assertTrue( creator.checkInput() );
+		assertFalse( "Duplicate links should not be accepted.", creator.process() );
+	}
+
+	private static List< Spot > createSpots( final int n )
+	{
+		final List< Spot > spots = new ArrayList< Spot >( n );
+		for ( int i = 0; i < n; i++ )
+		{
+			spots.add( new Spot( i, i, 0d, 1d, -1d ) );
+		}
+		return spots;
+	}
+}
@@ -0,0 +1,161 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AuctionLAPTest
+{
+
+	private int seed;
+
+	private int pseudoRandom()
+	{
+		return seed = 3170425 * seed + 132102;
+	}
+
+	private double pseudoRandom( final double min, final double max )
+	{
+		final int random = pseudoRandom() & 0x7fffffff;
+		return min + random * ( ( max - min ) / Integer.MAX_VALUE );
+	}
+
+	/**
+	 * Generates a square sparse cost matrix with integer costs, that always
+	 * admits a complete assignment thanks to its diagonal.
+	 */
+	private SparseCostMatrix generateSparseMatrix( final int n, final int nPerRow, final Random ran )
+	{
+		return generateSparseMatrix( n, nPerRow, 0d, 1000, ran );
+	}
+
+	/**
+	 * Generates a square sparse cost matrix with costs equal to the specified
+	 * offset plus an integer in <code>[1, maxCost[</code>.
+	 */
+	private SparseCostMatrix generateSparseMatrix( final int n, final int nPerRow, final double offset, final int maxCost, final Random ran )
+	{
+		final double[] cc = new double[ n * nPerRow ];
+		final int[] kk = new int[ n * nPerRow ];
+		final int[] number = new int[ n ];
+		int index = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			final int[] cols = new int[ nPerRow ];
+			cols[ 0 ] = i;
+			for ( int k = 1; k < nPerRow; k++ )
+			{
+				cols[ k ] = ran.nextInt( n );
+			}
+			Arrays.sort( cols );
+			int previous = -1;
+			for ( final int c : cols )
+			{
+				if ( c == previous )
+				{
+					continue;
+				}
+				kk[ index ] = c;
+				cc[ index ] = offset + Math.floor( pseudoRandom( 1, maxCost ) );
+				index++;
+				number[ i ]++;
+				previous = c;
+			}
+		}
+		return new SparseCostMatrix( Arrays.copyOf( cc, index ), Arrays.copyOf( kk, index ), number, n );
+	}
+
+	private void compareToLAPJV( final SparseCostMatrix cm, final int nThreads )
+	{
+		compareToLAPJV( cm, nThreads, AuctionLAP.DEFAULT_RELATIVE_TOLERANCE );
+	}
+
+	private void compareToLAPJV( final SparseCostMatrix cm, final int nThreads, final double relativeTolerance )
+	{
+		final LAPJV jv = new LAPJV( cm );
+		assertTrue( jv.getErrorMessage(), jv.checkInput() && jv.process() );
+		final double expected = cm.totalAssignmentCost( jv.getResult() );
+
+		final AuctionLAP auction = new AuctionLAP( cm );
+		auction.setNumThreads( nThreads );
+		auction.setRelativeTolerance( relativeTolerance );
+		assertTrue( auction.getErrorMessage(), auction.checkInput() && auction.process() );
+
+		// Complete assignment.
+		final int[] result = auction.getResult();
+		final boolean[] taken = new boolean[ cm.getNCols() ];
+		for ( int i = 0; i < result.length; i++ )
+		{
+			assertTrue( "Row " + i + " is not assigned.", result[ i ] >= 0 );
+			assertTrue( "Column " + result[ i ] + " is assigned twice.", !taken[ result[ i ] ] );
+			taken[ result[ i ] ] = true;
+		}
+
+		// Integer costs: the gap bound makes the solution optimal.
+		assertTrue( "Optimality gap too large: " + auction.getReport(), auction.getOptimalityGap() < 1 );
+		assertEquals( expected, cm.totalAssignmentCost( result ), 1e-6 );
+		assertEquals( expected, auction.getPrimalCost(), 1e-6 );
+		// Up to round-off errors on the sum of large costs.
+		assertTrue( auction.getDualBound() <= expected + 1e-6 + 1e-12 * Math.abs( expected ) );
+	}
+
+	@Test
+	public final void testSmallProblems()
+	{
+		final Random ran = new Random( 1l );
+		seed = ran.nextInt();
+		for ( int trial = 0; trial < 20; trial++ )
+		{
+			compareToLAPJV( generateSparseMatrix( 10 + 20 * trial, 5, ran ), 1 );
+		}
+	}
+
+	@Test
+	public final void testParallelBidding()
+	{
+		// Too large for LAPJV to be quick: compare to the sequential auction.
+		final Random ran = new Random( 2l );
+		seed = ran.nextInt();
+		final SparseCostMatrix cm = generateSparseMatrix( 20000, 6, ran );
+
+		final AuctionLAP sequential = new AuctionLAP( cm );
+		sequential.setNumThreads( 1 );
+		assertTrue( sequential.getErrorMessage(), sequential.checkInput() && sequential.process() );
+
+		final AuctionLAP parallel = new AuctionLAP( cm );
+		parallel.setNumThreads( 4 );
+		assertTrue( parallel.getErrorMessage(), parallel.checkInput() && parallel.process() );
+
+		assertTrue( "Optimality gap too large: " + sequential.getReport(), sequential.getOptimalityGap() < 1 );
+		assertTrue( "Optimality gap too large: " + parallel.getReport(), parallel.getOptimalityGap() < 1 );
+		assertEquals( sequential.getPrimalCost(), parallel.getPrimalCost(), 1e-6 );
+		assertEquals( parallel.getPrimalCost(), cm.totalAssignmentCost( parallel.getResult() ), 1e-6 );
+	}
+
+	/**
+	 * Large costs with many ties and a tolerance so small that ε falls below
+	 * the resolution of the prices: bids must still raise them.
+	 */
+	@Test( timeout = 60000 )
+	public final void testTiesBelowPriceResolution()
+	{
+		final Random ran = new Random( 3l );
+		seed = ran.nextInt();
+		compareToLAPJV( generateSparseMatrix( 5000, 6, 1e6, 4, ran ), 4, 1e-12 );
+	}
+
+	@Test
+	public final void testEmptyRow()
+	{
+		// Row 0 has no entry: it cannot be assigned.
+		final SparseCostMatrix cm = new SparseCostMatrix( new double[] { 1, 2 }, new int[] { 0, 1 }, new int[] { 0, 2 }, 2 );
+		final AuctionLAP auction = new AuctionLAP( cm );
+		assertFalse( "An empty row should have been rejected.", auction.checkInput() );
+		assertTrue( auction.getErrorMessage(), auction.getErrorMessage().contains( "Row 0" ) );
+	}
+}
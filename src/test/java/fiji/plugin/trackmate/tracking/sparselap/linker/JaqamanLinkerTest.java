@@ -0,0 +1,167 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.DefaultCostMatrixCreator;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class JaqamanLinkerTest
+{
+
+	private int seed;
+
+	private int pseudoRandom()
+	{
+		return seed = 3170425 * seed + 132102;
+	}
+
+	private double pseudoRandom( final double min, final double max )
+	{
+		final int random = pseudoRandom() & 0x7fffffff;
+		return min + random * ( ( max - min ) / Integer.MAX_VALUE );
+	}
+
+	/**
+	 * Generates a problem made of many independent clusters of sources and
+	 * targets, with random links within each cluster.
+	 */
+	private DefaultCostMatrixCreator< String, String > generateProblem( final int nClusters, final int clusterSize )
+	{
+		final List< String > rows = new ArrayList< String >();
+		final List< String > cols = new ArrayList< String >();
+		final List< Double > costs = new ArrayList< Double >();
+		final Set< String > links = new HashSet< String >();
+		for ( int c = 0; c < nClusters; c++ )
+		{
+			final int nSources = 1 + ( pseudoRandom() & 0x7fffffff ) % clusterSize;
+			final int nTargets = 1 + ( pseudoRandom() & 0x7fffffff ) % clusterSize;
+			final int nLinks = Math.max( nSources, nTargets ) * 2;
+			links.clear();
+			for ( int l = 0; l < nLinks; l++ )
+			{
+				// Make sure all sources and targets have at least one link.
+				final int s = l < nSources ? l : ( pseudoRandom() & 0x7fffffff ) % nSources;
+				final int t = l < nTargets ? l : ( pseudoRandom() & 0x7fffffff ) % nTargets;
+				final String source = String.format( "S%05d-%03d", c, s );
+				final String target = String.format( "T%05d-%03d", c, t );
+				if ( !links.add( source + target ) )
+				{
+					continue;
+				}
+				rows.add( source );
+				cols.add( target );
+				costs.add( Double.valueOf( pseudoRandom( 1, 100 ) ) );
+			}
+		}
+		final double[] cc = new double[ costs.size() ];
+		for ( int i = 0; i < cc.length; i++ )
+		{
+			cc[ i ] = costs.get( i ).doubleValue();
+		}
+		return new DefaultCostMatrixCreator< String, String >( rows, cols, cc, 1.05, 0.5 );
+	}
+
+	@Test
+	public final void testDecompositionGivesSameResult()
+	{
+		seed = 17;
+		for ( int trial = 0; trial < 5; trial++ )
+		{
+			final int nClusters = 50 + 200 * trial;
+			final DefaultCostMatrixCreator< String, String > creator = generateProblem( nClusters, 6 );
+
+			final JaqamanLinker< String, String > whole = new JaqamanLinker< String, String >( creator, Logger.VOID_LOGGER );
+			assertTrue( whole.getErrorMessage(), whole.checkInput() && whole.process() );
+
+			final JaqamanLinker< String, String > decomposed = new JaqamanLinker< String, String >( creator, Logger.VOID_LOGGER );
+			decomposed.setDecomposition( true );
+			decomposed.setNumThreads( 4 );
+			assertTrue( decomposed.getErrorMessage(), decomposed.checkInput() && decomposed.process() );
+
+			final Map< String, String > expected = whole.getResult();
+			final Map< String, String > actual = decomposed.getResult();
+			assertEquals( "Unexpected number of assignments.", expected.size(), actual.size() );
+			for ( final String source : expected.keySet() )
+			{
+				assertEquals( "Unexpected assignment for " + source + ".", expected.get( source ), actual.get( source ) );
+				assertEquals( "Unexpected cost for " + source + ".", whole.getAssignmentCosts().get( source ).doubleValue(), decomposed.getAssignmentCosts().get( source ).doubleValue(), 1e-9 );
+			}
+		}
+	}
+
+	@Test
+	public final void testSingleComponent()
+	{
+		seed = 3;
+		final DefaultCostMatrixCreator< String, String > creator = generateProblem( 1, 40 );
+
+		final JaqamanLinker< String, String > whole = new JaqamanLinker< String, String >( creator, Logger.VOID_LOGGER );
+		assertTrue( whole.getErrorMessage(), whole.checkInput() && whole.process() );
+
+		final JaqamanLinker< String, String > decomposed = new JaqamanLinker< String, String >( creator, Logger.VOID_LOGGER );
+		decomposed.setDecomposition( true );
+		assertTrue( decomposed.getErrorMessage(), decomposed.checkInput() && decomposed.process() );
+
+		assertEquals( whole.getResult(), decomposed.getResult() );
+	}
+
+	@Test
+	public final void testAuctionSolver()
+	{
+		seed = 29;
+		final DefaultCostMatrixCreator< String, String > creator = generateProblem( 500, 8 );
+
+		final JaqamanLinker< String, String > jv = new JaqamanLinker< String, String >( creator, Logger.VOID_LOGGER );
+		assertTrue( jv.getErrorMessage(), jv.checkInput() && jv.process() );
+		assertEquals( 0d, jv.getOptimalityGap(), 0d );
+
+		for ( final boolean decomposition : new boolean[] { false, true } )
+		{
+			final JaqamanLinker< String, String > auction = new JaqamanLinker< String, String >( creator, Logger.VOID_LOGGER );
+			auction.setAuction( true );
+			auction.setDecomposition( decomposition );
+			assertTrue( auction.getErrorMessage(), auction.checkInput() && auction.process() );
+
+			final double expected = totalCost( jv );
+			assertEquals( expected, totalCost( auction ), 1e-6 * expected + auction.getOptimalityGap() );
+			assertTrue( auction.getOptimalityGap() < 1e-6 * expected );
+		}
+	}
+
+	@Test
+	public final void testEmptyColumns()
+	{
+		/*
+		 * 3 sources, 6 targets. Targets 0, 3 and 5 cannot be reached: source 0
+		 * links to targets 1 and 2, sources 1 and 2 to target 4.
+		 */
+		final int[] number = new int[] { 2, 1, 1 };
+		final int[] start = new int[] { 0, 2, 3 };
+		final int[] kk = new int[] { 1, 2, 4, 4 };
+		final int nCols = 6;
+		final int[] label = new int[ number.length + nCols ];
+		final int nComponents = JaqamanLinker.labelComponents( start, number, kk, nCols, label );
+
+		assertEquals( "Each lone target should form its own component.", 5, nComponents );
+		assertArrayEquals( new int[] { 0, 1, 1, 2, 0, 0, 3, 1, 4 }, label );
+	}
+
+	private static double totalCost( final JaqamanLinker< String, String > linker )
+	{
+		double total = 0;
+		for ( final Double cost : linker.getAssignmentCosts().values() )
+		{
+			total += cost.doubleValue();
+		}
+		return total;
+	}
+}
@@ -2,8 +2,13 @@ package fiji.plugin.trackmate.tracking.sparselap.linker;
 
 import static org.junit.Assert.assertEquals;
 import fiji.plugin.trackmate.tracking.oldlap.hungarian.JonkerVolgenantAlgorithm;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.DefaultCostMatrixCreator;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 public class LAPJVBenchmark
@@ -241,11 +246,195 @@ public class LAPJVBenchmark
 		}
 	}
 
+	/**
+	 * Generates the positions of particles moving in a 2D box over several
+	 * frames, as <code>[frame][particle][x or y]</code>.
+	 */
+	private double[][][] generateTrajectories( final int nParticles, final int nFrames, final double size, final double diffusion, final double speed, final Random ran )
+	{
+		final double[][][] pos = new double[ nFrames ][ nParticles ][ 2 ];
+		final double[][] velocities = new double[ nParticles ][ 2 ];
+		for ( int p = 0; p < nParticles; p++ )
+		{
+			pos[ 0 ][ p ][ 0 ] = ran.nextDouble() * size;
+			pos[ 0 ][ p ][ 1 ] = ran.nextDouble() * size;
+			final double theta = 2 * Math.PI * ran.nextDouble();
+			velocities[ p ][ 0 ] = speed * Math.cos( theta );
+			velocities[ p ][ 1 ] = speed * Math.sin( theta );
+		}
+		for ( int t = 1; t < nFrames; t++ )
+		{
+			for ( int p = 0; p < nParticles; p++ )
+			{
+				pos[ t ][ p ][ 0 ] = pos[ t - 1 ][ p ][ 0 ] + velocities[ p ][ 0 ] + diffusion * ran.nextGaussian();
+				pos[ t ][ p ][ 1 ] = pos[ t - 1 ][ p ][ 1 ] + velocities[ p ][ 1 ] + diffusion * ran.nextGaussian();
+			}
+		}
+		return pos;
+	}
+
+	private DefaultCostMatrixCreator< Integer, Integer > frameToFrameCosts( final double[][] sources, final double[][] targets, final double maxDist )
+	{
+		final List< Integer > rows = new ArrayList< Integer >();
+		final List< Integer > cols = new ArrayList< Integer >();
+		final List< Double > costs = new ArrayList< Double >();
+		for ( int i = 0; i < sources.length; i++ )
+		{
+			for ( int j = 0; j < targets.length; j++ )
+			{
+				final double dx = sources[ i ][ 0 ] - targets[ j ][ 0 ];
+				final double dy = sources[ i ][ 1 ] - targets[ j ][ 1 ];
+				final double d2 = dx * dx + dy * dy;
+				if ( d2 < maxDist * maxDist )
+				{
+					rows.add( Integer.valueOf( i ) );
+					cols.add( Integer.valueOf( j ) );
+					costs.add( Double.valueOf( d2 ) );
+				}
+			}
+		}
+		final double[] cc = new double[ costs.size() ];
+		for ( int k = 0; k < cc.length; k++ )
+		{
+			cc[ k ] = costs.get( k ).doubleValue();
+		}
+		return new DefaultCostMatrixCreator< Integer, Integer >( rows, cols, cc, 1.05, 1d );
+	}
+
+	private static long allocatedBytes()
+	{
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if ( bean instanceof com.sun.management.ThreadMXBean ) { return ( ( com.sun.management.ThreadMXBean ) bean ).getThreadAllocatedBytes( Thread.currentThread().getId() ); }
+		return 0;
+	}
+
+	/**
+	 * Compares, over the frame pairs of synthetic Brownian and directed
+	 * motions, a cold solve with new arrays, a solve reusing a workspace, and a
+	 * solve reusing a workspace and warm-started from the target duals of the
+	 * previous frame pair. Particles keep their index from frame to frame, so
+	 * the duals of the previous targets apply to the current ones.
+	 */
+	public final void timeFramePairs()
+	{
+		final int nParticles = 2000;
+		final int nFrames = 50;
+		final double size = 1000;
+		final double maxDist = 15;
+		final Random ran = new Random( 1l );
+
+		final String[] names = new String[] { "Brownian", "Directed" };
+		final double[][][][] motions = new double[][][][] {
+				generateTrajectories( nParticles, nFrames, size, 3, 0, ran ),
+				generateTrajectories( nParticles, nFrames, size, 1, 5, ran ) };
+
+		System.out.println( "" + nParticles + " particles, " + nFrames + " frames." );
+		System.out.println( "Motion		Mode		Time/pair(ms)	Allocated/pair(kB)	Total cost" );
+		for ( int m = 0; m < motions.length; m++ )
+		{
+			final double[][][] pos = motions[ m ];
+			final List< DefaultCostMatrixCreator< Integer, Integer > > creators = new ArrayList< DefaultCostMatrixCreator< Integer, Integer > >( nFrames - 1 );
+			for ( int t = 0; t < nFrames - 1; t++ )
+			{
+				creators.add( frameToFrameCosts( pos[ t ], pos[ t + 1 ], maxDist ) );
+			}
+
+			final String[] modes = new String[] { "Cold", "Workspace", "Warm" };
+			final double[] totalCosts = new double[ modes.length ];
+			for ( int mode = 0; mode < modes.length; mode++ )
+			{
+				final LAPJVWorkspace workspace = mode > 0 ? new LAPJVWorkspace() : null;
+				Map< Integer, Double > duals = null;
+				double totalCost = 0;
+				final long a0 = allocatedBytes();
+				final long start = System.nanoTime();
+				for ( final DefaultCostMatrixCreator< Integer, Integer > creator : creators )
+				{
+					final JaqamanLinker< Integer, Integer > linker = new JaqamanLinker< Integer, Integer >( creator );
+					linker.setWorkspace( workspace );
+					if ( mode == 2 )
+					{
+						linker.setInitialTargetDuals( duals );
+					}
+					linker.checkInput();
+					linker.process();
+					duals = linker.getTargetDuals();
+					for ( final Double cost : linker.getAssignmentCosts().values() )
+					{
+						totalCost += cost.doubleValue();
+					}
+				}
+				final long end = System.nanoTime();
+				final long a1 = allocatedBytes();
+				totalCosts[ mode ] = totalCost;
+				System.out.println( String.format( "%s	%s		%.2f		%.1f			%.1f", names[ m ], modes[ mode ], ( end - start ) / 1e6 / creators.size(), ( a1 - a0 ) / 1024d / creators.size(), totalCost ) );
+			}
+
+			// TEST
+			assertEquals( totalCosts[ 0 ], totalCosts[ 1 ], 1e-6 * totalCosts[ 0 ] );
+			assertEquals( totalCosts[ 0 ], totalCosts[ 2 ], 1e-6 * totalCosts[ 0 ] );
+		}
+	}
+
+	/**
+	 * Compares the Jonker-Volgenant and the auction solvers on the frame-pair
+	 * problems of increasingly crowded synthetic Brownian motions, and reports
+	 * the optimality gap guaranteed by the auction. No recorded cost matrices
+	 * are shipped with the sources, so the problems are synthetic ones.
+	 */
+	public final void timeAuction()
+	{
+		final double size = 1000;
+		final double maxDist = 15;
+		final Random ran = new Random( 1l );
+		final int[] nParticles = new int[] { 1000, 2000, 5000 };
+
+		System.out.println( "Particles	Solver		Time(ms)	Total cost		Gap" );
+		for ( final int n : nParticles )
+		{
+			final double[][][] pos = generateTrajectories( n, 2, size, 3, 0, ran );
+			final DefaultCostMatrixCreator< Integer, Integer > creator = frameToFrameCosts( pos[ 0 ], pos[ 1 ], maxDist );
+
+			final String[] solvers = new String[] { "JV", "Auction" };
+			final double[] totalCosts = new double[ solvers.length ];
+			for ( int s = 0; s < solvers.length; s++ )
+			{
+				final JaqamanLinker< Integer, Integer > linker = new JaqamanLinker< Integer, Integer >( creator );
+				linker.setAuction( s == 1 );
+				final long start = System.nanoTime();
+				linker.checkInput();
+				linker.process();
+				final long end = System.nanoTime();
+				for ( final Double cost : linker.getAssignmentCosts().values() )
+				{
+					totalCosts[ s ] += cost.doubleValue();
+				}
+				System.out.println( String.format( "%d		%s		%.1f		%.3f		%.3g", n, solvers[ s ], ( end - start ) / 1e6, totalCosts[ s ], linker.getOptimalityGap() ) );
+			}
+
+			// TEST
+			assertEquals( totalCosts[ 0 ], totalCosts[ 1 ], 1e-6 * totalCosts[ 0 ] );
+		}
+	}
 
 	public static void main( final String[] args )
 	{
 		final LAPJVBenchmark benchmark = new LAPJVBenchmark();
 
+		System.out.println( "---------------" );
+		System.out.println( "Auction solver" );
+		System.out.println( "---------------" );
+		System.out.println();
+		benchmark.timeAuction();
+		System.out.println();
+
+		System.out.println( "-----------------" );
+		System.out.println( "Frame-pair solves" );
+		System.out.println( "-----------------" );
+		System.out.println();
+		benchmark.timeFramePairs();
+		System.out.println();
+
 		System.out.println( "---------------" );
 		System.out.println( "Varying density" );
 		System.out.println( "---------------" );
@@ -194,4 +194,51 @@ public class LAPJVTest
 		}
 
 	}
-}
\ No newline at end of file
+
+	@Test
+	public final void testWorkspaceAndWarmStart()
+	{
+		seed = new Random().nextInt();
+		final LAPJVWorkspace workspace = new LAPJVWorkspace();
+		final int[] sizes = new int[] { 50, 20, 80, 80, 10 };
+		double[] previousDuals = null;
+		double[][] weights = generateMatrix( sizes[ 0 ] );
+		for ( int s = 0; s < sizes.length; s++ )
+		{
+			final int n = sizes[ s ];
+			if ( weights.length != n )
+			{
+				weights = generateMatrix( n );
+			}
+			else
+			{
+				// Similar problem: perturb the previous one.
+				for ( int i = 0; i < n; i++ )
+				{
+					for ( int j = 0; j < n; j++ )
+					{
+						weights[ i ][ j ] = Math.max( 1, weights[ i ][ j ] + Math.floor( pseudoRandom( -5, 5 ) ) );
+					}
+				}
+			}
+			final SparseCostMatrix cm = generateSparseMatrix( weights );
+
+			// Reference.
+			final LAPJV cold = new LAPJV( cm );
+			cold.process();
+
+			// Same algorithm, reused arrays.
+			final LAPJV reused = new LAPJV( cm, workspace );
+			reused.process();
+			assertEquals( Arrays.toString( cold.getResult() ), Arrays.toString( reused.getResult() ) );
+
+			// Warm start from the duals of the previous problem.
+			final LAPJV warm = new LAPJV( cm, workspace );
+			warm.setInitialColumnDuals( previousDuals );
+			warm.process();
+			assertEquals( cm.totalAssignmentCost( cold.getResult() ), cm.totalAssignmentCost( warm.getResult() ), 1e-5 );
+
+			previousDuals = warm.getColumnDuals();
+		}
+	}
+}
@@ -1,7 +1,10 @@
 package fiji.plugin.trackmate.tracking.sparselap.linker;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 
 public class SparseCostMatrixTest
@@ -57,4 +60,35 @@ public class SparseCostMatrixTest
 		}
 	}
 
+	@Test
+	public void testAugment()
+	{
+		final int[] kk = new int[] { 0, 3, 2, 1, 3, 3, 0, 3 };
+		final double[] cc = new double[] { 0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 0.7, 0.8 };
+		final int[] number = new int[] { 2, 1, 2, 1, 2 };
+		final SparseCostMatrix A = new SparseCostMatrix( cc, kk, number, 4 );
+		final double[] rowCosts = new double[] { 1.1, 1.2, 1.3, 1.4, 1.5 };
+		final double[] colCosts = new double[] { 2.1, 2.2, 2.3, 2.4 };
+		final SparseCostMatrix C = A.augment( rowCosts, colCosts, 0.05 );
+
+		// Same as the 4-block concatenation.
+		final int[] diagRows = new int[] { 0, 1, 2, 3, 4 };
+		final int[] diagCols = new int[] { 0, 1, 2, 3 };
+		final int[] ones5 = new int[ 5 ];
+		Arrays.fill( ones5, 1 );
+		final int[] ones4 = new int[ 4 ];
+		Arrays.fill( ones4, 1 );
+		final SparseCostMatrix tr = new SparseCostMatrix( rowCosts, diagRows, ones5, 5 );
+		final SparseCostMatrix bl = new SparseCostMatrix( colCosts, diagCols, ones4, 4 );
+		final SparseCostMatrix br = A.transpose();
+		br.fillWith( 0.05 );
+		final SparseCostMatrix expected = ( A.hcat( tr ) ).vcat( bl.hcat( br ) );
+
+		assertEquals( "Bad number of rows.", expected.nRows, C.nRows );
+		assertEquals( "Bad number of cols.", expected.nCols, C.nCols );
+		assertArrayEquals( "Bad row sizes.", expected.number, C.number );
+		assertArrayEquals( "Bad column indices.", expected.kk, C.kk );
+		assertArrayEquals( "Bad costs.", expected.cc, C.cc, 0d );
+	}
+
 }
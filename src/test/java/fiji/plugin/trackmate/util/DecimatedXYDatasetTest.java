@@ -0,0 +1,159 @@
+package fiji.plugin.trackmate.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DecimatedXYDatasetTest
+{
+
+	private static final int N = 1000;
+
+	private DecimatedXYDataset dataset;
+
+	/**
+	 * One point at each integer X from 0 to 999, added in random order. Each
+	 * block of 100 consecutive X values holds a permutation of 0 to 99, offset
+	 * by 1000 times the block index.
+	 */
+	@Before
+	public void setUp()
+	{
+		final int[] order = new int[ N ];
+		for ( int i = 0; i < N; i++ )
+		{
+			order[ i ] = i;
+		}
+		final Random ran = new Random( 1l );
+		for ( int i = N - 1; i > 0; i-- )
+		{
+			final int j = ran.nextInt( i + 1 );
+			final int t = order[ i ];
+			order[ i ] = order[ j ];
+			order[ j ] = t;
+		}
+
+		final double[] x = new double[ N + 1 ];
+		final double[] y = new double[ N + 1 ];
+		for ( int i = 0; i < N; i++ )
+		{
+			x[ i ] = order[ i ];
+			y[ i ] = y( order[ i ] );
+		}
+		// A point with no X value, that must be skipped.
+		x[ N ] = Double.NaN;
+		y[ N ] = -1e6;
+
+		dataset = new DecimatedXYDataset();
+		dataset.addSeries( "Series", x, y, N + 1 );
+	}
+
+	@Test
+	public final void testMinMaxMeanPerColumn()
+	{
+		// Bins of 99.9: each holds 100 consecutive X values.
+		dataset.setVisibleRange( 0d, N - 1d, 10 );
+		assertTrue( dataset.isDecimated() );
+		assertEquals( 3 * 10, dataset.getItemCount( 0 ) );
+		for ( int b = 0; b < 10; b++ )
+		{
+			assertBin( 3 * b, 100 * b, 100 * b + 99 );
+			// Values are exact for this data.
+			assertEquals( 1000d * b, dataset.getYValue( 0, 3 * b ), 0d );
+			assertEquals( 1000d * b + 99d, dataset.getYValue( 0, 3 * b + 1 ), 0d );
+			assertEquals( 1000d * b + 49.5, dataset.getYValue( 0, 3 * b + 2 ), 0d );
+		}
+
+		// The raw data is kept, sorted by X.
+		assertEquals( N, dataset.getRawItemCount( 0 ) );
+		for ( int i = 0; i < N; i++ )
+		{
+			assertEquals( i, dataset.getRawXValue( 0, i ), 0d );
+			assertEquals( y( i ), dataset.getRawYValue( 0, i ), 0d );
+		}
+	}
+
+	@Test
+	public final void testNarrowedDomain()
+	{
+		dataset.setVisibleRange( 0d, N - 1d, 10 );
+
+		// Bins of 49.75 over [250, 449]: each holds 50 consecutive X values.
+		dataset.setVisibleRange( 250d, 449d, 4 );
+		assertTrue( dataset.isDecimated() );
+		assertEquals( 3 * 4, dataset.getItemCount( 0 ) );
+		for ( int b = 0; b < 4; b++ )
+		{
+			assertBin( 3 * b, 250 + 50 * b, 250 + 50 * b + 49 );
+		}
+
+		// The bounds are those of the whole data.
+		assertEquals( 0d, dataset.getDomainLowerBound( false ), 0d );
+		assertEquals( N - 1d, dataset.getDomainUpperBound( false ), 0d );
+		assertEquals( 0d, dataset.getRangeLowerBound( false ), 0d );
+		assertEquals( 9099d, dataset.getRangeUpperBound( false ), 0d );
+	}
+
+	@Test
+	public final void testRawBelowThreshold()
+	{
+		final int columns = 4;
+		final int threshold = DecimatedXYDataset.RAW_POINTS_PER_COLUMN * columns;
+
+		// Exactly at the threshold: raw points.
+		dataset.setVisibleRange( 250d, 250d + threshold - 1, columns );
+		assertFalse( dataset.isDecimated() );
+		assertEquals( threshold, dataset.getItemCount( 0 ) );
+		for ( int i = 0; i < threshold; i++ )
+		{
+			assertEquals( 250d + i, dataset.getXValue( 0, i ), 0d );
+			assertEquals( y( 250 + i ), dataset.getYValue( 0, i ), 0d );
+		}
+
+		// One point more: decimated.
+		dataset.setVisibleRange( 250d, 250d + threshold, columns );
+		assertTrue( dataset.isDecimated() );
+
+		// Back to raw points.
+		dataset.setVisibleRange( 250d, 250d + threshold - 1, columns );
+		assertFalse( dataset.isDecimated() );
+		assertEquals( threshold, dataset.getItemCount( 0 ) );
+	}
+
+	/**
+	 * Checks the three points exposed for a bin against the raw values with X
+	 * between the specified bounds, inclusive.
+	 */
+	private void assertBin( final int item, final int fromX, final int toX )
+	{
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		double sumX = 0;
+		double sumY = 0;
+		for ( int i = fromX; i <= toX; i++ )
+		{
+			min = Math.min( min, y( i ) );
+			max = Math.max( max, y( i ) );
+			sumX += i;
+			sumY += y( i );
+		}
+		final int count = toX - fromX + 1;
+		for ( int k = 0; k < 3; k++ )
+		{
+			assertEquals( "X of item " + ( item + k ) + ".", sumX / count, dataset.getXValue( 0, item + k ), 1e-9 );
+		}
+		assertEquals( "Min of bin [" + fromX + ", " + toX + "].", min, dataset.getYValue( 0, item ), 0d );
+		assertEquals( "Max of bin [" + fromX + ", " + toX + "].", max, dataset.getYValue( 0, item + 1 ), 0d );
+		assertEquals( "Mean of bin [" + fromX + ", " + toX + "].", sumY / count, dataset.getYValue( 0, item + 2 ), 1e-9 );
+	}
+
+	private static double y( final int x )
+	{
+		return 1000 * ( x / 100 ) + ( 37 * x ) % 100;
+	}
+}
@@ -0,0 +1,89 @@
+package fiji.plugin.trackmate.visualization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class FeatureRangeTest
+{
+
+	@Test
+	public final void testSameRangeAsScan()
+	{
+		final Random ran = new Random( 7l );
+		final FeatureRange< Integer > range = new FeatureRange< Integer >();
+		final Map< Integer, Double > expected = new HashMap< Integer, Double >();
+		for ( int step = 0; step < 20000; step++ )
+		{
+			// Few distinct values, so that the min and max are often shared.
+			final Integer obj = Integer.valueOf( ran.nextInt( 500 ) );
+			final int action = ran.nextInt( 10 );
+			if ( action < 6 )
+			{
+				final Double value = Double.valueOf( ran.nextInt( 50 ) );
+				range.put( obj, value );
+				expected.put( obj, value );
+			}
+			else if ( action < 9 )
+			{
+				range.remove( obj );
+				expected.remove( obj );
+			}
+			else
+			{
+				range.put( obj, ran.nextBoolean() ? null : Double.valueOf( Double.NaN ) );
+				expected.remove( obj );
+			}
+
+			if ( step % 1000 == 999 )
+			{
+				// Keep about half of the objects.
+				final Set< Integer > kept = new HashSet< Integer >();
+				for ( int i = 0; i < 500; i += 2 )
+				{
+					kept.add( Integer.valueOf( i ) );
+				}
+				range.retainAll( kept );
+				expected.keySet().retainAll( kept );
+			}
+
+			assertRange( expected, range );
+		}
+
+		range.clear();
+		expected.clear();
+		assertRange( expected, range );
+	}
+
+	@Test
+	public final void testNullObject()
+	{
+		final FeatureRange< Integer > range = new FeatureRange< Integer >();
+		range.put( Integer.valueOf( 1 ), Double.valueOf( 2d ) );
+		range.put( null, Double.valueOf( 5d ) );
+		range.remove( null );
+		assertEquals( 2d, range.getMin(), 0d );
+		assertEquals( 2d, range.getMax(), 0d );
+	}
+
+	private static void assertRange( final Map< Integer, Double > expected, final FeatureRange< Integer > range )
+	{
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for ( final Double value : expected.values() )
+		{
+			min = Math.min( min, value.doubleValue() );
+			max = Math.max( max, value.doubleValue() );
+		}
+		assertEquals( expected.isEmpty(), range.isEmpty() );
+		assertTrue( "Expected min " + min + " but got " + range.getMin() + ".", min == range.getMin() );
+		assertTrue( "Expected max " + max + " but got " + range.getMax() + ".", max == range.getMax() );
+	}
+}
@@ -0,0 +1,76 @@
+package fiji.plugin.trackmate.visualization;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.track.TrackDurationAnalyzer;
+
+public class PerTrackFeatureColorGeneratorTest
+{
+
+	private static final String FEATURE = TrackDurationAnalyzer.TRACK_DURATION;
+
+	/**
+	 * An edge modified then removed in the same transaction is reported with a
+	 * <code>null</code> track ID in the updated tracks.
+	 */
+	@Test
+	public void testModifyThenRemoveEdge()
+	{
+		final Model model = new Model();
+		// Give every track a feature value, as the track analyzers would.
+		model.addModelChangeListener( new ModelChangeListener()
+		{
+			@Override
+			public void modelChanged( final ModelChangeEvent event )
+			{
+				if ( event.getEventID() == ModelChangeEvent.MODEL_MODIFIED )
+				{
+					for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+					{
+						model.getFeatureModel().putTrackFeature( trackID, FEATURE, Double.valueOf( model.getTrackModel().trackSpots( trackID ).size() ) );
+					}
+				}
+			}
+		} );
+
+		final Spot s1 = new Spot( 0d, 0d, 0d, 1d, -1d, "S1" );
+		final Spot s2 = new Spot( 0d, 0d, 0d, 1d, -1d, "S2" );
+		final Spot s3 = new Spot( 0d, 0d, 0d, 1d, -1d, "S3" );
+		model.beginUpdate();
+		try
+		{
+			model.addSpotTo( s1, 0 );
+			model.addSpotTo( s2, 1 );
+			model.addSpotTo( s3, 2 );
+			model.addEdge( s1, s2, 1d );
+			model.addEdge( s2, s3, 1d );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		final PerTrackFeatureColorGenerator generator = new PerTrackFeatureColorGenerator( model, FEATURE );
+		assertEquals( 3d, generator.getMax(), 0d );
+
+		model.beginUpdate();
+		try
+		{
+			model.setEdgeWeight( model.getTrackModel().getEdge( s1, s2 ), 2d );
+			model.removeEdge( s1, s2 );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		assertEquals( 2d, generator.getMin(), 0d );
+		assertEquals( 2d, generator.getMax(), 0d );
+	}
+}